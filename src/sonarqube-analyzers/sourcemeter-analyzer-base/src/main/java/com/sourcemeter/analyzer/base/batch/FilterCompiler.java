@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the filter file of the toolchain from the list of the analysed
+ * source files.
+ *
+ * The filter file is a list of include (+) and exclude (-) regular
+ * expressions, where the last matching rule decides. Instead of one include
+ * rule per source file, a directory is included with a single prefix rule
+ * whenever that needs fewer rules than listing its files, and the
+ * other entries of such a directory are excluded one by one. For every
+ * directory on the paths of the source files the cheaper of the two choices
+ * is taken, so the compiled filter never has more rules than the plain
+ * per-file list. Only the directories containing source files are listed,
+ * the rest of the project tree is not scanned.
+ */
+final class FilterCompiler {
+
+    private final boolean windows;
+    private final Directory root = new Directory("/");
+    private int fileCount = 0;
+
+    /**
+     * @param windows Whether the paths of the filter are Windows paths.
+     */
+    FilterCompiler(boolean windows) {
+        this.windows = windows;
+    }
+
+    /**
+     * Adds a source file to be included by the filter.
+     *
+     * @param path Normalized URI path of the source file.
+     */
+    void addFile(String path) {
+        Directory directory = this.root;
+        int start = 1;
+        int end = path.indexOf('/', start);
+        while (end != -1) {
+            String name = path.substring(start, end);
+            if (!name.isEmpty()) {
+                Directory child = directory.directories.get(name);
+                if (child == null) {
+                    child = new Directory(directory.path + name + "/");
+                    directory.directories.put(name, child);
+                }
+                directory = child;
+            }
+            start = end + 1;
+            end = path.indexOf('/', start);
+        }
+        if (directory.files.add(path.substring(start))) {
+            this.fileCount++;
+        }
+    }
+
+    /**
+     * @return Number of the added source files.
+     */
+    int getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * Writes the compiled filter.
+     *
+     * @param writer The filter is written into this writer.
+     * @param excludeAllRule First rule of the filter, which excludes everything.
+     * @return Number of the written rules.
+     * @throws IOException If the filter cannot be written.
+     */
+    int write(Writer writer, String excludeAllRule) throws IOException {
+        writer.write(excludeAllRule);
+        writer.write("\n");
+
+        // The directories above the deepest common one are never worth
+        // including, they have nothing else to include.
+        Directory top = this.root;
+        while (top.files.isEmpty() && top.directories.size() == 1) {
+            top = top.directories.values().iterator().next();
+        }
+        if (top.files.isEmpty() && top.directories.isEmpty()) {
+            return 1;
+        }
+
+        computeCosts(top);
+        return 1 + write(writer, top, false);
+    }
+
+    /**
+     * Computes the number of rules needed below the directory in both
+     * states in post order.
+     */
+    private void computeCosts(Directory directory) {
+        for (Directory child : directory.directories.values()) {
+            computeCosts(child);
+        }
+
+        String[] entries = toFile(directory.path).list();
+        if (entries != null) {
+            Arrays.sort(entries);
+            directory.entries = entries;
+        }
+
+        long costIncluded = 0;
+        long costExcluded = directory.files.size();
+        for (Directory child : directory.directories.values()) {
+            costIncluded += child.getCost(true);
+            costExcluded += child.getCost(false);
+        }
+
+        if (directory.entries == null) {
+            // An unlistable directory cannot be included safely.
+            directory.costIncluded = Long.MAX_VALUE / 4;
+        } else {
+            for (String entry : directory.entries) {
+                if (!directory.files.contains(entry) && !directory.directories.containsKey(entry)) {
+                    costIncluded++;
+                }
+            }
+            directory.costIncluded = costIncluded;
+        }
+        directory.costExcluded = costExcluded;
+    }
+
+    private int write(Writer writer, Directory directory, boolean inherited) throws IOException {
+        int rules = 0;
+        boolean included = directory.isIncluded(inherited);
+        if (included != inherited) {
+            writeRule(writer, included, directory.path, true);
+            rules++;
+        }
+
+        if (included) {
+            for (String entry : directory.entries) {
+                if (!directory.files.contains(entry) && !directory.directories.containsKey(entry)) {
+                    String path = directory.path + entry;
+                    boolean isDirectory = toFile(path).isDirectory();
+                    writeRule(writer, false, isDirectory ? path + "/" : path, isDirectory);
+                    rules++;
+                }
+            }
+        } else {
+            for (String file : directory.files) {
+                writeRule(writer, true, directory.path + file, false);
+                rules++;
+            }
+        }
+
+        for (Directory child : directory.directories.values()) {
+            rules += write(writer, child, included);
+        }
+        return rules;
+    }
+
+    private File toFile(String path) {
+        return new File(this.windows ? path.substring(1) : path);
+    }
+
+    private void writeRule(Writer writer, boolean include, String path, boolean isDirectory) throws IOException {
+        writer.write(include ? "+" : "-");
+        if (this.windows) {
+            writer.write(path.substring(1).replace("/", "\\\\"));
+        } else {
+            writer.write(Pattern.quote(path));
+        }
+        if (isDirectory) {
+            writer.write(".*");
+        }
+        writer.write("\n");
+    }
+
+    private static final class Directory {
+
+        private final String path;
+        private final Map<String, Directory> directories = new TreeMap<String, Directory>();
+        private final Set<String> files = new TreeSet<String>();
+        private String[] entries = null;
+        private long costIncluded = 0;
+        private long costExcluded = 0;
+
+        Directory(String path) {
+            this.path = path;
+        }
+
+        boolean isIncluded(boolean inherited) {
+            long stay = inherited ? this.costIncluded : this.costExcluded;
+            long change = 1 + (inherited ? this.costExcluded : this.costIncluded);
+            return change < stay ? !inherited : inherited;
+        }
+
+        long getCost(boolean inherited) {
+            long stay = inherited ? this.costIncluded : this.costExcluded;
+            long change = 1 + (inherited ? this.costExcluded : this.costIncluded);
+            return Math.min(stay, change);
+        }
+    }
+}
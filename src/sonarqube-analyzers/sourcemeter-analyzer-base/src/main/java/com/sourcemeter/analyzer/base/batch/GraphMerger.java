@@ -0,0 +1,527 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
+
+import graphlib.Attribute;
+import graphlib.AttributeString;
+import graphlib.Edge;
+import graphlib.Graph;
+import graphlib.GraphlibException;
+import graphlib.Node;
+import graphlib.Visitor;
+import graphlib.VisitorException;
+
+/**
+ * Merges the nodes of a partial result graph into the nodes of a base result
+ * graph. The analysed nodes of the partial graph replace the ones of the base
+ * graph, and the other nodes of the base graph are kept. The analysed nodes
+ * are the nodes of the analysed files, or the nodes of the analysed types.
+ *
+ * The nodes of the two graphs are matched by their UID, or by their type,
+ * long name and path as in
+ * {@link com.sourcemeter.analyzer.base.helper.DeltaUpload}. The nodes of the
+ * deleted files are dropped. The nodes of the files outside the project and
+ * the nodes without source file (for example, packages and directories) are
+ * kept from the base graph, and added from the partial graph if they are new.
+ *
+ * The aggregated results (metrics and warnings) of the nodes kept from the
+ * base graph are out of date if the node contains a replaced or dropped node
+ * along the logical, physical or component tree. Such nodes are counted, see
+ * countAggregates, so the caller can analyse every file instead.
+ */
+final class GraphMerger {
+
+    // Edges from a node to the nodes it contains.
+    private static final Set<String> CONTAINS_EDGES = new HashSet<String>();
+    // Edges from a node to the node containing it.
+    private static final Set<String> MEMBER_EDGES = new HashSet<String>();
+
+    static {
+        CONTAINS_EDGES.add("LogicalTree");
+        CONTAINS_EDGES.add("PhysicalTree");
+        CONTAINS_EDGES.add("ComponentTree");
+        MEMBER_EDGES.add("Component");
+    }
+
+    private final Set<String> analysedPaths;
+    private final Set<Node.NodeType> analysedTypes;
+    private final Set<String> currentPaths;
+
+    private final Map<String, Node> merged = new LinkedHashMap<String, Node>();
+
+    // Only used for creating edges.
+    private final Graph edgeFactory = new Graph();
+
+    // UIDs of the merged graph by the UIDs of the partial graph, null values mark skipped nodes.
+    private final Map<String, String> partialUids = new HashMap<String, String>();
+    private final Set<String> previousUids = new HashSet<String>();
+    private final Set<String> usedUids = new HashSet<String>();
+    private final Set<String> addedUids = new HashSet<String>();
+    private final Set<String> edges = new HashSet<String>();
+    private final Map<String, Boolean> deletedPaths = new HashMap<String, Boolean>();
+
+    private GraphMerger(Set<String> analysedPaths, Set<Node.NodeType> analysedTypes, Set<String> currentPaths) {
+        this.analysedPaths = analysedPaths;
+        this.analysedTypes = analysedTypes;
+        this.currentPaths = currentPaths;
+    }
+
+    /**
+     * Creates a merger replacing the nodes of the analysed files.
+     *
+     * @param analysedPaths Normalized paths of the analysed files.
+     * @param currentPaths Normalized paths of every source file.
+     * @return The merger.
+     */
+    static GraphMerger ofFiles(Set<String> analysedPaths, Set<String> currentPaths) {
+        return new GraphMerger(analysedPaths, null, currentPaths);
+    }
+
+    /**
+     * Creates a merger replacing the nodes of the analysed types.
+     *
+     * @param analysedTypes Types of the analysed nodes.
+     * @param currentPaths Normalized paths of every source file.
+     * @return The merger.
+     */
+    static GraphMerger ofTypes(Set<Node.NodeType> analysedTypes, Set<String> currentPaths) {
+        return new GraphMerger(null, analysedTypes, currentPaths);
+    }
+
+    /**
+     * Merges the nodes of the partial graph into the nodes of the base graph.
+     * A merger can be used only once.
+     *
+     * @param previousNodes Nodes of the base graph.
+     * @param partialNodes Nodes of the partial graph.
+     * @return Number of the nodes taken from the base and from the partial
+     *         graph, and the number of the nodes kept from the base graph
+     *         with out of date aggregated results.
+     */
+    int[] merge(List<Node> previousNodes, List<Node> partialNodes) {
+        Set<String> dropped = new HashSet<String>();
+        for (Node node : previousNodes) {
+            previousUids.add(node.getUID());
+            String path = getPath(node);
+            if (isAnalysed(node, path) || (path != null && isDeleted(path))) {
+                dropped.add(node.getUID());
+            }
+        }
+        // A clone class of the previous graph is dropped with any of its instances.
+        for (Node node : previousNodes) {
+            if (node.getType() == GraphSymbols.NODE_CLONE_CLASS && hasTarget(node, dropped)) {
+                dropped.add(node.getUID());
+            }
+        }
+
+        Map<String, String> previousKeys = new HashMap<String, String>();
+        Map<String, String> droppedKeys = new HashMap<String, String>();
+        Map<String, String> keptKeys = new HashMap<String, String>();
+        int previousCount = 0;
+        for (Node node : previousNodes) {
+            String key = getKey(node, getPath(node));
+            previousKeys.put(node.getUID(), key);
+            if (dropped.contains(node.getUID())) {
+                putUnique(droppedKeys, key, node.getUID());
+            } else {
+                putUnique(keptKeys, key, node.getUID());
+                addNode(node.getUID(), node);
+                previousCount++;
+            }
+        }
+
+        Set<String> analysedUids = new HashSet<String>();
+        for (Node node : partialNodes) {
+            if (isAnalysed(node, getPath(node))) {
+                analysedUids.add(node.getUID());
+            }
+        }
+
+        for (Node node : partialNodes) {
+            String path = getPath(node);
+            String key = getKey(node, path);
+            String uid;
+            boolean sameNode = key.equals(previousKeys.get(node.getUID()));
+            if (analysedUids.contains(node.getUID())) {
+                uid = sameNode ? node.getUID() : droppedKeys.get(key);
+                if (uid == null || usedUids.contains(uid)) {
+                    uid = newUid(node.getUID());
+                }
+            } else if (node.getType() == GraphSymbols.NODE_CLONE_CLASS) {
+                // The clone classes of the files not analysed now are kept from the previous graph.
+                if (!hasTarget(node, analysedUids)) {
+                    partialUids.put(node.getUID(), null);
+                    continue;
+                }
+                uid = newUid(node.getUID());
+            } else {
+                // The previous graph holds the results of the files not analysed now,
+                // the nodes of files outside the project are added if they are new.
+                uid = sameNode && !dropped.contains(node.getUID()) ? node.getUID() : keptKeys.get(key);
+                if (uid != null || (path != null && currentPaths.contains(path))) {
+                    partialUids.put(node.getUID(), uid);
+                    continue;
+                }
+                uid = newUid(node.getUID());
+            }
+            partialUids.put(node.getUID(), uid);
+            addNode(uid, node);
+            addedUids.add(uid);
+        }
+
+        for (Node node : previousNodes) {
+            if (dropped.contains(node.getUID())) {
+                continue;
+            }
+            for (Edge edge : node.getOutEdges()) {
+                String target = edge.getToNode().getUID();
+                if (!dropped.contains(target) || usedUids.contains(target)) {
+                    addEdge(node.getUID(), target, edge);
+                }
+            }
+        }
+        for (Node node : partialNodes) {
+            String from = partialUids.get(node.getUID());
+            if (from == null) {
+                continue;
+            }
+            for (Edge edge : node.getOutEdges()) {
+                String to = partialUids.get(edge.getToNode().getUID());
+                // Edges between nodes kept from the previous graph are already merged.
+                if (to != null && (addedUids.contains(from) || addedUids.contains(to))) {
+                    addEdge(from, to, edge);
+                }
+            }
+        }
+
+        // The containers of the dropped nodes are changed, as well as the added nodes.
+        Set<String> changed = new HashSet<String>(addedUids);
+        Map<String, List<String>> previousContainers = getContainers(previousNodes);
+        for (String uid : dropped) {
+            List<String> containers = previousContainers.get(uid);
+            if (containers != null) {
+                changed.addAll(containers);
+            }
+        }
+        return new int[] { previousCount, addedUids.size(),
+                countAggregates(changed, addedUids, getContainers(this.merged.values()), this.merged) };
+    }
+
+    /**
+     * Counts the nodes of the base graph with aggregated results, which
+     * would be out of date after the merge: the nodes containing a node of
+     * an analysed or a deleted file. If a file is new, the nodes containing
+     * its nodes are not known, so every node with aggregated results
+     * containing other nodes is counted.
+     *
+     * @param previousNodes Nodes of the base graph.
+     * @return Number of the nodes with aggregated results to be changed.
+     */
+    int countAggregates(List<Node> previousNodes) {
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        Set<String> changed = new HashSet<String>();
+        Set<String> previousPaths = new HashSet<String>();
+        for (Node node : previousNodes) {
+            nodes.put(node.getUID(), node);
+            String path = getPath(node);
+            if (path != null) {
+                previousPaths.add(path);
+            }
+            if (isAnalysed(node, path) || (path != null && isDeleted(path))) {
+                changed.add(node.getUID());
+            }
+        }
+
+        Map<String, List<String>> containers = getContainers(previousNodes);
+        Set<String> replaced = new HashSet<String>(changed);
+        if (this.analysedPaths != null && !previousPaths.containsAll(this.analysedPaths)) {
+            changed.addAll(containers.keySet());
+        }
+        return countAggregates(changed, replaced, containers, nodes);
+    }
+
+    /**
+     * Counts the nodes with aggregated results, which contain a changed node.
+     *
+     * @param changed UIDs of the changed nodes.
+     * @param replaced UIDs of the nodes replaced with their new results, they are not counted.
+     * @param containers UIDs of the containers by the UIDs of the nodes.
+     * @param nodes Nodes by their UIDs.
+     * @return Number of the nodes with out of date aggregated results.
+     */
+    private static int countAggregates(Set<String> changed, Set<String> replaced,
+            Map<String, List<String>> containers, Map<String, Node> nodes) {
+        Set<String> visited = new HashSet<String>(changed);
+        List<String> queue = new ArrayList<String>(changed);
+        int count = 0;
+        for (int i = 0; i < queue.size(); i++) {
+            String uid = queue.get(i);
+            Node node = nodes.get(uid);
+            if (node != null && !replaced.contains(uid) && hasAggregates(node)) {
+                count++;
+            }
+            List<String> uids = containers.get(uid);
+            if (uids != null) {
+                for (String container : uids) {
+                    if (visited.add(container)) {
+                        queue.add(container);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the UIDs of the nodes containing a node along the tree edges
+     * and the component edges.
+     *
+     * @return UIDs of the containers by the UIDs of the nodes.
+     */
+    private static Map<String, List<String>> getContainers(Collection<Node> nodes) {
+        Map<String, List<String>> containers = new HashMap<String, List<String>>();
+        for (Node node : nodes) {
+            for (Edge edge : node.getOutEdges()) {
+                String type = edge.getType().getType();
+                if (CONTAINS_EDGES.contains(type)) {
+                    addContainer(containers, edge.getToNode().getUID(), node.getUID());
+                } else if (MEMBER_EDGES.contains(type)) {
+                    addContainer(containers, node.getUID(), edge.getToNode().getUID());
+                }
+            }
+        }
+        return containers;
+    }
+
+    private static void addContainer(Map<String, List<String>> containers, String uid, String container) {
+        List<String> uids = containers.get(uid);
+        if (uids == null) {
+            uids = new ArrayList<String>();
+            containers.put(uid, uids);
+        }
+        uids.add(container);
+    }
+
+    private static boolean hasAggregates(Node node) {
+        for (Attribute attribute : node.getAttributes()) {
+            String context = attribute.getContext();
+            if (GraphSymbols.is(context, GraphSymbols.CONTEXT_METRIC)
+                    || GraphSymbols.is(context, GraphSymbols.CONTEXT_METRIC_GROUP)
+                    || GraphSymbols.is(context, GraphSymbols.CONTEXT_WARNING)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the nodes of the merged graph, their edges are created between
+     * the merged nodes.
+     *
+     * @return Nodes of the merged graph.
+     */
+    Collection<Node> getNodes() {
+        return this.merged.values();
+    }
+
+    /**
+     * Reads every node of a graph.
+     *
+     * @param graph The graph.
+     * @return Nodes of the graph.
+     * @throws GraphlibException If the graph cannot be visited.
+     */
+    static List<Node> readNodes(GraphReader graph) throws GraphlibException {
+        final List<Node> nodes = new ArrayList<Node>(graph.getNumberOfNodes());
+        try {
+            graph.visitNodes(new Visitor() {
+
+                @Override
+                public void preNodeVisitorFunc(Node node) {
+                    nodes.add(node);
+                }
+
+                @Override
+                public void postNodeVisitorFunc(Node node) {
+                }
+
+                @Override
+                public void edgeVisitorFunc(Edge edge) {
+                }
+            });
+        } catch (VisitorException e) {
+            throw new GraphlibException(e);
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the normalized path of the source file the node belongs to:
+     * the long name of a file node, or the path of the first position of
+     * other nodes.
+     *
+     * @return The path, or null if the node does not belong to a file.
+     */
+    static String getPath(Node node) {
+        String path = null;
+        if (node.getType() == GraphSymbols.NODE_FILE) {
+            for (Attribute attribute : node.getAttributes()) {
+                if (GraphSymbols.is(attribute.getName(), GraphSymbols.LONG_NAME)) {
+                    path = ((AttributeString) attribute).getValue();
+                    break;
+                }
+            }
+        } else {
+            for (Attribute attribute : node.getAttributes()) {
+                if (GraphSymbols.is(attribute.getName(), GraphSymbols.POSITION)) {
+                    for (Attribute child : attribute.getAttributes()) {
+                        if (GraphSymbols.is(child.getName(), GraphSymbols.PATH)) {
+                            path = ((AttributeString) child).getValue();
+                            break;
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return path == null || path.isEmpty() ? null : normalize(path);
+    }
+
+    /**
+     * Normalizes a path of the result graph to the form of the paths of the
+     * input files.
+     */
+    static String normalize(String path) {
+        return new File(path).getAbsoluteFile().toURI().normalize().getPath();
+    }
+
+    /**
+     * Returns the key of a node, which is the same in the previous and the
+     * partial graph: its type, long name (or name) and path.
+     */
+    static String getKey(Node node, String path) {
+        String name = null;
+        for (Attribute attribute : node.getAttributes()) {
+            if (GraphSymbols.is(attribute.getName(), GraphSymbols.LONG_NAME)) {
+                name = ((AttributeString) attribute).getValue();
+                break;
+            } else if (GraphSymbols.is(attribute.getName(), GraphSymbols.NAME) && name == null) {
+                name = ((AttributeString) attribute).getValue();
+            }
+        }
+        String type = node.getType() == null ? "" : node.getType().getType();
+        return type + '|' + name + '|' + (path == null ? "" : path);
+    }
+
+    private boolean isAnalysed(Node node, String path) {
+        if (this.analysedTypes != null) {
+            return this.analysedTypes.contains(node.getType());
+        }
+        return path != null && this.analysedPaths.contains(path);
+    }
+
+    /**
+     * A file is deleted if it is not a source file any more and it does
+     * not exist. The files outside the project (for example, system
+     * headers) are not deleted.
+     */
+    private boolean isDeleted(String path) {
+        if (currentPaths.contains(path)) {
+            return false;
+        }
+        Boolean deleted = deletedPaths.get(path);
+        if (deleted == null) {
+            deleted = !new File(path).exists();
+            deletedPaths.put(path, deleted);
+        }
+        return deleted;
+    }
+
+    private boolean hasTarget(Node node, Set<String> uids) {
+        for (Edge edge : node.getOutEdges()) {
+            if (uids.contains(edge.getToNode().getUID())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addNode(String uid, Node node) {
+        Node copy = new Node(uid, node.getType());
+        this.merged.put(uid, copy);
+        for (Attribute attribute : node.getAttributes()) {
+            copy.addAttribute(attribute);
+        }
+        usedUids.add(uid);
+    }
+
+    private void addEdge(String from, String to, Edge edge) {
+        Node fromNode = this.merged.get(from);
+        Node toNode = this.merged.get(to);
+        if (fromNode == null || toNode == null
+                || !edges.add(from + '\u0000' + edge.getType().getType() + '\u0000' + to)) {
+            return;
+        }
+        Edge copy = this.edgeFactory.createDirectedEdge(fromNode, toNode, edge.getType().getType(), false);
+        for (Attribute attribute : edge.getAttributes()) {
+            copy.addAttribute(attribute);
+        }
+    }
+
+    private String newUid(String partialUid) {
+        String uid = partialUid;
+        for (int i = 1; previousUids.contains(uid) || usedUids.contains(uid); i++) {
+            uid = partialUid + "#" + i;
+        }
+        return uid;
+    }
+
+    private static void putUnique(Map<String, String> uids, String key, String uid) {
+        if (uids.containsKey(key)) {
+            uids.put(key, null);
+        } else {
+            uids.put(key, uid);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphWriter;
+import com.sourcemeter.analyzer.base.helper.ResultsManifest;
+
+import graphlib.Edge;
+import graphlib.GraphlibException;
+import graphlib.Node;
+
+/**
+ * Incremental analysis of a language: only the source files added or changed
+ * since the previous analysis and the files depending on them are given to
+ * the toolchain, and the partial result graph of the toolchain is merged into
+ * the result graph of the previous analysis.
+ *
+ * The changed files are found by the checksums of the source files, which
+ * are recorded for every result graph in the {@link ResultsManifest}. If
+ * they are not recorded for the previous graph (for example, it was made
+ * with the incremental analysis turned off), every file is analysed.
+ *
+ * The dependent files are found along the edges of the previous graph, which
+ * are not tree edges and lead from a node of a file to a node of an other
+ * file. The sm.incrementalFanOut setting gives how many steps are followed.
+ *
+ * In the merged graph the nodes of the analysed files come from the partial
+ * graph, the nodes of the other files from the previous graph, and the nodes
+ * of the deleted files are dropped, see {@link GraphMerger}. The aggregated
+ * results of the nodes containing analysed or deleted files (for example, of
+ * their packages and directories) cannot be merged, so every file is analysed
+ * if such a node has aggregated results in the previous graph. The merged
+ * graph is written by {@link GraphWriter}.
+ */
+final class IncrementalAnalysis {
+
+    static final String ENABLED_KEY = "sm.incrementalAnalysis";
+    static final String FAN_OUT_KEY = "sm.incrementalFanOut";
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalAnalysis.class);
+
+    private static final int DEFAULT_FAN_OUT = 1;
+    private static final String BASE_DIRECTORY = "sourcemeter-incremental";
+    private static final Set<String> TREE_EDGES = new HashSet<String>();
+
+    static {
+        TREE_EDGES.add("LogicalTree");
+        TREE_EDGES.add("PhysicalTree");
+        TREE_EDGES.add("CloneTree");
+    }
+
+    private final File baseGraph;
+    private final List<InputFile> sourceFiles;
+    private final List<InputFile> analysedFiles;
+    private final Set<String> analysedPaths;
+    private final Set<String> currentPaths;
+
+    private IncrementalAnalysis(File baseGraph, List<InputFile> sourceFiles, List<InputFile> analysedFiles,
+            Set<String> analysedPaths, Set<String> currentPaths) {
+        this.baseGraph = baseGraph;
+        this.sourceFiles = sourceFiles;
+        this.analysedFiles = analysedFiles;
+        this.analysedPaths = analysedPaths;
+        this.currentPaths = currentPaths;
+    }
+
+    /**
+     * Returns true if the incremental analysis is turned on by the
+     * sm.incrementalAnalysis setting.
+     */
+    static boolean isEnabled(Configuration configuration) {
+        return "true".equals(FileHelper.getStringFromConfiguration(configuration, ENABLED_KEY));
+    }
+
+    /**
+     * Computes the checksums of the source files, which are recorded with
+     * the result graph in the results manifest.
+     *
+     * @param sourceFiles Every source file of the language.
+     * @return Checksums of the files by their normalized paths, or null if a
+     *         file cannot be read.
+     */
+    static Map<String, String> computeFileHashes(List<InputFile> sourceFiles) {
+        Map<String, String> fileHashes = new HashMap<String, String>();
+        for (InputFile file : sourceFiles) {
+            try {
+                InputStream input = file.inputStream();
+                try {
+                    fileHashes.put(normalize(file), ResultsManifest.computeChecksum(input));
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Source file cannot be read, its checksum is not recorded: " + file, e);
+                return null;
+            }
+        }
+        return fileHashes;
+    }
+
+    /**
+     * Selects the source files of an incremental analysis. The result graph
+     * of the previous analysis is copied into the working directory, as the
+     * toolchain may clean the former results directories.
+     *
+     * @param configuration Contains the settings of the incremental analysis.
+     * @param previousGraph Result graph of the previous analysis.
+     * @param previousHashes Checksums of the source files of the previous
+     *                       graph, see {@link ResultsManifest#getFileHashes}.
+     * @param workDir Working directory of the analysis.
+     * @param sourceFiles Every source file of the language.
+     * @param fileHashes Checksums of the source files, see {@link #computeFileHashes}.
+     * @return The incremental analysis, or null if every file has to be analysed.
+     */
+    static IncrementalAnalysis prepare(Configuration configuration, File previousGraph,
+            Map<String, String> previousHashes, File workDir, List<InputFile> sourceFiles,
+            Map<String, String> fileHashes) {
+        int fanOut = DEFAULT_FAN_OUT;
+        String fanOutValue = FileHelper.getStringFromConfiguration(configuration, FAN_OUT_KEY);
+        if (fanOutValue != null) {
+            try {
+                fanOut = Integer.parseInt(fanOutValue.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERROR: '" + FAN_OUT_KEY + "' must be an integer!", e);
+            }
+        }
+
+        if (previousGraph == null || !previousGraph.isFile()) {
+            LOG.info("    Incremental analysis is not possible, there is no previous result graph. Every file is analysed.");
+            return null;
+        }
+        if (fileHashes == null) {
+            LOG.info("    Incremental analysis is not possible, the source files cannot be read. Every file is analysed.");
+            return null;
+        }
+        if (previousHashes == null) {
+            LOG.info("    Incremental analysis is not possible, the checksums of the source files of the previous"
+                    + " result graph are not recorded. Every file is analysed.");
+            return null;
+        }
+
+        Set<String> currentPaths = new HashSet<String>();
+        Set<String> changedPaths = new HashSet<String>();
+        for (InputFile file : sourceFiles) {
+            String path = normalize(file);
+            currentPaths.add(path);
+            String hash = fileHashes.get(path);
+            if (hash == null || !hash.equals(previousHashes.get(path))) {
+                changedPaths.add(path);
+            }
+        }
+        if (changedPaths.size() == currentPaths.size()) {
+            LOG.info("    Incremental analysis is not needed, every file is changed.");
+            return null;
+        }
+
+        Set<String> analysedPaths;
+        File baseGraph = new File(new File(workDir, BASE_DIRECTORY), previousGraph.getName());
+        try {
+            List<Node> previousNodes;
+            GraphReader graph = new GraphReader(previousGraph.getPath());
+            try {
+                previousNodes = GraphMerger.readNodes(graph);
+            } finally {
+                graph.close();
+            }
+
+            analysedPaths = addDependentFiles(previousNodes, changedPaths, fanOut);
+            analysedPaths.retainAll(currentPaths);
+            int aggregates = GraphMerger.ofFiles(analysedPaths, currentPaths).countAggregates(previousNodes);
+            if (aggregates > 0) {
+                LOG.info("    Incremental analysis is not possible, the aggregated results of " + aggregates
+                        + " elements containing changed files (for example, packages and directories) would change."
+                        + " Every file is analysed.");
+                return null;
+            }
+
+            Files.createDirectories(baseGraph.getParentFile().toPath());
+            Files.copy(previousGraph.toPath(), baseGraph.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Incremental analysis is not possible, the previous result graph cannot be read: " + previousGraph, e);
+            return null;
+        } catch (GraphlibException e) {
+            LOG.warn("Incremental analysis is not possible, the previous result graph cannot be read: " + previousGraph, e);
+            return null;
+        }
+
+        List<InputFile> analysedFiles = new ArrayList<InputFile>();
+        for (InputFile file : sourceFiles) {
+            if (analysedPaths.contains(normalize(file))) {
+                analysedFiles.add(file);
+            }
+        }
+        LOG.info("    Incremental analysis: " + analysedFiles.size() + " of " + sourceFiles.size()
+                + " files are analysed (" + changedPaths.size() + " added or changed, "
+                + (analysedFiles.size() - changedPaths.size()) + " dependent).");
+
+        return new IncrementalAnalysis(baseGraph, sourceFiles, analysedFiles, analysedPaths, currentPaths);
+    }
+
+    /**
+     * Returns every source file of the language, they are analysed if the
+     * result graphs cannot be merged.
+     *
+     * @return Every source file.
+     */
+    List<InputFile> getSourceFiles() {
+        return this.sourceFiles;
+    }
+
+    /**
+     * Returns the source files to be analysed by the toolchain.
+     *
+     * @return Added, changed and dependent source files.
+     */
+    List<InputFile> getAnalysedFiles() {
+        return this.analysedFiles;
+    }
+
+    /**
+     * Merges the partial result graph of the toolchain into the result graph
+     * of the previous analysis, and replaces the partial graph with the
+     * merged one. The graphs are not merged if the aggregated results of a
+     * node of the previous graph would be out of date, for example, as the
+     * analysed files have been moved into an other package.
+     *
+     * @param graphFile Result graph of the toolchain.
+     * @return True if the graphs are merged, false if every file has to be analysed.
+     * @throws GraphlibException If a graph cannot be read or written.
+     */
+    boolean merge(File graphFile) throws GraphlibException {
+        long startTime = System.currentTimeMillis();
+
+        GraphReader previous = new GraphReader(this.baseGraph.getPath());
+        GraphReader partial = null;
+        GraphMerger merger = GraphMerger.ofFiles(this.analysedPaths, this.currentPaths);
+        Map<String, String> header;
+        int[] counts;
+        try {
+            partial = new GraphReader(graphFile.getPath());
+            counts = merger.merge(GraphMerger.readNodes(previous), GraphMerger.readNodes(partial));
+            header = partial.getHeader();
+        } finally {
+            previous.close();
+            if (partial != null) {
+                partial.close();
+            }
+        }
+        if (!this.baseGraph.delete()) {
+            LOG.debug("    Copy of the previous result graph cannot be deleted: " + this.baseGraph);
+        }
+        if (counts[2] > 0) {
+            LOG.info("    Incremental analysis: the aggregated results of " + counts[2]
+                    + " elements of the previous result graph would change, the result graphs are not merged.");
+            return false;
+        }
+
+        File tempFile = new File(graphFile.getPath() + ".tmp");
+        GraphWriter.save(merger.getNodes(), header, tempFile.getPath());
+        try {
+            Files.move(tempFile.toPath(), graphFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        }
+
+        LOG.info("    Incremental analysis: " + counts[0] + " nodes of the previous result graph are merged with "
+                + counts[1] + " nodes of the partial result graph: " + (System.currentTimeMillis() - startTime) + " ms");
+        return true;
+    }
+
+    /**
+     * Collects the paths of the changed files and the files depending on
+     * them along the edges of the previous graph.
+     */
+    private static Set<String> addDependentFiles(List<Node> previousNodes, Set<String> changedPaths, int fanOut) {
+        Set<String> paths = new HashSet<String>(changedPaths);
+        if (fanOut <= 0) {
+            return paths;
+        }
+
+        Map<String, String> nodePaths = new HashMap<String, String>();
+        List<String[]> references = new ArrayList<String[]>();
+        for (Node node : previousNodes) {
+            String path = GraphMerger.getPath(node);
+            if (path == null) {
+                continue;
+            }
+            nodePaths.put(node.getUID(), path);
+            for (Edge edge : node.getOutEdges()) {
+                if (!TREE_EDGES.contains(edge.getType().getType())) {
+                    references.add(new String[] { path, edge.getToNode().getUID() });
+                }
+            }
+        }
+
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (String[] reference : references) {
+            String target = nodePaths.get(reference[1]);
+            if (target == null || target.equals(reference[0])) {
+                continue;
+            }
+            Set<String> sources = dependents.get(target);
+            if (sources == null) {
+                sources = new HashSet<String>();
+                dependents.put(target, sources);
+            }
+            sources.add(reference[0]);
+        }
+
+        Set<String> frontier = changedPaths;
+        for (int step = 0; step < fanOut && !frontier.isEmpty(); step++) {
+            Set<String> next = new HashSet<String>();
+            for (String path : frontier) {
+                Set<String> sources = dependents.get(path);
+                if (sources == null) {
+                    continue;
+                }
+                for (String source : sources) {
+                    if (paths.add(source)) {
+                        next.add(source);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return paths;
+    }
+
+    private static String normalize(InputFile file) {
+        return file.uri().normalize().getPath();
+    }
+}
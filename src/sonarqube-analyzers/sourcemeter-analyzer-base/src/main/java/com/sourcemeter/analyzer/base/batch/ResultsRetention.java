@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+
+import com.sourcemeter.analyzer.base.helper.DeltaUpload;
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.ResultsManifest;
+import com.sourcemeter.analyzer.base.helper.UploadSnapshot;
+
+/**
+ * Keeps the results directory of a language under the disk budget given by
+ * the sm.resultsRetentionSize setting. The runs older than the newest one
+ * are compressed first, oldest first, and if the results directory is still
+ * too large, the oldest archives are deleted. The newest run is never
+ * touched, neither are the runs holding the newest delta cache and the
+ * newest upload snapshot, which are read by the next upload. The retention
+ * runs in the background after the upload, every step of it leaves the
+ * results directory consistent if the analysis ends before the retention
+ * does.
+ */
+final class ResultsRetention implements Runnable {
+
+    static final String SIZE_KEY = "sm.resultsRetentionSize";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResultsRetention.class);
+
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final String ARCHIVE_EXTENSION = ".zip";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final String LOCK_FILE = "retention.lock";
+    private static final String TIMESTAMP_PATTERN = "[0-9]{4}-[0-9]{2}-[0-9]{2}-[0-9]{2}-[0-9]{2}-[0-9]{2}";
+
+    private final File languageDirectory;
+    private final File archiveDirectory;
+    private final long maxBytes;
+
+    private ResultsRetention(File languageDirectory, long maxBytes) {
+        this.languageDirectory = languageDirectory;
+        this.archiveDirectory = new File(ResultsManifest.getManifestDirectory(languageDirectory),
+                ARCHIVE_DIRECTORY);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts the retention of the results directory in the background, if
+     * the sm.resultsRetentionSize setting is greater than 0.
+     *
+     * @param configuration Contains the settings of the retention.
+     * @param languageDirectory Results directory of the language.
+     * @throws RuntimeException If the disk budget is not an integer.
+     */
+    static void start(Configuration configuration, File languageDirectory) {
+        String sizeValue = FileHelper.getStringFromConfiguration(configuration, SIZE_KEY);
+        if (sizeValue == null || sizeValue.trim().isEmpty()) {
+            return;
+        }
+
+        long sizeMb;
+        try {
+            sizeMb = Long.parseLong(sizeValue.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("ERROR: '" + SIZE_KEY + "' must be an integer!", e);
+        }
+
+        if (sizeMb <= 0) {
+            return;
+        }
+
+        Thread thread = new Thread(new ResultsRetention(languageDirectory, sizeMb * 1024 * 1024),
+                "SourceMeter results retention (" + languageDirectory.getName() + ")");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!this.archiveDirectory.isDirectory() && !this.archiveDirectory.mkdirs()) {
+                throw new IOException("Could not create archive directory: " + this.archiveDirectory);
+            }
+            FileChannel channel = new RandomAccessFile(new File(this.archiveDirectory.getParentFile(), LOCK_FILE),
+                    "rw").getChannel();
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    LOG.debug("    Results retention is skipped, it is running in another analysis: "
+                            + this.languageDirectory);
+                    return;
+                }
+                try {
+                    apply();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Retention of the results directory failed: " + this.languageDirectory, e);
+        }
+    }
+
+    private void apply() throws IOException {
+        String latest = ResultsManifest.getLatestRun(this.languageDirectory);
+        if (latest == null) {
+            return;
+        }
+
+        List<String> runs = new ArrayList<String>();
+        String[] names = this.languageDirectory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.matches(TIMESTAMP_PATTERN) && name.compareTo(latest) < 0
+                        && new File(this.languageDirectory, name).isDirectory()) {
+                    runs.add(name);
+                }
+            }
+        }
+
+        // The next upload reads the newest delta cache and snapshot, even from an older run.
+        Set<String> kept = new HashSet<String>();
+        if (!containsFile(latest, DeltaUpload.DELTA_EXTENSION)) {
+            kept.add(getNewestRunContaining(runs, DeltaUpload.DELTA_EXTENSION));
+        }
+        if (!containsFile(latest, UploadSnapshot.SNAPSHOT_EXTENSION)) {
+            kept.add(getNewestRunContaining(runs, UploadSnapshot.SNAPSHOT_EXTENSION));
+        }
+        runs.removeAll(kept);
+
+        List<String> archives = new ArrayList<String>();
+        String[] archiveNames = this.archiveDirectory.list();
+        if (archiveNames != null) {
+            Arrays.sort(archiveNames);
+            for (String name : archiveNames) {
+                if (name.endsWith(TEMPORARY_EXTENSION)) {
+                    Files.deleteIfExists(new File(this.archiveDirectory, name).toPath());
+                } else if (name.endsWith(ARCHIVE_EXTENSION)) {
+                    archives.add(name.substring(0, name.length() - ARCHIVE_EXTENSION.length()));
+                }
+            }
+        }
+
+        long totalSize = getSize(new File(this.languageDirectory, latest).toPath());
+        List<String> uncompressed = new ArrayList<String>();
+        long[] runSizes = new long[runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            String run = runs.get(i);
+            if (archives.contains(run)) {
+                // Compressed, but its directory was not deleted.
+                ToolchainCache.deleteDirectory(new File(this.languageDirectory, run).toPath());
+                ResultsManifest.recordArchivedRun(this.languageDirectory, run, getArchivePath(run));
+                continue;
+            }
+            runSizes[uncompressed.size()] = getSize(new File(this.languageDirectory, run).toPath());
+            totalSize += runSizes[uncompressed.size()];
+            uncompressed.add(run);
+        }
+        for (String archive : archives) {
+            totalSize += getArchive(archive).length();
+        }
+
+        int compressed = 0;
+        for (int i = 0; i < uncompressed.size() && totalSize > this.maxBytes; i++) {
+            String run = uncompressed.get(i);
+            long archiveSize = compress(run);
+            ResultsManifest.recordArchivedRun(this.languageDirectory, run, getArchivePath(run));
+            totalSize += archiveSize - runSizes[i];
+            archives.add(run);
+            compressed++;
+        }
+
+        int deleted = 0;
+        for (int i = 0; i < archives.size() && totalSize > this.maxBytes; i++) {
+            File archive = getArchive(archives.get(i));
+            long archiveSize = archive.length();
+            Files.deleteIfExists(archive.toPath());
+            ResultsManifest.recordDeletedRun(this.languageDirectory, archives.get(i));
+            totalSize -= archiveSize;
+            deleted++;
+        }
+
+        if (compressed > 0 || deleted > 0) {
+            LOG.info("Results retention of " + this.languageDirectory + ": " + compressed
+                    + " runs compressed, " + deleted + " runs deleted, " + totalSize + " bytes kept.");
+        }
+    }
+
+    /**
+     * Compresses the directory of a run into an archive, and deletes the
+     * directory.
+     *
+     * @return Size of the archive in bytes.
+     */
+    private long compress(String run) throws IOException {
+        final Path source = new File(this.languageDirectory, run).toPath();
+        File archive = getArchive(run);
+        File temporary = new File(this.archiveDirectory, run + ARCHIVE_EXTENSION + TEMPORARY_EXTENSION);
+
+        final ZipOutputStream output = new ZipOutputStream(new FileOutputStream(temporary));
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String name = source.getParent().relativize(file).toString().replace(File.separatorChar, '/');
+                    ZipEntry entry = new ZipEntry(name);
+                    entry.setTime(attrs.lastModifiedTime().toMillis());
+                    output.putNextEntry(entry);
+                    Files.copy(file, output);
+                    output.closeEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            output.close();
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        }
+        output.close();
+
+        Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        ToolchainCache.deleteDirectory(source);
+        return archive.length();
+    }
+
+    /**
+     * Returns the newest of the given runs, which contains a file with the
+     * given extension.
+     *
+     * @return Name of the run, or null if there is no such run.
+     */
+    private String getNewestRunContaining(List<String> runs, String extension) {
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            if (containsFile(runs.get(i), extension)) {
+                return runs.get(i);
+            }
+        }
+        return null;
+    }
+
+    private boolean containsFile(String run, String extension) {
+        String[] names = new File(this.languageDirectory, run).list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(extension)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private File getArchive(String run) {
+        return new File(this.archiveDirectory, run + ARCHIVE_EXTENSION);
+    }
+
+    private static String getArchivePath(String run) {
+        return ARCHIVE_DIRECTORY + "/" + run + ARCHIVE_EXTENSION;
+    }
+
+    private static long getSize(Path directory) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
+import com.sourcemeter.analyzer.base.helper.GraphWriter;
+
+import graphlib.Attribute;
+import graphlib.Edge;
+import graphlib.GraphlibException;
+import graphlib.Node;
+import graphlib.Visitor;
+import graphlib.VisitorException;
+
+/**
+ * Merges the result graphs of the toolchain shards in one pass. The graphs
+ * are read one after the other and their nodes are decoded one by one, so only
+ * one shard graph is open at a time.
+ *
+ * The nodes of the files of a shard are written into the merged graph as
+ * soon as they are read, with their UIDs made unique. The nodes without
+ * source file and the nodes of the files outside the project (for example,
+ * packages, directories and library types) are matched by their type, long
+ * name and path as in {@link GraphMerger}, and they are kept in the memory
+ * with the edges of every shard until the end. The nodes of a shard referring
+ * a file of another shard are kept as well if the other shard is not read
+ * yet. Clone classes belong to the shard of their instances.
+ *
+ * If the clones are detected on every file by a separate toolchain run, its
+ * clone classes and instances replace the ones of the shards.
+ */
+final class ShardGraphMerger {
+
+    private final Set<String> currentPaths;
+    private final GraphWriter writer;
+    private Map<String, String> header;
+
+    // UIDs of the merged graph by the keys of the nodes.
+    private final Map<String, String> keyUids = new HashMap<String, String>();
+    private final Set<String> usedUids = new HashSet<String>();
+
+    // Nodes written at the end, by their UIDs.
+    private final Map<String, MergedNode> sharedNodes = new LinkedHashMap<String, MergedNode>();
+    private final List<MergedNode> pendingNodes = new ArrayList<MergedNode>();
+
+    /**
+     * Creates a merger writing the merged graph.
+     *
+     * @param currentPaths Normalized paths of every source file of the shards.
+     * @param writer Writer of the merged graph.
+     */
+    ShardGraphMerger(Set<String> currentPaths, GraphWriter writer) {
+        this.currentPaths = currentPaths;
+        this.writer = writer;
+    }
+
+    /**
+     * Merges the result graph of a shard.
+     *
+     * @param graph Result graph of the shard.
+     * @param paths Normalized paths of the source files of the shard.
+     * @param skipClones True if the clone classes and instances of the shard are dropped.
+     * @throws GraphlibException If the graph cannot be read or written.
+     */
+    void addShard(GraphReader graph, Set<String> paths, boolean skipClones) throws GraphlibException {
+        Set<Node.NodeType> skippedTypes = new HashSet<Node.NodeType>();
+        if (skipClones) {
+            skippedTypes.add(GraphSymbols.NODE_CLONE_CLASS);
+            skippedTypes.add(GraphSymbols.NODE_CLONE_INSTANCE);
+        }
+        add(graph, paths, null, skippedTypes);
+    }
+
+    /**
+     * Merges the clone classes and instances of the result graph of the
+     * clone detection on every file.
+     *
+     * @param graph Result graph of the clone detection.
+     * @throws GraphlibException If the graph cannot be read or written.
+     */
+    void addClones(GraphReader graph) throws GraphlibException {
+        Set<Node.NodeType> cloneTypes = new HashSet<Node.NodeType>();
+        cloneTypes.add(GraphSymbols.NODE_CLONE_CLASS);
+        cloneTypes.add(GraphSymbols.NODE_CLONE_INSTANCE);
+        add(graph, new HashSet<String>(), cloneTypes, new HashSet<Node.NodeType>());
+    }
+
+    /**
+     * Writes the nodes kept in the memory and closes the merged graph.
+     *
+     * @return Number of the nodes of the merged graph.
+     * @throws GraphlibException If the graph cannot be written.
+     */
+    int finish() throws GraphlibException {
+        for (MergedNode node : this.pendingNodes) {
+            write(node);
+        }
+        for (MergedNode node : this.sharedNodes.values()) {
+            write(node);
+        }
+        int count = this.writer.getNodeCount();
+        this.writer.close(this.header == null ? new HashMap<String, String>() : this.header);
+        return count;
+    }
+
+    /**
+     * Maps the nodes of a graph to the merged graph, then writes or keeps
+     * them. Own nodes are the nodes of the given files and of the given types.
+     */
+    private void add(GraphReader graph, final Set<String> paths, final Set<Node.NodeType> ownTypes,
+            final Set<Node.NodeType> skippedTypes) throws GraphlibException {
+        this.header = graph.getHeader();
+
+        // UIDs of the merged graph by the UIDs of the graph. The nodes of
+        // other shards are referred by their keys.
+        final Map<String, String> uids = new HashMap<String, String>();
+        final Map<String, String> otherKeys = new HashMap<String, String>();
+        final Set<String> ownUids = new HashSet<String>();
+        final Set<String> shardKeys = new HashSet<String>();
+        final Map<String, List<String>> cloneClasses = new LinkedHashMap<String, List<String>>();
+
+        visit(graph, new NodeVisitor() {
+
+            @Override
+            public void preNodeVisitorFunc(Node node) {
+                if (skippedTypes.contains(node.getType())) {
+                    return;
+                }
+                String path = GraphMerger.getPath(node);
+                String key = GraphMerger.getKey(node, path);
+                if ((ownTypes != null && ownTypes.contains(node.getType()))
+                        || (path != null && paths.contains(path))) {
+                    String uid = newUid(node.getUID());
+                    uids.put(node.getUID(), uid);
+                    ownUids.add(node.getUID());
+                    if (node.getType() != GraphSymbols.NODE_CLONE_CLASS) {
+                        putKey(key, uid);
+                    }
+                } else if (node.getType() == GraphSymbols.NODE_CLONE_CLASS) {
+                    List<String> targets = new ArrayList<String>();
+                    for (Edge edge : node.getOutEdges()) {
+                        targets.add(edge.getToNode().getUID());
+                    }
+                    cloneClasses.put(node.getUID(), targets);
+                } else if (path != null && currentPaths.contains(path)) {
+                    otherKeys.put(node.getUID(), key);
+                } else {
+                    // The shared nodes are matched by their UIDs first, then by their
+                    // keys. Nodes of the same key in one graph are different nodes.
+                    MergedNode shared = sharedNodes.get(node.getUID());
+                    String uid = null;
+                    if (shared != null && key.equals(shared.key)) {
+                        uid = node.getUID();
+                    } else if (shardKeys.add(key)) {
+                        uid = keyUids.get(key);
+                    }
+                    if (uid == null || !sharedNodes.containsKey(uid)) {
+                        uid = newUid(node.getUID());
+                        putKey(key, uid);
+                        sharedNodes.put(uid, new MergedNode(uid, key, node));
+                    }
+                    uids.put(node.getUID(), uid);
+                }
+            }
+        });
+
+        // The clone classes of the shard are the ones with instances in the shard.
+        for (Map.Entry<String, List<String>> cloneClass : cloneClasses.entrySet()) {
+            for (String target : cloneClass.getValue()) {
+                if (ownUids.contains(target)) {
+                    uids.put(cloneClass.getKey(), newUid(cloneClass.getKey()));
+                    ownUids.add(cloneClass.getKey());
+                    break;
+                }
+            }
+        }
+
+        visit(graph, new NodeVisitor() {
+
+            @Override
+            public void preNodeVisitorFunc(Node node) throws VisitorException {
+                String uid = uids.get(node.getUID());
+                if (uid == null) {
+                    return;
+                }
+                boolean own = ownUids.contains(node.getUID());
+                MergedNode merged = own ? new MergedNode(uid, null, node) : sharedNodes.get(uid);
+                for (Edge edge : node.getOutEdges()) {
+                    String target = uids.get(edge.getToNode().getUID());
+                    String key = otherKeys.get(edge.getToNode().getUID());
+                    if (target == null && key != null) {
+                        if (!keyUids.containsKey(key)) {
+                            merged.addEdge(edge, null, key);
+                            continue;
+                        }
+                        target = keyUids.get(key);
+                    }
+                    if (target != null) {
+                        merged.addEdge(edge, target, null);
+                    }
+                }
+                if (own && merged.hasUnresolvedEdges()) {
+                    pendingNodes.add(merged);
+                } else if (own) {
+                    try {
+                        write(merged);
+                    } catch (GraphlibException e) {
+                        throw new VisitorException(e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(MergedNode node) throws GraphlibException {
+        this.writer.startNode(node.uid, node.type, node.attributes);
+        // An edge added by its target key in one shard can be added by its UID in another one.
+        Set<String> written = node.unresolved ? new HashSet<String>() : null;
+        for (MergedEdge edge : node.edges) {
+            String target = edge.target != null ? edge.target : this.keyUids.get(edge.targetKey);
+            if (target != null && (written == null || written.add(edge.edge.getType().getType() + '\u0000' + target))) {
+                this.writer.addEdge(edge.edge, target);
+            }
+        }
+        this.writer.endNode();
+    }
+
+    /**
+     * Records the UID of a key, the keys of several nodes are not mapped.
+     */
+    private void putKey(String key, String uid) {
+        if (this.keyUids.containsKey(key)) {
+            this.keyUids.put(key, null);
+        } else {
+            this.keyUids.put(key, uid);
+        }
+    }
+
+    private String newUid(String uid) {
+        String newUid = uid;
+        for (int i = 1; this.usedUids.contains(newUid); i++) {
+            newUid = uid + "#" + i;
+        }
+        this.usedUids.add(newUid);
+        return newUid;
+    }
+
+    private static void visit(GraphReader graph, NodeVisitor visitor) throws GraphlibException {
+        try {
+            graph.visitNodes(visitor);
+        } catch (VisitorException e) {
+            if (e.getCause() instanceof GraphlibException) {
+                throw (GraphlibException) e.getCause();
+            }
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * Visitor of the nodes of a graph, edges are not visited.
+     */
+    private abstract static class NodeVisitor implements Visitor {
+
+        @Override
+        public void postNodeVisitorFunc(Node node) {
+        }
+
+        @Override
+        public void edgeVisitorFunc(Edge edge) {
+        }
+    }
+
+    /**
+     * A node of the merged graph with its out edges.
+     */
+    private static final class MergedNode {
+
+        private final String uid;
+        private final String key;
+        private final Node.NodeType type;
+        private final List<Attribute> attributes;
+        private final List<MergedEdge> edges = new ArrayList<MergedEdge>();
+        private final Set<String> edgeKeys = new HashSet<String>();
+        private boolean unresolved;
+
+        MergedNode(String uid, String key, Node node) {
+            this.uid = uid;
+            this.key = key;
+            this.type = node.getType();
+            this.attributes = node.getAttributes();
+        }
+
+        /**
+         * Adds an out edge to the node, the target is given by its UID in
+         * the merged graph or by its key. The same edge of several shards is
+         * added only once.
+         */
+        void addEdge(Edge edge, String target, String targetKey) {
+            String edgeKey = edge.getType().getType() + '\u0000' + (target != null ? target : '\u0000' + targetKey);
+            if (this.edgeKeys.add(edgeKey)) {
+                this.edges.add(new MergedEdge(edge, target, targetKey));
+                this.unresolved |= target == null;
+            }
+        }
+
+        boolean hasUnresolvedEdges() {
+            return this.unresolved;
+        }
+    }
+
+    private static final class MergedEdge {
+
+        private final Edge edge;
+        private final String target;
+        private final String targetKey;
+
+        MergedEdge(Edge edge, String target, String targetKey) {
+            this.edge = edge;
+            this.target = target;
+            this.targetKey = targetKey;
+        }
+    }
+}
@@ -30,18 +30,18 @@
 
 package com.sourcemeter.analyzer.base.batch;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,9 +57,17 @@ import org.sonar.api.scanner.fs.InputProject;
 
 import com.google.gson.Gson;
 import com.sourcemeter.analyzer.base.core.LicenseInformation;
+import com.sourcemeter.analyzer.base.helper.DeltaUpload;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.InputFileCache;
+import com.sourcemeter.analyzer.base.helper.IssueFlowBuilder;
+import com.sourcemeter.analyzer.base.helper.MeasureSink;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.ResultsManifest;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.helper.UploadSnapshot;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
 import org.sonar.api.utils.System2;
 
@@ -76,35 +84,66 @@ public abstract class SourceMeterSensor implements Sensor {
     protected final ActiveRules activeRules;
     protected final Configuration configuration;
     protected final System2 system;
+    protected final String languageKey;
+    protected final String pluginLanguageKey;
 
     protected final List<String> commands;
 
+    private final ToolchainCoordinator coordinator;
+
+    private IncrementalAnalysis incrementalAnalysis;
+    private Map<String, String> sourceFileHashes;
+    private List<InputFile> analysedFiles;
+    private String filterFileName;
+
     /**
      * Constructor: Use of IoC to get Settings.
+     *
+     * @param coordinator Starts the toolchain in the background.
+     * @param languageKey Key of the analyzed language.
+     * @param pluginLanguageKey Key of the analyzed language in the property names.
      */
     public SourceMeterSensor(FileSystem fileSystem,
             InputProject inputProject, ActiveRules activeRules,
-            Configuration configuration, System2 system) {
+            Configuration configuration, System2 system,
+            ToolchainCoordinator coordinator,
+            String languageKey, String pluginLanguageKey) {
 
         this.fileSystem = fileSystem;
         this.inputProject = inputProject;
         this.activeRules = activeRules;
         this.configuration = configuration;
         this.system = system;
+        this.languageKey = languageKey;
+        this.pluginLanguageKey = pluginLanguageKey;
 
         this.commands = new ArrayList<String>();
+
+        this.coordinator = coordinator;
+        coordinator.register(this);
     }
 
+    /**
+     * Checks the correctness of sourceMeter's properties, and builds the
+     * command line of the toolchain.
+     *
+     * @param sensorContext Context of the sensor.
+     * @return True if the properties were set correctly.
+     */
+    protected abstract boolean checkProperties(SensorContext sensorContext);
+
     /**
      * Load result graph binary.
      *
      * @param filename Name of the result graph file.
      * @param project Module.
      * @param sensorContext Context of the sonarQube.
+     * @param uploadContext Context of the upload, it is passed to every visitor.
      * @throws GraphlibException
      */
     protected abstract void loadDataFromGraphBin(String filename,
-            InputProject project, SensorContext sensorContext) throws GraphlibException;
+            InputProject project, SensorContext sensorContext, UploadContext uploadContext)
+            throws GraphlibException;
 
     /**
      * {@inheritDoc}
@@ -112,6 +151,119 @@ public abstract class SourceMeterSensor implements Sensor {
     @Override
     public abstract void execute(SensorContext sensorContext);
 
+    /**
+     * Uploads the results from the given result graph. If the upload snapshot
+     * is turned on, the uploaded data is also saved next to the graph, and
+     * when the toolchain is skipped, the results are uploaded from this
+     * snapshot instead of the graph, if they are still valid. If the delta
+     * upload is turned on, the uploads of the unchanged entities are copied
+     * from the delta cache of the former analysis.
+     * When the upload is done, the retention of the former results is started
+     * in the background, see {@link ResultsRetention}.
+     *
+     * @param filename Name of the result graph file.
+     * @param project Module.
+     * @param sensorContext Context of the sonarQube.
+     * @param languageKey Key of the analyzed language.
+     * @param pluginLanguageKey Key of the analyzed language in the property names.
+     * @param skipToolchain True if the toolchain was skipped in this analysis.
+     * @param metricRegistry Registry of the metrics of the language.
+     * @throws GraphlibException
+     */
+    protected void uploadResults(String filename, InputProject project,
+            SensorContext sensorContext, String languageKey, String pluginLanguageKey,
+            boolean skipToolchain, MetricRegistry metricRegistry) throws GraphlibException {
+        // Every visitor and helper of the upload resolves the graph paths through the same cache,
+        // builds the issue flows with the same builder and saves its measures through the same sink.
+        InputFileCache inputFileCache = new InputFileCache(this.fileSystem);
+        IssueFlowBuilder issueFlowBuilder = IssueFlowBuilder.start(this.configuration);
+        MeasureSink measureSink = MeasureSink.start(sensorContext, this.configuration);
+        try {
+            uploadGraph(filename, project, sensorContext, languageKey, pluginLanguageKey, skipToolchain, metricRegistry,
+                    new UploadContext(inputFileCache, issueFlowBuilder, measureSink));
+        } finally {
+            try {
+                measureSink.stop();
+            } finally {
+                issueFlowBuilder.stop();
+                inputFileCache.stop();
+            }
+        }
+
+        // The former runs are only compressed when the delta cache and the snapshot of this upload are committed.
+        try {
+            ResultsRetention.start(this.configuration,
+                    FileHelper.getLanguageResultsDirectory(this.configuration, this.fileSystem, pluginLanguageKey));
+        } catch (IOException e) {
+            LOG.debug("    Results retention is skipped, there is no results directory.", e);
+        }
+    }
+
+    private void uploadGraph(String filename, InputProject project,
+            SensorContext sensorContext, String languageKey, String pluginLanguageKey,
+            boolean skipToolchain, MetricRegistry metricRegistry, UploadContext uploadContext)
+            throws GraphlibException {
+        boolean snapshot = "true".equals(FileHelper.getStringFromConfiguration(this.configuration, "sm.uploadSnapshot"));
+        boolean delta = "true".equals(FileHelper.getStringFromConfiguration(this.configuration, "sm.deltaUpload"));
+        if (!snapshot && !delta) {
+            loadDataFromGraphBin(filename, project, sensorContext, uploadContext);
+            return;
+        }
+
+        String fingerprint = UploadSnapshot.computeFingerprint(this.configuration, this.fileSystem,
+                this.activeRules, languageKey, pluginLanguageKey);
+
+        UploadSnapshot.Recorder recorder = null;
+        if (snapshot) {
+            String checksum = null;
+            try {
+                checksum = UploadSnapshot.computeChecksum(new File(filename));
+            } catch (IOException e) {
+                LOG.warn("Checksum of the result graph could not be computed, upload snapshot is not used.", e);
+            }
+
+            if (checksum != null) {
+                File snapshotFile = UploadSnapshot.getSnapshotFile(filename);
+                if (skipToolchain && UploadSnapshot.replay(snapshotFile, checksum, fingerprint,
+                        sensorContext, this.fileSystem, metricRegistry, uploadContext.getMeasureSink())) {
+                    return;
+                }
+
+                try {
+                    recorder = UploadSnapshot.startRecording(snapshotFile, checksum, fingerprint);
+                } catch (IOException e) {
+                    LOG.warn("Upload snapshot could not be created: " + snapshotFile, e);
+                }
+            }
+        }
+
+        DeltaUpload deltaUpload = null;
+        if (delta) {
+            deltaUpload = DeltaUpload.start(new File(filename), fingerprint);
+        }
+
+        boolean uploaded = false;
+        try {
+            loadDataFromGraphBin(filename, project, sensorContext, uploadContext.with(recorder, deltaUpload));
+            uploaded = true;
+        } finally {
+            if (recorder != null) {
+                if (uploaded) {
+                    recorder.commit();
+                } else {
+                    recorder.discard();
+                }
+            }
+            if (deltaUpload != null) {
+                if (uploaded) {
+                    deltaUpload.commit();
+                } else {
+                    deltaUpload.discard();
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -121,11 +273,81 @@ public abstract class SourceMeterSensor implements Sensor {
     }
 
     /**
-     * Run SourceMeter toolchain.
+     * Runs the SourceMeter toolchain of the sensor. If the toolchain was
+     * started in the background by {@link ToolchainLauncherSensor}, only waits
+     * for it.
      *
-     * @throws IOException
+     * @param sensorContext Context of the sensor.
+     * @throws RuntimeException If the toolchain fails.
+     */
+    protected void runToolchain(SensorContext sensorContext) {
+        Future<Void> launched = this.coordinator.take(this);
+        if (launched == null) {
+            prepareToolchain(sensorContext);
+            runSourceMeter(commands);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        LOG.info("    Waiting for the SourceMeter toolchain started in the background...");
+        ToolchainCoordinator.await(launched);
+        LOG.info("    SourceMeter toolchain finished, waited: " + (System.currentTimeMillis() - startTime) + MS);
+    }
+
+    /**
+     * Returns true if the toolchain of the sensor has to be run: the toolchain
+     * is not skipped and the project has files of the language.
+     */
+    boolean isToolchainApplicable() {
+        if (FileHelper.getBooleanFromConfiguration(this.configuration, "sm." + pluginLanguageKey + ".skipToolchain")) {
+            return false;
+        }
+        return this.fileSystem.hasFiles(this.fileSystem.predicates().hasLanguage(languageKey));
+    }
+
+    /**
+     * Builds the command line of the toolchain.
+     *
+     * @param sensorContext Context of the sensor.
+     * @throws RuntimeException If the properties are not set properly.
+     */
+    void prepareToolchain(SensorContext sensorContext) {
+        if (!checkProperties(sensorContext)) {
+            throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
+        }
+    }
+
+    /**
+     * Run SourceMeter toolchain. The output of the toolchain is streamed into
+     * the sourcemeter.log file of the working directory, and the toolchain is
+     * killed if it runs longer than the sm.toolchainTimeout setting. The
+     * toolchain waits for a free slot if the toolchains running at the same
+     * time are limited. If the toolchain cache is enabled and the results of
+     * the same input are cached, they are restored instead of running the
+     * toolchain. If the sm.toolchainShards setting is greater than 1, the
+     * toolchain is run in shards, see {@link ToolchainShards}. The new
+     * results are recorded in the results manifest.
+     *
+     * @param commands Command line of the toolchain.
+     * @throws RuntimeException If the toolchain fails or times out.
      */
     protected void runSourceMeter(List<String> commands) throws RuntimeException {
+        ToolchainCache cache = ToolchainCache.open(this.configuration);
+        String cacheKey = null;
+        if (cache != null) {
+            try {
+                cacheKey = cache.computeKey(commands, getSourceFiles(this.fileSystem, languageKey));
+                if (cache.restore(cacheKey, getLanguageResultsDirectory())) {
+                    LOG.info("    SourceMeter toolchain is skipped, results are restored from the toolchain cache: " + cacheKey);
+                    this.incrementalAnalysis = null;
+                    recordResults(commands);
+                    return;
+                }
+            } catch (IOException e) {
+                LOG.warn("Toolchain cache cannot be read, SourceMeter toolchain is run.", e);
+            }
+        }
+
         LOG.debug("    Calling SourceMeter toolchain:");
         StringBuffer commandLineOptions = new StringBuffer();
         for (String command : commands) {
@@ -135,55 +357,274 @@ public abstract class SourceMeterSensor implements Sensor {
         if (LOG.isDebugEnabled()) {
             LOG.debug("        " + commandLineOptions.toString());
         }
-        ProcessBuilder sourceMeterProcessBuilder = new ProcessBuilder(commands);
-        sourceMeterProcessBuilder.directory(this.fileSystem.baseDir());
 
-        Process sourceMeterProcess = null;
-        BufferedReader br = null;
-        try {
-            sourceMeterProcess = sourceMeterProcessBuilder.start();
-
-            br = new BufferedReader(new InputStreamReader(
-                    sourceMeterProcess.getInputStream(),
-                    Charset.defaultCharset()));
-            StringBuilder smLogContent = new StringBuilder();
-            String line = br.readLine();
-            while (line != null) {
-                line = br.readLine();
-                smLogContent.append(line);
-                smLogContent.append(System.getProperty("line.separator"));
+        long timeoutMinutes = 0;
+        String timeoutValue = FileHelper.getStringFromConfiguration(this.configuration, ToolchainRunner.TIMEOUT_KEY);
+        if (timeoutValue != null) {
+            try {
+                timeoutMinutes = Long.parseLong(timeoutValue.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERROR: '" + ToolchainRunner.TIMEOUT_KEY + "' must be an integer!", e);
             }
-            sourceMeterProcess.waitFor();
+        }
 
-            String logFilePath = this.fileSystem.workDir().getAbsolutePath()
-                    + File.separator + "sourcemeter.log";
-            File smLogFile = new File(logFilePath);
-            if (!smLogFile.exists() && !smLogFile.createNewFile()) {
-                throw new RuntimeException("SourceMeter log file could not be created: " + logFilePath);
+        long timeoutMillis = TimeUnit.MINUTES.toMillis(Math.max(timeoutMinutes, 0));
+        runToolchain(commands, timeoutMillis);
+
+        if (this.incrementalAnalysis != null) {
+            IncrementalAnalysis incremental = this.incrementalAnalysis;
+            this.incrementalAnalysis = null;
+            boolean merged;
+            try {
+                merged = incremental.merge(getResultGraphFile());
+            } catch (IOException e) {
+                LOG.error("Partial result graph of the incremental analysis cannot be found.", e);
+                throw new RuntimeException(e);
+            } catch (GraphlibException e) {
+                LOG.error("Partial result graph of the incremental analysis cannot be merged with the previous one.", e);
+                throw new RuntimeException(e);
+            }
+            if (!merged) {
+                LOG.info("    SourceMeter toolchain is run again on every file.");
+                this.analysedFiles = incremental.getSourceFiles();
+                try {
+                    writeFilterToFile(this.analysedFiles, this.filterFileName);
+                } catch (IOException e) {
+                    LOG.error("Filter file of every source file cannot be written.", e);
+                    throw new RuntimeException(e);
+                }
+                runToolchain(commands, timeoutMillis);
             }
+        }
+
+        recordResults(commands);
 
-            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(smLogFile.getAbsolutePath()),
-                    Charset.defaultCharset()))) {
-                bw.write(smLogContent.toString());
+        if (cacheKey != null) {
+            try {
+                cache.store(cacheKey, new File(FileHelper.getSMSourcePath(this.configuration,
+                        this.fileSystem, '-', pluginLanguageKey)));
+            } catch (IOException e) {
+                LOG.warn("Toolchain results cannot be stored in the toolchain cache.", e);
             }
+        }
+    }
+
+    /**
+     * Runs the toolchain with the given command line and waits for it. The
+     * toolchain is started when {@link ToolchainSlots} admits it.
+     *
+     * @param commands Command line of the toolchain.
+     * @param smLogFile The output of the toolchain is streamed into this file.
+     * @param timeoutMillis The toolchain is killed after this time, 0 means no limit.
+     * @throws RuntimeException If the toolchain fails or times out.
+     */
+    private void execute(List<String> commands, File smLogFile, long timeoutMillis) {
+        try {
+            ToolchainRunner runner = new ToolchainRunner(commands, this.fileSystem.baseDir(), smLogFile, timeoutMillis);
+            runner.setMemory(getToolchainMemory(), new ToolchainRunner.MemoryOption() {
 
-            if (sourceMeterProcess.exitValue() != 0) {
+                @Override
+                public String format(int memoryMb) {
+                    return getMemoryOption(memoryMb);
+                }
+            });
+            String projectKey = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
+            int exitValue = ToolchainSlots.run(this.configuration, projectKey + " " + pluginLanguageKey, runner);
+            if (exitValue != 0) {
                 LOG.error("SourceMeter toolchain could not be executed properly. Please check the log file for more information: "
                         + smLogFile.getAbsolutePath());
                 throw new RuntimeException();
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (ToolchainRunner.ToolchainTimeoutException e) {
+            LOG.error(e.getMessage() + " Please check the log file for more information: "
+                    + smLogFile.getAbsolutePath());
+            throw new RuntimeException(e);
+        } catch (IOException e) {
             LOG.error("An exception occured while trying to run SourceMeter toolchain. Perhaps the permissions were not set correctly. Please check the trace for more information.", e);
             throw new RuntimeException(e);
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    LOG.error("Could not close opened resource!", e);
-                }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("SourceMeter toolchain was interrupted, it is killed.", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the toolchain in shards, see {@link ToolchainShards}.
+     *
+     * @param commands Command line of the toolchain.
+     * @param shards Source files of the shards.
+     * @param filterOption The option of the filter of the shards.
+     * @param timeoutMillis Every shard is killed after this time, 0 means no limit.
+     * @throws RuntimeException If a shard fails or times out, or the results cannot be merged.
+     */
+    private void runShards(List<String> commands, List<List<InputFile>> shards, String filterOption,
+                           final long timeoutMillis) {
+        List<String> cloneOptions = null;
+        if (ToolchainShards.isCloneDetectionEnabled(this.configuration)) {
+            cloneOptions = getCloneDetectionOptions();
+            if (cloneOptions.isEmpty()) {
+                LOG.warn("Clone detection between the toolchain shards is not supported for " + pluginLanguageKey + ".");
+                cloneOptions = null;
+            }
+        }
+
+        File languageDirectory;
+        try {
+            languageDirectory = getLanguageResultsDirectory();
+        } catch (IOException e) {
+            LOG.error("Results directory of the SourceMeter toolchain shards cannot be created.", e);
+            throw new RuntimeException(e);
+        }
+        String graphName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey")
+                .replace(':', '_') + ".graph";
+
+        LOG.info("    SourceMeter toolchain is run in " + shards.size() + " shards for " + pluginLanguageKey + ".");
+        ToolchainShards.run(commands, shards, filterOption, cloneOptions, languageDirectory, graphName,
+                new ToolchainShards.Launcher() {
+
+                    @Override
+                    public File getWorkDir() {
+                        return fileSystem.workDir();
+                    }
+
+                    @Override
+                    public String writeFilter(List<InputFile> files, String fileName) throws IOException {
+                        return writeFilterToFile(files, fileName);
+                    }
+
+                    @Override
+                    public void execute(List<String> shardCommands, File logFile) {
+                        SourceMeterSensor.this.execute(shardCommands, logFile, timeoutMillis);
+                    }
+                });
+    }
+
+    /**
+     * The option of the command line, which gives the filter file of the
+     * toolchain shards, for example -externalHardFilter. The toolchain of
+     * the language can only be sharded if such a filter keeps the files of
+     * the other shards out of the analysis.
+     *
+     * @return The option with its leading dash, or null if the toolchain cannot be sharded.
+     */
+    protected String getShardFilterOption() {
+        return null;
+    }
+
+    /**
+     * The options of the command line, which turn off every tool of the
+     * toolchain except for the clone detection. These are used by the clone
+     * detection between the toolchain shards.
+     *
+     * @return Options in the form -option=value, or an empty list if it is not supported.
+     */
+    protected List<String> getCloneDetectionOptions() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * The option of the command line, which gives the memory of the
+     * toolchain. If the toolchain has such an option, it is started with less
+     * memory when the host is crowded, see {@link ToolchainSlots}.
+     *
+     * @param memoryMb Memory of the toolchain in megabytes.
+     * @return The option in the form -option=value, or null if the memory of the toolchain cannot be lowered.
+     */
+    protected String getMemoryOption(int memoryMb) {
+        return null;
+    }
+
+    /**
+     * Runs the toolchain on the analysed files, in shards if the
+     * sm.toolchainShards setting is greater than 1.
+     *
+     * @param commands Command line of the toolchain.
+     * @param timeoutMillis Timeout of the toolchain, or 0 if it is not limited.
+     */
+    private void runToolchain(List<String> commands, long timeoutMillis) {
+        int shardCount = ToolchainShards.getShardCount(this.configuration);
+        String shardFilterOption = getShardFilterOption();
+        List<List<InputFile>> shards = null;
+        if (shardCount > 1 && shardFilterOption != null) {
+            shards = ToolchainShards.split(this.analysedFiles != null
+                    ? this.analysedFiles : getSourceFiles(this.fileSystem, languageKey), shardCount);
+        }
+        if (shards != null && shards.size() > 1) {
+            runShards(commands, shards, shardFilterOption, timeoutMillis);
+        } else {
+            if (shardCount > 1) {
+                LOG.info("    SourceMeter toolchain cannot be sharded for " + pluginLanguageKey + ", it is run on every file.");
+            }
+            execute(commands, new File(this.fileSystem.workDir(), "sourcemeter.log"), timeoutMillis);
+        }
+    }
+
+    /**
+     * Records the newest run of the toolchain in the results manifest of the
+     * language, with the checksums of the source files if the incremental
+     * analysis is turned on. The older runs are retained after the upload,
+     * see {@link #uploadResults}.
+     *
+     * @param commands Command line of the toolchain.
+     */
+    private void recordResults(List<String> commands) {
+        try {
+            File languageDirectory = getLanguageResultsDirectory();
+            String projectKey = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
+            File run = ResultsManifest.recordLatestRun(languageDirectory, projectKey.replace(':', '_') + ".graph",
+                    ResultsManifest.computeFingerprint(commands), this.sourceFileHashes);
+            LOG.debug("    SourceMeter toolchain run is recorded in the results manifest: " + run);
+        } catch (IOException e) {
+            LOG.warn("Results manifest cannot be updated.", e);
+        }
+    }
+
+    /**
+     * Returns the result graph in the newest results directory of the language.
+     */
+    private File getResultGraphFile() throws IOException {
+        String projectKey = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
+        return new File(FileHelper.getSMSourcePath(this.configuration, this.fileSystem, '-', pluginLanguageKey),
+                projectKey.replace(':', '_') + ".graph");
+    }
+
+    /**
+     * Returns the results directory of the language, the timestamped results
+     * of the toolchain runs are stored in this directory. If the toolchain
+     * has not been run yet, the directory is created in the base directory,
+     * where the toolchain would create it.
+     */
+    private File getLanguageResultsDirectory() throws IOException {
+        try {
+            return FileHelper.getLanguageResultsDirectory(this.configuration, this.fileSystem, pluginLanguageKey);
+        } catch (IOException e) {
+            File resultsDir = new File(FileHelper.getStringFromConfiguration(this.configuration, "sm.resultsdir"));
+            if (!resultsDir.isAbsolute()) {
+                resultsDir = new File(this.fileSystem.baseDir(), resultsDir.getPath());
             }
+            String projectKey = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
+            File directory = new File(new File(resultsDir, projectKey.replace(':', '_')), pluginLanguageKey);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create results directory: " + directory);
+            }
+            return directory;
+        }
+    }
+
+    /**
+     * Returns the memory of the toolchain in megabytes given by the
+     * sm.&lt;language&gt;.maxMem setting, or 0 if it is not set.
+     */
+    private int getToolchainMemory() {
+        String maxMem = FileHelper.getStringFromConfiguration(this.configuration, "sm." + pluginLanguageKey + ".maxMem");
+        if (maxMem == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(maxMem.trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -192,11 +633,13 @@ public abstract class SourceMeterSensor implements Sensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sonarQube.
+     * @param uploadContext Context of the upload.
      * @param headerLicenseInformations Informations from sourceMeter's result graph's header file.
      * @param targetMetric Information will be saved in this metric.
      */
-    protected void saveLicense(Graph graph,
+    protected void saveLicense(GraphReader graph,
                                SensorContext sensorContext,
+                               UploadContext uploadContext,
                                Map<String, String> headerLicenseInformations,
                                Metric targetMetric) {
         Gson gson = new Gson();
@@ -213,46 +656,57 @@ public abstract class SourceMeterSensor implements Sensor {
             licenseInformation.addTool(entry.getValue(), value);
         }
 
-        sensorContext.newMeasure()
-                .forMetric(targetMetric)
-                .withValue(gson.toJson(licenseInformation).toString())
-                .on(sensorContext.project())
-                .save();
+        String licenseJson = gson.toJson(licenseInformation).toString();
+        if (!uploadContext.getMeasureSink().add(sensorContext.project(), targetMetric, licenseJson)) {
+            return;
+        }
+
+        UploadSnapshot.Recorder recorder = uploadContext.getSnapshotRecorder();
+        if (recorder != null) {
+            recorder.addMeasure(sensorContext.project(), targetMetric.key(), licenseJson);
+        }
+    }
+
+    /**
+     * First rule of the filter files, which excludes every file.
+     *
+     * @return Rule excluding everything.
+     */
+    protected String getExcludeAllFilterRule() {
+        return "-.*";
     }
 
     /**
-     * Assemble filter file's content by exclusions.
+     * Compiles the filter of the analysed source files and writes it to disk.
+     * The filter is streamed into the file, see {@link FilterCompiler}.
      *
      * @param sensorContext Context of the sensor.
      * @param languageKey Key of the analyzed language.
-     * @return Filter file's content.
+     * @param fileName The name of the filter.
+     * @return Filter file's path.
+     * @throws IOException
      */
-    protected String getFilterContent(SensorContext sensorContext, String languageKey) {
-        StringBuffer filter = new StringBuffer("-.*\n");
-
-        List<InputFile> sourceFilesForProject = getSourceFilesForProject(sensorContext, languageKey);
-        for (InputFile file : sourceFilesForProject) {
-            String path = file.uri().normalize().getPath();
-            filter.append("+");
-            if (system.isOsWindows()) {
-                filter.append(path.substring(1).replace("/", "\\\\"));
-            } else {
-                filter.append(Pattern.quote(path));
-            }
-            filter.append("\n");
-        }
-        return filter.toString();
+    private String writeFilterToFile(SensorContext sensorContext, String languageKey,
+                                     String fileName) throws IOException {
+        this.analysedFiles = getAnalysedSourceFiles(sensorContext, languageKey);
+        this.filterFileName = fileName;
+        return writeFilterToFile(this.analysedFiles, fileName);
     }
 
     /**
-     * Writes general filter file's content to disk
+     * Compiles the filter of the given source files and writes it to disk.
      *
-     * @param filter The filter file's content.
+     * @param files Source files to be included by the filter.
      * @param fileName The name of the filter.
      * @return Filter file's path.
      * @throws IOException
      */
-    private String writeFilterToFile(String filter, String fileName) throws IOException {
+    private String writeFilterToFile(List<InputFile> files, String fileName) throws IOException {
+        FilterCompiler compiler = new FilterCompiler(system.isOsWindows());
+        for (InputFile file : files) {
+            compiler.addFile(file.uri().normalize().getPath());
+        }
+
         String workDir = this.fileSystem.workDir().getCanonicalPath();
         if (workDir.endsWith("\\.") || workDir.endsWith("/.")) {
             workDir = workDir.substring(0, workDir.length() - 2);
@@ -264,35 +718,72 @@ public abstract class SourceMeterSensor implements Sensor {
                     + filterFilePath);
         }
 
+        int rules;
         try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
                 new FileOutputStream(filterFile.getAbsolutePath()),
                 Charset.defaultCharset()))) {
-            bw.write(filter);
+            rules = compiler.write(bw, getExcludeAllFilterRule());
         }
+        LOG.info("Filter of " + compiler.getFileCount() + " source files is compiled into "
+                + rules + " rules: " + filterFilePath);
 
         return filterFilePath;
     }
 
     /**
-     * Writes soft filter file's content to disk
+     * Writes the soft filter of the analysed source files to disk.
      *
-     * @param filter The filter file's content.
+     * @param sensorContext Context of the sensor.
+     * @param languageKey Key of the analyzed language.
      * @return Filter file's path.
      * @throws IOException
      */
-    protected String writeSoftFilterToFile(String filter) throws IOException {
-        return writeFilterToFile(filter, "softFilterFile");
+    protected String writeSoftFilterToFile(SensorContext sensorContext, String languageKey) throws IOException {
+        return writeFilterToFile(sensorContext, languageKey, "softFilterFile");
     }
 
     /**
-     * Writes hard filter file's content to disk.
+     * Writes the hard filter of the analysed source files to disk.
      *
-     * @param filter The filter file's content.
+     * @param sensorContext Context of the sensor.
+     * @param languageKey Key of the analyzed language.
      * @return Filter file's path.
      * @throws IOException
      */
-    protected String writeHardFilterToFile(String filter) throws IOException {
-        return writeFilterToFile(filter, "hardFilterFile");
+    protected String writeHardFilterToFile(SensorContext sensorContext, String languageKey) throws IOException {
+        return writeFilterToFile(sensorContext, languageKey, "hardFilterFile");
+    }
+
+    /**
+     * List of source files to be analysed by the toolchain. In an incremental
+     * analysis these are the added and changed files and the files depending
+     * on them, otherwise every source file of the project.
+     *
+     * @param sensorContext Context of the sensor.
+     * @param languageKey Key of the analyzed language.
+     * @return Source files list.
+     */
+    protected List<InputFile> getAnalysedSourceFiles(SensorContext sensorContext, String languageKey) {
+        List<InputFile> sourceFiles = getSourceFilesForProject(sensorContext, languageKey);
+        this.incrementalAnalysis = null;
+        this.sourceFileHashes = null;
+        if (!IncrementalAnalysis.isEnabled(this.configuration)) {
+            return sourceFiles;
+        }
+
+        this.sourceFileHashes = IncrementalAnalysis.computeFileHashes(sourceFiles);
+        File previousGraph = null;
+        Map<String, String> previousHashes = null;
+        try {
+            previousGraph = getResultGraphFile();
+            previousHashes = ResultsManifest.getFileHashes(getLanguageResultsDirectory(),
+                    previousGraph.getParentFile().getName());
+        } catch (IOException e) {
+            LOG.debug("    There is no previous results directory.", e);
+        }
+        this.incrementalAnalysis = IncrementalAnalysis.prepare(this.configuration, previousGraph, previousHashes,
+                this.fileSystem.workDir(), sourceFiles, this.sourceFileHashes);
+        return this.incrementalAnalysis == null ? sourceFiles : this.incrementalAnalysis.getAnalysedFiles();
     }
 
     /**
@@ -303,8 +794,11 @@ public abstract class SourceMeterSensor implements Sensor {
      * @return Source files list.
      */
     protected List<InputFile> getSourceFilesForProject(SensorContext sensorContext, String languageKey ) {
+        return getSourceFiles(sensorContext.fileSystem(), languageKey);
+    }
+
+    private static List<InputFile> getSourceFiles(FileSystem fileSystem, String languageKey) {
         List<InputFile> sourceFiles = new ArrayList<InputFile>();
-        FileSystem fileSystem = sensorContext.fileSystem();
 
         FilePredicates predicates = fileSystem.predicates();
         Iterable<InputFile> inputFiles = fileSystem.inputFiles(
@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+
+/**
+ * Content addressed cache of the toolchain results. The key of a result is a
+ * hash of the analyzed source files, the command line of the toolchain, the
+ * files given to the toolchain on the command line (profile, filters) and the
+ * toolchain binary itself, so an unchanged input is not analyzed twice. The
+ * cache is bounded in size, the least recently used results are evicted.
+ */
+final class ToolchainCache {
+
+    static final String DIRECTORY_KEY = "sm.toolchainCacheDir";
+    static final String SIZE_KEY = "sm.toolchainCacheSize";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ToolchainCache.class);
+
+    private static final long DEFAULT_SIZE_MB = 2048;
+    private static final String RESULTS_DIRECTORY = "results";
+    private static final String ENTRY_FILE = "entry.properties";
+    private static final String SIZE_PROPERTY = "size";
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd-HH-mm-ss";
+    private static final String TIMESTAMP_PATTERN = "[0-9]{4}-[0-9]{2}-[0-9]{2}-[0-9]{2}-[0-9]{2}-[0-9]{2}";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+
+    private ToolchainCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache given by the sm.toolchainCacheDir setting.
+     *
+     * @param configuration Contains the settings of the cache.
+     * @return The cache, or null if the cache is not enabled.
+     * @throws RuntimeException If the size of the cache is not an integer.
+     */
+    static ToolchainCache open(Configuration configuration) {
+        String directory = FileHelper.getStringFromConfiguration(configuration, DIRECTORY_KEY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+
+        long sizeMb = DEFAULT_SIZE_MB;
+        String sizeValue = FileHelper.getStringFromConfiguration(configuration, SIZE_KEY);
+        if (sizeValue != null) {
+            try {
+                sizeMb = Long.parseLong(sizeValue.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERROR: '" + SIZE_KEY + "' must be an integer!", e);
+            }
+        }
+        return new ToolchainCache(new File(directory.trim()), Math.max(sizeMb, 0) * 1024 * 1024);
+    }
+
+    /**
+     * Computes the key of a toolchain run.
+     *
+     * @param commands Command line of the toolchain, the first element is the toolchain itself.
+     * @param sourceFiles Source files analyzed by the toolchain.
+     * @return Hexadecimal hash of the inputs of the toolchain.
+     * @throws IOException If an input cannot be read.
+     */
+    String computeKey(List<String> commands, List<InputFile> sourceFiles) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        if (!commands.isEmpty()) {
+            File toolchain = new File(commands.get(0));
+            update(digest, "toolchain=" + toolchain.getAbsolutePath()
+                    + ":" + toolchain.length() + ":" + toolchain.lastModified());
+        }
+        for (String command : commands) {
+            update(digest, "command=" + command);
+            int separator = command.indexOf('=');
+            if (command.startsWith("-") && separator > 0) {
+                File file = new File(command.substring(separator + 1));
+                if (file.isFile()) {
+                    InputStream input = new FileInputStream(file);
+                    try {
+                        update(digest, input, buffer);
+                    } finally {
+                        input.close();
+                    }
+                }
+            }
+        }
+
+        List<InputFile> files = new ArrayList<InputFile>(sourceFiles);
+        Collections.sort(files, new Comparator<InputFile>() {
+
+            @Override
+            public int compare(InputFile first, InputFile second) {
+                return first.uri().toString().compareTo(second.uri().toString());
+            }
+        });
+        for (InputFile file : files) {
+            update(digest, "source=" + file.uri());
+            InputStream input = file.inputStream();
+            try {
+                update(digest, input, buffer);
+            } finally {
+                input.close();
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copies the cached results of a toolchain run into a new timestamped
+     * directory of the language results directory, as if the toolchain had
+     * been run now.
+     *
+     * @param key Key of the toolchain run.
+     * @param languageDirectory Results directory of the language.
+     * @return True if the results were found and restored.
+     * @throws IOException If the results cannot be copied.
+     */
+    boolean restore(String key, File languageDirectory) throws IOException {
+        File entry = new File(this.directory, key);
+        File results = new File(entry, RESULTS_DIRECTORY);
+        File entryFile = new File(entry, ENTRY_FILE);
+        if (!results.isDirectory() || !entryFile.isFile()) {
+            return false;
+        }
+
+        String timestamp = new SimpleDateFormat(TIMESTAMP_FORMAT).format(new Date());
+        String[] existing = languageDirectory.list();
+        if (existing != null) {
+            for (String name : existing) {
+                if (name.matches(TIMESTAMP_PATTERN) && name.compareTo(timestamp) >= 0) {
+                    LOG.debug("    Toolchain cache entry " + key + " is not restored, a newer result exists: " + name);
+                    return false;
+                }
+            }
+        }
+
+        File target = new File(languageDirectory, timestamp);
+        try {
+            copyDirectory(results.toPath(), target.toPath());
+        } catch (IOException e) {
+            deleteDirectory(target.toPath());
+            throw e;
+        }
+        if (!entryFile.setLastModified(System.currentTimeMillis())) {
+            LOG.debug("    Last use of toolchain cache entry " + key + " cannot be updated.");
+        }
+        return true;
+    }
+
+    /**
+     * Stores the results of a toolchain run in the cache, and evicts the least
+     * recently used results if the cache is full.
+     *
+     * @param key Key of the toolchain run.
+     * @param resultsDirectory Timestamped results directory of the toolchain run.
+     * @throws IOException If the results cannot be copied.
+     */
+    void store(String key, File resultsDirectory) throws IOException {
+        File entry = new File(this.directory, key);
+        if (entry.exists()) {
+            return;
+        }
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create toolchain cache directory: " + this.directory);
+        }
+
+        File temporary = new File(this.directory, TEMPORARY_PREFIX + key + "-" + System.nanoTime());
+        try {
+            long size = copyDirectory(resultsDirectory.toPath(), new File(temporary, RESULTS_DIRECTORY).toPath());
+            if (size > this.maxBytes) {
+                LOG.info("    Toolchain results are not cached, they are larger than the cache: " + size + " bytes");
+                return;
+            }
+
+            Properties properties = new Properties();
+            properties.setProperty(SIZE_PROPERTY, Long.toString(size));
+            OutputStream output = new FileOutputStream(new File(temporary, ENTRY_FILE));
+            try {
+                properties.store(output, null);
+            } finally {
+                output.close();
+            }
+
+            try {
+                Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                if (!entry.exists()) {
+                    throw e;
+                }
+            }
+        } finally {
+            deleteDirectory(temporary.toPath());
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its
+     * size limit.
+     */
+    private void evict() {
+        File[] entries = this.directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        final long[] lastUses = new long[entries.length];
+        long[] sizes = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        long totalSize = 0;
+        for (int i = 0; i < entries.length; i++) {
+            order[i] = i;
+            File entryFile = new File(entries[i], ENTRY_FILE);
+            if (entries[i].getName().startsWith(TEMPORARY_PREFIX) || !entryFile.isFile()) {
+                continue;
+            }
+            lastUses[i] = entryFile.lastModified();
+            sizes[i] = readSize(entryFile);
+            totalSize += sizes[i];
+        }
+        if (totalSize <= this.maxBytes) {
+            return;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Long.compare(lastUses[first], lastUses[second]);
+            }
+        });
+        for (int i = 0; i < order.length && totalSize > this.maxBytes; i++) {
+            int index = order[i];
+            if (sizes[index] == 0) {
+                continue;
+            }
+            try {
+                deleteDirectory(entries[index].toPath());
+                totalSize -= sizes[index];
+                LOG.debug("    Toolchain cache entry is evicted: " + entries[index].getName());
+            } catch (IOException e) {
+                LOG.warn("Toolchain cache entry cannot be evicted: " + entries[index], e);
+            }
+        }
+    }
+
+    private static long readSize(File entryFile) {
+        Properties properties = new Properties();
+        try {
+            InputStream input = new FileInputStream(entryFile);
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+            return Long.parseLong(properties.getProperty(SIZE_PROPERTY, "0"));
+        } catch (IOException e) {
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, InputStream input, byte[] buffer) throws IOException {
+        long length = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            length += read;
+        }
+        update(digest, length);
+    }
+
+    private static void update(MessageDigest digest, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+
+    /**
+     * Copies a directory recursively.
+     *
+     * @return Size of the copied files in bytes.
+     */
+    private static long copyDirectory(final Path source, final Path target) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Startable;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scanner.ScannerSide;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+
+/**
+ * Starts the SourceMeter toolchains of the sensors in the background, before
+ * the sensors are executed, so the toolchains of the languages run at the
+ * same time, and a sensor only waits for its own toolchain before the upload.
+ *
+ * The coordinator is a component of the analysis, which is injected into the
+ * sensors and into {@link ToolchainLauncherSensor}. The sensors register
+ * themselves when they are created, if the sm.concurrentToolchains setting
+ * is turned on, and {@link ToolchainLauncherSensor} starts their toolchains.
+ * Every analyzer plug-in has its own coordinator, the number of the
+ * toolchains running at the same time is limited by {@link ToolchainSlots}.
+ *
+ * The toolchains, which are not awaited by their sensors, are killed when
+ * the analysis is stopped (for example, because an other sensor failed) or
+ * when the scanner exits.
+ */
+@ScannerSide
+public final class ToolchainCoordinator implements Startable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ToolchainCoordinator.class);
+
+    private static final long STOP_TIMEOUT_MINUTES = 1L;
+
+    private final boolean enabled;
+    private final List<SourceMeterSensor> sensors = new ArrayList<SourceMeterSensor>();
+    private final Map<SourceMeterSensor, Future<Void>> launched = new IdentityHashMap<SourceMeterSensor, Future<Void>>();
+    private ExecutorService executor;
+    private Thread shutdownHook;
+
+    /**
+     * Constructor: Use of IoC to get Settings.
+     */
+    public ToolchainCoordinator(Configuration configuration) {
+        this.enabled = "true".equals(FileHelper.getStringFromConfiguration(configuration,
+                ToolchainLauncherSensor.CONCURRENT_TOOLCHAINS_KEY));
+    }
+
+    /**
+     * Registers a sensor, its toolchain is started by the next launch. The
+     * sensors are only registered if the toolchains are started in the
+     * background.
+     *
+     * @param sensor The sensor.
+     */
+    synchronized void register(SourceMeterSensor sensor) {
+        if (this.enabled) {
+            this.sensors.add(sensor);
+        }
+    }
+
+    /**
+     * Starts the toolchains of the registered sensors, which have something to
+     * analyze. The command lines are built on the calling thread, so settings
+     * errors fail the analysis right away.
+     *
+     * @param sensorContext Context of the sensor.
+     */
+    synchronized void launchAll(SensorContext sensorContext) {
+        for (final SourceMeterSensor sensor : this.sensors) {
+            if (!sensor.isToolchainApplicable()) {
+                continue;
+            }
+            sensor.prepareToolchain(sensorContext);
+
+            this.launched.put(sensor, getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    sensor.runSourceMeter(sensor.commands);
+                }
+            }, (Void) null));
+            LOG.info("    SourceMeter toolchain is started in the background for " + sensor.pluginLanguageKey + ".");
+        }
+        this.sensors.clear();
+    }
+
+    /**
+     * Returns the toolchain started for the given sensor, and forgets it.
+     *
+     * @param sensor The sensor.
+     * @return The toolchain run, or null if no toolchain was started for the sensor.
+     */
+    synchronized Future<Void> take(SourceMeterSensor sensor) {
+        this.sensors.remove(sensor);
+        return this.launched.remove(sensor);
+    }
+
+    /**
+     * Waits for the given toolchain run.
+     *
+     * @param launched The toolchain run.
+     * @throws RuntimeException If the toolchain failed.
+     */
+    static void await(Future<Void> launched) {
+        try {
+            launched.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            launched.cancel(true);
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        // The toolchains are started by the launch.
+    }
+
+    /**
+     * Kills the toolchains, which are still running in the background, when
+     * the analysis is stopped.
+     */
+    @Override
+    public void stop() {
+        Thread hook;
+        synchronized (this) {
+            for (Map.Entry<SourceMeterSensor, Future<Void>> entry : this.launched.entrySet()) {
+                if (!entry.getValue().isDone()) {
+                    LOG.info("    SourceMeter toolchain started in the background for "
+                            + entry.getKey().pluginLanguageKey + " is not awaited, it is killed.");
+                }
+            }
+            hook = this.shutdownHook;
+            this.shutdownHook = null;
+            this.sensors.clear();
+            this.launched.clear();
+        }
+        if (hook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // The scanner is exiting, the hook is running.
+            }
+        }
+        shutdown();
+    }
+
+    /**
+     * Returns the executor of the background toolchains. A shutdown hook
+     * kills the toolchains if the scanner exits before the analysis is
+     * stopped.
+     */
+    private ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SourceMeter toolchain");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdown();
+                }
+            }, "SourceMeter toolchain shutdown");
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
+        return this.executor;
+    }
+
+    /**
+     * Interrupts the running toolchains, which kills them, and waits for them.
+     */
+    private void shutdown() {
+        ExecutorService running;
+        synchronized (this) {
+            running = this.executor;
+            this.executor = null;
+        }
+        if (running == null) {
+            return;
+        }
+        running.shutdownNow();
+        try {
+            if (!running.awaitTermination(STOP_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                LOG.warn("SourceMeter toolchains started in the background could not be stopped.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
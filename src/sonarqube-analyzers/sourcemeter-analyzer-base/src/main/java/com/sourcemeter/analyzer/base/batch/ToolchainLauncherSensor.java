@@ -1,5 +1,5 @@
 /**
- * Copyright (c) 2014-2015, FrontEndART Software Ltd.
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
  * All rights reserved.
  *
  * Redistribution and use in source and binary forms, with or without
@@ -28,46 +28,53 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-package com.sourcemeter.analyzer.base.visitor;
+package com.sourcemeter.analyzer.base.batch;
 
-import graphlib.Edge;
-import graphlib.Node;
+import org.sonar.api.batch.Phase;
+import org.sonar.api.batch.sensor.Sensor;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.SensorDescriptor;
 
 /**
- * Visitor class for counting visited nodes in the result graph.
+ * Starts the SourceMeter toolchain of the plug-in in the background, before
+ * the sensors of the analysis are executed, if the sm.concurrentToolchains
+ * setting is turned on, see {@link ToolchainCoordinator}.
  */
-public class NodeCounterVisitor implements graphlib.Visitor {
+@Phase(name = Phase.Name.PRE)
+public class ToolchainLauncherSensor implements Sensor {
 
-    private long numberOfNodes;
+    public static final String CONCURRENT_TOOLCHAINS_KEY = "sm.concurrentToolchains";
+
+    private final ToolchainCoordinator coordinator;
 
     /**
-     * {@inheritDoc}
+     * Constructor: Use of IoC to get the coordinator of the toolchains.
      */
-    @Override
-    public void edgeVisitorFunc(Edge e) {
+    public ToolchainLauncherSensor(ToolchainCoordinator coordinator) {
+        this.coordinator = coordinator;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void postNodeVisitorFunc(Node node) {
+    public void describe(SensorDescriptor descriptor) {
+        descriptor.name("SourceMeter toolchain launcher");
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void preNodeVisitorFunc(Node node) {
-        this.numberOfNodes++;
+    public void execute(SensorContext sensorContext) {
+        this.coordinator.launchAll(sensorContext);
     }
 
     /**
-     * Returns the number of nodes in the result graph.
-     *
-     * @return Number of nodes in the result graph.
+     * {@inheritDoc}
      */
-    public long getNumberOfNodes() {
-        return this.numberOfNodes;
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
     }
 }
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the SourceMeter toolchain. The standard output and the standard error
+ * of the toolchain are streamed into the log file while the toolchain runs,
+ * and its progress markers are written into the log of the scanner. If the
+ * toolchain does not finish within the given time, it is killed together
+ * with the processes started by it.
+ */
+public final class ToolchainRunner {
+
+    public static final String TIMEOUT_KEY = "sm.toolchainTimeout";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ToolchainRunner.class);
+
+    /**
+     * Lines of the toolchain reporting its progress, ex.: "[3/9] Running
+     * metrics" or "Running FaultHunter...".
+     */
+    private static final Pattern PROGRESS_PATTERN = Pattern.compile(
+            "^\\s*(\\[\\s*\\d+\\s*/\\s*\\d+\\s*\\]|(Running|Executing|Analyzing|Processing)\\s).*");
+
+    private static final long DESTROY_GRACE_MILLIS = 10000L;
+    private static final long PUMP_JOIN_MILLIS = 10000L;
+
+    private List<String> commands;
+    private final File workingDirectory;
+    private final File logFile;
+    private final long timeoutMillis;
+    private int memoryMb;
+    private MemoryOption memoryOption;
+
+    /**
+     * @param commands Command line of the toolchain.
+     * @param workingDirectory Working directory of the toolchain.
+     * @param logFile The output of the toolchain is written into this file.
+     * @param timeoutMillis Wall-clock time limit of the toolchain, 0 means no limit.
+     */
+    public ToolchainRunner(List<String> commands, File workingDirectory, File logFile, long timeoutMillis) {
+        this.commands = commands;
+        this.workingDirectory = workingDirectory;
+        this.logFile = logFile;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the memory of the toolchain, which is given by an option of its
+     * command line.
+     *
+     * @param memoryMb Memory of the toolchain in megabytes, 0 if it is unknown.
+     * @param memoryOption Formats the memory option, or null if the toolchain has none.
+     */
+    public void setMemory(int memoryMb, MemoryOption memoryOption) {
+        this.memoryMb = memoryMb;
+        this.memoryOption = memoryOption;
+    }
+
+    /**
+     * Returns the memory of the toolchain in megabytes, 0 if it is unknown.
+     */
+    int getMemoryMb() {
+        return this.memoryMb;
+    }
+
+    /**
+     * Returns true if the toolchain can be started with less memory: its
+     * command line contains the memory option.
+     */
+    boolean isMemoryAdjustable() {
+        return this.memoryOption != null && this.memoryMb > 0
+                && this.commands.contains(this.memoryOption.format(this.memoryMb));
+    }
+
+    /**
+     * Lowers the memory of the toolchain by replacing its memory option.
+     *
+     * @param lowerMemoryMb New memory of the toolchain in megabytes.
+     */
+    void lowerMemory(int lowerMemoryMb) {
+        if (!isMemoryAdjustable() || lowerMemoryMb >= this.memoryMb) {
+            return;
+        }
+        List<String> lowered = new ArrayList<String>(this.commands);
+        lowered.set(lowered.indexOf(this.memoryOption.format(this.memoryMb)), this.memoryOption.format(lowerMemoryMb));
+        LOG.info("    The host is crowded, the memory of the SourceMeter toolchain is lowered from "
+                + this.memoryMb + " MB to " + lowerMemoryMb + " MB.");
+        this.commands = lowered;
+        this.memoryMb = lowerMemoryMb;
+    }
+
+    /**
+     * Runs the toolchain and waits for it.
+     *
+     * @return Exit value of the toolchain.
+     * @throws IOException If the toolchain cannot be started or the log file
+     *         cannot be written.
+     * @throws InterruptedException If the current thread is interrupted, the
+     *         toolchain is killed.
+     * @throws ToolchainTimeoutException If the toolchain is killed by the
+     *         watchdog.
+     */
+    public int run() throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(commands);
+        processBuilder.directory(workingDirectory);
+
+        try (Writer log = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(logFile), Charset.defaultCharset()))) {
+            Process process = processBuilder.start();
+            process.getOutputStream().close();
+
+            List<Thread> pumps = new ArrayList<Thread>(2);
+            List<StreamPump> pumpTasks = new ArrayList<StreamPump>(2);
+            pumpTasks.add(new StreamPump(process.getInputStream(), log));
+            pumpTasks.add(new StreamPump(process.getErrorStream(), log));
+            for (int i = 0; i < pumpTasks.size(); i++) {
+                Thread pump = new Thread(pumpTasks.get(i), "SourceMeter toolchain output " + i);
+                pump.setDaemon(true);
+                pump.start();
+                pumps.add(pump);
+            }
+
+            boolean finished = false;
+            try {
+                if (timeoutMillis > 0) {
+                    finished = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    process.waitFor();
+                    finished = true;
+                }
+            } finally {
+                if (!finished) {
+                    destroyProcessTree(process);
+                }
+                for (Thread pump : pumps) {
+                    pump.join(PUMP_JOIN_MILLIS);
+                }
+            }
+
+            for (StreamPump pumpTask : pumpTasks) {
+                if (pumpTask.failure != null) {
+                    throw pumpTask.failure;
+                }
+            }
+            if (!finished) {
+                throw new ToolchainTimeoutException("SourceMeter toolchain did not finish in "
+                        + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + " seconds, it is killed.");
+            }
+            return process.exitValue();
+        }
+    }
+
+    /**
+     * Kills the given process and the processes started by it. The
+     * descendants of the process can only be reached on Java 9 or later,
+     * on Java 8 only the process itself is killed.
+     */
+    private static void destroyProcessTree(Process process) throws InterruptedException {
+        List<Object> descendants = getDescendants(process);
+
+        invokeOnHandles(descendants, "destroy");
+        process.destroy();
+        if (!process.waitFor(DESTROY_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+        }
+        invokeOnHandles(descendants, "destroyForcibly");
+    }
+
+    private static List<Object> getDescendants(Process process) {
+        List<Object> descendants = new ArrayList<Object>();
+        try {
+            Class<?> processHandleClass = Class.forName("java.lang.ProcessHandle");
+            Object handle = Process.class.getMethod("toHandle").invoke(process);
+            Object stream = processHandleClass.getMethod("descendants").invoke(handle);
+            Iterator<?> iterator = (Iterator<?>) Class.forName("java.util.stream.BaseStream")
+                    .getMethod("iterator").invoke(stream);
+            while (iterator.hasNext()) {
+                descendants.add(iterator.next());
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("The processes started by the toolchain cannot be listed.", e);
+        }
+        return descendants;
+    }
+
+    private static void invokeOnHandles(List<Object> handles, String methodName) {
+        if (handles.isEmpty()) {
+            return;
+        }
+        try {
+            Method method = Class.forName("java.lang.ProcessHandle").getMethod(methodName);
+            for (Object handle : handles) {
+                method.invoke(handle);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("The processes started by the toolchain cannot be killed.", e);
+        }
+    }
+
+    /**
+     * Copies the lines of an output stream of the toolchain into the log
+     * file, and writes the progress markers into the log of the scanner.
+     */
+    private static final class StreamPump implements Runnable {
+
+        private final InputStream stream;
+        private final Writer log;
+        private volatile IOException failure;
+
+        private StreamPump(InputStream stream, Writer log) {
+            this.stream = stream;
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(stream, Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    synchronized (log) {
+                        log.write(line);
+                        log.write(System.lineSeparator());
+                        log.flush();
+                    }
+                    if (PROGRESS_PATTERN.matcher(line).matches()) {
+                        LOG.info("        " + line.trim());
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Formats the option of the command line, which gives the memory of the
+     * toolchain.
+     */
+    public interface MemoryOption {
+
+        /**
+         * @param memoryMb Memory of the toolchain in megabytes.
+         * @return The option in the form -option=value.
+         */
+        String format(int memoryMb);
+    }
+
+    /**
+     * Thrown if the toolchain is killed, because it did not finish in time.
+     */
+    public static final class ToolchainTimeoutException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ToolchainTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphWriter;
+
+import graphlib.GraphlibException;
+
+/**
+ * Sharded execution of the toolchain of a language. The analysed source files
+ * are split into the number of shards given by the sm.toolchainShards
+ * setting by their directories (source roots and packages), and every shard
+ * is analysed by an own toolchain process with an own filter at the same
+ * time. The result graphs of the shards are merged into one result graph by
+ * {@link ShardGraphMerger}, which is written into a new timestamped results
+ * directory, as if the toolchain had been run on every file.
+ *
+ * The clones are only detected inside of the shards. If the
+ * sm.toolchainShardClones setting is turned on, the toolchain is run once
+ * more on every analysed file with the clone detection only, and its clone
+ * classes and instances replace the ones of the shards.
+ */
+final class ToolchainShards {
+
+    static final String SHARDS_KEY = "sm.toolchainShards";
+    static final String CLONES_KEY = "sm.toolchainShardClones";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ToolchainShards.class);
+
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd-HH-mm-ss";
+    private static final char DATE_SEPARATOR = '-';
+    private static final long STOP_TIMEOUT_MINUTES = 1L;
+
+    private ToolchainShards() {
+    }
+
+    /**
+     * Returns the number of shards given by the sm.toolchainShards setting.
+     *
+     * @param configuration Contains the settings of the shards.
+     * @return Number of shards, 1 if the toolchain is not sharded.
+     * @throws RuntimeException If the setting is not an integer.
+     */
+    static int getShardCount(Configuration configuration) {
+        String value = FileHelper.getStringFromConfiguration(configuration, SHARDS_KEY);
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            return Math.max(Integer.parseInt(value.trim()), 1);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("ERROR: '" + SHARDS_KEY + "' must be an integer!", e);
+        }
+    }
+
+    /**
+     * Returns true if the clones between the shards are detected by a final
+     * toolchain run, turned on by the sm.toolchainShardClones setting.
+     */
+    static boolean isCloneDetectionEnabled(Configuration configuration) {
+        return "true".equals(FileHelper.getStringFromConfiguration(configuration, CLONES_KEY));
+    }
+
+    /**
+     * Splits the source files into shards. The files of a directory are kept
+     * together, and the directories are distributed from the largest one,
+     * always into the smallest shard.
+     *
+     * @param files Source files to be analysed.
+     * @param count Number of the shards.
+     * @return Non-empty shards, at most count of them.
+     */
+    static List<List<InputFile>> split(List<InputFile> files, int count) {
+        Map<String, List<InputFile>> directories = new LinkedHashMap<String, List<InputFile>>();
+        for (InputFile file : files) {
+            String path = file.uri().normalize().getPath();
+            String directory = path.substring(0, path.lastIndexOf('/') + 1);
+            List<InputFile> directoryFiles = directories.get(directory);
+            if (directoryFiles == null) {
+                directoryFiles = new ArrayList<InputFile>();
+                directories.put(directory, directoryFiles);
+            }
+            directoryFiles.add(file);
+        }
+
+        List<List<InputFile>> groups = new ArrayList<List<InputFile>>(directories.values());
+        Collections.sort(groups, new Comparator<List<InputFile>>() {
+
+            @Override
+            public int compare(List<InputFile> first, List<InputFile> second) {
+                return Integer.compare(second.size(), first.size());
+            }
+        });
+
+        List<List<InputFile>> shards = new ArrayList<List<InputFile>>();
+        for (int i = 0; i < Math.min(count, groups.size()); i++) {
+            shards.add(new ArrayList<InputFile>());
+        }
+        for (List<InputFile> group : groups) {
+            List<InputFile> smallest = shards.get(0);
+            for (List<InputFile> shard : shards) {
+                if (shard.size() < smallest.size()) {
+                    smallest = shard;
+                }
+            }
+            smallest.addAll(group);
+        }
+        return shards;
+    }
+
+    /**
+     * Sets an option of the command line of the toolchain.
+     *
+     * @param commands Command line of the toolchain.
+     * @param option The option with its leading dash, for example -resultsDir.
+     * @param value New value of the option.
+     * @return Copy of the command line, in which the option is replaced or added.
+     */
+    static List<String> setOption(List<String> commands, String option, String value) {
+        List<String> result = new ArrayList<String>(commands.size() + 1);
+        boolean found = false;
+        for (String command : commands) {
+            if (command.startsWith(option + "=")) {
+                if (found) {
+                    continue;
+                }
+                command = option + "=" + value;
+                found = true;
+            }
+            result.add(command);
+        }
+        if (!found) {
+            result.add(option + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new timestamped results directory, which is newer than every
+     * results directory of the language.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @return The new results directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    static File createResultsDirectory(File languageDirectory) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        long time = System.currentTimeMillis();
+        String newest = FileHelper.getNewestResultsDirectory(languageDirectory, DATE_SEPARATOR);
+        if (newest != null) {
+            try {
+                time = Math.max(time, format.parse(newest).getTime() + 1000);
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        }
+
+        File directory = new File(languageDirectory, format.format(time));
+        Files.createDirectories(directory.toPath());
+        return directory;
+    }
+
+    /**
+     * Runs the toolchain in shards at the same time on a thread pool, each on
+     * a part of the analysed source files, and merges their result graphs
+     * into a new results directory of the language. The shards are awaited in
+     * the order they finish, so a failing one stops the others at once.
+     *
+     * @param commands Command line of the toolchain.
+     * @param shards Source files of the shards, see {@link #split}.
+     * @param filterOption The option of the filter of the shards.
+     * @param cloneOptions Options of the clone detection on every file, or null if it is not run.
+     * @param languageDirectory Results directory of the language.
+     * @param graphName File name of the result graphs.
+     * @param launcher Runs the toolchains of the shards.
+     * @throws RuntimeException If a shard fails or times out, or the results cannot be merged.
+     */
+    static void run(List<String> commands, List<List<InputFile>> shards, String filterOption,
+            List<String> cloneOptions, File languageDirectory, String graphName, final Launcher launcher) {
+        File workDir = launcher.getWorkDir();
+        File shardsDirectory = new File(workDir, "sourcemeter-shards");
+        List<File> resultsDirectories = new ArrayList<File>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        File cloneDirectory = null;
+        try {
+            ToolchainCache.deleteDirectory(shardsDirectory.toPath());
+            for (int i = 0; i < shards.size(); i++) {
+                File resultsDirectory = new File(shardsDirectory, "shard-" + i);
+                List<String> shardCommands = setOption(commands, "-resultsDir", resultsDirectory.getPath());
+                shardCommands = setOption(shardCommands, filterOption,
+                        launcher.writeFilter(shards.get(i), "shardFilterFile-" + i));
+                resultsDirectories.add(resultsDirectory);
+                tasks.add(execute(launcher, shardCommands, new File(workDir, "sourcemeter-shard-" + i + ".log")));
+            }
+
+            if (cloneOptions != null) {
+                cloneDirectory = new File(shardsDirectory, "clones");
+                List<String> cloneCommands = setOption(commands, "-resultsDir", cloneDirectory.getPath());
+                for (String option : cloneOptions) {
+                    int separator = option.indexOf('=');
+                    cloneCommands = setOption(cloneCommands, option.substring(0, separator),
+                            option.substring(separator + 1));
+                }
+                tasks.add(execute(launcher, cloneCommands, new File(workDir, "sourcemeter-shard-clones.log")));
+            }
+        } catch (IOException e) {
+            LOG.error("SourceMeter toolchain shards cannot be prepared.", e);
+            throw new RuntimeException(e);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), new ThreadFactory() {
+
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SourceMeter toolchain shard " + this.count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            CompletionService<Void> finished = new ExecutorCompletionService<Void>(executor);
+            for (Callable<Void> task : tasks) {
+                finished.submit(task);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                finished.take().get();
+            }
+        } catch (ExecutionException e) {
+            stop(executor);
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop(executor);
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try {
+            File target = createResultsDirectory(languageDirectory);
+            List<File> shardGraphs = new ArrayList<File>();
+            for (File resultsDirectory : resultsDirectories) {
+                shardGraphs.add(new File(getResultsDirectory(resultsDirectory, languageDirectory), graphName));
+            }
+            File cloneGraph = cloneDirectory == null ? null
+                    : new File(getResultsDirectory(cloneDirectory, languageDirectory), graphName);
+            merge(shardGraphs, shards, cloneGraph, new File(target, graphName));
+            ToolchainCache.deleteDirectory(shardsDirectory.toPath());
+        } catch (IOException e) {
+            LOG.error("Results of the SourceMeter toolchain shards cannot be collected.", e);
+            throw new RuntimeException(e);
+        } catch (GraphlibException e) {
+            LOG.error("Result graphs of the SourceMeter toolchain shards cannot be merged.", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Callable<Void> execute(final Launcher launcher, final List<String> commands, final File logFile) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                launcher.execute(commands, logFile);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Interrupts the running shards, which kills their toolchains, and waits
+     * for them.
+     */
+    private static void stop(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                LOG.warn("SourceMeter toolchain shards could not be stopped.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the newest results directory of a shard, which has the same
+     * layout as the results directory of the project.
+     */
+    private static File getResultsDirectory(File shardDirectory, File languageDirectory) throws IOException {
+        File shardLanguageDirectory = new File(new File(shardDirectory, languageDirectory.getParentFile().getName()),
+                languageDirectory.getName());
+        String newest = FileHelper.getNewestResultsDirectory(shardLanguageDirectory, DATE_SEPARATOR);
+        if (newest == null) {
+            throw new IOException("Could not find any results in directory: " + shardLanguageDirectory.getPath());
+        }
+        return new File(shardLanguageDirectory, newest);
+    }
+
+    /**
+     * Merges the result graphs of the shards by {@link ShardGraphMerger}.
+     *
+     * @param shardGraphs Result graphs of the shards.
+     * @param shards Source files of the shards.
+     * @param cloneGraph Result graph of the clone detection on every file, or null.
+     * @param target The merged graph is written into this file.
+     * @throws GraphlibException If a graph cannot be read or written.
+     */
+    static void merge(List<File> shardGraphs, List<List<InputFile>> shards, File cloneGraph, File target)
+            throws GraphlibException {
+        long startTime = System.currentTimeMillis();
+
+        Set<String> currentPaths = new HashSet<String>();
+        for (List<InputFile> shard : shards) {
+            currentPaths.addAll(getPaths(shard));
+        }
+
+        File tempFile = new File(target.getPath() + ".tmp");
+        GraphWriter writer = GraphWriter.open(tempFile.getPath());
+        int nodeCount;
+        try {
+            ShardGraphMerger merger = new ShardGraphMerger(currentPaths, writer);
+            for (int i = 0; i < shardGraphs.size(); i++) {
+                GraphReader graph = new GraphReader(shardGraphs.get(i).getPath());
+                try {
+                    merger.addShard(graph, getPaths(shards.get(i)), cloneGraph != null);
+                } finally {
+                    graph.close();
+                }
+            }
+            if (cloneGraph != null) {
+                GraphReader graph = new GraphReader(cloneGraph.getPath());
+                try {
+                    merger.addClones(graph);
+                } finally {
+                    graph.close();
+                }
+            }
+            nodeCount = merger.finish();
+        } finally {
+            writer.abort();
+        }
+
+        try {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        }
+
+        LOG.info("    Result graphs of " + shardGraphs.size() + " toolchain shards are merged ("
+                + nodeCount + " nodes): " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private static Set<String> getPaths(List<InputFile> files) {
+        Set<String> paths = new HashSet<String>();
+        for (InputFile file : files) {
+            paths.add(file.uri().normalize().getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Runs a toolchain of the shards for the language sensor.
+     */
+    interface Launcher {
+
+        /**
+         * Returns the working directory of the sensor, the results and the
+         * logs of the shards are written into it.
+         */
+        File getWorkDir();
+
+        /**
+         * Writes the filter of the source files of a shard.
+         *
+         * @param files Source files of the shard.
+         * @param fileName Name of the filter file.
+         * @return Path of the filter file.
+         * @throws IOException If the filter cannot be written.
+         */
+        String writeFilter(List<InputFile> files, String fileName) throws IOException;
+
+        /**
+         * Runs the toolchain and waits for it.
+         *
+         * @param commands Command line of the toolchain.
+         * @param logFile The output of the toolchain is streamed into this file.
+         * @throws RuntimeException If the toolchain fails or times out.
+         */
+        void execute(List<String> commands, File logFile);
+    }
+}
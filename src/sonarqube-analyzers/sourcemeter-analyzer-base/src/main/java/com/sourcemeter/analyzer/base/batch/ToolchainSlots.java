@@ -0,0 +1,487 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+
+/**
+ * Limits the number of the SourceMeter toolchains running at the same time,
+ * and the CPU and memory given to them. Every toolchain run needs a running
+ * slot, a CPU slot and as many memory slots as its memory needs, the slots
+ * are file locks in the sourcemeter-slots directory of the temporary
+ * directory of the system, or in the directory given by the
+ * sm.toolchainSlotsDir setting. As the locks are held by the operating
+ * system, the limits are shared by every analysis of the host, and by the
+ * analyzer plug-ins, even though each of them is loaded by its own class
+ * loader.
+ *
+ * The toolchains are admitted in the order of their arrival: each of them
+ * takes a numbered ticket in the queue of the slots directory, and only the
+ * first ticket of the queue may take slots, so a toolchain needing many
+ * memory slots is not starved by the smaller ones.
+ *
+ * A toolchain is not started while the system load average reaches the CPU
+ * budget, unless no other toolchain is running. If the memory of a toolchain
+ * can be lowered, and at least the half of its memory is free, it is started
+ * with the free memory instead of waiting for the rest. The holders of the
+ * slots are written into the lock files, so the waiting analyses log what
+ * they are waiting for.
+ */
+final class ToolchainSlots {
+
+    static final String PARALLELISM_KEY = "sm.toolchainParallelism";
+    static final String MEMORY_BUDGET_KEY = "sm.toolchainMemoryBudget";
+    static final String CPU_BUDGET_KEY = "sm.toolchainCpuBudget";
+    static final String DIRECTORY_KEY = "sm.toolchainSlotsDir";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ToolchainSlots.class);
+
+    private static final String SLOTS_DIRECTORY = "sourcemeter-slots";
+    private static final int MEMORY_SLOT_MB = 256;
+    private static final long RETRY_MILLIS = 1000L;
+    private static final long REPORT_MILLIS = 30000L;
+    private static final long QUEUE_RETRY_MILLIS = 10L;
+    private static final String QUEUE_FILE = "queue.lock";
+    private static final String TICKET_PREFIX = "ticket-";
+
+    private ToolchainSlots() {
+    }
+
+    /**
+     * Waits until the toolchain can be started, and takes its slots.
+     *
+     * @param configuration Contains the limits of the toolchains.
+     * @param owner Description of the toolchain run for the waiting analyses.
+     * @param memoryMb Memory needed by the toolchain in megabytes, 0 if it is unknown.
+     * @param memoryAdjustable Whether the toolchain can be started with less memory.
+     * @return The slots of the toolchain, they must be released when the toolchain is finished.
+     * @throws IOException If the lock files cannot be created.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    static Admission acquire(Configuration configuration, String owner, int memoryMb,
+            boolean memoryAdjustable) throws IOException, InterruptedException {
+        int parallelism = getLimit(configuration, PARALLELISM_KEY);
+        int cpuSlots = getLimit(configuration, CPU_BUDGET_KEY);
+        int memorySlots = getLimit(configuration, MEMORY_BUDGET_KEY) / MEMORY_SLOT_MB;
+
+        int neededMemorySlots = 0;
+        if (memorySlots > 0 && memoryMb > 0) {
+            neededMemorySlots = Math.min(memorySlots, (memoryMb + MEMORY_SLOT_MB - 1) / MEMORY_SLOT_MB);
+        }
+        int minimumMemorySlots = memoryAdjustable ? (neededMemorySlots + 1) / 2 : neededMemorySlots;
+        if (parallelism == 0 && cpuSlots == 0 && neededMemorySlots == 0) {
+            return new Admission(new ArrayList<FileLock>(), memoryMb);
+        }
+
+        File slotsDir = getSlotsDirectory(configuration);
+        if (!slotsDir.isDirectory() && !slotsDir.mkdirs() && !slotsDir.isDirectory()) {
+            throw new IOException("Directory of the toolchain slots could not be created: " + slotsDir);
+        }
+
+        long startTime = System.currentTimeMillis();
+        long reportTime = startTime + REPORT_MILLIS;
+        boolean waiting = false;
+        Ticket ticket = Ticket.take(slotsDir);
+        try {
+            while (true) {
+                List<FileLock> locks = new ArrayList<FileLock>();
+                Set<File> busy = new LinkedHashSet<File>();
+                int ahead = ticket.getTicketsAhead();
+                boolean admitted = ahead == 0
+                        && (parallelism == 0 || lockAny(slotsDir, "run-", parallelism, 1, locks, busy) == 1)
+                        && (cpuSlots == 0 || (lockAny(slotsDir, "cpu-", cpuSlots, 1, locks, busy) == 1
+                                && isCpuAvailable(slotsDir, cpuSlots)));
+                int memorySlotsTaken = 0;
+                if (admitted && neededMemorySlots > 0) {
+                    memorySlotsTaken = lockAny(slotsDir, "memory-", memorySlots, neededMemorySlots, locks, busy);
+                    admitted = memorySlotsTaken >= minimumMemorySlots;
+                }
+                if (admitted) {
+                    int admittedMemoryMb = memorySlotsTaken < neededMemorySlots
+                            ? memorySlotsTaken * MEMORY_SLOT_MB : memoryMb;
+                    if (waiting) {
+                        LOG.info("    Toolchain slot is free after " + (System.currentTimeMillis() - startTime) + " ms.");
+                    }
+                    Admission admission = new Admission(locks, admittedMemoryMb);
+                    admission.describe(owner);
+                    return admission;
+                }
+                release(locks);
+
+                long now = System.currentTimeMillis();
+                if (!waiting) {
+                    LOG.info("    Waiting for a free toolchain slot (" + PARALLELISM_KEY + "=" + parallelism + ", "
+                            + CPU_BUDGET_KEY + "=" + cpuSlots + ", "
+                            + MEMORY_BUDGET_KEY + "=" + memorySlots * MEMORY_SLOT_MB + " MB, slots: " + slotsDir
+                            + ", toolchains ahead in the queue: " + ahead + ")...");
+                    waiting = true;
+                } else if (now >= reportTime) {
+                    LOG.info("    Still waiting for a free toolchain slot after " + (now - startTime) / 1000
+                            + " s, " + (ahead > 0 ? "toolchains ahead in the queue: " + ahead
+                                    : "running: " + describeHolders(busy)));
+                    reportTime = now + REPORT_MILLIS;
+                }
+                Thread.sleep(RETRY_MILLIS);
+            }
+        } finally {
+            ticket.release();
+        }
+    }
+
+    /**
+     * Runs the toolchain when it can be started. If the host is crowded, the
+     * memory of the toolchain is lowered to the admitted memory.
+     *
+     * @param configuration Contains the limits of the toolchains.
+     * @param owner Description of the toolchain run for the waiting analyses.
+     * @param runner Runner of the toolchain.
+     * @return Exit value of the toolchain.
+     * @throws IOException If the lock files cannot be created or the toolchain cannot be run.
+     * @throws InterruptedException If the thread is interrupted, the toolchain is killed.
+     */
+    static int run(Configuration configuration, String owner, ToolchainRunner runner)
+            throws IOException, InterruptedException {
+        Admission admission = acquire(configuration, owner, runner.getMemoryMb(), runner.isMemoryAdjustable());
+        try {
+            runner.lowerMemory(admission.getMemoryMb());
+            return runner.run();
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Returns the directory of the slots: the sm.toolchainSlotsDir setting,
+     * or the slots directory in the temporary directory of the system, which
+     * is shared by the analyses of the host.
+     */
+    private static File getSlotsDirectory(Configuration configuration) {
+        String directory = FileHelper.getStringFromConfiguration(configuration, DIRECTORY_KEY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return new File(System.getProperty("java.io.tmpdir"), SLOTS_DIRECTORY);
+        }
+        return new File(directory.trim());
+    }
+
+    /**
+     * Returns true if the system load average is below the CPU budget, or no
+     * other toolchain holds a CPU slot. The load average is not known on
+     * every platform, then the CPU slots are the only limit.
+     */
+    private static boolean isCpuAvailable(File slotsDir, int cpuSlots) throws IOException {
+        double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        if (load < 0 || load < cpuSlots) {
+            return true;
+        }
+
+        List<FileLock> probes = new ArrayList<FileLock>();
+        Set<File> busy = new LinkedHashSet<File>();
+        try {
+            lockAny(slotsDir, "cpu-", cpuSlots, cpuSlots, probes, busy);
+        } finally {
+            release(probes);
+        }
+        // The CPU slot of this toolchain is busy as well.
+        return busy.size() <= 1;
+    }
+
+    /**
+     * Locks the given number of slot files out of the slots with the given
+     * prefix.
+     *
+     * @param busy The slot files held by others are added to this set.
+     * @return Number of the locked slots.
+     */
+    private static int lockAny(File slotsDir, String prefix, int slots, int needed, List<FileLock> locks,
+            Set<File> busy) throws IOException {
+        int locked = 0;
+        for (int i = 0; i < slots && locked < needed; i++) {
+            File file = new File(slotsDir, prefix + i + ".lock");
+            FileLock lock = tryLock(file);
+            if (lock != null) {
+                locks.add(lock);
+                locked++;
+            } else {
+                busy.add(file);
+            }
+        }
+        return locked;
+    }
+
+    private static FileLock tryLock(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // the slot is held by another plug-in of this JVM
+            lock = null;
+        } finally {
+            if (lock == null) {
+                channel.close();
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Reads the descriptions of the toolchain runs holding the given slots.
+     */
+    private static String describeHolders(Set<File> busy) {
+        Set<String> holders = new LinkedHashSet<String>();
+        for (File file : busy) {
+            try {
+                RandomAccessFile input = new RandomAccessFile(file, "r");
+                try {
+                    byte[] bytes = new byte[(int) Math.min(input.length(), 1024)];
+                    input.readFully(bytes);
+                    String holder = new String(bytes, StandardCharsets.UTF_8).trim();
+                    if (!holder.isEmpty()) {
+                        holders.add(holder);
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // the lock file cannot be read on every platform while it is locked
+            }
+        }
+        return holders.isEmpty() ? "unknown" : holders.toString();
+    }
+
+    private static void release(List<FileLock> locks) {
+        for (FileLock lock : locks) {
+            try {
+                lock.channel().truncate(0);
+                lock.release();
+                lock.channel().close();
+            } catch (IOException e) {
+                LOG.debug("Toolchain slot could not be released.", e);
+            }
+        }
+        locks.clear();
+    }
+
+    private static int getLimit(Configuration configuration, String key) {
+        String value = FileHelper.getStringFromConfiguration(configuration, key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(value.trim()), 0);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("ERROR: '" + key + "' must be an integer!", e);
+        }
+    }
+
+    /**
+     * Locks the given file, waiting while it is locked by another analysis or
+     * plug-in.
+     */
+    private static FileLock lock(File file) throws IOException, InterruptedException {
+        FileLock lock = tryLock(file);
+        while (lock == null) {
+            Thread.sleep(QUEUE_RETRY_MILLIS);
+            lock = tryLock(file);
+        }
+        return lock;
+    }
+
+    private static void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    /**
+     * A numbered ticket in the queue of the slots directory. The number of
+     * the last ticket is stored in the queue file, the ticket files are
+     * locked while their toolchains are waiting. The queue file is locked
+     * while a ticket is taken or the queue is checked, so a ticket file is
+     * never seen before it is locked.
+     */
+    private static final class Ticket {
+
+        private final File slotsDir;
+        private final File file;
+        private final FileLock lock;
+
+        private Ticket(File slotsDir, File file, FileLock lock) {
+            this.slotsDir = slotsDir;
+            this.file = file;
+            this.lock = lock;
+        }
+
+        /**
+         * Takes the next ticket of the queue.
+         */
+        static Ticket take(File slotsDir) throws IOException, InterruptedException {
+            FileLock queueLock = lock(new File(slotsDir, QUEUE_FILE));
+            try {
+                FileChannel channel = queueLock.channel();
+                ByteBuffer buffer = ByteBuffer.allocate(32);
+                channel.read(buffer, 0);
+                String last = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim();
+                long number = 0;
+                try {
+                    number = last.isEmpty() ? 0 : Long.parseLong(last) + 1;
+                } catch (NumberFormatException e) {
+                    LOG.debug("Queue of the toolchain slots is restarted.", e);
+                }
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(Long.toString(number).getBytes(StandardCharsets.US_ASCII)), 0);
+
+                File file = new File(slotsDir, String.format("%s%019d.lock", TICKET_PREFIX, number));
+                FileLock lock = tryLock(file);
+                if (lock == null) {
+                    throw new IOException("Ticket of the toolchain queue is held by another analysis: " + file);
+                }
+                return new Ticket(slotsDir, file, lock);
+            } finally {
+                unlock(queueLock);
+            }
+        }
+
+        /**
+         * Returns the number of the waiting tickets taken before this one.
+         * The tickets left by the analyses, which ended while waiting, are
+         * not locked, these are removed.
+         */
+        int getTicketsAhead() throws IOException, InterruptedException {
+            FileLock queueLock = lock(new File(this.slotsDir, QUEUE_FILE));
+            try {
+                int ahead = 0;
+                String[] names = this.slotsDir.list();
+                if (names != null) {
+                    for (String name : names) {
+                        if (!name.startsWith(TICKET_PREFIX) || name.compareTo(this.file.getName()) >= 0) {
+                            continue;
+                        }
+                        File ticketFile = new File(this.slotsDir, name);
+                        FileLock ticketLock = tryLock(ticketFile);
+                        if (ticketLock == null) {
+                            ahead++;
+                        } else {
+                            unlock(ticketLock);
+                            Files.deleteIfExists(ticketFile.toPath());
+                        }
+                    }
+                }
+                return ahead;
+            } finally {
+                unlock(queueLock);
+            }
+        }
+
+        /**
+         * Leaves the queue.
+         */
+        void release() {
+            try {
+                unlock(this.lock);
+                Files.deleteIfExists(this.file.toPath());
+            } catch (IOException e) {
+                LOG.debug("Ticket of the toolchain queue could not be released: " + this.file, e);
+            }
+        }
+    }
+
+    /**
+     * Slots held by a toolchain run.
+     */
+    static final class Admission {
+
+        private final List<FileLock> locks;
+        private final int memoryMb;
+
+        private Admission(List<FileLock> locks, int memoryMb) {
+            this.locks = locks;
+            this.memoryMb = memoryMb;
+        }
+
+        /**
+         * Returns the memory the toolchain is admitted with. It is less than
+         * the needed memory if the host is crowded.
+         *
+         * @return Memory in megabytes, 0 if it is unknown.
+         */
+        int getMemoryMb() {
+            return this.memoryMb;
+        }
+
+        /**
+         * Writes the description of the toolchain run into the lock files.
+         */
+        private void describe(String owner) {
+            String description = owner + " (" + this.memoryMb + " MB, since "
+                    + new SimpleDateFormat("HH:mm:ss").format(new Date()) + ")";
+            ByteBuffer bytes = ByteBuffer.wrap(description.getBytes(StandardCharsets.UTF_8));
+            for (FileLock lock : this.locks) {
+                try {
+                    lock.channel().truncate(0);
+                    lock.channel().write(bytes.duplicate(), 0);
+                } catch (IOException e) {
+                    LOG.debug("Toolchain slot could not be described.", e);
+                }
+            }
+        }
+
+        /**
+         * Releases the slots.
+         */
+        void release() {
+            ToolchainSlots.release(locks);
+        }
+    }
+}
@@ -0,0 +1,592 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.rule.RuleKey;
+
+import graphlib.Attribute;
+import graphlib.AttributeFloat;
+import graphlib.AttributeInt;
+import graphlib.AttributeString;
+import graphlib.Node;
+
+/**
+ * Delta upload against the previous analysis: the issues built from the
+ * warnings of the result graph, with their resolved locations and flows, are
+ * saved per node into a cache next to the graph. In the next analysis the
+ * nodes are matched to the entities of the former cache by their type,
+ * LongName (or Name) and first Position. If the warnings of a node did not
+ * change, its issues are copied from the cache instead of being built from
+ * the stack traces again.
+ *
+ * Only the warnings are digested, the measures and the logical tree entries
+ * are read from the same attributes a digest would have to cover, so they
+ * are always computed from the graph. SonarQube does not keep the issues of
+ * the former analysis, so everything is still saved, only the building is
+ * skipped. The cache is only used if it was saved with the same fingerprint
+ * (settings, active rules and analyzed files, see
+ * {@link UploadSnapshot#computeFingerprint}).
+ */
+public final class DeltaUpload {
+
+    public static final String DELTA_EXTENSION = ".delta";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeltaUpload.class);
+
+    private static final String MAGIC = "SMDELTA";
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String RESULTS_DIRECTORY_PATTERN = "[0-9]{4}-[0-9]{2}-[0-9]{2}.[0-9]{2}-[0-9]{2}-[0-9]{2}";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File deltaFile;
+    private final String fingerprint;
+    private final Map<String, Entity> previousEntities;
+
+    // Entities of the current analysis, the ambiguous entity marks keys shared by several nodes.
+    private final ConcurrentMap<String, Entity> currentEntities = new ConcurrentHashMap<String, Entity>();
+    private final Entity ambiguous = new Entity(0);
+
+    private final AtomicInteger reused = new AtomicInteger();
+    private final AtomicInteger recomputed = new AtomicInteger();
+
+    private DeltaUpload(File deltaFile, String fingerprint, Map<String, Entity> previousEntities) {
+        this.deltaFile = deltaFile;
+        this.fingerprint = fingerprint;
+        this.previousEntities = previousEntities;
+    }
+
+    /**
+     * Starts the delta upload of the given result graph. The cache of the
+     * newest analysis is searched in the results directory of the graph and
+     * in the former results directories of the language.
+     *
+     * @param graphFile The result graph.
+     * @param fingerprint Fingerprint of the current settings.
+     * @return The delta upload.
+     */
+    public static DeltaUpload start(File graphFile, String fingerprint) {
+        Map<String, Entity> previousEntities = Collections.emptyMap();
+        File previousFile = findPreviousDeltaFile(graphFile);
+        if (previousFile == null) {
+            LOG.info("      No delta cache of a former analysis is found, every entity is computed.");
+        } else {
+            try {
+                previousEntities = new Reader(previousFile).read(fingerprint);
+            } catch (IOException e) {
+                LOG.warn("Delta cache cannot be read: " + previousFile, e);
+            }
+        }
+
+        return new DeltaUpload(new File(graphFile.getPath() + DELTA_EXTENSION), fingerprint, previousEntities);
+    }
+
+    /**
+     * Looks up the delta cache of the newest analysis: next to the graph, or
+     * next to the graph of the same name in a former results directory.
+     *
+     * @param graphFile The result graph.
+     * @return The delta cache or null if there is none.
+     */
+    static File findPreviousDeltaFile(File graphFile) {
+        File resultsDirectory = graphFile.getAbsoluteFile().getParentFile();
+        File languageDirectory = resultsDirectory == null ? null : resultsDirectory.getParentFile();
+        if (languageDirectory == null) {
+            return null;
+        }
+
+        File[] directories = languageDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().matches(RESULTS_DIRECTORY_PATTERN);
+            }
+        });
+        if (directories == null) {
+            return null;
+        }
+        Arrays.sort(directories);
+
+        for (int i = directories.length - 1; i >= 0; i--) {
+            if (directories[i].getName().compareTo(resultsDirectory.getName()) > 0) {
+                continue;
+            }
+            File deltaFile = new File(directories[i], graphFile.getName() + DELTA_EXTENSION);
+            if (deltaFile.isFile()) {
+                return deltaFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matches the given node to the entities of the former analysis. Only the
+     * nodes having warnings get an entity.
+     *
+     * @param node Node of the result graph.
+     * @return A reused entity, which holds the issues of the node, a new
+     *         entity to be filled with the issues of the node, or null if the
+     *         node has no warnings.
+     */
+    public Entity enter(Node node) {
+        KeyBuilder keyBuilder = new KeyBuilder(node);
+        if (!keyBuilder.hasWarnings) {
+            return null;
+        }
+
+        Entity entity = previousEntities.get(keyBuilder.key);
+        if (entity != null && entity.digest == keyBuilder.digest) {
+            reused.incrementAndGet();
+        } else {
+            entity = new Entity(keyBuilder.digest);
+            recomputed.incrementAndGet();
+        }
+
+        if (currentEntities.putIfAbsent(keyBuilder.key, entity) != null) {
+            currentEntities.put(keyBuilder.key, ambiguous);
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the number of entities copied from the former analysis.
+     *
+     * @return Number of reused entities.
+     */
+    public int getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Returns the number of entities built from the result graph.
+     *
+     * @return Number of recomputed entities.
+     */
+    public int getRecomputedCount() {
+        return recomputed.get();
+    }
+
+    /**
+     * Finishes the delta upload and saves the entities of the current
+     * analysis as the cache of the next one.
+     */
+    public void commit() {
+        LOG.info("      Delta upload: " + reused.get() + " entities reused, "
+                + recomputed.get() + " entities recomputed.");
+        if (currentEntities.isEmpty()) {
+            LOG.debug("      Delta cache is not saved, the result graph has no warnings.");
+            return;
+        }
+
+        File tempFile = new File(deltaFile.getPath() + ".tmp");
+        try {
+            new Writer(tempFile).write(fingerprint, currentEntities, ambiguous);
+            Files.move(tempFile.toPath(), deltaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Delta cache could not be saved: " + deltaFile, e);
+            if (tempFile.exists() && !tempFile.delete()) {
+                LOG.warn("Temporary delta cache could not be deleted: " + tempFile);
+            }
+        }
+    }
+
+    /**
+     * Drops the delta upload without saving the cache.
+     */
+    public void discard() {
+        LOG.debug("      Delta cache is not saved, the upload is not finished.");
+    }
+
+    /**
+     * Computes the key of a node and the digest of its warnings in one pass
+     * over its attributes. The other attributes are not digested.
+     */
+    private static final class KeyBuilder {
+
+        private String key;
+        private long digest = FNV_OFFSET;
+        private boolean hasWarnings;
+
+        private String name;
+        private String longName;
+        private String path;
+        private int line;
+
+        KeyBuilder(Node node) {
+            String type = node.getType().getType();
+            hash(type);
+            for (Attribute attribute : node.getAttributes()) {
+                String attributeName = attribute.getName();
+                if (GraphSymbols.is(attributeName, GraphSymbols.NAME)) {
+                    name = ((AttributeString) attribute).getValue();
+                } else if (GraphSymbols.is(attributeName, GraphSymbols.LONG_NAME)) {
+                    longName = ((AttributeString) attribute).getValue();
+                } else if (GraphSymbols.is(attributeName, GraphSymbols.POSITION) && path == null) {
+                    readPosition(attribute);
+                } else if (GraphSymbols.is(attribute.getContext(), GraphSymbols.CONTEXT_WARNING)) {
+                    hash(attribute);
+                    hasWarnings = true;
+                }
+            }
+
+            StringBuilder keyBuffer = new StringBuilder(type).append('|');
+            keyBuffer.append(longName != null ? longName : name).append('|');
+            if (path != null) {
+                keyBuffer.append(path).append(':').append(line);
+            }
+            key = keyBuffer.toString();
+        }
+
+        private void readPosition(Attribute position) {
+            path = "";
+            for (Attribute attribute : position.getAttributes()) {
+                if (GraphSymbols.is(attribute.getName(), GraphSymbols.PATH)) {
+                    path = ((AttributeString) attribute).getValue();
+                } else if (GraphSymbols.is(attribute.getName(), GraphSymbols.LINE)) {
+                    line = ((AttributeInt) attribute).getValue();
+                }
+            }
+        }
+
+        private void hash(Attribute attribute) {
+            hash(attribute.getName());
+            hash(attribute.getContext());
+            hash(attribute.getType().ordinal());
+            switch (attribute.getType()) {
+                case atInt:
+                    hash(((AttributeInt) attribute).getValue());
+                    break;
+                case atFloat:
+                    hash(Float.floatToIntBits(((AttributeFloat) attribute).getValue()));
+                    break;
+                case atString:
+                    hash(((AttributeString) attribute).getValue());
+                    break;
+                default:
+                    List<Attribute> children = attribute.getAttributes();
+                    hash(children.size());
+                    for (Attribute child : children) {
+                        hash(child);
+                    }
+                    break;
+            }
+        }
+
+        private void hash(String value) {
+            if (value == null) {
+                hash(-1);
+                return;
+            }
+            hash(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                digest = (digest ^ value.charAt(i)) * FNV_PRIME;
+            }
+        }
+
+        private void hash(int value) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                digest = (digest ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+            }
+        }
+    }
+
+    /**
+     * Issues of one node of the result graph. A reused entity is never
+     * changed, a new entity is filled by the visitor of the node.
+     */
+    public static final class Entity {
+
+        private final long digest;
+        private final boolean reusable;
+        private final List<Issue> issues = new ArrayList<Issue>();
+
+        private Entity(long digest) {
+            this(digest, false);
+        }
+
+        private Entity(long digest, boolean reusable) {
+            this.digest = digest;
+            this.reusable = reusable;
+        }
+
+        /**
+         * Checks whether the entity was copied from the former analysis.
+         *
+         * @return True if the issues of the entity have to be copied.
+         */
+        public boolean isReused() {
+            return reusable;
+        }
+
+        public void addIssue(RuleKey ruleKey, UploadSnapshot.Location location, List<UploadSnapshot.Location> flow) {
+            issues.add(new Issue(ruleKey, location, flow));
+        }
+
+        public List<Issue> getIssues() {
+            return issues;
+        }
+    }
+
+    /**
+     * Issue of an entity, with the locations resolved the same way as by the
+     * {@link VisitorHelper}.
+     */
+    public static final class Issue {
+
+        private final RuleKey ruleKey;
+        private final UploadSnapshot.Location location;
+        private final List<UploadSnapshot.Location> flow;
+
+        Issue(RuleKey ruleKey, UploadSnapshot.Location location, List<UploadSnapshot.Location> flow) {
+            this.ruleKey = ruleKey;
+            this.location = location;
+            this.flow = flow;
+        }
+
+        public RuleKey getRuleKey() {
+            return ruleKey;
+        }
+
+        public UploadSnapshot.Location getLocation() {
+            return location;
+        }
+
+        /**
+         * @return Locations of the flow, or null if the issue has no flow.
+         */
+        public List<UploadSnapshot.Location> getFlow() {
+            return flow;
+        }
+    }
+
+    /**
+     * Writes a delta cache file.
+     */
+    private static final class Writer {
+
+        private final File file;
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        private DataOutputStream out;
+
+        Writer(File file) {
+            this.file = file;
+        }
+
+        void write(String fingerprint, Map<String, Entity> entities, Entity ambiguous) throws IOException {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+                out = output;
+                out.writeUTF(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+
+                int count = 0;
+                for (Map.Entry<String, Entity> entry : entities.entrySet()) {
+                    if (entry.getValue() == ambiguous) {
+                        continue;
+                    }
+                    out.writeBoolean(true);
+                    writeString(entry.getKey());
+                    writeEntity(entry.getValue());
+                    count++;
+                }
+                out.writeBoolean(false);
+                out.writeInt(count);
+            }
+        }
+
+        private void writeEntity(Entity entity) throws IOException {
+            out.writeLong(entity.digest);
+
+            out.writeInt(entity.issues.size());
+            for (Issue issue : entity.issues) {
+                writeString(issue.ruleKey.repository());
+                writeString(issue.ruleKey.rule());
+                writeLocation(issue.location);
+                if (issue.flow == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(issue.flow.size());
+                    for (UploadSnapshot.Location location : issue.flow) {
+                        writeLocation(location);
+                    }
+                }
+            }
+        }
+
+        private void writeLocation(UploadSnapshot.Location location) throws IOException {
+            writeString(location.getPath());
+            out.writeInt(location.getLine());
+            writeString(location.getMessage());
+        }
+
+        /**
+         * Writes a string: its first occurrence is written inline, the later
+         * ones only by id.
+         */
+        private void writeString(String value) throws IOException {
+            Integer id = stringIds.get(value);
+            if (id != null) {
+                out.writeInt(id);
+            } else {
+                out.writeInt(-1);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                stringIds.put(value, stringIds.size());
+            }
+        }
+    }
+
+    /**
+     * Reads a delta cache file.
+     */
+    private static final class Reader {
+
+        private final File file;
+        private final List<String> strings = new ArrayList<String>();
+        private DataInputStream in;
+
+        Reader(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads the entities of the cache.
+         *
+         * @param fingerprint Fingerprint of the current settings.
+         * @return The entities by their keys, empty if the cache cannot be used.
+         */
+        Map<String, Entity> read(String fingerprint) throws IOException {
+            Map<String, Entity> entities = new HashMap<String, Entity>();
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+                in = input;
+                if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                    LOG.info("      Delta cache has an unknown format, it is ignored: " + file);
+                    return Collections.emptyMap();
+                }
+                if (!fingerprint.equals(in.readUTF())) {
+                    LOG.info("      Settings, rules or files changed since the delta cache was saved, it is ignored: " + file);
+                    return Collections.emptyMap();
+                }
+
+                while (in.readBoolean()) {
+                    String key = readString();
+                    entities.put(key, readEntity());
+                }
+                if (in.readInt() != entities.size()) {
+                    LOG.info("      Delta cache is inconsistent, it is ignored: " + file);
+                    return Collections.emptyMap();
+                }
+            } catch (EOFException e) {
+                LOG.info("      Delta cache is incomplete, it is ignored: " + file);
+                return Collections.emptyMap();
+            }
+            LOG.info("      Delta cache of " + entities.size() + " entities is loaded: " + file);
+            return entities;
+        }
+
+        private Entity readEntity() throws IOException {
+            Entity entity = new Entity(in.readLong(), true);
+
+            int issueCount = in.readInt();
+            for (int i = 0; i < issueCount; i++) {
+                RuleKey ruleKey = RuleKey.of(readString(), readString());
+                UploadSnapshot.Location location = readLocation();
+                List<UploadSnapshot.Location> flow = null;
+                int flowSize = in.readInt();
+                if (flowSize >= 0) {
+                    flow = new ArrayList<UploadSnapshot.Location>(flowSize);
+                    for (int j = 0; j < flowSize; j++) {
+                        flow.add(readLocation());
+                    }
+                }
+                entity.addIssue(ruleKey, location, flow);
+            }
+            return entity;
+        }
+
+        private UploadSnapshot.Location readLocation() throws IOException {
+            String path = readString();
+            int line = in.readInt();
+            return new UploadSnapshot.Location(path, line, readString());
+        }
+
+        private String readString() throws IOException {
+            int id = in.readInt();
+            if (id >= 0) {
+                if (id >= strings.size()) {
+                    throw new IOException("Invalid string id in delta cache: " + id);
+                }
+                return strings.get(id);
+            }
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid string length in delta cache: " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
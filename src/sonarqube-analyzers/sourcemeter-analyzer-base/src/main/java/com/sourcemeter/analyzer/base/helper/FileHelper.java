@@ -35,6 +35,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.sonar.api.batch.fs.FileSystem;
@@ -58,7 +59,81 @@ public class FileHelper {
      */
     public static String getSMSourcePath(Configuration configuration, FileSystem fileSystem,
                           final char dateSeparator, AbstractLanguage language) throws IOException {
-        String pluginLanguageKey = language.getKey().toLowerCase(Locale.ENGLISH);
+        return getSMSourcePath(configuration, fileSystem, dateSeparator,
+                language.getKey().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the newest results directory for the given language. The newest
+     * run is read from the results manifest, the results directory is only
+     * listed if the manifest is missing or out of date.
+     *
+     * @param configuration Sonar configuration.
+     * @param dateSeparator Separator character between date and time in results directory.
+     * @param pluginLanguageKey Key of the language.
+     * @return results Directory's relative path.
+     */
+    public static String getSMSourcePath(Configuration configuration, FileSystem fileSystem,
+                          final char dateSeparator, String pluginLanguageKey) throws IOException {
+        File file = getLanguageResultsDirectory(configuration, fileSystem, pluginLanguageKey);
+        String newest = ResultsManifest.getLatestRun(file);
+        if (newest == null || !newest.matches(getResultsDirectoryPattern(dateSeparator))) {
+            newest = getNewestResultsDirectory(file, dateSeparator);
+        }
+        if (newest == null) {
+            throw new IOException("Could not find any results in directory: " + file.getPath());
+        }
+
+        return file.getPath() + File.separator + newest;
+    }
+
+    /**
+     * Lists the results directory of a language for its newest timestamped
+     * results directory.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @param dateSeparator Separator character between date and time in results directory.
+     * @return Name of the newest results directory, or null if there is none.
+     */
+    public static String getNewestResultsDirectory(File languageDirectory, final char dateSeparator) {
+        final String pattern = getResultsDirectoryPattern(dateSeparator);
+        String[] directories = languageDirectory.list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                boolean accept = false;
+
+                File directory = new File(dir, name);
+                if (name.matches(pattern) && directory.isDirectory()) {
+                    accept = true;
+                }
+                return accept;
+            }
+        });
+        if (directories == null || directories.length == 0) {
+            return null;
+        }
+        Arrays.sort(directories);
+
+        return directories[directories.length - 1];
+    }
+
+    private static String getResultsDirectoryPattern(char dateSeparator) {
+        return "[0-9]{4}-[0-9]{2}-[0-9]{2}" + Pattern.quote(String.valueOf(dateSeparator)) + "[0-9]{2}-[0-9]{2}-[0-9]{2}";
+    }
+
+    /**
+     * Returns the directory of the given language in the results directory of
+     * the project. The timestamped results of the toolchain runs are stored
+     * in this directory.
+     *
+     * @param configuration Sonar configuration.
+     * @param pluginLanguageKey Key of the language.
+     * @return Results directory of the language.
+     * @throws IOException If the directory does not exist.
+     */
+    public static File getLanguageResultsDirectory(Configuration configuration, FileSystem fileSystem,
+                          String pluginLanguageKey) throws IOException {
         StringBuilder buffer = new StringBuilder("");
         String projectName = getStringFromConfiguration(configuration, "sonar.projectKey");
         projectName = StringUtils.replace(projectName, ":", "_");
@@ -87,33 +162,30 @@ public class FileHelper {
                 throw new IOException("Could not load results directory: " + resultsDir);
             }
         }
-        String[] directories = file.list(new FilenameFilter() {
-
-            @Override
-            public boolean accept(File dir, String name) {
-                boolean accept = false;
-
-                File directory = new File(dir, name);
-                if (directory.isDirectory() && name.matches("[0-9]{4}-[0-9]{2}-[0-9]{2}" + dateSeparator + "[0-9]{2}-[0-9]{2}-[0-9]{2}")) {
-                    accept = true;
-                }
-                return accept;
-            }
-        });
-        Arrays.sort(directories);
-
-        return resultsDir + File.separator + directories[directories.length - 1];
+        return file;
     }
 
     /**
-     * Saving the graph in a database, for a given metrics.
+     * Saving the graph in a database, for a given metrics. The value is
+     * encoded with the codec selected by the sm.measureCodec setting, and it
+     * is saved through the measure sink of the upload.
      *
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      * @param data In this case the graph in JSON format.
      * @param metric Stores the data.
      */
-    public static void saveGraphToDataBase(SensorContext sensorContext, String data, Metric metric) {
-        sensorContext.newMeasure().forMetric(metric).withValue(data).on(sensorContext.project()).save();
+    public static void saveGraphToDataBase(SensorContext sensorContext, UploadContext uploadContext,
+            String data, Metric metric) {
+        data = MeasureCodec.encode(sensorContext.config(), data);
+        if (!uploadContext.getMeasureSink().add(sensorContext.project(), metric, data)) {
+            return;
+        }
+
+        UploadSnapshot.Recorder recorder = uploadContext.getSnapshotRecorder();
+        if (recorder != null) {
+            recorder.addMeasure(sensorContext.project(), metric.key(), data);
+        }
     }
 
     /**
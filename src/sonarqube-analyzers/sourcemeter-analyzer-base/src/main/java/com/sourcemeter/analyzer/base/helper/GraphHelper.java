@@ -35,16 +35,19 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import graphlib.Attribute;
 import graphlib.AttributeString;
 import graphlib.Edge;
 import graphlib.Edge.EdgeType;
 import graphlib.Edge.EdgeTypeSet;
 import graphlib.Edge.eDirectionType;
-import graphlib.Graph;
+import graphlib.GraphlibException;
 import graphlib.Node;
 import graphlib.Visitor;
 import graphlib.VisitorException;
-import graphsupportlib.Metric;
+
+import com.sourcemeter.analyzer.base.visitor.BaseVisitor;
+import com.sourcemeter.analyzer.base.visitor.CompositeVisitor;
 
 public class GraphHelper {
 
@@ -57,13 +60,7 @@ public class GraphHelper {
      * @return Long name.
      */
     public static String getNodeLongNameAttribute(Node node) {
-        AttributeString longName = (AttributeString) Metric.getNodeAttribute(
-                node, "LongName");
-        if (longName == null) {
-            return null;
-        } else {
-            return longName.getValue();
-        }
+        return getNodeStringAttribute(node, GraphSymbols.LONG_NAME);
     }
 
     /**
@@ -73,13 +70,24 @@ public class GraphHelper {
      * @return Name of the node.
      */
     public static String getNodeNameAttribute(Node node) {
-        AttributeString name = (AttributeString) Metric.getNodeAttribute(node,
-                "Name");
-        if (name == null) {
-            return null;
-        } else {
-            return name.getValue();
+        return getNodeStringAttribute(node, GraphSymbols.NAME);
+    }
+
+    /**
+     * Gives back the value of the first string attribute of a node with the
+     * given name.
+     *
+     * @param node Node of the result graph.
+     * @param name Name of the attribute, one of the symbols of GraphSymbols.
+     * @return Value of the attribute, or null if the node does not have it.
+     */
+    private static String getNodeStringAttribute(Node node, String name) {
+        for (Attribute attribute : node.getAttributes()) {
+            if (GraphSymbols.is(attribute.getName(), name)) {
+                return ((AttributeString) attribute).getValue();
+            }
         }
+        return null;
     }
 
     /**
@@ -91,7 +99,7 @@ public class GraphHelper {
     public static boolean hasDeclaresEdge(Node node) {
         List<Edge> edges = node.getOutEdges();
         for (Edge edge : edges) {
-            if ("Declares".equals(edge.getType().getType())
+            if (GraphSymbols.is(edge.getType().getType(), GraphSymbols.EDGE_DECLARES)
                     && eDirectionType.edtDirectional.equals(edge.getType().getDirectionType())) {
                 return true;
             }
@@ -100,43 +108,50 @@ public class GraphHelper {
     }
 
     /**
-     * Process graph.
+     * Process graph read by a streaming graph reader.
      *
-     * @param graph Result graph to be processed.
+     * @param graph Reader of the result graph to be processed.
      * @param root Root of the result graph.
      * @param edgeType Type of the edges.
      * @param visitor Type of the visitor (ex.: logical, physical).
+     * @throws GraphlibException
      * @throws VisitorException
      */
-    public static void processGraph(Graph graph, String root, String edgeType,
-            Visitor visitor) throws VisitorException {
+    public static void processGraph(GraphReader graph, String root, String edgeType,
+            Visitor visitor) throws GraphlibException, VisitorException {
         Node rootNode = graph.findNode(root);
 
         if (null != rootNode) {
-            processGraph(graph, rootNode, edgeType, visitor);
+            EdgeTypeSet treeEdges = new EdgeTypeSet();
+            treeEdges.add(new EdgeType(edgeType, Edge.eDirectionType.edtDirectional));
+            graph.traverseDepthFirst(rootNode, treeEdges, visitor);
         } else {
             LOG.warn("TreeRoot [" + root + "] not found!");
         }
     }
 
     /**
-     * Process graph.
+     * Process graph with several visitors in a single depth-first traversal.
      *
-     * @param graph Result graph to be processed.
-     * @param rootNode Root of the node in result graph.
+     * @param graph Reader of the result graph to be processed.
+     * @param root Root of the result graph.
      * @param edgeType Type of the edges.
-     * @param visitor Type of the visitor (ex.: logical, physical).
+     * @param stages Visitors to be run on every node, in the given order.
+     * @return The visitor which ran the stages, for querying their execution times.
+     * @throws GraphlibException
      * @throws VisitorException
      */
-    public static void processGraph(Graph graph, Node rootNode, String edgeType,
-            Visitor visitor) throws VisitorException {
+    public static CompositeVisitor processGraphStages(GraphReader graph, String root,
+            String edgeType, BaseVisitor... stages) throws GraphlibException, VisitorException {
+        CompositeVisitor compositeVisitor = new CompositeVisitor(stages);
+        processGraph(graph, root, edgeType, compositeVisitor);
 
-        if (rootNode != null) {
-            EdgeTypeSet treeEdges = new EdgeTypeSet();
-            treeEdges.add(new EdgeType(edgeType, Edge.eDirectionType.edtDirectional));
-            graph.traverseDepthFirst(rootNode, treeEdges, visitor);
-        } else {
-            LOG.warn("TreeRoot is invalid!");
+        if (LOG.isDebugEnabled()) {
+            for (int i = 0; i < stages.length; i++) {
+                LOG.debug("        " + stages[i].getClass().getSimpleName() + " (" + edgeType + "): "
+                        + compositeVisitor.getStageTime(i) + " ms");
+            }
         }
+        return compositeVisitor;
     }
 }
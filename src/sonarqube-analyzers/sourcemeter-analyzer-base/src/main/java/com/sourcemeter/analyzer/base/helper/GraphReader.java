@@ -0,0 +1,705 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import graphlib.Attribute;
+import graphlib.AttributeComposite;
+import graphlib.AttributeFloat;
+import graphlib.AttributeInt;
+import graphlib.AttributeOwner;
+import graphlib.AttributeString;
+import graphlib.Edge;
+import graphlib.Edge.EdgeTypeSet;
+import graphlib.Edge.eDirectionType;
+import graphlib.Graph;
+import graphlib.GraphlibException;
+import graphlib.Node;
+import graphlib.Visitor;
+import graphlib.VisitorException;
+
+/**
+ * Reader of the binary result graphs (.graph files) of SourceMeter, which
+ * decodes the nodes on demand instead of building the whole graph in the
+ * memory as Graph.loadBinary does.
+ *
+ * Opening the file loads the string table and the header of the graph and
+ * records the file offset of every node. A node is decoded from the file when
+ * it is looked up or reached during a traversal, and it can be dropped as soon
+ * as the visitors are done with it. The decoded nodes have the same type,
+ * attributes and out edges in the same order as the nodes of a loaded Graph,
+ * so the traversals call the visitors with the same events as
+ * Graph.traverseDepthFirst. The target of an edge is only a placeholder node
+ * carrying the UID of the target, it can be decoded by getTargetNode.
+ * Reverse edges are not created.
+ *
+ * Nodes can be decoded on several threads at the same time.
+ *
+ * The strings of the string table are interned with {@link GraphSymbols}, so
+ * the names and contexts of the attributes, the types of the edges and the
+ * types of the nodes can be compared to the symbols by identity.
+ */
+public class GraphReader implements Closeable {
+
+    private static final String STRTABLE_MARKER = "STRTBL";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int REVERSE_DIRECTION = eDirectionType.edtReverse.ordinal();
+    private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+    private static final Attribute.aType[] ATTRIBUTE_TYPES = Attribute.aType.values();
+
+    // The constructors of the attributes are package private in graphlib.
+    private static final Constructor<AttributeInt> INT_CONSTRUCTOR = getAttributeConstructor(AttributeInt.class);
+    private static final Constructor<AttributeFloat> FLOAT_CONSTRUCTOR = getAttributeConstructor(AttributeFloat.class);
+    private static final Constructor<AttributeString> STRING_CONSTRUCTOR = getAttributeConstructor(AttributeString.class);
+    private static final Constructor<AttributeComposite> COMPOSITE_CONSTRUCTOR = getAttributeConstructor(AttributeComposite.class);
+
+    private final String filename;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private int[] stringKeys;
+    private String[] strings;
+    private final Map<String, String> header = new HashMap<String, String>();
+    private final Map<Integer, Node.NodeType> nodeTypes = new HashMap<Integer, Node.NodeType>();
+
+    // Node UIDs in the high, record numbers in the low 32 bits, sorted.
+    private long[] nodeKeys;
+    private long[] nodeOffsets;
+
+    // Only used for creating edges. It holds the shared edge types, which are
+    // all registered while indexing, so it is only read after opening.
+    private final Graph edgeFactory = new Graph();
+
+    private final ThreadLocal<RecordInput> inputs = new ThreadLocal<RecordInput>() {
+        @Override
+        protected RecordInput initialValue() {
+            return new RecordInput();
+        }
+    };
+
+    /**
+     * Opens the given binary graph, loads its string table and header and
+     * indexes its nodes.
+     *
+     * @param filename Path of the binary graph.
+     * @throws GraphlibException If the file cannot be read or its format is wrong.
+     */
+    public GraphReader(String filename) throws GraphlibException {
+        File graphFile = new File(filename);
+        if (!graphFile.exists()) {
+            throw new GraphlibException("File " + filename + " not found!");
+        }
+
+        this.filename = filename;
+        try {
+            this.file = new RandomAccessFile(graphFile, "r");
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        }
+        this.channel = this.file.getChannel();
+
+        try {
+            RecordInput input = this.inputs.get();
+            loadStringTable(input);
+            loadHeader(input);
+            indexNodes(input);
+        } catch (IOException e) {
+            close();
+            throw new GraphlibException(e);
+        } catch (GraphlibException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back the value of the given header information of the graph.
+     *
+     * @param key Key of the header information.
+     * @return Value of the header information or null if it is not set.
+     */
+    public String getHeaderInfo(String key) {
+        return this.header.get(key);
+    }
+
+    /**
+     * Gives back every header information of the graph.
+     *
+     * @return Unmodifiable map of the header informations.
+     */
+    public Map<String, String> getHeader() {
+        return Collections.unmodifiableMap(this.header);
+    }
+
+    /**
+     * Returns the number of node records in the graph.
+     *
+     * @return Number of nodes.
+     */
+    public int getNumberOfNodes() {
+        return this.nodeKeys.length;
+    }
+
+    /**
+     * Decodes the node with the given UID.
+     *
+     * @param uid UID of the node.
+     * @return The node or null if the graph does not contain it.
+     * @throws GraphlibException
+     */
+    public Node findNode(String uid) throws GraphlibException {
+        for (int i = 0; i < this.strings.length; i++) {
+            if (this.strings[i].equals(uid)) {
+                int uidKey = this.stringKeys[i];
+                if (findFirstRecord(uidKey) < 0) {
+                    return null;
+                }
+                return decodeNode(uidKey, uid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the target node of the given edge.
+     *
+     * @param edge Edge of a node decoded by this reader.
+     * @return The target node. If the graph has no record for it, a node
+     *         without type, attributes and edges, as in a loaded Graph.
+     * @throws GraphlibException
+     */
+    public Node getTargetNode(Edge edge) throws GraphlibException {
+        Node target = edge.getToNode();
+        if (target instanceof TargetNode) {
+            return decodeNode(((TargetNode) target).uidKey, target.getUID());
+        }
+        return target;
+    }
+
+    /**
+     * Traverses the tree given by the edge types from the given node the same
+     * way as Graph.traverseDepthFirst does.
+     *
+     * @param node Root of the traversal.
+     * @param edgeTypes Types of the tree edges.
+     * @param visitor Visitor to be called.
+     * @throws GraphlibException
+     * @throws VisitorException
+     */
+    public void traverseDepthFirst(Node node, EdgeTypeSet edgeTypes, Visitor visitor)
+            throws GraphlibException, VisitorException {
+        visitor.preNodeVisitorFunc(node);
+        for (Edge edge : node.getOutEdges()) {
+            if (!edgeTypes.contains(edge.getType())) {
+                continue;
+            }
+            visitor.edgeVisitorFunc(edge);
+            traverseDepthFirst(getTargetNode(edge), edgeTypes, visitor);
+        }
+        visitor.postNodeVisitorFunc(node);
+    }
+
+    /**
+     * Decodes every node of the graph in the order of the file and calls
+     * the node functions of the visitor for them. Edges are not visited.
+     *
+     * @param visitor Visitor to be called.
+     * @throws GraphlibException
+     * @throws VisitorException
+     */
+    public void visitNodes(Visitor visitor) throws GraphlibException, VisitorException {
+        RecordInput input = this.inputs.get();
+        try {
+            for (long offset : this.nodeOffsets) {
+                input.seek(offset);
+                int uidKey = input.readInt4();
+                Node node = new Node(getString(uidKey), this.nodeTypes.get(input.readInt4()));
+                readNodeRecord(input, node);
+
+                visitor.preNodeVisitorFunc(node);
+                visitor.postNodeVisitorFunc(node);
+            }
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            // Nothing to do, the file was only read.
+        }
+    }
+
+    /**
+     * Decodes all records of the node with the given UID.
+     *
+     * @param uidKey String table key of the UID.
+     * @param uid UID of the node.
+     * @return The decoded node.
+     * @throws GraphlibException
+     */
+    private Node decodeNode(int uidKey, String uid) throws GraphlibException {
+        int index = findFirstRecord(uidKey);
+        if (index < 0) {
+            return new Node(uid, null);
+        }
+
+        RecordInput input = this.inputs.get();
+        Node node = null;
+        try {
+            for (; index < this.nodeKeys.length && (int) (this.nodeKeys[index] >> 32) == uidKey; index++) {
+                input.seek(this.nodeOffsets[(int) this.nodeKeys[index]]);
+                input.readInt4();
+                Node.NodeType type = this.nodeTypes.get(input.readInt4());
+                if (node == null) {
+                    node = new Node(uid, type);
+                }
+                readNodeRecord(input, node);
+            }
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        }
+        return node;
+    }
+
+    /**
+     * Reads the attributes and the out edges of a node record.
+     *
+     * @param input Input positioned after the UID and type of the node.
+     * @param node Node to be filled.
+     * @throws IOException
+     * @throws GraphlibException
+     */
+    private void readNodeRecord(RecordInput input, Node node) throws IOException, GraphlibException {
+        int attributeCount = input.readInt4();
+        for (int i = 0; i < attributeCount; i++) {
+            readAttribute(input, node);
+        }
+
+        while (true) {
+            int typeKey = input.readInt4();
+            int direction = input.readInt4();
+            int targetKey = input.readInt4();
+            if (typeKey == 0 && direction == 0 && targetKey == 0) {
+                break;
+            }
+
+            Edge edge = this.edgeFactory.createDirectedEdge(node, new TargetNode(getString(targetKey), targetKey),
+                    getString(typeKey), direction == REVERSE_DIRECTION);
+
+            // Attributes of the reverse pair are added to the edge as graphlib does.
+            boolean hasReverse = input.readBoolean1();
+            int edgeAttributeCount = input.readInt4();
+            for (int i = 0; i < edgeAttributeCount; i++) {
+                readAttribute(input, edge);
+            }
+            if (hasReverse) {
+                edgeAttributeCount = input.readInt4();
+                for (int i = 0; i < edgeAttributeCount; i++) {
+                    readAttribute(input, edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an attribute and adds it to the owner.
+     *
+     * @param input Input positioned at the attribute.
+     * @param owner Owner of the attribute.
+     * @throws IOException
+     * @throws GraphlibException
+     */
+    private void readAttribute(RecordInput input, AttributeOwner owner) throws IOException, GraphlibException {
+        Attribute.aType type = getAttributeType(input.readInt4());
+        String name = getString(input.readInt4());
+        String context = getString(input.readInt4());
+
+        switch (type) {
+            case atInt:
+                AttributeInt intAttribute = newAttribute(INT_CONSTRUCTOR, name, type, context);
+                intAttribute.setValue(input.readInt4());
+                owner.addAttribute(intAttribute);
+                break;
+            case atFloat:
+                AttributeFloat floatAttribute = newAttribute(FLOAT_CONSTRUCTOR, name, type, context);
+                floatAttribute.setValue(input.readFloat4());
+                owner.addAttribute(floatAttribute);
+                break;
+            case atString:
+                AttributeString stringAttribute = newAttribute(STRING_CONSTRUCTOR, name, type, context);
+                stringAttribute.setValue(getString(input.readInt4()));
+                owner.addAttribute(stringAttribute);
+                break;
+            default:
+                AttributeComposite compositeAttribute = newAttribute(COMPOSITE_CONSTRUCTOR, name, type, context);
+                owner.addAttribute(compositeAttribute);
+                int count = input.readInt4();
+                for (int i = 0; i < count; i++) {
+                    readAttribute(input, compositeAttribute);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Skips an attribute without decoding it.
+     *
+     * @param input Input positioned at the attribute.
+     * @throws IOException
+     * @throws GraphlibException
+     */
+    private void skipAttribute(RecordInput input) throws IOException, GraphlibException {
+        Attribute.aType type = getAttributeType(input.readInt4());
+        input.skip(8);
+
+        if (type == Attribute.aType.atComposite) {
+            int count = input.readInt4();
+            for (int i = 0; i < count; i++) {
+                skipAttribute(input);
+            }
+        } else {
+            input.skip(4);
+        }
+    }
+
+    /**
+     * Loads the string table from the beginning of the file.
+     *
+     * @param input Input positioned at the beginning of the file.
+     * @throws IOException
+     * @throws GraphlibException
+     */
+    private void loadStringTable(RecordInput input) throws IOException, GraphlibException {
+        if (!STRTABLE_MARKER.equals(input.readString(STRTABLE_MARKER.length()))) {
+            throw new GraphlibException("Wrong file format: " + this.filename);
+        }
+
+        int noBuckets = input.readInt4();
+        input.skip(2L * noBuckets);
+
+        int count = 0;
+        long[] keys = new long[1024];
+        String[] values = new String[1024];
+        int key;
+        while ((key = input.readInt4()) != 0) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            keys[count] = ((long) key << 32) | count;
+            values[count] = input.readString(input.readInt4());
+            count++;
+        }
+
+        // Sort the keys with the original positions in the low bits, then
+        // reorder the strings accordingly.
+        Arrays.sort(keys, 0, count);
+        this.stringKeys = new int[count];
+        this.strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            this.stringKeys[i] = (int) (keys[i] >> 32);
+            this.strings[i] = GraphSymbols.intern(values[(int) keys[i]]);
+        }
+    }
+
+    /**
+     * Loads the header of the graph.
+     *
+     * @param input Input positioned after the string table.
+     * @throws IOException
+     */
+    private void loadHeader(RecordInput input) throws IOException {
+        int count = input.readInt4();
+        for (int i = 0; i < count; i++) {
+            String key = getString(input.readInt4());
+            this.header.put(key, getString(input.readInt4()));
+        }
+    }
+
+    /**
+     * Reads through the node records and records their offsets.
+     *
+     * @param input Input positioned after the header.
+     * @throws IOException
+     * @throws GraphlibException
+     */
+    private void indexNodes(RecordInput input) throws IOException, GraphlibException {
+        int count = 0;
+        long[] keys = new long[1024];
+        long[] offsets = new long[1024];
+
+        while (true) {
+            long offset = input.position();
+            int uidKey = input.readInt4();
+            int typeKey = input.readInt4();
+            if (uidKey == 0 && typeKey == 0) {
+                break;
+            }
+
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            keys[count] = ((long) uidKey << 32) | count;
+            offsets[count] = offset;
+            count++;
+
+            if (!this.nodeTypes.containsKey(typeKey)) {
+                this.nodeTypes.put(typeKey, GraphSymbols.nodeType(getString(typeKey)));
+            }
+
+            int attributeCount = input.readInt4();
+            for (int i = 0; i < attributeCount; i++) {
+                skipAttribute(input);
+            }
+
+            while (true) {
+                int edgeTypeKey = input.readInt4();
+                int direction = input.readInt4();
+                int targetKey = input.readInt4();
+                if (edgeTypeKey == 0 && direction == 0 && targetKey == 0) {
+                    break;
+                }
+                registerEdgeType(getString(edgeTypeKey));
+
+                boolean hasReverse = input.readBoolean1();
+                int edgeAttributeCount = input.readInt4();
+                for (int i = 0; i < edgeAttributeCount; i++) {
+                    skipAttribute(input);
+                }
+                if (hasReverse) {
+                    edgeAttributeCount = input.readInt4();
+                    for (int i = 0; i < edgeAttributeCount; i++) {
+                        skipAttribute(input);
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(keys, 0, count);
+        this.nodeKeys = Arrays.copyOf(keys, count);
+        this.nodeOffsets = Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Creates the shared edge type of the given name in the edge factory.
+     *
+     * @param edgeType Name of the edge type.
+     */
+    private void registerEdgeType(String edgeType) {
+        this.edgeFactory.createDirectedEdge(new Node(), new Node(), edgeType, false);
+    }
+
+    /**
+     * Returns the index of the first record of the node in the sorted keys.
+     *
+     * @param uidKey String table key of the UID of the node.
+     * @return Index of the first record or -1 if the node has no record.
+     */
+    private int findFirstRecord(int uidKey) {
+        int index = Arrays.binarySearch(this.nodeKeys, (long) uidKey << 32);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index < this.nodeKeys.length && (int) (this.nodeKeys[index] >> 32) == uidKey) {
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back a string from the string table.
+     *
+     * @param key Key of the string.
+     * @return The string or an empty string if the key is unknown.
+     */
+    private String getString(int key) {
+        if (key == 0) {
+            return "";
+        }
+        int index = Arrays.binarySearch(this.stringKeys, key);
+        return index < 0 ? "" : this.strings[index];
+    }
+
+    private Attribute.aType getAttributeType(int ordinal) throws GraphlibException {
+        if (ordinal < 0 || ordinal >= ATTRIBUTE_TYPES.length) {
+            throw new GraphlibException("Invalid attribute type " + ordinal + " in " + this.filename);
+        }
+        return ATTRIBUTE_TYPES[ordinal];
+    }
+
+    private static <T extends Attribute> Constructor<T> getAttributeConstructor(Class<T> attributeClass) {
+        try {
+            Constructor<T> constructor = attributeClass.getDeclaredConstructor(
+                    String.class, Attribute.aType.class, String.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Incompatible graphlib version!", e);
+        }
+    }
+
+    private static <T extends Attribute> T newAttribute(Constructor<T> constructor, String name,
+            Attribute.aType type, String context) throws GraphlibException {
+        try {
+            return constructor.newInstance(name, type, context);
+        } catch (InstantiationException e) {
+            throw new GraphlibException(e);
+        } catch (IllegalAccessException e) {
+            throw new GraphlibException(e);
+        } catch (InvocationTargetException e) {
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * Placeholder for the target node of an edge.
+     */
+    private static class TargetNode extends Node {
+        private final int uidKey;
+
+        TargetNode(String uid, int uidKey) {
+            super(uid, null);
+            this.uidKey = uidKey;
+        }
+    }
+
+    /**
+     * Buffered little-endian input of the graph file with random access.
+     * Every thread uses its own input on the shared file channel.
+     */
+    private class RecordInput {
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long bufferStart;
+
+        RecordInput() {
+            this.buffer.limit(0);
+        }
+
+        long position() {
+            return this.bufferStart + this.buffer.position();
+        }
+
+        void seek(long position) {
+            if (position >= this.bufferStart && position <= this.bufferStart + this.buffer.limit()) {
+                this.buffer.position((int) (position - this.bufferStart));
+            } else {
+                this.bufferStart = position;
+                this.buffer.clear();
+                this.buffer.limit(0);
+            }
+        }
+
+        void skip(long length) {
+            seek(position() + length);
+        }
+
+        int readInt4() throws IOException {
+            require(4);
+            return this.buffer.getInt();
+        }
+
+        float readFloat4() throws IOException {
+            require(4);
+            return this.buffer.getFloat();
+        }
+
+        boolean readBoolean1() throws IOException {
+            require(1);
+            return this.buffer.get() != 0;
+        }
+
+        String readString(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            if (length <= this.buffer.capacity()) {
+                require(length);
+                this.buffer.get(bytes);
+            } else {
+                int buffered = this.buffer.remaining();
+                this.buffer.get(bytes, 0, buffered);
+                long position = position();
+                ByteBuffer target = ByteBuffer.wrap(bytes, buffered, length - buffered);
+                while (target.hasRemaining()) {
+                    if (channel.read(target, position + target.position() - buffered) < 0) {
+                        throw new EOFException("Unexpected end of file: " + filename);
+                    }
+                }
+                seek(position + length - buffered);
+            }
+            return new String(bytes, UTF8_CHARSET);
+        }
+
+        /**
+         * Makes sure that the given number of bytes are available in the buffer.
+         */
+        private void require(int length) throws IOException {
+            if (this.buffer.remaining() >= length) {
+                return;
+            }
+
+            long start = position();
+            this.buffer.compact();
+            this.bufferStart = start;
+            while (this.buffer.position() < length) {
+                if (channel.read(this.buffer, this.bufferStart + this.buffer.position()) < 0) {
+                    break;
+                }
+            }
+            this.buffer.flip();
+
+            if (this.buffer.remaining() < length) {
+                throw new EOFException("Unexpected end of file: " + filename);
+            }
+        }
+    }
+}
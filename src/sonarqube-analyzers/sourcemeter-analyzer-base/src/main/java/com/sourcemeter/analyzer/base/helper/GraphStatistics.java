@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphlib.Attribute;
+import graphlib.Edge;
+import graphlib.Edge.eDirectionType;
+import graphlib.GraphlibException;
+import graphlib.Node;
+import graphlib.Visitor;
+import graphlib.VisitorException;
+
+/**
+ * Statistics of a result graph: number of nodes per tree, per node
+ * type and number of node attributes per attribute context.
+ *
+ * The statistics are computed on the first query with one linear pass over
+ * the nodes of the graph file, so they cost nothing when nobody asks for them
+ * (e.g. when progress reporting is turned off).
+ */
+public class GraphStatistics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphStatistics.class);
+
+    private final GraphReader graph;
+
+    private Map<String, Long> treeEdgeCounts;
+    private Map<String, Long> nodeTypeCounts;
+    private Map<String, Long> attributeContextCounts;
+
+    public GraphStatistics(GraphReader graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Returns the number of nodes in the tree defined by the given edge type,
+     * including the root of the tree.
+     *
+     * @param edgeType Type of the tree edges (ex.: LogicalTree, PhysicalTree).
+     * @return Number of nodes in the tree.
+     */
+    public long getNumberOfTreeNodes(String edgeType) {
+        computeStatistics();
+        return getCount(treeEdgeCounts, edgeType) + 1;
+    }
+
+    /**
+     * Returns the number of nodes with the given node type.
+     *
+     * @param nodeType Type of the nodes (ex.: Class, Method).
+     * @return Number of nodes with the given type.
+     */
+    public long getNumberOfNodes(String nodeType) {
+        computeStatistics();
+        return getCount(nodeTypeCounts, nodeType);
+    }
+
+    /**
+     * Returns the number of node attributes with the given context.
+     *
+     * @param context Context of the attributes (ex.: metric, warning).
+     * @return Number of node attributes with the given context.
+     */
+    public long getNumberOfAttributes(String context) {
+        computeStatistics();
+        return getCount(attributeContextCounts, context);
+    }
+
+    /**
+     * Checks whether the statistics have already been computed, so querying
+     * them does not cost a pass over the graph.
+     *
+     * @return True if the statistics are available.
+     */
+    public boolean isComputed() {
+        return treeEdgeCounts != null;
+    }
+
+    /**
+     * Counts the nodes, their attributes and the directional out edges of the
+     * graph. Every node of a tree except the root has exactly one incoming
+     * tree edge, so the edge counts give the size of the trees without
+     * traversing them.
+     */
+    private void computeStatistics() {
+        if (treeEdgeCounts != null) {
+            return;
+        }
+
+        treeEdgeCounts = new HashMap<String, Long>();
+        nodeTypeCounts = new HashMap<String, Long>();
+        attributeContextCounts = new HashMap<String, Long>();
+
+        try {
+            graph.visitNodes(new Visitor() {
+                @Override
+                public void edgeVisitorFunc(Edge edge) {
+                    // Edges are not visited.
+                }
+
+                @Override
+                public void preNodeVisitorFunc(Node node) {
+                    countNode(node);
+                }
+
+                @Override
+                public void postNodeVisitorFunc(Node node) {
+                    // Nothing to do.
+                }
+            });
+        } catch (GraphlibException e) {
+            LOG.warn("Error during computing graph statistics!", e);
+        } catch (VisitorException e) {
+            LOG.warn("Error during computing graph statistics!", e);
+        }
+    }
+
+    private void countNode(Node node) {
+        if (node.getType() != null) {
+            increment(nodeTypeCounts, node.getType().getType());
+        }
+        for (Attribute attribute : node.getAttributes()) {
+            increment(attributeContextCounts, attribute.getContext());
+        }
+        for (Edge edge : node.getOutEdges()) {
+            if (eDirectionType.edtDirectional.equals(edge.getType().getDirectionType())) {
+                increment(treeEdgeCounts, edge.getType().getType());
+            }
+        }
+    }
+
+    private static void increment(Map<String, Long> counts, String key) {
+        Long count = counts.get(key);
+        counts.put(key, count == null ? 1L : count + 1);
+    }
+
+    private static long getCount(Map<String, Long> counts, String key) {
+        Long count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+}
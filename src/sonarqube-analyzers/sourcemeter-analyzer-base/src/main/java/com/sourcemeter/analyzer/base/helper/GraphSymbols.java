@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import graphlib.Node;
+
+/**
+ * Interned symbols of the result graphs: the attribute names, attribute
+ * contexts, edge types and node types the visitors dispatch on.
+ *
+ * The {@link GraphReader} replaces every string of its string table that is
+ * equal to a symbol with the symbol itself, and it shares one NodeType object
+ * per node type between all graphs. Therefore the names, contexts and types of
+ * the decoded nodes can be compared to the symbols by identity, without
+ * comparing characters or allocating NodeType objects.
+ */
+public final class GraphSymbols {
+
+    public static final String NAME = "Name";
+    public static final String LONG_NAME = "LongName";
+    public static final String POSITION = "Position";
+    public static final String PATH = "Path";
+    public static final String LINE = "Line";
+    public static final String WARNING_TEXT = "WarningText";
+    public static final String EXTRA_INFO = "ExtraInfo";
+
+    public static final String CONTEXT_METRIC = "metric";
+    public static final String CONTEXT_METRIC_GROUP = "metricgroup";
+    public static final String CONTEXT_WARNING = "warning";
+
+    public static final String EDGE_DECLARES = "Declares";
+
+    private static final Map<String, String> SYMBOLS = new HashMap<String, String>();
+    private static final ConcurrentMap<String, Node.NodeType> NODE_TYPES = new ConcurrentHashMap<String, Node.NodeType>();
+
+    static {
+        String[] symbols = {
+            NAME, LONG_NAME, POSITION, PATH, LINE, WARNING_TEXT, EXTRA_INFO,
+            CONTEXT_METRIC, CONTEXT_METRIC_GROUP, CONTEXT_WARNING,
+            EDGE_DECLARES
+        };
+        for (String symbol : symbols) {
+            SYMBOLS.put(symbol, symbol);
+        }
+    }
+
+    public static final Node.NodeType NODE_FILE = nodeType("File");
+    public static final Node.NodeType NODE_METHOD = nodeType("Method");
+    public static final Node.NodeType NODE_CLONE_CLASS = nodeType("CloneClass");
+    public static final Node.NodeType NODE_CLONE_INSTANCE = nodeType("CloneInstance");
+
+    private GraphSymbols() {
+    }
+
+    /**
+     * Gives back the symbol equal to the given string, or the string itself
+     * if it is not a symbol.
+     *
+     * @param value String of a string table.
+     * @return The interned string.
+     */
+    public static String intern(String value) {
+        String symbol = SYMBOLS.get(value);
+        return symbol == null ? value : symbol;
+    }
+
+    /**
+     * Gives back the shared NodeType object of the given node type.
+     *
+     * @param type Name of the node type.
+     * @return The shared node type.
+     */
+    public static Node.NodeType nodeType(String type) {
+        Node.NodeType nodeType = NODE_TYPES.get(type);
+        if (nodeType == null) {
+            Node.NodeType newNodeType = new Node.NodeType(type);
+            nodeType = NODE_TYPES.putIfAbsent(type, newNodeType);
+            if (nodeType == null) {
+                nodeType = newNodeType;
+            }
+        }
+        return nodeType;
+    }
+
+    /**
+     * Checks whether the given name, context or edge type of a node decoded
+     * by a {@link GraphReader} is the given symbol.
+     *
+     * @param value Name, context or edge type read from the graph.
+     * @param symbol One of the symbols of this class.
+     * @return True if the value is the symbol.
+     */
+    public static boolean is(String value, String symbol) {
+        return value == symbol;
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import columbus.ColumbusException;
+import columbus.IO;
+import columbus.StrTable;
+
+import graphlib.Attribute;
+import graphlib.AttributeComposite;
+import graphlib.AttributeFloat;
+import graphlib.AttributeInt;
+import graphlib.AttributeString;
+import graphlib.Edge;
+import graphlib.Edge.eDirectionType;
+import graphlib.GraphlibException;
+import graphlib.Node;
+
+/**
+ * Writer of binary result graphs in the format read by {@link GraphReader}
+ * and Graph.loadBinary.
+ *
+ * Graph.saveBinary can only save the strings of a graph loaded from a file,
+ * as the nodes, edges and attributes created in Java are not added to the
+ * string table of the graph. This writer builds the string table from the
+ * given nodes before writing them. The reverse pairs of the edges are not
+ * written, every edge is saved as a directed edge of its source node.
+ *
+ * The nodes can also be written one by one by an opened writer, which keeps
+ * only the string table in the memory. The node records are written into a
+ * temporary file next to the graph, which is appended to the string table and
+ * the header when the writer is closed.
+ */
+public final class GraphWriter {
+
+    private final String filename;
+    private final File recordsFile;
+    private final StrTable strings = new StrTable();
+    private IO io;
+    private int nodeCount;
+
+    private GraphWriter(String filename) throws GraphlibException {
+        this.filename = filename;
+        this.recordsFile = new File(filename + ".nodes");
+        try {
+            this.io = new IO(this.recordsFile.getPath(), IO.IOMode.WRITE);
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * Opens a writer, which writes the nodes of a graph one by one into the
+     * given file.
+     *
+     * @param filename Path of the binary graph.
+     * @return The writer.
+     * @throws GraphlibException If the temporary file cannot be created.
+     */
+    public static GraphWriter open(String filename) throws GraphlibException {
+        return new GraphWriter(filename);
+    }
+
+    /**
+     * Starts the record of a node. Its edges can be added until the record
+     * is ended. Every node must have only one record.
+     *
+     * @param uid UID of the node.
+     * @param type Type of the node.
+     * @param attributes Attributes of the node.
+     * @throws GraphlibException If the record cannot be written.
+     */
+    public void startNode(String uid, Node.NodeType type, List<Attribute> attributes) throws GraphlibException {
+        try {
+            this.io.writeInt4(this.strings.set(uid));
+            this.io.writeInt4(this.strings.set(type.getType()));
+            addStrings(this.strings, attributes);
+            writeAttributes(this.io, this.strings, attributes);
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        }
+        this.nodeCount++;
+    }
+
+    /**
+     * Adds an out edge to the started node record. Reverse edges are skipped.
+     *
+     * @param edge The edge, its type and attributes are written.
+     * @param targetUid UID of the target node in the written graph.
+     * @throws GraphlibException If the edge cannot be written.
+     */
+    public void addEdge(Edge edge, String targetUid) throws GraphlibException {
+        if (edge.getType().getDirectionType() == eDirectionType.edtReverse) {
+            return;
+        }
+        try {
+            this.io.writeInt4(this.strings.set(edge.getType().getType()));
+            this.io.writeInt4(edge.getType().getDirectionType().ordinal());
+            this.io.writeInt4(this.strings.set(targetUid));
+            this.io.writeBoolean1(false);
+            addStrings(this.strings, edge.getAttributes());
+            writeAttributes(this.io, this.strings, edge.getAttributes());
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * Ends the started node record.
+     *
+     * @throws GraphlibException If the record cannot be written.
+     */
+    public void endNode() throws GraphlibException {
+        try {
+            this.io.writeInt4(0);
+            this.io.writeInt4(0);
+            this.io.writeInt4(0);
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        }
+    }
+
+    /**
+     * Returns the number of the written node records.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Writes the string table and the header into the graph, followed by the
+     * written node records, and deletes the temporary file.
+     *
+     * @param header Header informations of the graph.
+     * @throws GraphlibException If the graph cannot be written.
+     */
+    public void close(Map<String, String> header) throws GraphlibException {
+        IO graphIo = null;
+        try {
+            this.io.writeInt4(0);
+            this.io.writeInt4(0);
+            this.io.close();
+            this.io = null;
+
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                this.strings.set(entry.getKey());
+                this.strings.set(entry.getValue());
+            }
+            graphIo = new IO(this.filename, IO.IOMode.WRITE);
+            this.strings.save(graphIo, StrTable.StrType.strDefault);
+            graphIo.writeInt4(header.size());
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                graphIo.writeInt4(key(this.strings, entry.getKey()));
+                graphIo.writeInt4(key(this.strings, entry.getValue()));
+            }
+            graphIo.close();
+            graphIo = null;
+
+            OutputStream output = new FileOutputStream(this.filename, true);
+            try {
+                Files.copy(this.recordsFile.toPath(), output);
+            } finally {
+                output.close();
+            }
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        } catch (IOException e) {
+            throw new GraphlibException(e);
+        } finally {
+            if (graphIo != null) {
+                try {
+                    graphIo.close();
+                } catch (ColumbusException e) {
+                    // The graph is incomplete anyway.
+                }
+            }
+            abort();
+        }
+    }
+
+    /**
+     * Closes the writer without writing the graph, and deletes the temporary
+     * file.
+     */
+    public void abort() {
+        if (this.io != null) {
+            try {
+                this.io.close();
+            } catch (ColumbusException e) {
+                // The records are dropped anyway.
+            }
+            this.io = null;
+        }
+        if (this.recordsFile.exists() && !this.recordsFile.delete()) {
+            this.recordsFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Saves the nodes of a graph into the given file. The targets of the
+     * edges are saved by their UIDs, they do not have to be in the list.
+     *
+     * @param nodes Nodes of the graph with their attributes and out edges.
+     * @param header Header informations of the graph.
+     * @param filename Path of the binary graph.
+     * @throws GraphlibException If the file cannot be written.
+     */
+    public static void save(Collection<Node> nodes, Map<String, String> header, String filename)
+            throws GraphlibException {
+        StrTable strings = new StrTable();
+        IO io = null;
+        try {
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                strings.set(entry.getKey());
+                strings.set(entry.getValue());
+            }
+            for (Node node : nodes) {
+                strings.set(node.getUID());
+                strings.set(node.getType().getType());
+                addStrings(strings, node.getAttributes());
+                for (Edge edge : node.getOutEdges()) {
+                    strings.set(edge.getType().getType());
+                    strings.set(edge.getToNode().getUID());
+                    addStrings(strings, edge.getAttributes());
+                }
+            }
+
+            io = new IO(filename, IO.IOMode.WRITE);
+            strings.save(io, StrTable.StrType.strDefault);
+
+            io.writeInt4(header.size());
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                io.writeInt4(key(strings, entry.getKey()));
+                io.writeInt4(key(strings, entry.getValue()));
+            }
+
+            for (Node node : nodes) {
+                io.writeInt4(key(strings, node.getUID()));
+                io.writeInt4(key(strings, node.getType().getType()));
+                writeAttributes(io, strings, node.getAttributes());
+                for (Edge edge : node.getOutEdges()) {
+                    if (edge.getType().getDirectionType() == eDirectionType.edtReverse) {
+                        continue;
+                    }
+                    io.writeInt4(key(strings, edge.getType().getType()));
+                    io.writeInt4(edge.getType().getDirectionType().ordinal());
+                    io.writeInt4(key(strings, edge.getToNode().getUID()));
+                    io.writeBoolean1(false);
+                    writeAttributes(io, strings, edge.getAttributes());
+                }
+                io.writeInt4(0);
+                io.writeInt4(0);
+                io.writeInt4(0);
+            }
+            io.writeInt4(0);
+            io.writeInt4(0);
+        } catch (ColumbusException e) {
+            throw new GraphlibException(e);
+        } finally {
+            if (io != null) {
+                try {
+                    io.close();
+                } catch (ColumbusException e) {
+                    throw new GraphlibException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a string of the string table, 0 for empty strings.
+     */
+    private static int key(StrTable strings, String value) {
+        return value == null || value.isEmpty() ? 0 : strings.get(value);
+    }
+
+    private static void addStrings(StrTable strings, List<Attribute> attributes) throws ColumbusException {
+        for (Attribute attribute : attributes) {
+            strings.set(attribute.getName());
+            if (attribute.getContext() != null) {
+                strings.set(attribute.getContext());
+            }
+            if (attribute.getType() == Attribute.aType.atString) {
+                strings.set(((AttributeString) attribute).getValue());
+            } else if (attribute.getType() == Attribute.aType.atComposite) {
+                addStrings(strings, attribute.getAttributes());
+            }
+        }
+    }
+
+    private static void writeAttributes(IO io, StrTable strings, List<Attribute> attributes) throws ColumbusException {
+        io.writeInt4(attributes.size());
+        for (Attribute attribute : attributes) {
+            io.writeInt4(attribute.getType().ordinal());
+            io.writeInt4(key(strings, attribute.getName()));
+            io.writeInt4(key(strings, attribute.getContext()));
+            switch (attribute.getType()) {
+                case atInt:
+                    io.writeInt4(((AttributeInt) attribute).getValue());
+                    break;
+                case atFloat:
+                    io.writeFloat4(((AttributeFloat) attribute).getValue());
+                    break;
+                case atString:
+                    io.writeInt4(key(strings, ((AttributeString) attribute).getValue()));
+                    break;
+                default:
+                    writeAttributes(io, strings, ((AttributeComposite) attribute).getAttributes());
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Cache of the input files of the paths found in the result graph. A path is
+ * looked up in the file system only once, the files which are not indexed
+ * (ex.: filtered out) are cached too.
+ *
+ * The cache is created by the sensor before the upload, and every visitor and
+ * helper of the upload gets the same cache through the {@link UploadContext}.
+ * The cache can be used from several threads.
+ */
+public final class InputFileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InputFileCache.class);
+
+    private static final Resolution MISSING = new Resolution(null, null);
+
+    private final FileSystem fileSystem;
+    private final String baseDirPrefix;
+    private final ConcurrentMap<String, Resolution> resolutions = new ConcurrentHashMap<String, Resolution>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates the cache of the given file system.
+     *
+     * @param fileSystem File system of the sensor.
+     */
+    public InputFileCache(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+
+        String prefix = fileSystem.baseDir().getAbsolutePath().replace("\\", "/");
+        if (!prefix.startsWith("/")) {
+            prefix = "/" + prefix;
+        }
+        this.baseDirPrefix = prefix;
+    }
+
+    /**
+     * Stops the cache and logs its statistics.
+     */
+    public void stop() {
+        LOG.debug("      Input file cache: " + resolutions.size() + " paths, "
+                + hits.get() + " hits, " + misses.get() + " misses.");
+    }
+
+    /**
+     * Returns the input file of the given path.
+     *
+     * @param path Path of the file in the result graph.
+     * @return The input file, or null if the file is not indexed.
+     */
+    public InputFile getInputFile(String path) {
+        return resolve(path).inputFile;
+    }
+
+    /**
+     * Returns the path of the given file relative to the base directory.
+     *
+     * @param path Path of the file in the result graph.
+     * @return The relative path, or null if the file is not indexed.
+     */
+    public String getRelativePath(String path) {
+        return resolve(path).relativePath;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return Number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which queried the file system.
+     *
+     * @return Number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private Resolution resolve(String path) {
+        Resolution resolution = resolutions.get(path);
+        if (resolution != null) {
+            hits.incrementAndGet();
+            return resolution;
+        }
+
+        // Threads racing for the same path resolve it to the same file.
+        misses.incrementAndGet();
+        InputFile file = fileSystem.inputFile(fileSystem.predicates().hasPath(path));
+        if (file == null) {
+            resolution = MISSING;
+        } else {
+            resolution = new Resolution(file, relativizePath(file.uri().normalize().getPath()));
+        }
+        Resolution previous = resolutions.putIfAbsent(path, resolution);
+        return previous != null ? previous : resolution;
+    }
+
+    /**
+     * Relativize given path based on the base directory.
+     *
+     * @param path Full file path to be relativized.
+     * @return Relativized path.
+     */
+    private String relativizePath(String path) {
+        if (path.startsWith(baseDirPrefix)) {
+            path = path.substring(baseDirPrefix.length() + 1);
+        }
+        return path;
+    }
+
+    /**
+     * Input file and relative path of a graph path.
+     */
+    private static final class Resolution {
+
+        private final InputFile inputFile;
+        private final String relativePath;
+
+        Resolution(InputFile inputFile, String relativePath) {
+            this.inputFile = inputFile;
+            this.relativePath = relativePath;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.issue.NewIssue;
+import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+import org.sonar.api.config.Configuration;
+
+import graphlib.Attribute;
+import graphlib.AttributeComposite;
+import graphlib.AttributeInt;
+import graphlib.AttributeString;
+
+/**
+ * Builds the flows of the issues from the stack traces (ExtraInfo) of the
+ * warnings. Consecutive frames of a trace pointing to the same line are
+ * collapsed, and if the sm.issueFlowLimit setting is positive, a trace is cut
+ * at that length. Equal traces of different warnings share the same list.
+ *
+ * The builder is started by the sensor before the upload, and every visitor
+ * and helper of the upload gets the same builder through the
+ * {@link UploadContext}. The builder can be used from several threads.
+ */
+public final class IssueFlowBuilder {
+
+    public static final String FLOW_LIMIT_KEY = "sm.issueFlowLimit";
+
+    private static final Logger LOG = LoggerFactory.getLogger(IssueFlowBuilder.class);
+
+    private static final int DEFAULT_FLOW_LIMIT = 0;
+    private static final int MAX_INTERNED_TRACES = 10000;
+
+    private final int flowLimit;
+    private final ConcurrentMap<List<UploadSnapshot.Location>, List<UploadSnapshot.Location>> traces =
+            new ConcurrentHashMap<List<UploadSnapshot.Location>, List<UploadSnapshot.Location>>();
+
+    private final AtomicLong collapsedFrames = new AtomicLong();
+    private final AtomicLong truncatedTraces = new AtomicLong();
+    private final AtomicLong sharedTraces = new AtomicLong();
+
+    private IssueFlowBuilder(int flowLimit) {
+        this.flowLimit = flowLimit;
+    }
+
+    /**
+     * Starts a builder with the flow limit of the configuration.
+     *
+     * @param configuration Sonar configuration.
+     * @return The started builder.
+     */
+    public static IssueFlowBuilder start(Configuration configuration) {
+        return new IssueFlowBuilder(getFlowLimit(configuration));
+    }
+
+    /**
+     * Stops the builder and logs its statistics.
+     */
+    public void stop() {
+        LOG.debug("      Issue flows: " + traces.size() + " distinct traces, " + sharedTraces.get()
+                + " shared, " + collapsedFrames.get() + " repeated frames collapsed, "
+                + truncatedTraces.get() + " traces truncated.");
+    }
+
+    private static int getFlowLimit(Configuration configuration) {
+        String flowLimitValue = configuration == null ? null
+                : FileHelper.getStringFromConfiguration(configuration, FLOW_LIMIT_KEY);
+        if (flowLimitValue == null) {
+            return DEFAULT_FLOW_LIMIT;
+        }
+        try {
+            return Integer.parseInt(flowLimitValue.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("ERROR: '" + FLOW_LIMIT_KEY + "' must be an integer!", e);
+        }
+    }
+
+    /**
+     * Collects the frames of the stack trace from the given attribute.
+     *
+     * @param extraInfoAttribute The attribute that contains the stack trace information.
+     * @param warningText Warning's text message, used as the message of every frame.
+     * @return Unmodifiable list of the frames, or null if the attribute is not
+     *         a stack trace.
+     */
+    public List<UploadSnapshot.Location> collect(AttributeComposite extraInfoAttribute, String warningText) {
+        if (!GraphSymbols.is(extraInfoAttribute.getName(), GraphSymbols.EXTRA_INFO)) {
+            return null;
+        }
+
+//      Example:
+//      <attribute type = "composite" name = "ExtraInfo" context = "">
+//        <attribute type = "composite" name = "SourceLink" context = "">
+//          <attribute type = "string" name = "Path" context = "" value =
+//            "src/org/snipsnap/net/AddLabelServlet.java"/>
+//          <attribute type = "int" name = "Line" context = "" value = "71"/>
+//          <attribute type = "int" name = "Column" context = "" value = "0"/>
+//          <attribute type = "int" name = "EndLine" context = "" value = "71"/>
+//          <attribute type = "int" name = "EndColumn" context = "" value = "10000"/>
+//          <attribute type = "int" name = "CallStackDepth" context = "" value = "0"/>
+//        </attribute>
+//      ...
+//      </attribute>
+        List<Attribute> sourceLinks = extraInfoAttribute.getAttributes();
+        List<UploadSnapshot.Location> trace = new ArrayList<UploadSnapshot.Location>(
+                flowLimit > 0 ? Math.min(sourceLinks.size(), flowLimit) : sourceLinks.size());
+        String previousPath = null;
+        int previousLine = 0;
+        for (Attribute sourceLink : sourceLinks) {
+            String path = "";
+            int line = 0;
+            for (Attribute sourceLinkAttribute : sourceLink.getAttributes()) {
+                if (GraphSymbols.is(sourceLinkAttribute.getName(), GraphSymbols.PATH)) {
+                    path = ((AttributeString) sourceLinkAttribute).getValue();
+                } else if (GraphSymbols.is(sourceLinkAttribute.getName(), GraphSymbols.LINE)) {
+                    line = ((AttributeInt) sourceLinkAttribute).getValue();
+                }
+            }
+
+            if (path.equals(previousPath) && line == previousLine) {
+                collapsedFrames.incrementAndGet();
+                continue;
+            }
+            if (flowLimit > 0 && trace.size() == flowLimit) {
+                truncatedTraces.incrementAndGet();
+                break;
+            }
+            trace.add(new UploadSnapshot.Location(path, line, warningText));
+            previousPath = path;
+            previousLine = line;
+        }
+        return intern(trace);
+    }
+
+    /**
+     * Returns the shared copy of the given trace.
+     */
+    private List<UploadSnapshot.Location> intern(List<UploadSnapshot.Location> trace) {
+        List<UploadSnapshot.Location> shared = traces.get(trace);
+        if (shared != null) {
+            sharedTraces.incrementAndGet();
+            return shared;
+        }
+
+        List<UploadSnapshot.Location> unmodifiable = Collections.unmodifiableList(trace);
+        if (traces.size() >= MAX_INTERNED_TRACES) {
+            return unmodifiable;
+        }
+        shared = traces.putIfAbsent(trace, unmodifiable);
+        if (shared != null) {
+            sharedTraces.incrementAndGet();
+            return shared;
+        }
+        return unmodifiable;
+    }
+
+    /**
+     * Creates the flow of the given issue from the frames of a stack trace.
+     *
+     * @param newIssue Issue to be saved.
+     * @param trace Frames of the stack trace.
+     * @param inputFileCache Cache resolving the paths of the frames.
+     * @return The locations of the flow, or null if a frame is in a file that
+     *         is not indexed.
+     */
+    public List<NewIssueLocation> build(NewIssue newIssue, List<UploadSnapshot.Location> trace,
+            InputFileCache inputFileCache) {
+        List<NewIssueLocation> flow = new ArrayList<NewIssueLocation>(trace.size());
+        for (UploadSnapshot.Location frame : trace) {
+            NewIssueLocation location = newLocation(newIssue, inputFileCache,
+                    frame.getPath(), frame.getMessage(), frame.getLine());
+            if (location == null) {
+                return null;
+            }
+            flow.add(location);
+        }
+        return flow;
+    }
+
+    /**
+     * Creates a location of the given issue.
+     *
+     * @param newIssue Issue of the location.
+     * @param inputFileCache Cache resolving the path.
+     * @param path File's path.
+     * @param message Text of the location.
+     * @param line Line in file.
+     * @return The location, or null if the file is not indexed.
+     */
+    public static NewIssueLocation newLocation(NewIssue newIssue, InputFileCache inputFileCache,
+            String path, String message, int line) {
+        InputFile file = inputFileCache.getInputFile(path);
+        if (file == null) {
+            return null;
+        }
+        return newIssue.newLocation()
+                       .message(message)
+                       .on(file)
+                       .at(file.selectLine(line));
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+import org.sonar.api.config.Configuration;
+
+/**
+ * Encoding of the DATA measures (logical levels, clone tree) saved by the
+ * plug-in, selected by the sm.measureCodec setting.
+ *
+ * With the "json" codec the value is the JSON document itself. With the
+ * "gzip" codec the value is the GZIP_PREFIX marker followed by the Base64
+ * encoded gzip of the UTF-8 JSON document. The dashboard of the GUI plug-in
+ * recognizes the marker, so it reads measures in both formats.
+ */
+public final class MeasureCodec {
+
+    public static final String CODEC_KEY = "sm.measureCodec";
+    public static final String JSON_CODEC = "json";
+    public static final String GZIP_CODEC = "gzip";
+
+    /**
+     * Version marker of the gzip+base64 format.
+     */
+    public static final String GZIP_PREFIX = "SMGZ1:";
+
+    private MeasureCodec() {
+    }
+
+    /**
+     * Returns the codec selected in the configuration.
+     *
+     * @param configuration Sonar configuration.
+     * @return JSON_CODEC or GZIP_CODEC.
+     */
+    public static String getCodec(Configuration configuration) {
+        String codec = FileHelper.getStringFromConfiguration(configuration, CODEC_KEY);
+        if (codec == null || JSON_CODEC.equalsIgnoreCase(codec.trim())) {
+            return JSON_CODEC;
+        } else if (GZIP_CODEC.equalsIgnoreCase(codec.trim())) {
+            return GZIP_CODEC;
+        }
+        throw new RuntimeException("ERROR: '" + CODEC_KEY + "' must be '" + JSON_CODEC + "' or '" + GZIP_CODEC + "'!");
+    }
+
+    /**
+     * Encodes the value of a DATA measure with the codec of the configuration.
+     *
+     * @param configuration Sonar configuration.
+     * @param data JSON value of the measure.
+     * @return Encoded value of the measure.
+     */
+    public static String encode(Configuration configuration, String data) {
+        if (GZIP_CODEC.equals(getCodec(configuration))) {
+            return encodeGzip(data);
+        }
+        return data;
+    }
+
+    /**
+     * Encodes the value in gzip+base64 format, with the version marker.
+     *
+     * @param data JSON value of the measure.
+     * @return Encoded value of the measure.
+     */
+    public static String encodeGzip(String data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length() / 8));
+        try {
+            bytes.write(GZIP_PREFIX.getBytes(StandardCharsets.US_ASCII));
+            OutputStream base64 = Base64.getEncoder().wrap(bytes);
+            Writer writer = new OutputStreamWriter(new GZIPOutputStream(base64), StandardCharsets.UTF_8);
+            writer.write(data);
+            writer.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error during compressing measure!", e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.Configuration;
+
+/**
+ * Collects the measures of the upload and saves them in batches into the
+ * sensor context. A metric is saved only once for a component, the later
+ * measures of the same metric are skipped, as SonarQube would reject them.
+ * The measures are buffered per component, and the metrics of a component
+ * are only remembered until its measures are saved, the duplicates of a
+ * saved measure are rejected by SonarQube and skipped. The large DATA
+ * measures (for example, the JSON trees of the logical level) are not
+ * buffered, they are saved at once.
+ *
+ * The sink is started by the sensor before the upload, and every visitor and
+ * helper of the upload adds its measures to the same sink, which it gets
+ * through the {@link UploadContext}. The batches are
+ * saved by the thread filling them, or by a dedicated flush thread if the
+ * sm.measureFlushThread setting is turned on. The number of the saved
+ * measures and their size is counted per metric. The sink can be used from
+ * several threads.
+ */
+public final class MeasureSink {
+
+    public static final String BATCH_SIZE_KEY = "sm.measureBatchSize";
+    public static final String FLUSH_THREAD_KEY = "sm.measureFlushThread";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MeasureSink.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int QUEUED_BATCHES = 4;
+
+    private static final List<PendingMeasure> END_OF_BATCHES = Collections.emptyList();
+
+    private final SensorContext sensorContext;
+    private final int batchSize;
+
+    // Measures not saved yet, by the keys of their components.
+    private Map<String, ComponentMeasures> pending = new LinkedHashMap<String, ComponentMeasures>();
+    private int pendingCount;
+    private long duplicates;
+
+    private final Map<String, MetricStatistics> statistics = new HashMap<String, MetricStatistics>();
+
+    private final BlockingQueue<List<PendingMeasure>> batches;
+    private final Thread flushThread;
+    private volatile RuntimeException flushFailure;
+
+    private MeasureSink(SensorContext sensorContext, int batchSize, boolean useFlushThread) {
+        this.sensorContext = sensorContext;
+        this.batchSize = batchSize;
+
+        if (useFlushThread) {
+            this.batches = new ArrayBlockingQueue<List<PendingMeasure>>(QUEUED_BATCHES);
+            this.flushThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runFlushThread();
+                }
+            }, "SourceMeter measure sink");
+            this.flushThread.setDaemon(true);
+            this.flushThread.start();
+        } else {
+            this.batches = null;
+            this.flushThread = null;
+        }
+    }
+
+    /**
+     * Starts the sink of the given sensor context with the batch size and the
+     * flush thread selected in the configuration.
+     *
+     * @param sensorContext Context of the sensor.
+     * @param configuration Sonar configuration.
+     * @return The started sink.
+     */
+    public static MeasureSink start(SensorContext sensorContext, Configuration configuration) {
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String batchSizeValue = FileHelper.getStringFromConfiguration(configuration, BATCH_SIZE_KEY);
+        if (batchSizeValue != null) {
+            try {
+                batchSize = Integer.parseInt(batchSizeValue.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERROR: '" + BATCH_SIZE_KEY + "' must be an integer!", e);
+            }
+        }
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        boolean useFlushThread = "true".equals(FileHelper.getStringFromConfiguration(configuration, FLUSH_THREAD_KEY));
+
+        return new MeasureSink(sensorContext, batchSize, useFlushThread);
+    }
+
+    /**
+     * Adds a measure to the sink. The measure is skipped if the metric is
+     * already added to the component. DATA measures are saved at once.
+     *
+     * @param inputComponent Component of the measure.
+     * @param metric Metric of the measure.
+     * @param value Value of the measure.
+     * @return True if the measure is added, false if it is skipped.
+     */
+    public boolean add(InputComponent inputComponent, Metric<?> metric, Serializable value) {
+        checkFlushFailure();
+
+        PendingMeasure measure = new PendingMeasure(inputComponent, metric, value);
+        boolean data = isData(metric);
+        List<PendingMeasure> batch = null;
+        synchronized (this) {
+            String componentKey = inputComponent.key();
+            ComponentMeasures component = pending.get(componentKey);
+            if (component == null) {
+                component = new ComponentMeasures();
+                pending.put(componentKey, component);
+            }
+            if (!component.metrics.add(metric.key())) {
+                duplicates++;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Measure is already saved, skipped: " + metric.key() + " on " + componentKey);
+                }
+                return false;
+            }
+
+            if (!data) {
+                component.measures.add(measure);
+                pendingCount++;
+                if (pendingCount >= batchSize) {
+                    batch = takePending();
+                }
+            }
+        }
+
+        if (data) {
+            save(Collections.singletonList(measure));
+        } else if (batch != null) {
+            flushBatch(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Saves the measures collected so far.
+     */
+    public void flush() {
+        checkFlushFailure();
+
+        List<PendingMeasure> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        flushBatch(batch);
+    }
+
+    /**
+     * Saves the remaining measures and stops the sink.
+     */
+    public void stop() {
+        try {
+            flush();
+        } finally {
+            if (flushThread != null) {
+                enqueue(END_OF_BATCHES);
+                try {
+                    flushThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        checkFlushFailure();
+        logStatistics();
+    }
+
+    /**
+     * Returns the number of the saved measures and their size per metric key.
+     *
+     * @return Statistics of the saved measures.
+     */
+    public Map<String, MetricStatistics> getStatistics() {
+        Map<String, MetricStatistics> copy = new TreeMap<String, MetricStatistics>();
+        synchronized (sensorContext) {
+            for (Map.Entry<String, MetricStatistics> entry : statistics.entrySet()) {
+                MetricStatistics metricStatistics = entry.getValue();
+                copy.put(entry.getKey(), new MetricStatistics(metricStatistics.count, metricStatistics.bytes));
+            }
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Returns the number of the skipped measures.
+     *
+     * @return Number of the measures added more than once to a component.
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * Takes the measures not saved yet, and forgets the metrics of their
+     * components.
+     */
+    private List<PendingMeasure> takePending() {
+        List<PendingMeasure> batch = new ArrayList<PendingMeasure>(pendingCount);
+        for (ComponentMeasures component : pending.values()) {
+            batch.addAll(component.measures);
+        }
+        pending = new LinkedHashMap<String, ComponentMeasures>();
+        pendingCount = 0;
+        return batch;
+    }
+
+    /**
+     * Returns true if the values of the metric are DATA, which are not
+     * buffered.
+     */
+    private static boolean isData(Metric<?> metric) {
+        return metric instanceof org.sonar.api.measures.Metric
+                && ((org.sonar.api.measures.Metric<?>) metric).getType() == org.sonar.api.measures.Metric.ValueType.DATA;
+    }
+
+    private void flushBatch(List<PendingMeasure> batch) {
+        if (flushThread != null) {
+            enqueue(batch);
+        } else {
+            save(batch);
+        }
+    }
+
+    private void enqueue(List<PendingMeasure> batch) {
+        try {
+            batches.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            save(batch);
+        }
+    }
+
+    private void runFlushThread() {
+        while (true) {
+            List<PendingMeasure> batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == END_OF_BATCHES) {
+                return;
+            }
+            try {
+                save(batch);
+            } catch (RuntimeException e) {
+                if (flushFailure == null) {
+                    flushFailure = e;
+                }
+            }
+        }
+    }
+
+    private void checkFlushFailure() {
+        RuntimeException failure = flushFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Measures could not be saved!", failure);
+        }
+    }
+
+    /**
+     * Saves the given measures. Saving is serialized on the sensor context, so
+     * the sink and the visitors can save from several threads at the same
+     * time.
+     */
+    @SuppressWarnings("unchecked")
+    private void save(List<PendingMeasure> batch) {
+        synchronized (sensorContext) {
+            for (PendingMeasure measure : batch) {
+                try {
+                    sensorContext.<Serializable>newMeasure()
+                                 .forMetric((Metric<Serializable>) measure.metric)
+                                 .withValue(measure.value)
+                                 .on(measure.inputComponent)
+                                 .save();
+                } catch (IllegalArgumentException e) {
+                    LOG.warn(e.getMessage());
+                    LOG.warn("Resource: " + measure.inputComponent.key());
+                    continue;
+                } catch (UnsupportedOperationException e) {
+                    // The metric of the component is already saved from an earlier batch.
+                    synchronized (this) {
+                        duplicates++;
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Measure is already saved, skipped: " + measure.metric.key() + " on "
+                                + measure.inputComponent.key());
+                    }
+                    continue;
+                }
+
+                MetricStatistics metricStatistics = statistics.get(measure.metric.key());
+                if (metricStatistics == null) {
+                    metricStatistics = new MetricStatistics(0, 0);
+                    statistics.put(measure.metric.key(), metricStatistics);
+                }
+                metricStatistics.count++;
+                metricStatistics.bytes += sizeOf(measure.value);
+            }
+        }
+    }
+
+    private void logStatistics() {
+        Map<String, MetricStatistics> metricStatistics = getStatistics();
+        long count = 0;
+        long bytes = 0;
+        for (MetricStatistics entry : metricStatistics.values()) {
+            count += entry.getCount();
+            bytes += entry.getBytes();
+        }
+        LOG.info("      Measures: " + count + " saved (" + bytes + " bytes), "
+                + getDuplicateCount() + " duplicates skipped.");
+        if (LOG.isDebugEnabled()) {
+            for (Map.Entry<String, MetricStatistics> entry : metricStatistics.entrySet()) {
+                LOG.debug("        " + entry.getKey() + ": " + entry.getValue().getCount() + " measures, "
+                        + entry.getValue().getBytes() + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the given value, strings are counted in UTF-8.
+     */
+    private static long sizeOf(Serializable value) {
+        if (value instanceof String) {
+            String string = (String) value;
+            long size = 0;
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c < 0x80) {
+                    size += 1;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    size += 4;
+                    i++;
+                } else {
+                    size += 3;
+                }
+            }
+            return size;
+        } else if (value instanceof Integer) {
+            return Integer.BYTES;
+        } else if (value instanceof Boolean) {
+            return 1;
+        }
+        return Long.BYTES;
+    }
+
+    /**
+     * Number and size of the measures saved for a metric.
+     */
+    public static final class MetricStatistics {
+
+        private long count;
+        private long bytes;
+
+        private MetricStatistics(long count, long bytes) {
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Measures of a component not saved yet, and the metrics added to the
+     * component since its last save.
+     */
+    private static final class ComponentMeasures {
+
+        private final List<PendingMeasure> measures = new ArrayList<PendingMeasure>();
+        private final Set<String> metrics = new HashSet<String>();
+    }
+
+    private static final class PendingMeasure {
+
+        private final InputComponent inputComponent;
+        private final Metric<?> metric;
+        private final Serializable value;
+
+        private PendingMeasure(InputComponent inputComponent, Metric<?> metric, Serializable value) {
+            this.inputComponent = inputComponent;
+            this.metric = metric;
+            this.value = value;
+        }
+    }
+}
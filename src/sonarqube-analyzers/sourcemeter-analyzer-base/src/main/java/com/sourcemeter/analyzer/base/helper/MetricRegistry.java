@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.measures.Metric.ValueType;
+import org.sonar.plugins.SourceMeterCore.api.SourceMeterMetricFinder;
+
+/**
+ * Immutable registry of the metrics of a language. The registry is created
+ * once per metric finder class, and it is shared by every sensor and visitor
+ * of the language.
+ *
+ * Besides looking up the metrics by key, the registry gives the precomputed
+ * upload flags of the metrics, and the threshold metrics of MetricHunter
+ * from the threshold catalog of the language, see {@link ThresholdCatalog}.
+ */
+public final class MetricRegistry {
+
+    private static final ConcurrentMap<Class<?>, MetricRegistry> REGISTRIES = new ConcurrentHashMap<Class<?>, MetricRegistry>();
+
+    private final Class<? extends SourceMeterMetricFinder> finderClass;
+    private final Map<String, Entry> entries;
+
+    private MetricRegistry(Class<? extends SourceMeterMetricFinder> finderClass) {
+        this.finderClass = finderClass;
+
+        SourceMeterMetricFinder metricFinder;
+        try {
+            metricFinder = finderClass.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Metric finder cannot be created: " + finderClass, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Metric finder cannot be created: " + finderClass, e.getCause());
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Metric finder cannot be created: " + finderClass, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Metric finder cannot be created: " + finderClass, e);
+        }
+
+        Map<String, Entry> metricEntries = new HashMap<String, Entry>();
+        for (Metric<Serializable> metric : metricFinder.findAll()) {
+            metricEntries.put(metric.key(), new Entry(metric));
+        }
+        this.entries = Collections.unmodifiableMap(metricEntries);
+    }
+
+    /**
+     * Gives back the registry of the given metric finder class.
+     *
+     * @param finderClass Metric finder of a language.
+     * @return The registry of the language.
+     */
+    public static MetricRegistry of(Class<? extends SourceMeterMetricFinder> finderClass) {
+        MetricRegistry registry = REGISTRIES.get(finderClass);
+        if (registry == null) {
+            MetricRegistry newRegistry = new MetricRegistry(finderClass);
+            registry = REGISTRIES.putIfAbsent(finderClass, newRegistry);
+            if (registry == null) {
+                registry = newRegistry;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the registered metric of the given key.
+     *
+     * @param key Key of the metric.
+     * @return The metric data, or null if the metric is unknown.
+     */
+    public Entry getEntry(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Find a SourceMeter Metric by key (example: "LOC").
+     *
+     * @param key Key of the metric.
+     * @return The metric, or null if the metric is unknown.
+     */
+    public Metric<Serializable> findByKey(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.metric;
+    }
+
+    /**
+     * Returns the MetricHunter threshold metrics of the given entity from
+     * the threshold catalog of the language.
+     *
+     * @param entity Entity of the thresholds (ex.: "Method").
+     * @return Unmodifiable list of the threshold metrics.
+     */
+    public List<org.sonar.api.measures.Metric> getThresholdMetrics(String entity) {
+        return ThresholdCatalog.of(finderClass).getThresholdMetrics(entity);
+    }
+
+    /**
+     * A registered metric with its upload flags.
+     */
+    public static final class Entry {
+
+        private final Metric<Serializable> metric;
+        private final boolean percent;
+        private final boolean floatingPoint;
+        private final boolean uploadable;
+
+        private Entry(Metric<Serializable> metric) {
+            this.metric = metric;
+
+            ValueType valueType = null;
+            if (metric instanceof org.sonar.api.measures.Metric) {
+                valueType = ((org.sonar.api.measures.Metric<?>) metric).getType();
+            }
+            this.percent = valueType == ValueType.PERCENT;
+            this.floatingPoint = valueType == ValueType.FLOAT || valueType == ValueType.PERCENT;
+            this.uploadable = this.floatingPoint || valueType == ValueType.INT;
+        }
+
+        public Metric<Serializable> getMetric() {
+            return metric;
+        }
+
+        public String getKey() {
+            return metric.key();
+        }
+
+        /**
+         * @return True if the values of the metric are stored multiplied by 100.
+         */
+        public boolean isPercent() {
+            return percent;
+        }
+
+        /**
+         * @return True for float and percent metrics, false for int metrics.
+         */
+        public boolean isFloatingPoint() {
+            return floatingPoint;
+        }
+
+        /**
+         * @return True if the values of the metric can be uploaded from the
+         *         attributes of the result graph.
+         */
+        public boolean isUploadable() {
+            return uploadable;
+        }
+    }
+}
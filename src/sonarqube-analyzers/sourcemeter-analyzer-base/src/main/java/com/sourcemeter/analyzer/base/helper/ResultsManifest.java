@@ -0,0 +1,435 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Manifest of the toolchain runs in the results directory of a language.
+ *
+ * The manifest records the newest run and, for every run, the path, size and
+ * checksum of its result graph and the fingerprint of the toolchain settings
+ * it was run with. The manifest is stored next to the results directory of
+ * the language, in the directory returned by getManifestDirectory, out of
+ * the reach of the toolchain, and it is replaced atomically. It also records
+ * the modification time of the language results directory, so a run made
+ * outside of the plug-in invalidates it, and the newest run is searched
+ * again by listing the directory.
+ *
+ * The checksums of the source files a run was made of can be recorded as
+ * well. They are stored in a separate file of the manifest directory, which
+ * is deleted with the run, see getFileHashes.
+ */
+public final class ResultsManifest {
+
+    private static final String MANIFEST_DIRECTORY = ".sourcemeter";
+
+    private static final String MANIFEST_FILE = "manifest.properties";
+    private static final String LOCK_FILE = "manifest.lock";
+    private static final String LATEST_PROPERTY = "latest";
+    private static final String MODIFIED_PROPERTY = "directoryModified";
+    private static final String RUN_PREFIX = "run.";
+    private static final String GRAPH_SUFFIX = ".graph";
+    private static final String SIZE_SUFFIX = ".size";
+    private static final String CHECKSUM_SUFFIX = ".checksum";
+    private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+    private static final String ARCHIVE_SUFFIX = ".archive";
+    private static final String HASHES_SUFFIX = ".hashes";
+    private static final char DATE_SEPARATOR = '-';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ResultsManifest() {
+    }
+
+    /**
+     * Returns the directory of the manifest of a language. The archived runs
+     * of the language are kept in this directory as well.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @return Manifest directory of the language.
+     */
+    public static File getManifestDirectory(File languageDirectory) {
+        return new File(new File(languageDirectory.getAbsoluteFile().getParentFile(), MANIFEST_DIRECTORY),
+                languageDirectory.getName());
+    }
+
+    /**
+     * Returns the newest run recorded in the manifest, without listing the
+     * results directory.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @return Name of the timestamped directory of the newest run, or null if
+     *         there is no manifest or it is out of date.
+     */
+    public static String getLatestRun(File languageDirectory) {
+        File manifestFile = new File(getManifestDirectory(languageDirectory), MANIFEST_FILE);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+
+        Properties manifest;
+        try {
+            manifest = load(manifestFile);
+        } catch (IOException e) {
+            return null;
+        }
+        String latest = manifest.getProperty(LATEST_PROPERTY);
+        String modified = manifest.getProperty(MODIFIED_PROPERTY);
+        if (latest == null || !String.valueOf(languageDirectory.lastModified()).equals(modified)
+                || !new File(languageDirectory, latest).isDirectory()) {
+            return null;
+        }
+        return latest;
+    }
+
+    /**
+     * Records the newest run of the results directory in the manifest.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @param graphFileName Name of the result graph in the directory of the run.
+     * @param fingerprint Fingerprint of the toolchain settings of the run.
+     * @param fileHashes Checksums of the source files by their normalized
+     *                   paths, or null if they are not recorded.
+     * @return The directory of the recorded run.
+     * @throws IOException If there is no run or the manifest cannot be written.
+     */
+    public static synchronized File recordLatestRun(File languageDirectory, String graphFileName,
+                                                    String fingerprint, Map<String, String> fileHashes)
+            throws IOException {
+        FileLock lock = lock(languageDirectory);
+        try {
+            Properties manifest = loadForUpdate(languageDirectory);
+            long modified = languageDirectory.lastModified();
+            String latest = FileHelper.getNewestResultsDirectory(languageDirectory, DATE_SEPARATOR);
+            if (latest == null) {
+                throw new IOException("Could not find any results in directory: " + languageDirectory.getPath());
+            }
+
+            File graph = new File(new File(languageDirectory, latest), graphFileName);
+            String key = RUN_PREFIX + latest;
+            manifest.setProperty(key + GRAPH_SUFFIX, latest + "/" + graphFileName);
+            manifest.setProperty(key + SIZE_SUFFIX, Long.toString(graph.length()));
+            manifest.setProperty(key + CHECKSUM_SUFFIX, graph.isFile() ? computeChecksum(graph) : "");
+            manifest.setProperty(key + FINGERPRINT_SUFFIX, fingerprint);
+            manifest.remove(key + ARCHIVE_SUFFIX);
+            File manifestDirectory = getManifestDirectory(languageDirectory);
+            if (fileHashes == null) {
+                deleteHashes(manifestDirectory, manifest, latest);
+            } else {
+                Properties hashes = new Properties();
+                hashes.putAll(fileHashes);
+                String hashesFile = latest + HASHES_SUFFIX;
+                write(new File(manifestDirectory, hashesFile), hashes, "SourceMeter source file checksums");
+                manifest.setProperty(key + HASHES_SUFFIX, hashesFile);
+            }
+
+            store(languageDirectory, manifest, latest, modified);
+            return new File(languageDirectory, latest);
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Returns the checksums of the source files recorded for a run. They are
+     * only returned if the result graph of the run is the recorded one, by
+     * its size.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @param run Name of the timestamped directory of the run.
+     * @return Checksums of the source files by their normalized paths, or null
+     *         if they are not recorded or the result graph has been changed.
+     */
+    public static Map<String, String> getFileHashes(File languageDirectory, String run) {
+        File manifestDirectory = getManifestDirectory(languageDirectory);
+        File manifestFile = new File(manifestDirectory, MANIFEST_FILE);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+
+        try {
+            Properties manifest = load(manifestFile);
+            String key = RUN_PREFIX + run;
+            String graph = manifest.getProperty(key + GRAPH_SUFFIX);
+            String hashesFile = manifest.getProperty(key + HASHES_SUFFIX);
+            if (graph == null || hashesFile == null
+                    || !String.valueOf(new File(languageDirectory, graph).length())
+                            .equals(manifest.getProperty(key + SIZE_SUFFIX))) {
+                return null;
+            }
+
+            Properties hashes = load(new File(manifestDirectory, hashesFile));
+            Map<String, String> fileHashes = new HashMap<String, String>();
+            for (String path : hashes.stringPropertyNames()) {
+                fileHashes.put(path, hashes.getProperty(path));
+            }
+            return fileHashes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records that a run has been compressed into an archive and its
+     * directory has been deleted.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @param run Name of the timestamped directory of the run.
+     * @param archive Path of the archive relative to the manifest directory.
+     * @throws IOException If the manifest cannot be written.
+     */
+    public static synchronized void recordArchivedRun(File languageDirectory, String run,
+                                                      String archive) throws IOException {
+        FileLock lock = lock(languageDirectory);
+        try {
+            Properties manifest = loadForUpdate(languageDirectory);
+            long modified = languageDirectory.lastModified();
+            manifest.setProperty(RUN_PREFIX + run + ARCHIVE_SUFFIX, archive);
+            store(languageDirectory, manifest,
+                    FileHelper.getNewestResultsDirectory(languageDirectory, DATE_SEPARATOR), modified);
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Removes a deleted run from the manifest.
+     *
+     * @param languageDirectory Results directory of the language.
+     * @param run Name of the timestamped directory of the run.
+     * @throws IOException If the manifest cannot be written.
+     */
+    public static synchronized void recordDeletedRun(File languageDirectory, String run) throws IOException {
+        FileLock lock = lock(languageDirectory);
+        try {
+            Properties manifest = loadForUpdate(languageDirectory);
+            long modified = languageDirectory.lastModified();
+            removeRun(getManifestDirectory(languageDirectory), manifest, run);
+            store(languageDirectory, manifest,
+                    FileHelper.getNewestResultsDirectory(languageDirectory, DATE_SEPARATOR), modified);
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the toolchain settings.
+     *
+     * @param commands Command line of the toolchain.
+     * @return Hexadecimal hash of the command line.
+     */
+    public static String computeFingerprint(List<String> commands) {
+        MessageDigest digest = createDigest();
+        for (String command : commands) {
+            byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+            digest.update(bytes);
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the checksum of a content, for example of a source file.
+     *
+     * @param input The content, it is not closed.
+     * @return Hexadecimal hash of the content.
+     * @throws IOException If the content cannot be read.
+     */
+    public static String computeChecksum(InputStream input) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String computeChecksum(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return computeChecksum(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Loads the manifest to be updated, and drops the runs of which neither
+     * the directory nor the archive exists any more (deleted by the
+     * -cleanResults option of the toolchain, for example).
+     */
+    private static Properties loadForUpdate(File languageDirectory) throws IOException {
+        File manifestDirectory = getManifestDirectory(languageDirectory);
+        File manifestFile = new File(manifestDirectory, MANIFEST_FILE);
+        Properties manifest = manifestFile.isFile() ? load(manifestFile) : new Properties();
+
+        Set<String> runs = new HashSet<String>();
+        for (String name : manifest.stringPropertyNames()) {
+            if (name.startsWith(RUN_PREFIX) && name.lastIndexOf('.') > RUN_PREFIX.length()) {
+                runs.add(name.substring(RUN_PREFIX.length(), name.lastIndexOf('.')));
+            }
+        }
+        for (String run : runs) {
+            String archive = manifest.getProperty(RUN_PREFIX + run + ARCHIVE_SUFFIX);
+            if (!new File(languageDirectory, run).isDirectory()
+                    && (archive == null || !new File(manifestDirectory, archive).isFile())) {
+                removeRun(manifestDirectory, manifest, run);
+            }
+        }
+        return manifest;
+    }
+
+    private static void removeRun(File manifestDirectory, Properties manifest, String run) {
+        String key = RUN_PREFIX + run;
+        manifest.remove(key + GRAPH_SUFFIX);
+        manifest.remove(key + SIZE_SUFFIX);
+        manifest.remove(key + CHECKSUM_SUFFIX);
+        manifest.remove(key + FINGERPRINT_SUFFIX);
+        manifest.remove(key + ARCHIVE_SUFFIX);
+        deleteHashes(manifestDirectory, manifest, run);
+    }
+
+    private static void deleteHashes(File manifestDirectory, Properties manifest, String run) {
+        Object hashesFile = manifest.remove(RUN_PREFIX + run + HASHES_SUFFIX);
+        if (hashesFile != null) {
+            new File(manifestDirectory, hashesFile.toString()).delete();
+        }
+    }
+
+    private static Properties load(File manifestFile) throws IOException {
+        Properties manifest = new Properties();
+        InputStream input = new FileInputStream(manifestFile);
+        try {
+            manifest.load(input);
+        } finally {
+            input.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest into a temporary file and moves it in place.
+     *
+     * @param modified Modification time of the language directory read before
+     *                 its newest run was searched.
+     */
+    private static void store(File languageDirectory, Properties manifest, String latest,
+                              long modified) throws IOException {
+        if (latest == null) {
+            manifest.remove(LATEST_PROPERTY);
+        } else {
+            manifest.setProperty(LATEST_PROPERTY, latest);
+        }
+        manifest.setProperty(MODIFIED_PROPERTY, Long.toString(modified));
+
+        write(new File(getManifestDirectory(languageDirectory), MANIFEST_FILE), manifest,
+                "SourceMeter toolchain runs");
+    }
+
+    /**
+     * Writes properties into a temporary file and moves it in place.
+     */
+    private static void write(File file, Properties properties, String comments) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream output = new FileOutputStream(temporary);
+        try {
+            properties.store(output, comments);
+        } finally {
+            output.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Locks the manifest against the other processes analysing the same
+     * project. The threads of this class loader are serialized by the
+     * synchronized methods.
+     */
+    private static FileLock lock(File languageDirectory) throws IOException {
+        File manifestDirectory = getManifestDirectory(languageDirectory);
+        if (!manifestDirectory.isDirectory() && !manifestDirectory.mkdirs()) {
+            throw new IOException("Could not create manifest directory: " + manifestDirectory);
+        }
+        RandomAccessFile file = new RandomAccessFile(new File(manifestDirectory, LOCK_FILE), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.lock();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+}
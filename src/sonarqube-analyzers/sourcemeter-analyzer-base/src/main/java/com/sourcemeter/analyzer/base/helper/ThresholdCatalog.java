@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.PropertyType;
+import org.sonar.api.config.PropertyDefinition;
+import org.sonar.api.measures.Metric;
+
+/**
+ * Immutable catalog of the threshold properties of a language, read from the
+ * threshold_properties.xml resource of its plug-in. The resource is parsed
+ * once per class loader with a streaming parser, and the catalog is shared by
+ * the plug-in definition, which registers its property definitions, and the
+ * metric registry, which gives the MetricHunter threshold metrics to the
+ * sensors and to the profile of the toolchain.
+ *
+ * The threshold metrics are indexed by entity, the metrics of an entity are
+ * collected once, when they are first asked for.
+ */
+public final class ThresholdCatalog {
+
+    public static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdCatalog.class);
+
+    private static final ConcurrentMap<Object, ThresholdCatalog> CATALOGS = new ConcurrentHashMap<Object, ThresholdCatalog>();
+
+    private final List<Threshold> thresholds;
+    private final List<PropertyDefinition> propertyDefinitions;
+    private final ConcurrentMap<String, List<Metric>> metricsByEntity = new ConcurrentHashMap<String, List<Metric>>();
+
+    private ThresholdCatalog(List<Threshold> thresholds) {
+        this.thresholds = thresholds;
+
+        List<PropertyDefinition> definitions = new ArrayList<PropertyDefinition>(thresholds.size());
+        for (Threshold threshold : thresholds) {
+            definitions.add(threshold.toPropertyDefinition());
+        }
+        this.propertyDefinitions = Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * Gives back the catalog of the threshold properties, which are loaded by
+     * the class loader of the given class.
+     *
+     * @param resourceOwner A class of the plug-in of the language.
+     * @return The catalog of the language, it is empty if the threshold
+     *         properties are missing or cannot be read.
+     */
+    public static ThresholdCatalog of(Class<?> resourceOwner) {
+        Object key = resourceOwner.getClassLoader() == null ? resourceOwner : resourceOwner.getClassLoader();
+        ThresholdCatalog catalog = CATALOGS.get(key);
+        if (catalog == null) {
+            ThresholdCatalog newCatalog = new ThresholdCatalog(Collections.<Threshold>emptyList());
+            try (InputStream xmlFile = resourceOwner.getResourceAsStream(THRESHOLD_PROPERTIES_PATH)) {
+                if (xmlFile != null) {
+                    newCatalog = read(xmlFile);
+                }
+            } catch (IOException e) {
+                LOG.error("Error during reading thresholds!", e);
+            }
+            catalog = CATALOGS.putIfAbsent(key, newCatalog);
+            if (catalog == null) {
+                catalog = newCatalog;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Reads a catalog from the given threshold properties.
+     *
+     * @param xmlFile InputStream of the XML file contains the properties for the thresholds.
+     * @return The catalog of the threshold properties.
+     * @throws IOException If the XML file cannot be read or parsed.
+     */
+    public static ThresholdCatalog read(InputStream xmlFile) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+        List<Threshold> thresholds = new ArrayList<Threshold>();
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(xmlFile);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && "threshold".equals(reader.getLocalName())) {
+                        thresholds.add(new Threshold(reader));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Threshold properties cannot be parsed.", e);
+        }
+        return new ThresholdCatalog(Collections.unmodifiableList(thresholds));
+    }
+
+    /**
+     * Returns the property definitions of the thresholds in the order of the
+     * threshold properties.
+     *
+     * @return Unmodifiable list of the property definitions.
+     */
+    public List<PropertyDefinition> getPropertyDefinitions() {
+        return propertyDefinitions;
+    }
+
+    /**
+     * Returns the MetricHunter threshold metrics of the given entity, the
+     * first threshold of every metric key is used.
+     *
+     * @param entity Entity of the thresholds (ex.: "Method").
+     * @return Unmodifiable list of the threshold metrics.
+     */
+    public List<Metric> getThresholdMetrics(String entity) {
+        List<Metric> metrics = metricsByEntity.get(entity);
+        if (metrics == null) {
+            List<Metric> entityMetrics = new ArrayList<Metric>();
+            Set<String> processedMetricKeys = new HashSet<String>();
+            for (Threshold threshold : thresholds) {
+                if (threshold.entity != null && threshold.entity.contains(entity)
+                        && processedMetricKeys.add(threshold.getMetricKey())) {
+                    entityMetrics.add(threshold.toMetric());
+                }
+            }
+            List<Metric> newMetrics = Collections.unmodifiableList(entityMetrics);
+            metrics = metricsByEntity.putIfAbsent(entity, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * The attributes of a threshold element.
+     */
+    private static final class Threshold {
+
+        private final String key;
+        private final String name;
+        private final String category;
+        private final String domain;
+        private final String type;
+        private final String defaultValue;
+        private final String relation;
+        private final String entity;
+
+        private Threshold(XMLStreamReader reader) {
+            this.key = getAttribute(reader, "key");
+            this.name = getAttribute(reader, "name");
+            this.category = getAttribute(reader, "category");
+            this.domain = getAttribute(reader, "domain");
+            this.type = getAttribute(reader, "type");
+            this.defaultValue = getAttribute(reader, "defaultValue");
+            this.relation = getAttribute(reader, "relation");
+            this.entity = reader.getAttributeValue(null, "entity");
+        }
+
+        private static String getAttribute(XMLStreamReader reader, String name) {
+            String value = reader.getAttributeValue(null, name);
+            return value == null ? "" : value;
+        }
+
+        /**
+         * @return The last part of the property key, for example LOC in
+         *         sm.java.class.baseline.LOC.
+         */
+        private String getMetricKey() {
+            return key.split("\\.")[4];
+        }
+
+        private PropertyDefinition toPropertyDefinition() {
+            PropertyType propertyType;
+            if ("INTEGER".equals(type)) {
+                propertyType = PropertyType.INTEGER;
+            } else if ("FLOAT".equals(type)) {
+                propertyType = PropertyType.FLOAT;
+            } else {
+                propertyType = PropertyType.STRING;
+            }
+
+            return PropertyDefinition.builder(key)
+                    .category(category)
+                    .subCategory(domain)
+                    .name(name)
+                    .type(propertyType)
+                    .defaultValue(defaultValue)
+                    .build();
+        }
+
+        private Metric toMetric() {
+            Metric.ValueType valueType = "FLOAT".equals(type) ? Metric.ValueType.FLOAT : Metric.ValueType.INT;
+            if ("gt".equals(relation)) {
+                return new Metric.Builder(getMetricKey(), name, valueType)
+                                 .setDomain(domain)
+                                 .create();
+            }
+            return new Metric.Builder(getMetricKey(), name, valueType)
+                             .setDirection(Metric.DIRECTION_BETTER)
+                             .setDomain(domain)
+                             .create();
+        }
+    }
+}
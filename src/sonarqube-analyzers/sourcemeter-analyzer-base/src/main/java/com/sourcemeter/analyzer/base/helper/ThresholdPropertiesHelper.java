@@ -35,85 +35,34 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.measures.Metric;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public class ThresholdPropertiesHelper {
 
     private static final Logger LOG = LoggerFactory.getLogger(ThresholdPropertiesHelper.class);
 
-    private static final String TYPE = "type";
+    public static final String CLASS_ENTITY = "Class, Interface, Enum";
+    public static final String METHOD_ENTITY = "Method";
+    public static final String CLONE_CLASS_ENTITY = "CloneClass";
+    public static final String CLONE_INSTANCE_ENTITY = "CloneInstance";
 
     /**
      * Reads the threshold properties for metrics from XML file.
      *
      * @param xmlFile InputStream of the XML file contains the properties for the thresholds.
      * @return List of PropertyDefinitions for the thresholds.
+     * @see ThresholdCatalog#getPropertyDefinitions()
      */
     public static List<PropertyDefinition> readPropertiesFromXML(InputStream xmlFile) {
-
-        List properties = new ArrayList<PropertyDefinition>();
-
         try {
-
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(xmlFile);
-
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("threshold");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-
-                    PropertyType type;
-
-                    if ("INTEGER".equals(eElement.getAttribute(TYPE))) {
-                        type = PropertyType.INTEGER;
-                    } else if ("FLOAT".equals(eElement.getAttribute(TYPE))) {
-                        type = PropertyType.FLOAT;
-                    } else {
-                        type = PropertyType.STRING;
-                    }
-
-                    PropertyDefinition newProperty = PropertyDefinition.builder(eElement.getAttribute("key"))
-                            .category(eElement.getAttribute("category"))
-                            .subCategory(eElement.getAttribute("domain"))
-                            .name(eElement.getAttribute("name"))
-                            .type(type)
-                            .defaultValue(eElement.getAttribute("defaultValue"))
-                            .build();
-
-                    properties.add(newProperty);
-                }
-            }
-
-        } catch (ParserConfigurationException e) {
-            LOG.error("Error during reading properties!");
-        } catch (SAXException e) {
-            LOG.error("Error during reading properties!");
+            return new ArrayList<PropertyDefinition>(ThresholdCatalog.read(xmlFile).getPropertyDefinitions());
         } catch (IOException e) {
             LOG.error("Error during reading properties!");
         }
-
-        return properties;
+        return new ArrayList<PropertyDefinition>();
     }
 
     /**
@@ -122,70 +71,15 @@ public class ThresholdPropertiesHelper {
      * @param thresholdProperties InputStream of the XML file contains the metrics.
      * @param entity Entity of the metrics.
      * @return List of Metrics.
+     * @see ThresholdCatalog#getThresholdMetrics(String)
      */
     public static List<Metric> readThresholdsFromXml(InputStream thresholdProperties, String entity) {
-        List metrics = new ArrayList<Metric>();
-
-        List processedMetricKeys = new ArrayList<String>();
-
-        Metric metric;
-        String key;
-        String name;
-        Metric.ValueType type = null;
-        String domain;
-
         try {
-
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(thresholdProperties);
-
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("threshold");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-
-                    String[] tokenize = eElement.getAttribute("key").split("\\.");
-
-                    key = tokenize[4];
-
-                    if (eElement.hasAttribute("entity") && eElement.getAttribute("entity").contains(entity) && !(processedMetricKeys.contains(key))) {
-                        name = eElement.getAttribute("name");
-                        if ("INTEGER".equals(eElement.getAttribute(TYPE))) {
-                            type = Metric.ValueType.INT;
-                        } else if ("FLOAT".equals(eElement.getAttribute(TYPE))) {
-                            type = Metric.ValueType.FLOAT;
-                        }
-                        domain = eElement.getAttribute("domain");
-                        if ("gt".equals(eElement.getAttribute("relation"))) {
-                            metric = new Metric.Builder(key, name, type)
-                                               .setDomain(domain)
-                                               .create();
-                        } else {
-                            metric = new Metric.Builder(key, name, type)
-                                               .setDirection(Metric.DIRECTION_BETTER)
-                                               .setDomain(domain)
-                                               .create();
-                        }
-                        processedMetricKeys.add(key);
-                        metrics.add(metric);
-                    }
-                }
-            }
-        } catch (ParserConfigurationException e) {
-            LOG.error("Error during reading thresholds!");
-        } catch (SAXException e) {
-            LOG.error("Error during reading thresholds!");
+            return new ArrayList<Metric>(ThresholdCatalog.read(thresholdProperties).getThresholdMetrics(entity));
         } catch (IOException e) {
             LOG.error("Error during reading thresholds!");
         }
-        return metrics;
+        return new ArrayList<Metric>();
     }
 
     /**
@@ -194,7 +88,7 @@ public class ThresholdPropertiesHelper {
      * @return Class threshold metrics.
      */
     public static List<Metric> getClassThresholdMetrics(InputStream xmlFile) {
-        return readThresholdsFromXml(xmlFile, "Class, Interface, Enum");
+        return readThresholdsFromXml(xmlFile, CLASS_ENTITY);
     }
 
     /**
@@ -203,7 +97,7 @@ public class ThresholdPropertiesHelper {
      * @return Method threshold metrics.
      */
     public static List<Metric> getMethodThresholdMetrics(InputStream thresholdProperties) {
-        return readThresholdsFromXml(thresholdProperties, "Method");
+        return readThresholdsFromXml(thresholdProperties, METHOD_ENTITY);
     }
 
     /**
@@ -222,7 +116,7 @@ public class ThresholdPropertiesHelper {
      * @return CloneClass threshold metrics.
      */
     public static List<Metric> getCloneClassThresholdMetrics(InputStream thresholdProperties) {
-        return readThresholdsFromXml(thresholdProperties, "CloneClass");
+        return readThresholdsFromXml(thresholdProperties, CLONE_CLASS_ENTITY);
     }
 
     /**
@@ -231,7 +125,7 @@ public class ThresholdPropertiesHelper {
      * @return CloneInstance threshold metrics.
      */
     public static List<Metric> getCloneInstanceThresholdMetrics(InputStream thresholdProperties) {
-        return readThresholdsFromXml(thresholdProperties, "CloneInstance");
+        return readThresholdsFromXml(thresholdProperties, CLONE_INSTANCE_ENTITY);
     }
 
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+/**
+ * Services of the upload of a result graph: the sensor creates them before
+ * the upload, and hands them to every visitor and helper of the upload, so
+ * they resolve the paths through the same {@link InputFileCache}, build the
+ * issue flows with the same {@link IssueFlowBuilder} and save their measures
+ * through the same {@link MeasureSink}. If the upload snapshot or the delta
+ * upload is turned on, the {@link UploadSnapshot.Recorder} and the
+ * {@link DeltaUpload} of the upload are given too.
+ */
+public final class UploadContext {
+
+    private final InputFileCache inputFileCache;
+    private final IssueFlowBuilder issueFlowBuilder;
+    private final MeasureSink measureSink;
+    private final UploadSnapshot.Recorder snapshotRecorder;
+    private final DeltaUpload deltaUpload;
+
+    /**
+     * Creates the context of an upload without snapshot and delta upload.
+     *
+     * @param inputFileCache Cache of the input files.
+     * @param issueFlowBuilder Builder of the issue flows.
+     * @param measureSink Sink of the measures.
+     */
+    public UploadContext(InputFileCache inputFileCache, IssueFlowBuilder issueFlowBuilder,
+            MeasureSink measureSink) {
+        this(inputFileCache, issueFlowBuilder, measureSink, null, null);
+    }
+
+    private UploadContext(InputFileCache inputFileCache, IssueFlowBuilder issueFlowBuilder,
+            MeasureSink measureSink, UploadSnapshot.Recorder snapshotRecorder, DeltaUpload deltaUpload) {
+        if (inputFileCache == null || issueFlowBuilder == null || measureSink == null) {
+            throw new IllegalArgumentException("The input file cache, the issue flow builder"
+                    + " and the measure sink of the upload are required.");
+        }
+        this.inputFileCache = inputFileCache;
+        this.issueFlowBuilder = issueFlowBuilder;
+        this.measureSink = measureSink;
+        this.snapshotRecorder = snapshotRecorder;
+        this.deltaUpload = deltaUpload;
+    }
+
+    /**
+     * Returns a copy of the context which records the uploads and uses the
+     * delta upload.
+     *
+     * @param snapshotRecorder Recorder of the upload snapshot, or null.
+     * @param deltaUpload Delta upload, or null.
+     * @return The new context.
+     */
+    public UploadContext with(UploadSnapshot.Recorder snapshotRecorder, DeltaUpload deltaUpload) {
+        return new UploadContext(inputFileCache, issueFlowBuilder, measureSink, snapshotRecorder, deltaUpload);
+    }
+
+    /**
+     * Checks the context given to a visitor or helper of the upload.
+     *
+     * @param uploadContext The context.
+     * @return The same context.
+     * @throws IllegalStateException If the context is missing.
+     */
+    public static UploadContext require(UploadContext uploadContext) {
+        if (uploadContext == null) {
+            throw new IllegalStateException("The upload context is missing, the visitors and helpers"
+                    + " of the upload must be created by the sensor.");
+        }
+        return uploadContext;
+    }
+
+    public InputFileCache getInputFileCache() {
+        return inputFileCache;
+    }
+
+    public IssueFlowBuilder getIssueFlowBuilder() {
+        return issueFlowBuilder;
+    }
+
+    public MeasureSink getMeasureSink() {
+        return measureSink;
+    }
+
+    /**
+     * Returns the recorder of the upload snapshot.
+     *
+     * @return The recorder, or null if the uploads are not recorded.
+     */
+    public UploadSnapshot.Recorder getSnapshotRecorder() {
+        return snapshotRecorder;
+    }
+
+    /**
+     * Returns the delta upload.
+     *
+     * @return The delta upload, or null if delta upload is not used.
+     */
+    public DeltaUpload getDeltaUpload() {
+        return deltaUpload;
+    }
+}
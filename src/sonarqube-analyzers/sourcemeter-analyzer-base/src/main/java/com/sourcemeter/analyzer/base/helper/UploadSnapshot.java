@@ -0,0 +1,697 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.issue.NewIssue;
+import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * Compact, versioned snapshot of everything a sensor uploaded from a result
+ * graph: measures, JSON tree measures and issues. The snapshot is saved next
+ * to the graph, and it can be replayed into the sensor context when the
+ * toolchain is skipped, so the graph does not have to be processed again.
+ *
+ * A snapshot can only be replayed if it was recorded from the same graph
+ * (checksum) with the same fingerprint (settings, active rules and analyzed
+ * files).
+ */
+public final class UploadSnapshot {
+
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadSnapshot.class);
+
+    private static final String MAGIC = "SMSNAP";
+    private static final int VERSION = 2;
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_MEASURE_INT = 1;
+    private static final byte TAG_MEASURE_DOUBLE = 2;
+    private static final byte TAG_MEASURE_STRING = 3;
+    private static final byte TAG_ISSUE = 4;
+
+    private static final String PROJECT_COMPONENT = "";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private UploadSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot file that belongs to the given result graph.
+     *
+     * @param graphFilename Path of the result graph.
+     * @return The snapshot file.
+     */
+    public static File getSnapshotFile(String graphFilename) {
+        return new File(graphFilename + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Computes the checksum of the given result graph.
+     *
+     * @param graphFile The result graph.
+     * @return Length and CRC32 of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static String computeChecksum(File graphFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        try (InputStream in = new FileInputStream(graphFile)) {
+            int read = in.read(buffer);
+            while (read != -1) {
+                crc.update(buffer, 0, read);
+                length += read;
+                read = in.read(buffer);
+            }
+        }
+        return Long.toHexString(length) + ":" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Computes the fingerprint of everything besides the result graph that
+     * has an effect on the uploaded data: the upload settings, the active
+     * rules of the language and the set of analyzed files.
+     *
+     * @param configuration Contains SourceMeter's properties.
+     * @param fileSystem File system of the project.
+     * @param activeRules Rules of the active quality profiles.
+     * @param languageKey Key of the language (for example "cs").
+     * @param pluginLanguageKey Key of the language in the property names (for example "csharp").
+     * @return SHA-256 hash of the fingerprint in hexadecimal form.
+     */
+    public static String computeFingerprint(Configuration configuration, FileSystem fileSystem,
+            ActiveRules activeRules, String languageKey, String pluginLanguageKey) {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(VERSION).append('\n')
+                   .append(languageKey).append('\n');
+
+        String[] settings = { "sonar.projectKey", "sm.uploadAllMetrics",
+                "sm." + pluginLanguageKey + ".uploadMethods", MeasureCodec.CODEC_KEY,
+                IssueFlowBuilder.FLOW_LIMIT_KEY };
+        for (String key : settings) {
+            fingerprint.append(key).append('=')
+                       .append(FileHelper.getStringFromConfiguration(configuration, key))
+                       .append('\n');
+        }
+
+        TreeSet<String> rules = new TreeSet<String>();
+        for (ActiveRule rule : activeRules.findAll()) {
+            if (languageKey.equals(rule.language())) {
+                rules.add(rule.ruleKey() + " " + rule.severity() + " "
+                        + new TreeMap<String, String>(rule.params()));
+            }
+        }
+        for (String rule : rules) {
+            fingerprint.append(rule).append('\n');
+        }
+
+        TreeSet<String> files = new TreeSet<String>();
+        for (InputFile file : fileSystem.inputFiles(fileSystem.predicates().hasLanguage(languageKey))) {
+            files.add(file.uri().toString());
+        }
+        for (String file : files) {
+            fingerprint.append(file).append('\n');
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("ERROR: SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Starts recording the uploads into a snapshot file. The recording
+     * becomes visible only after {@link Recorder#commit()}.
+     *
+     * @param snapshotFile Target snapshot file.
+     * @param checksum Checksum of the result graph.
+     * @param fingerprint Fingerprint of the settings.
+     * @return The recorder.
+     * @throws IOException If the snapshot file cannot be created.
+     */
+    public static Recorder startRecording(File snapshotFile, String checksum, String fingerprint)
+            throws IOException {
+        return new Recorder(snapshotFile, checksum, fingerprint);
+    }
+
+    /**
+     * Uploads the content of the given snapshot, if it was recorded with the
+     * same checksum and fingerprint. The whole snapshot is verified before
+     * anything is saved, so nothing is uploaded if it is not usable.
+     *
+     * @param snapshotFile The snapshot file.
+     * @param checksum Checksum of the current result graph.
+     * @param fingerprint Fingerprint of the current settings.
+     * @param sensorContext Context of the sensor.
+     * @param fileSystem File system of the project.
+     * @param metricRegistry Registry of the metrics of the language.
+     * @param measureSink Sink of the measures of the upload.
+     * @return True if the snapshot was uploaded.
+     */
+    public static boolean replay(File snapshotFile, String checksum, String fingerprint,
+            SensorContext sensorContext, FileSystem fileSystem, MetricRegistry metricRegistry,
+            MeasureSink measureSink) {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+
+        try {
+            if (!new Reader(snapshotFile, metricRegistry).verify(checksum, fingerprint)) {
+                return false;
+            }
+            int records = new Reader(snapshotFile, metricRegistry).upload(sensorContext, fileSystem, measureSink);
+            LOG.info("      Uploaded " + records + " records from snapshot: " + snapshotFile);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Snapshot cannot be read: " + snapshotFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Location of an issue, as it is stored in the result graph.
+     */
+    public static final class Location {
+
+        private final String path;
+        private final int line;
+        private final String message;
+
+        public Location(String path, int line, String message) {
+            this.path = path;
+            this.line = line;
+            this.message = message;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Location)) {
+                return false;
+            }
+            Location other = (Location) object;
+            return line == other.line && path.equals(other.path) && message.equals(other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return (path.hashCode() * 31 + line) * 31 + message.hashCode();
+        }
+    }
+
+    /**
+     * Writes the uploads of a sensor into a snapshot file. The methods can be
+     * called from several threads. If writing fails, the recording is
+     * silently dropped, the upload itself is never affected.
+     */
+    public static final class Recorder {
+
+        private final File snapshotFile;
+        private final File tempFile;
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+        private DataOutputStream out;
+        private int records;
+
+        private Recorder(File snapshotFile, String checksum, String fingerprint) throws IOException {
+            this.snapshotFile = snapshotFile;
+            this.tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(this.tempFile), BUFFER_SIZE), BUFFER_SIZE));
+            try {
+                this.out.writeUTF(MAGIC);
+                this.out.writeInt(VERSION);
+                this.out.writeUTF(checksum);
+                this.out.writeUTF(fingerprint);
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        /**
+         * Records an int measure.
+         */
+        public synchronized void addMeasure(InputComponent component, String metricKey, int value) {
+            if (out == null) {
+                return;
+            }
+            try {
+                writeMeasureHeader(TAG_MEASURE_INT, component, metricKey);
+                out.writeInt(value);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Records a floating point measure.
+         */
+        public synchronized void addMeasure(InputComponent component, String metricKey, double value) {
+            if (out == null) {
+                return;
+            }
+            try {
+                writeMeasureHeader(TAG_MEASURE_DOUBLE, component, metricKey);
+                out.writeDouble(value);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Records a string (data) measure.
+         */
+        public synchronized void addMeasure(InputComponent component, String metricKey, String value) {
+            if (out == null) {
+                return;
+            }
+            try {
+                writeMeasureHeader(TAG_MEASURE_STRING, component, metricKey);
+                writeLongString(value);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Records an issue.
+         *
+         * @param ruleKey Key of the rule.
+         * @param location Primary location of the issue.
+         * @param flow Locations of the flow, or null if the issue has no flow.
+         */
+        public synchronized void addIssue(RuleKey ruleKey, Location location, List<Location> flow) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeByte(TAG_ISSUE);
+                writeString(ruleKey.repository());
+                writeString(ruleKey.rule());
+                writeLocation(location);
+                if (flow == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(flow.size());
+                    for (Location flowLocation : flow) {
+                        writeLocation(flowLocation);
+                    }
+                }
+                records++;
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Finishes the recording and replaces the former snapshot with it.
+         */
+        public synchronized void commit() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeByte(TAG_END);
+                out.writeInt(records);
+                out.close();
+                out = null;
+                Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                LOG.info("      Snapshot saved with " + records + " records: " + snapshotFile);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Drops the recording.
+         */
+        public synchronized void discard() {
+            closeQuietly();
+            if (tempFile.exists() && !tempFile.delete()) {
+                LOG.warn("Temporary snapshot file could not be deleted: " + tempFile);
+            }
+        }
+
+        private void fail(IOException e) {
+            LOG.warn("Snapshot could not be saved: " + snapshotFile, e);
+            discard();
+        }
+
+        private void closeQuietly() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOG.debug("Could not close snapshot file.", e);
+                }
+                out = null;
+            }
+        }
+
+        private void writeMeasureHeader(byte tag, InputComponent component, String metricKey) throws IOException {
+            out.writeByte(tag);
+            if (component instanceof InputFile) {
+                writeString(((InputFile) component).uri().toString());
+            } else {
+                writeString(PROJECT_COMPONENT);
+            }
+            writeString(metricKey);
+            records++;
+        }
+
+        private void writeLocation(Location location) throws IOException {
+            writeString(location.getPath());
+            out.writeInt(location.getLine());
+            writeString(location.getMessage());
+        }
+
+        /**
+         * Writes a short, frequently repeated string: its first occurrence
+         * is written inline, the later ones only by id.
+         */
+        private void writeString(String value) throws IOException {
+            Integer id = stringIds.get(value);
+            if (id != null) {
+                out.writeInt(id);
+            } else {
+                out.writeInt(-1);
+                writeLongString(value);
+                stringIds.put(value, stringIds.size());
+            }
+        }
+
+        private void writeLongString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a snapshot file.
+     */
+    private static final class Reader {
+
+        private final File snapshotFile;
+        private final MetricRegistry metricRegistry;
+        private final List<String> strings = new ArrayList<String>();
+
+        private Reader(File snapshotFile, MetricRegistry metricRegistry) {
+            this.snapshotFile = snapshotFile;
+            this.metricRegistry = metricRegistry;
+        }
+
+        /**
+         * Checks the header, the integrity and the metrics of the snapshot
+         * without uploading anything.
+         */
+        private boolean verify(String checksum, String fingerprint) throws IOException {
+            try (DataInputStream in = open()) {
+                if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                    LOG.info("      Snapshot has an unknown format, it is ignored: " + snapshotFile);
+                    return false;
+                }
+                if (!checksum.equals(in.readUTF())) {
+                    LOG.info("      Snapshot belongs to another result graph, it is ignored: " + snapshotFile);
+                    return false;
+                }
+                if (!fingerprint.equals(in.readUTF())) {
+                    LOG.info("      Settings, rules or files changed since the snapshot was saved, it is ignored: " + snapshotFile);
+                    return false;
+                }
+
+                int records = 0;
+                byte tag = in.readByte();
+                while (tag != TAG_END) {
+                    if (tag == TAG_ISSUE) {
+                        readIssue(in, null, null);
+                    } else if (findMetric(readMeasure(in, tag, null, null, null)) == null) {
+                        return false;
+                    }
+                    records++;
+                    tag = in.readByte();
+                }
+                return records == in.readInt();
+            } catch (EOFException e) {
+                LOG.info("      Snapshot is incomplete, it is ignored: " + snapshotFile);
+                return false;
+            }
+        }
+
+        /**
+         * Uploads every record of a verified snapshot.
+         */
+        private int upload(SensorContext sensorContext, FileSystem fileSystem, MeasureSink measureSink)
+                throws IOException {
+            int records = 0;
+            try (DataInputStream in = open()) {
+                in.readUTF();
+                in.readInt();
+                in.readUTF();
+                in.readUTF();
+
+                byte tag = in.readByte();
+                while (tag != TAG_END) {
+                    if (tag == TAG_ISSUE) {
+                        readIssue(in, sensorContext, fileSystem);
+                    } else {
+                        readMeasure(in, tag, sensorContext, fileSystem, measureSink);
+                    }
+                    records++;
+                    tag = in.readByte();
+                }
+            }
+            return records;
+        }
+
+        private DataInputStream open() throws IOException {
+            strings.clear();
+            return new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE), BUFFER_SIZE));
+        }
+
+        private Metric<Serializable> findMetric(String metricKey) {
+            Metric<Serializable> metric = metricRegistry.findByKey(metricKey);
+            if (metric == null) {
+                LOG.info("      Snapshot contains an unknown metric (" + metricKey + "), it is ignored: " + snapshotFile);
+            }
+            return metric;
+        }
+
+        /**
+         * Reads a measure, and saves it if a sensor context is given.
+         *
+         * @return Key of the metric.
+         */
+        private String readMeasure(DataInputStream in, byte tag, SensorContext sensorContext,
+                FileSystem fileSystem, MeasureSink measureSink) throws IOException {
+            String component = readString(in);
+            String metricKey = readString(in);
+            Serializable value;
+            if (tag == TAG_MEASURE_INT) {
+                value = in.readInt();
+            } else if (tag == TAG_MEASURE_DOUBLE) {
+                value = in.readDouble();
+            } else if (tag == TAG_MEASURE_STRING) {
+                value = readLongString(in);
+            } else {
+                throw new IOException("Unknown snapshot record: " + tag);
+            }
+
+            if (sensorContext == null) {
+                return metricKey;
+            }
+
+            InputComponent inputComponent;
+            if (PROJECT_COMPONENT.equals(component)) {
+                inputComponent = sensorContext.project();
+            } else {
+                inputComponent = fileSystem.inputFile(fileSystem.predicates().hasURI(URI.create(component)));
+                if (inputComponent == null) {
+                    return metricKey;
+                }
+            }
+
+            Metric<Serializable> metric = metricRegistry.findByKey(metricKey);
+            if (metric != null) {
+                measureSink.add(inputComponent, metric, value);
+            }
+            return metricKey;
+        }
+
+        /**
+         * Reads an issue, and saves it if a sensor context is given. The
+         * locations are resolved the same way as in {@link VisitorHelper}.
+         */
+        private void readIssue(DataInputStream in, SensorContext sensorContext,
+                FileSystem fileSystem) throws IOException {
+            RuleKey ruleKey = RuleKey.of(readString(in), readString(in));
+            Location primary = readLocation(in);
+            List<Location> flow = null;
+            int flowSize = in.readInt();
+            if (flowSize >= 0) {
+                flow = new ArrayList<Location>(flowSize);
+                for (int i = 0; i < flowSize; i++) {
+                    flow.add(readLocation(in));
+                }
+            }
+
+            if (sensorContext == null) {
+                return;
+            }
+
+            NewIssue newIssue = sensorContext.newIssue().forRule(ruleKey);
+            NewIssueLocation location = toIssueLocation(newIssue, fileSystem, primary);
+            if (location == null) {
+                return;
+            }
+            newIssue.at(location);
+
+            if (flow != null) {
+                List<NewIssueLocation> flowLocations = new ArrayList<NewIssueLocation>(flow.size());
+                for (Location flowLocation : flow) {
+                    NewIssueLocation issueLocation = toIssueLocation(newIssue, fileSystem, flowLocation);
+                    if (issueLocation == null) {
+                        flowLocations = null;
+                        break;
+                    }
+                    flowLocations.add(issueLocation);
+                }
+                if (flowLocations != null) {
+                    newIssue.addFlow(flowLocations);
+                }
+            }
+            newIssue.save();
+        }
+
+        private NewIssueLocation toIssueLocation(NewIssue newIssue, FileSystem fileSystem, Location location) {
+            InputFile file = fileSystem.inputFile(fileSystem.predicates().hasPath(location.getPath()));
+            if (file == null) {
+                return null;
+            }
+            return newIssue.newLocation()
+                           .message(location.getMessage())
+                           .on(file)
+                           .at(file.selectLine(location.getLine()));
+        }
+
+        private Location readLocation(DataInputStream in) throws IOException {
+            String path = readString(in);
+            int line = in.readInt();
+            return new Location(path, line, readString(in));
+        }
+
+        private String readString(DataInputStream in) throws IOException {
+            int id = in.readInt();
+            if (id >= 0) {
+                if (id >= strings.size()) {
+                    throw new IOException("Invalid string id in snapshot: " + id);
+                }
+                return strings.get(id);
+            }
+            String value = readLongString(in);
+            strings.add(value);
+            return value;
+        }
+
+        private String readLongString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Invalid string length in snapshot: " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -30,7 +30,6 @@
 
 package com.sourcemeter.analyzer.base.helper;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -42,9 +41,7 @@ import org.sonar.api.batch.measure.Metric;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.issue.NewIssue;
 import org.sonar.api.batch.sensor.issue.NewIssueLocation;
-import org.sonar.api.measures.Metric.ValueType;
 import org.sonar.api.rule.RuleKey;
-import org.sonar.plugins.SourceMeterCore.api.SourceMeterMetricFinder;
 
 import graphlib.Attribute;
 import graphlib.Attribute.aType;
@@ -52,6 +49,7 @@ import graphlib.AttributeComposite;
 import graphlib.AttributeFloat;
 import graphlib.AttributeInt;
 import graphlib.AttributeString;
+import graphlib.Node;
 
 /**
  * Helper class for Visitor classes to upload metrics and warnings.
@@ -64,16 +62,50 @@ public abstract class VisitorHelper {
     protected static final String METRIC_PREFIX = "MET_";
 
     private final SensorContext sensorContext;
-    private final SourceMeterMetricFinder metricFinder;
+    private final MetricRegistry metricRegistry;
+    private final UploadContext uploadContext;
+    private final UploadSnapshot.Recorder snapshotRecorder;
+    private final DeltaUpload deltaUpload;
+    private final InputFileCache inputFileCache;
+    private final MeasureSink measureSink;
+    private final IssueFlowBuilder issueFlowBuilder;
     protected final FileSystem fileSystem;
 
     public VisitorHelper(SensorContext sensorContext, FileSystem fileSystem,
-            SourceMeterMetricFinder metricFinder) {
+            MetricRegistry metricRegistry, UploadContext uploadContext) {
         this.sensorContext = sensorContext;
-        this.metricFinder = metricFinder;
+        this.metricRegistry = metricRegistry;
         this.fileSystem = fileSystem;
+        this.uploadContext = UploadContext.require(uploadContext);
+        this.snapshotRecorder = uploadContext.getSnapshotRecorder();
+        this.deltaUpload = uploadContext.getDeltaUpload();
+        this.inputFileCache = uploadContext.getInputFileCache();
+        this.measureSink = uploadContext.getMeasureSink();
+        this.issueFlowBuilder = uploadContext.getIssueFlowBuilder();
     }
 
+    /**
+     * Returns the context of the upload the helper belongs to.
+     *
+     * @return The upload context.
+     */
+    public UploadContext getUploadContext() {
+        return uploadContext;
+    }
+
+    /**
+     * Matches the given node to the entities of the former analysis if delta
+     * upload is used.
+     *
+     * @param node Node of the result graph.
+     * @return Entity of the node, or null if delta upload is not used.
+     */
+    public DeltaUpload.Entity enterDelta(Node node) {
+        if (deltaUpload == null) {
+            return null;
+        }
+        return deltaUpload.enter(node);
+    }
 
     /**
      * Upload warnings for the given resource.
@@ -81,27 +113,40 @@ public abstract class VisitorHelper {
      * @param attribute Node's attribute.
      */
     public void uploadWarnings(Attribute attribute) {
+        uploadWarnings(attribute, null);
+    }
+
+    /**
+     * Upload warnings for the given resource, and store them in the given
+     * entity of the delta upload.
+     *
+     * @param attribute Node's attribute.
+     * @param entity Entity of the node, or null.
+     */
+    public void uploadWarnings(Attribute attribute, DeltaUpload.Entity entity) {
         AttributeComposite warningAttribute = (AttributeComposite) attribute;
         int startLine = 0;
         String warningText = "";
         String warningTextPref = "";
         String warningPath = "";
         AttributeComposite extraInfoAttribute = null;
+        List<UploadSnapshot.Location> sourceLinks = null;
         List<NewIssueLocation> stackTrace = null;
         List<Attribute> compAttributes = warningAttribute.getAttributes();
         for (Attribute a : compAttributes) {
-            if ("Path".equals(a.getName())) {
+            String name = a.getName();
+            if (GraphSymbols.is(name, GraphSymbols.PATH)) {
                 warningPath = ((AttributeString) a).getValue();
-            } else if ("Line".equals(a.getName())) {
+            } else if (GraphSymbols.is(name, GraphSymbols.LINE)) {
                 startLine = ((AttributeInt) a).getValue();
-            } else if ("WarningText".equals(a.getName())) {
+            } else if (GraphSymbols.is(name, GraphSymbols.WARNING_TEXT)) {
                 warningText = ((AttributeString) a).getValue();
-            } else if ("ExtraInfo".equals(a.getName())) {
+            } else if (GraphSymbols.is(name, GraphSymbols.EXTRA_INFO)) {
                 extraInfoAttribute = (AttributeComposite) a;
             }
         }
 
-        InputFile file = fileSystem.inputFile(fileSystem.predicates().hasPath(warningPath));
+        InputFile file = inputFileCache.getInputFile(warningPath);
         if (file != null) {
             String tmpRuleKey = warningAttribute.getName();
             warningTextPref = getWarningTextWithPrefix(tmpRuleKey, warningText);
@@ -110,25 +155,78 @@ public abstract class VisitorHelper {
 
             NewIssue newIssue = sensorContext.newIssue().forRule(ruleKey);
 
-            NewIssueLocation location = getIssueLocation(warningPath, warningTextPref, startLine);
+            NewIssueLocation location = IssueFlowBuilder.newLocation(newIssue, inputFileCache,
+                    warningPath, warningTextPref, startLine);
 
             if (extraInfoAttribute != null) {
-                stackTrace = getStackTraceFromWarningAttribute(extraInfoAttribute, warningText);
-                if (stackTrace != null && !stackTrace.contains(null)) {
-                    newIssue.at(location)
-                            .addFlow(stackTrace)
-                            .save();
-                } else {
-                    newIssue.at(location)
-                            .save();
+                sourceLinks = issueFlowBuilder.collect(extraInfoAttribute, warningText);
+                if (sourceLinks != null) {
+                    stackTrace = issueFlowBuilder.build(newIssue, sourceLinks, inputFileCache);
                 }
+            }
+
+            if (stackTrace != null) {
+                save(newIssue.at(location)
+                        .addFlow(stackTrace));
+            } else {
+                save(newIssue.at(location));
+                sourceLinks = null;
+            }
+
+            if (snapshotRecorder != null) {
+                snapshotRecorder.addIssue(ruleKey,
+                        new UploadSnapshot.Location(warningPath, startLine, warningTextPref), sourceLinks);
+            }
+            if (entity != null) {
+                entity.addIssue(ruleKey,
+                        new UploadSnapshot.Location(warningPath, startLine, warningTextPref), sourceLinks);
+            }
+        }
+    }
+
+    /**
+     * Uploads the issues of an entity reused from the former analysis.
+     *
+     * @param entity Reused entity of the delta upload.
+     */
+    public void replayIssues(DeltaUpload.Entity entity) {
+        for (DeltaUpload.Issue issue : entity.getIssues()) {
+            UploadSnapshot.Location issueLocation = issue.getLocation();
+            NewIssue newIssue = sensorContext.newIssue().forRule(issue.getRuleKey());
+            NewIssueLocation location = IssueFlowBuilder.newLocation(newIssue, inputFileCache,
+                    issueLocation.getPath(), issueLocation.getMessage(), issueLocation.getLine());
+            if (location == null) {
+                continue;
+            }
+
+            List<NewIssueLocation> stackTrace = null;
+            if (issue.getFlow() != null) {
+                stackTrace = issueFlowBuilder.build(newIssue, issue.getFlow(), inputFileCache);
+            }
+            if (stackTrace != null) {
+                save(newIssue.at(location).addFlow(stackTrace));
             } else {
-                newIssue.at(location)
-                        .save();
+                save(newIssue.at(location));
+            }
+
+            if (snapshotRecorder != null) {
+                snapshotRecorder.addIssue(issue.getRuleKey(), issueLocation, issue.getFlow());
             }
         }
     }
 
+    /**
+     * Saves the given issue. Saving is serialized on the sensor context, so
+     * the visitors can upload from several threads at the same time.
+     *
+     * @param newIssue Issue to be saved.
+     */
+    private void save(NewIssue newIssue) {
+        synchronized (sensorContext) {
+            newIssue.save();
+        }
+    }
+
     /**
      * Returns the language specific rule key.
      *
@@ -154,20 +252,31 @@ public abstract class VisitorHelper {
     public void uploadMetrics(Attribute metricAttribute, InputComponent inputComponent) {
         try {
             aType metricType = metricAttribute.getType();
-            Metric metric = this.metricFinder.findByKey(metricAttribute.getName());
+            MetricRegistry.Entry metricEntry = this.metricRegistry.getEntry(metricAttribute.getName());
 
-            if (metric != null) {
+            if (metricEntry != null && metricEntry.isUploadable()) {
+                Metric metric = metricEntry.getMetric();
                 if (metricType == aType.atInt) {
                     int value = ((AttributeInt) metricAttribute).getValue();
-                    this.sensorContext.newMeasure().forMetric(metric).withValue(value).on(inputComponent).save();
+                    if (!measureSink.add(inputComponent, metric, value)) {
+                        return;
+                    }
+                    if (snapshotRecorder != null) {
+                        snapshotRecorder.addMeasure(inputComponent, metric.key(), value);
+                    }
                 } else if (metricType == aType.atFloat) {
                     Double value = (double) ((AttributeFloat) metricAttribute)
                             .getValue();
                     if (!value.isNaN() && !value.isInfinite()) {
-                        if (metric.valueType().equals(ValueType.PERCENT)) {
+                        if (metricEntry.isPercent()) {
                             value = value * 100;
                         }
-                        this.sensorContext.newMeasure().forMetric(metric).withValue(value).on(inputComponent).save();
+                        if (!measureSink.add(inputComponent, metric, value)) {
+                            return;
+                        }
+                        if (snapshotRecorder != null) {
+                            snapshotRecorder.addMeasure(inputComponent, metric.key(), value.doubleValue());
+                        }
                     }
                 }
             }
@@ -208,77 +317,11 @@ public abstract class VisitorHelper {
     }
 
     /**
-     * Creates the stack trace List from the given attribute.
+     * Return the cache of the input files of the sensor.
      *
-     * @param extraInfoAttribute
-     *            The attribute that contains the stack trace information.
-     * @param warningText
-     *            Warning's text message.
-     * @return A List, containing the stack trace locations.
+     * @return Cache resolving the paths of the result graph.
      */
-    private List<NewIssueLocation> getStackTraceFromWarningAttribute(
-            AttributeComposite extraInfoAttribute, String warningText) {
-
-        if (!"ExtraInfo".equals(extraInfoAttribute.getName())) {
-            return null;
-        }
-        List<NewIssueLocation> stackTraceList = null;
-
-//      Example:
-//      <attribute type = "composite" name = "ExtraInfo" context = "">
-//        <attribute type = "composite" name = "SourceLink" context = "">
-//          <attribute type = "string" name = "Path" context = "" value =
-//            "src/org/snipsnap/net/AddLabelServlet.java"/>
-//          <attribute type = "int" name = "Line" context = "" value = "71"/>
-//          <attribute type = "int" name = "Column" context = "" value = "0"/>
-//          <attribute type = "int" name = "EndLine" context = "" value = "71"/>
-//          <attribute type = "int" name = "EndColumn" context = "" value = "10000"/>
-//          <attribute type = "int" name = "CallStackDepth" context = "" value = "0"/>
-//        </attribute>
-//      ...
-//      </attribute>
-        stackTraceList = new ArrayList<NewIssueLocation>();
-        List<Attribute> extraInfoAttributes = extraInfoAttribute.getAttributes();
-        String previousPath = "";
-        int previousLine = 0;
-        for (Attribute sourceLink : extraInfoAttributes) {
-            List<Attribute> sourceLinkAttributes = sourceLink.getAttributes();
-            String path = "";
-            int line = 0;
-            for (Attribute sourceLinkAttribute : sourceLinkAttributes) {
-                if ("Path".equals(sourceLinkAttribute.getName())) {
-                    path = ((AttributeString) sourceLinkAttribute).getValue();
-                } else if ("Line".equals(sourceLinkAttribute.getName())) {
-                    line = ((AttributeInt) sourceLinkAttribute).getValue();
-                }
-            }
-
-            if (!previousPath.equals(path) || previousLine != line) {
-                NewIssueLocation location = getIssueLocation(path, warningText, line);
-                stackTraceList.add(location);
-            }
-        }
-        return stackTraceList;
-    }
-
-    /**
-     * Creates NewIssueLocation.
-     *
-     * @param path File's path.
-     * @param warningText Text of the warning.
-     * @param line Line in file.
-     * @return NewIssueLocation
-     */
-    private NewIssueLocation getIssueLocation(String path, String warningText, int line) {
-        InputFile file = fileSystem.inputFile(fileSystem.predicates().hasPath(path));
-        NewIssueLocation location = null;
-        if (file != null) {
-            NewIssue newIssue = sensorContext.newIssue();
-            location = newIssue.newLocation()
-                               .message(warningText)
-                               .on(file)
-                               .at(file.selectLine(line));
-        }
-        return location;
+    public InputFileCache getInputFileCache() {
+        return inputFileCache;
     }
 }
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.sourcemeter.analyzer.base.jsontree;
+
+import java.io.Writer;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Growable in-memory buffer the JSON measures are streamed into.
+ *
+ * The buffer is reused for several documents (ex.: the three logical levels),
+ * so its storage grows only to the size of the largest document instead of
+ * being allocated again for each of them. Unlike StringWriter it is not
+ * synchronized.
+ */
+public class JsonBuffer extends Writer {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    /**
+     * Clears the buffer and gives back a writer for the next JSON document.
+     * The writer escapes HTML characters the same way Gson does by default.
+     *
+     * @return JSON writer writing into the buffer.
+     */
+    public JsonWriter newDocument() {
+        this.buffer.setLength(0);
+        JsonWriter writer = new JsonWriter(this);
+        writer.setHtmlSafe(true);
+        return writer;
+    }
+
+    /**
+     * Returns the length of the written document.
+     *
+     * @return Number of characters in the buffer.
+     */
+    public int length() {
+        return this.buffer.length();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int c) {
+        this.buffer.append((char) c);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        this.buffer.append(cbuf, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(String str) {
+        this.buffer.append(str);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(String str, int off, int len) {
+        this.buffer.append(str, off, off + len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Writer append(CharSequence csq) {
+        this.buffer.append(csq);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        // Nothing to flush.
+    }
+
+    /**
+     * The buffer stays usable after closing, the writers of the documents
+     * close it when they are closed.
+     */
+    @Override
+    public void close() {
+        // Nothing to close.
+    }
+
+    /**
+     * Gives back the written document.
+     *
+     * @return Content of the buffer.
+     */
+    @Override
+    public String toString() {
+        return this.buffer.toString();
+    }
+}
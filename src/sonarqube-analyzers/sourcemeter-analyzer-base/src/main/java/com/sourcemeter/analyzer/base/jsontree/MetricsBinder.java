@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.jsontree;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.stream.JsonWriter;
+import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
+
+/**
+ * Stores metric values into the public int and float fields of a
+ * {@link MetricsInt} class by the name of the metric.
+ *
+ * The fields are looked up only once per class, and they are written through
+ * method handles, so setting a metric is a hash lookup and a field store
+ * instead of scanning the fields of the class reflectively.
+ *
+ * The binder also gives the metrics of the class as indexed slots in the order
+ * Gson serializes them (fields of the class first, then the fields of its
+ * superclasses), so the metrics can be copied into columns and written back
+ * to JSON without a metrics object.
+ */
+public final class MetricsBinder {
+
+    private static final ConcurrentMap<Class<?>, MetricsBinder> BINDERS = new ConcurrentHashMap<Class<?>, MetricsBinder>();
+
+    private static final MethodType INT_SETTER_TYPE = MethodType.methodType(void.class, MetricsInt.class, int.class);
+    private static final MethodType FLOAT_SETTER_TYPE = MethodType.methodType(void.class, MetricsInt.class, float.class);
+    private static final MethodType INT_GETTER_TYPE = MethodType.methodType(int.class, MetricsInt.class);
+    private static final MethodType FLOAT_GETTER_TYPE = MethodType.methodType(float.class, MetricsInt.class);
+
+    private final Map<String, MethodHandle> intSetters = new HashMap<String, MethodHandle>();
+    private final Map<String, MethodHandle> floatSetters = new HashMap<String, MethodHandle>();
+
+    private final String[] slotNames;
+    private final boolean[] floatSlots;
+    private final MethodHandle[] slotGetters;
+
+    private MetricsBinder(Class<?> metricsClass) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Field field : metricsClass.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                if (field.getType() == int.class) {
+                    intSetters.put(field.getName(), lookup.unreflectSetter(field).asType(INT_SETTER_TYPE));
+                } else if (field.getType() == float.class) {
+                    floatSetters.put(field.getName(), lookup.unreflectSetter(field).asType(FLOAT_SETTER_TYPE));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Metric field cannot be accessed: " + field, e);
+            }
+        }
+
+        List<Field> slotFields = new ArrayList<Field>();
+        for (Class<?> type = metricsClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    slotFields.add(field);
+                }
+            }
+        }
+
+        slotNames = new String[slotFields.size()];
+        floatSlots = new boolean[slotFields.size()];
+        slotGetters = new MethodHandle[slotFields.size()];
+        for (int i = 0; i < slotNames.length; i++) {
+            Field field = slotFields.get(i);
+            if (field.getType() != int.class && field.getType() != float.class) {
+                throw new IllegalStateException("Metric field is neither int nor float: " + field);
+            }
+            try {
+                field.setAccessible(true);
+                slotNames[i] = field.getName();
+                floatSlots[i] = field.getType() == float.class;
+                slotGetters[i] = lookup.unreflectGetter(field)
+                        .asType(floatSlots[i] ? FLOAT_GETTER_TYPE : INT_GETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Metric field cannot be accessed: " + field, e);
+            }
+        }
+    }
+
+    /**
+     * Gives back the binder of the given metrics class.
+     *
+     * @param metricsClass Class containing metric fields.
+     * @return The binder of the class.
+     */
+    public static MetricsBinder of(Class<? extends MetricsInt> metricsClass) {
+        MetricsBinder binder = BINDERS.get(metricsClass);
+        if (binder == null) {
+            MetricsBinder newBinder = new MetricsBinder(metricsClass);
+            binder = BINDERS.putIfAbsent(metricsClass, newBinder);
+            if (binder == null) {
+                binder = newBinder;
+            }
+        }
+        return binder;
+    }
+
+    /**
+     * Checks whether the metrics class has a field for the given metric.
+     *
+     * @param name Name of the metric.
+     * @return True if the metrics class has the metric.
+     */
+    public boolean hasMetric(String name) {
+        return intSetters.containsKey(name) || floatSetters.containsKey(name);
+    }
+
+    /**
+     * Sets an int metric. An int value can be stored into a float field too.
+     *
+     * @param metrics Metrics to be set.
+     * @param name Name of the metric.
+     * @param value Value of the metric.
+     * @return True if the metrics class has the metric.
+     */
+    public boolean setInt(MetricsInt metrics, String name, int value) {
+        try {
+            MethodHandle setter = intSetters.get(name);
+            if (setter != null) {
+                setter.invokeExact(metrics, value);
+                return true;
+            }
+            setter = floatSetters.get(name);
+            if (setter != null) {
+                setter.invokeExact(metrics, (float) value);
+                return true;
+            }
+            return false;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Sets a float metric.
+     *
+     * @param metrics Metrics to be set.
+     * @param name Name of the metric.
+     * @param value Value of the metric.
+     * @return True if the metrics class has a float field for the metric.
+     */
+    public boolean setFloat(MetricsInt metrics, String name, float value) {
+        try {
+            MethodHandle setter = floatSetters.get(name);
+            if (setter != null) {
+                setter.invokeExact(metrics, value);
+                return true;
+            }
+            return false;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Returns the number of metric slots of the class.
+     *
+     * @return Number of metric fields.
+     */
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    /**
+     * Returns the name of the metric in the given slot.
+     *
+     * @param slot Index of the slot.
+     * @return Name of the metric.
+     */
+    public String getSlotName(int slot) {
+        return slotNames[slot];
+    }
+
+    /**
+     * Checks whether the metric in the given slot is a float metric.
+     *
+     * @param slot Index of the slot.
+     * @return True for float fields, false for int fields.
+     */
+    public boolean isFloatSlot(int slot) {
+        return floatSlots[slot];
+    }
+
+    /**
+     * Reads the value of an int slot.
+     *
+     * @param metrics Metrics to be read.
+     * @param slot Index of an int slot.
+     * @return Value of the metric.
+     */
+    public int getInt(MetricsInt metrics, int slot) {
+        try {
+            return (int) slotGetters[slot].invokeExact(metrics);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads the value of a float slot.
+     *
+     * @param metrics Metrics to be read.
+     * @param slot Index of a float slot.
+     * @return Value of the metric.
+     */
+    public float getFloat(MetricsInt metrics, int slot) {
+        try {
+            return (float) slotGetters[slot].invokeExact(metrics);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Writes the metrics as a JSON object in the order of the slots.
+     *
+     * @param writer Writer of the JSON output.
+     * @param metrics Metrics to be written.
+     * @throws IOException
+     */
+    public void writeJson(JsonWriter writer, MetricsInt metrics) throws IOException {
+        writer.beginObject();
+        for (int slot = 0; slot < slotNames.length; slot++) {
+            writer.name(slotNames[slot]);
+            if (floatSlots[slot]) {
+                writer.value(Float.valueOf(getFloat(metrics, slot)));
+            } else {
+                writer.value(getInt(metrics, slot));
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Accessors of public fields can only fail with unchecked exceptions.
+     */
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
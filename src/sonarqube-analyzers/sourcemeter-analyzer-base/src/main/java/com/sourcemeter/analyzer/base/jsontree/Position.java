@@ -30,6 +30,10 @@
 
 package com.sourcemeter.analyzer.base.jsontree;
 
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Position of the issue
  */
@@ -41,4 +45,21 @@ public class Position {
         this.path = path;
         this.line = line;
     }
+
+    /**
+     * Writes a position as a JSON object.
+     *
+     * @param writer Writer of the JSON output.
+     * @param path Path of the position (omitted if null).
+     * @param line Line of the position.
+     * @throws IOException
+     */
+    public static void writeJson(JsonWriter writer, String path, int line) throws IOException {
+        writer.beginObject();
+        if (path != null) {
+            writer.name("path").value(path);
+        }
+        writer.name("line").value(line);
+        writer.endObject();
+    }
 }
@@ -1,5 +1,5 @@
 /**
- * Copyright (c) 2014-2017, FrontEndART Software Ltd.
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
  * All rights reserved.
  *
  * Redistribution and use in source and binary forms, with or without
@@ -27,34 +27,62 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+package com.sourcemeter.analyzer.base.jsontree;
 
-package com.sourcemeter.analyzer.base.jsontree.interfaces;
-
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Encapsulate logical tree levels.
+ * Dictionary giving every distinct string a dense integer id, so repeated
+ * strings (ex.: paths of the positions) are stored only once.
  */
-public interface LevelInt {
+public class StringDictionary {
+
+    /**
+     * Id of the null string.
+     */
+    public static final int NULL_ID = -1;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
 
     /**
-     * Sets the logical level's name.
+     * Gives back the id of the string, adding it to the dictionary if needed.
      *
-     * @param name Name of the level to be set.
+     * @param string String to be added (can be null).
+     * @return Id of the string.
      */
-    void setName(String name);
+    public int add(String string) {
+        if (string == null) {
+            return NULL_ID;
+        }
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            ids.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
 
     /**
-     * Sets the logical level's positions.
+     * Gives back the string of the id.
      *
-     * @param positionList List of positions.
+     * @param id Id of the string.
+     * @return The string or null for NULL_ID.
      */
-    void setPositions(List positionList);
+    public String get(int id) {
+        return id == NULL_ID ? null : strings.get(id);
+    }
 
     /**
-     * Sets the logical level's metrics.
+     * Returns the number of distinct strings.
      *
-     * @param metrics Metrics of the level to be set.
+     * @return Size of the dictionary.
      */
-    void setMetrics(MetricsInt metrics);
+    public int size() {
+        return strings.size();
+    }
 }
@@ -30,17 +30,21 @@
 
 package com.sourcemeter.analyzer.base.jsontree.clone;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.google.gson.stream.JsonWriter;
+import com.sourcemeter.analyzer.base.jsontree.MetricsBinder;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 
 /**
  * Contains the cloneClass name, metrics and the list of cloneInstances.
  */
 public class CloneClass {
-    public String name;
-    public MetricsInt cloneClassMetrics;
-    public CloneInstance[] cloneInstances;
+    private final String name;
+    private final MetricsInt cloneClassMetrics;
+    private List<CloneInstance> cloneInstances;
 
     public CloneClass(String name, MetricsInt cloneClassMetrics) {
         this.name = name;
@@ -48,28 +52,58 @@ public class CloneClass {
     }
 
     /**
-     * Inner class which contains array of CloneClasses.
+     * Adds a cloneInstance to the cloneClass.
+     *
+     * @param cloneInstance Instance of the cloneClass.
      */
-    public static class CloneClasses {
-        public CloneClass[] cloneClasses;
-
-        public CloneClasses(List cloneClassList) {
-            CloneClass[] cloneClassArray = new CloneClass[cloneClassList.size()];
-            cloneClassList.toArray(cloneClassArray);
-
-            this.cloneClasses = cloneClassArray;
+    public void addInstance(CloneInstance cloneInstance) {
+        if (this.cloneInstances == null) {
+            this.cloneInstances = new ArrayList<CloneInstance>();
         }
+        this.cloneInstances.add(cloneInstance);
     }
 
     /**
-     * Sets the cloneInstance list.
+     * Writes the cloneClass as a JSON object. The cloneInstances field is
+     * omitted if the cloneClass has no instances.
      *
-     * @param instanceList List of clone instances.
+     * @param writer Writer of the JSON output.
+     * @throws IOException
      */
-    public void setInstances(List instanceList) {
-        CloneInstance[] cloneInstanceArray = new CloneInstance[instanceList.size()];
-        instanceList.toArray(cloneInstanceArray);
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        if (this.name != null) {
+            writer.name("name").value(this.name);
+        }
+        writer.name("cloneClassMetrics");
+        MetricsBinder.of(this.cloneClassMetrics.getClass()).writeJson(writer, this.cloneClassMetrics);
+        if (this.cloneInstances != null) {
+            writer.name("cloneInstances");
+            writer.beginArray();
+            for (CloneInstance cloneInstance : this.cloneInstances) {
+                cloneInstance.writeJson(writer);
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+    }
 
-        this.cloneInstances = cloneInstanceArray;
+    /**
+     * Writes the container of the cloneClasses in JSON format:
+     * {"cloneClasses":[...]}
+     *
+     * @param writer Writer of the JSON output.
+     * @param cloneClasses CloneClasses to be written.
+     * @throws IOException
+     */
+    public static void writeJson(JsonWriter writer, List<CloneClass> cloneClasses) throws IOException {
+        writer.beginObject();
+        writer.name("cloneClasses");
+        writer.beginArray();
+        for (CloneClass cloneClass : cloneClasses) {
+            cloneClass.writeJson(writer);
+        }
+        writer.endArray();
+        writer.endObject();
     }
 }
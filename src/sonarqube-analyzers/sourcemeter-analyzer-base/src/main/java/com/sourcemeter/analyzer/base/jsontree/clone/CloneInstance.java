@@ -30,8 +30,11 @@
 
 package com.sourcemeter.analyzer.base.jsontree.clone;
 
+import java.io.IOException;
 import java.util.List;
 
+import com.google.gson.stream.JsonWriter;
+import com.sourcemeter.analyzer.base.jsontree.MetricsBinder;
 import com.sourcemeter.analyzer.base.jsontree.Position;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 
@@ -39,16 +42,35 @@ import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
  * Contains the name, the positions and the metrics for the cloneInstance.
  */
 public class CloneInstance {
-    public String name;
-    public Position[] positions;
-    public MetricsInt cloneInstanceMetrics;
-
-    public CloneInstance(String name, List positionList, MetricsInt cloneInstanceMetrics) {
-        Position[] positionArray = new Position[positionList.size()];
-        positionList.toArray(positionArray);
+    private final String name;
+    private final List<Position> positions;
+    private final MetricsInt cloneInstanceMetrics;
 
+    public CloneInstance(String name, List<Position> positionList, MetricsInt cloneInstanceMetrics) {
         this.name = name;
-        this.positions = positionArray;
+        this.positions = positionList;
         this.cloneInstanceMetrics = cloneInstanceMetrics;
     }
+
+    /**
+     * Writes the cloneInstance as a JSON object.
+     *
+     * @param writer Writer of the JSON output.
+     * @throws IOException
+     */
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        if (this.name != null) {
+            writer.name("name").value(this.name);
+        }
+        writer.name("positions");
+        writer.beginArray();
+        for (Position position : this.positions) {
+            Position.writeJson(writer, position.path, position.line);
+        }
+        writer.endArray();
+        writer.name("cloneInstanceMetrics");
+        MetricsBinder.of(this.cloneInstanceMetrics.getClass()).writeJson(writer, this.cloneInstanceMetrics);
+        writer.endObject();
+    }
 }
@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.sourcemeter.analyzer.base.jsontree.logical;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import graphlib.Node;
+
+import com.google.gson.stream.JsonWriter;
+import com.sourcemeter.analyzer.base.jsontree.MetricsBinder;
+import com.sourcemeter.analyzer.base.jsontree.Position;
+import com.sourcemeter.analyzer.base.jsontree.StringDictionary;
+import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
+
+/**
+ * Columnar store of the entries of one logical level.
+ *
+ * Instead of keeping a name, a position array and a metrics object for every
+ * entry, the names and the paths are stored in a string dictionary and every
+ * metric of the level is stored in its own int or float column. The JSON of
+ * the level is streamed straight from the columns, in the same format as the
+ * former Level and LevelOne containers were serialized by Gson.
+ *
+ * Every entry also records its owner: the index of the first level entry
+ * (ex.: package) containing it, which the third level is sharded by.
+ */
+public class LevelStore {
+
+    /**
+     * Owner of the entries which are not contained by any first level entry.
+     */
+    public static final int NO_OWNER = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] levelTypes;
+    private final boolean withPositions;
+    private final StringDictionary strings = new StringDictionary();
+
+    private Class<? extends MetricsInt> metricsClass;
+    private MetricsBinder binder;
+
+    private int size;
+    private int capacity;
+    private int[] nameIds;
+    private int[] owners;
+    private int[][] intColumns;
+    private float[][] floatColumns;
+
+    // Positions of entry i are positionPaths/positionLines[positionEnds[i - 1] .. positionEnds[i]).
+    private int[] positionEnds;
+    private int positionCount;
+    private int[] positionPaths;
+    private int[] positionLines;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param levelTypes Node types of the level.
+     * @param withPositions True if the positions of the entries are stored
+     *                      (second and third level), false otherwise.
+     */
+    public LevelStore(List<Node.NodeType> levelTypes, boolean withPositions) {
+        this.levelTypes = new String[levelTypes.size()];
+        for (int i = 0; i < this.levelTypes.length; i++) {
+            this.levelTypes[i] = levelTypes.get(i).getType();
+        }
+        this.withPositions = withPositions;
+        this.nameIds = new int[0];
+        this.owners = new int[0];
+        this.positionEnds = new int[0];
+        this.positionPaths = new int[0];
+        this.positionLines = new int[0];
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return Number of entries in the store.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the name of an entry.
+     *
+     * @param entry Index of the entry.
+     * @return Name of the entry (can be null).
+     */
+    public String getName(int entry) {
+        return this.strings.get(this.nameIds[entry]);
+    }
+
+    /**
+     * Returns the owner of an entry.
+     *
+     * @param entry Index of the entry.
+     * @return Index of the first level entry containing the entry or NO_OWNER.
+     */
+    public int getOwner(int entry) {
+        return this.owners[entry];
+    }
+
+    /**
+     * Makes room for the given number of entries, so the columns do not have
+     * to grow while they are filled (ex.: when the node counts are known).
+     *
+     * @param minCapacity Expected number of entries.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= this.capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, Math.max(INITIAL_CAPACITY, this.capacity * 2));
+        this.nameIds = Arrays.copyOf(this.nameIds, newCapacity);
+        this.owners = Arrays.copyOf(this.owners, newCapacity);
+        this.positionEnds = Arrays.copyOf(this.positionEnds, newCapacity);
+        if (this.binder != null) {
+            for (int slot = 0; slot < this.binder.getSlotCount(); slot++) {
+                if (this.binder.isFloatSlot(slot)) {
+                    this.floatColumns[slot] = Arrays.copyOf(this.floatColumns[slot], newCapacity);
+                } else {
+                    this.intColumns[slot] = Arrays.copyOf(this.intColumns[slot], newCapacity);
+                }
+            }
+        }
+        this.capacity = newCapacity;
+    }
+
+    /**
+     * Adds an entry to the store. The values are copied, so the given objects
+     * can be dropped after the call.
+     *
+     * @param name Name of the entry (can be null).
+     * @param positions Positions of the entry, ignored if the positions are not stored.
+     * @param metrics Metrics of the entry.
+     * @param owner Index of the first level entry containing the entry or NO_OWNER.
+     */
+    public void add(String name, List<Position> positions, MetricsInt metrics, int owner) {
+        bind(metrics.getClass());
+        ensureCapacity(this.size + 1);
+
+        int index = this.size;
+        this.nameIds[index] = this.strings.add(name);
+        this.owners[index] = owner;
+        for (int slot = 0; slot < this.binder.getSlotCount(); slot++) {
+            if (this.binder.isFloatSlot(slot)) {
+                this.floatColumns[slot][index] = this.binder.getFloat(metrics, slot);
+            } else {
+                this.intColumns[slot][index] = this.binder.getInt(metrics, slot);
+            }
+        }
+        if (this.withPositions) {
+            for (Position position : positions) {
+                addPosition(this.strings.add(position.path), position.line);
+            }
+        }
+        this.positionEnds[index] = this.positionCount;
+        this.size++;
+    }
+
+    /**
+     * Appends a range of entries of another store of the same level.
+     *
+     * @param other Store containing the entries.
+     * @param from Index of the first entry (inclusive).
+     * @param to Index of the last entry (exclusive).
+     * @param ownerMap New index of the owners of the other store.
+     */
+    public void appendRange(LevelStore other, int from, int to, int[] ownerMap) {
+        if (from >= to) {
+            return;
+        }
+        bind(other.metricsClass);
+        ensureCapacity(this.size + to - from);
+
+        for (int entry = from; entry < to; entry++) {
+            int index = this.size;
+            this.nameIds[index] = this.strings.add(other.strings.get(other.nameIds[entry]));
+            this.owners[index] = other.owners[entry] == NO_OWNER ? NO_OWNER : ownerMap[other.owners[entry]];
+            for (int slot = 0; slot < this.binder.getSlotCount(); slot++) {
+                if (this.binder.isFloatSlot(slot)) {
+                    this.floatColumns[slot][index] = other.floatColumns[slot][entry];
+                } else {
+                    this.intColumns[slot][index] = other.intColumns[slot][entry];
+                }
+            }
+            for (int position = other.getPositionStart(entry); position < other.positionEnds[entry]; position++) {
+                addPosition(this.strings.add(other.strings.get(other.positionPaths[position])),
+                        other.positionLines[position]);
+            }
+            this.positionEnds[index] = this.positionCount;
+            this.size++;
+        }
+    }
+
+    /**
+     * Writes the level container in JSON format:
+     * {"levelTypes":[...],"level":[{"name":...,"positions":[...],"metrics":{...}},...]}
+     *
+     * @param writer Writer of the JSON output.
+     * @throws IOException
+     */
+    public void writeJson(JsonWriter writer) throws IOException {
+        writeJson(writer, null, this.size);
+    }
+
+    /**
+     * Writes the level container of the given entries in JSON format.
+     *
+     * @param writer Writer of the JSON output.
+     * @param entries Indexes of the entries in ascending order, or null for all entries.
+     * @param count Number of the entries to be written.
+     * @throws IOException
+     */
+    public void writeJson(JsonWriter writer, int[] entries, int count) throws IOException {
+        writer.beginObject();
+        writer.name("levelTypes");
+        writeLevelTypes(writer);
+
+        writer.name("level");
+        writer.beginArray();
+        for (int i = 0; i < count; i++) {
+            writeEntry(writer, entries == null ? i : entries[i]);
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /**
+     * Writes the node types of the level as a JSON array.
+     *
+     * @param writer Writer of the JSON output.
+     * @throws IOException
+     */
+    public void writeLevelTypes(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (String levelType : this.levelTypes) {
+            writer.value(levelType);
+        }
+        writer.endArray();
+    }
+
+    private void writeEntry(JsonWriter writer, int entry) throws IOException {
+        writer.beginObject();
+        String name = this.strings.get(this.nameIds[entry]);
+        if (name != null) {
+            writer.name("name").value(name);
+        }
+        if (this.withPositions) {
+            writer.name("positions");
+            writer.beginArray();
+            for (int position = getPositionStart(entry); position < this.positionEnds[entry]; position++) {
+                Position.writeJson(writer, this.strings.get(this.positionPaths[position]),
+                        this.positionLines[position]);
+            }
+            writer.endArray();
+        }
+        writer.name("metrics");
+        writer.beginObject();
+        for (int slot = 0; slot < this.binder.getSlotCount(); slot++) {
+            writer.name(this.binder.getSlotName(slot));
+            if (this.binder.isFloatSlot(slot)) {
+                writer.value(Float.valueOf(this.floatColumns[slot][entry]));
+            } else {
+                writer.value(this.intColumns[slot][entry]);
+            }
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Sets the metrics class of the store on the first entry and creates its columns.
+     */
+    private void bind(Class<? extends MetricsInt> newMetricsClass) {
+        if (this.metricsClass == newMetricsClass) {
+            return;
+        }
+        if (this.metricsClass != null) {
+            throw new IllegalArgumentException("Logical level entries have different metrics: "
+                    + this.metricsClass.getName() + ", " + newMetricsClass.getName());
+        }
+        this.metricsClass = newMetricsClass;
+        this.binder = MetricsBinder.of(newMetricsClass);
+        this.intColumns = new int[this.binder.getSlotCount()][];
+        this.floatColumns = new float[this.binder.getSlotCount()][];
+        for (int slot = 0; slot < this.binder.getSlotCount(); slot++) {
+            if (this.binder.isFloatSlot(slot)) {
+                this.floatColumns[slot] = new float[this.capacity];
+            } else {
+                this.intColumns[slot] = new int[this.capacity];
+            }
+        }
+    }
+
+    private int getPositionStart(int entry) {
+        return entry == 0 ? 0 : this.positionEnds[entry - 1];
+    }
+
+    private void addPosition(int pathId, int line) {
+        if (this.positionCount == this.positionPaths.length) {
+            int newLength = Math.max(INITIAL_CAPACITY, this.positionCount * 2);
+            this.positionPaths = Arrays.copyOf(this.positionPaths, newLength);
+            this.positionLines = Arrays.copyOf(this.positionLines, newLength);
+        }
+        this.positionPaths[this.positionCount] = pathId;
+        this.positionLines[this.positionCount] = line;
+        this.positionCount++;
+    }
+}
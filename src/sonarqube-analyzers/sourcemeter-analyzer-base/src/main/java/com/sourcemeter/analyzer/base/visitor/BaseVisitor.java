@@ -30,15 +30,12 @@
 
 package com.sourcemeter.analyzer.base.visitor;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.ListIterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputComponent;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.resources.AbstractLanguage;
@@ -50,8 +47,13 @@ import graphlib.AttributeString;
 import graphlib.Edge;
 import graphlib.Node;
 
+import com.sourcemeter.analyzer.base.helper.DeltaUpload;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
+import com.sourcemeter.analyzer.base.helper.InputFileCache;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
+import com.sourcemeter.analyzer.base.jsontree.MetricsBinder;
 import com.sourcemeter.analyzer.base.jsontree.Position;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 
@@ -102,6 +104,15 @@ public abstract class BaseVisitor implements graphlib.Visitor {
         // Do nothing
     }
 
+    /**
+     * Returns the context of the upload the visitor belongs to.
+     *
+     * @return The upload context.
+     */
+    protected UploadContext getUploadContext() {
+        return visitorHelper.getUploadContext();
+    }
+
     /**
      * Print progress bar and estimation time to the Console.
      *
@@ -145,7 +156,8 @@ public abstract class BaseVisitor implements graphlib.Visitor {
         List<Attribute> attributes = node.getAttributes();
         for (Attribute attribute : attributes) {
             String context = attribute.getContext();
-            if (inputComponent != null && ("metric".equals(context) || "metricgroup".equals(context))) {
+            if (inputComponent != null && (GraphSymbols.is(context, GraphSymbols.CONTEXT_METRIC)
+                    || GraphSymbols.is(context, GraphSymbols.CONTEXT_METRIC_GROUP))) {
                 visitorHelper.uploadMetrics(attribute, inputComponent);
             }
         }
@@ -157,15 +169,31 @@ public abstract class BaseVisitor implements graphlib.Visitor {
      * @param node Node of the result graph.
      */
     protected void uploadWarnings(Node node) {
+        DeltaUpload.Entity entity = enterDelta(node);
+        if (entity != null && entity.isReused()) {
+            visitorHelper.replayIssues(entity);
+            return;
+        }
+
         List<Attribute> attributes = node.getAttributes();
         for (Attribute attribute : attributes) {
-            String context = attribute.getContext();
-            if ("warning".equals(context)) {
-                visitorHelper.uploadWarnings(attribute);
+            if (GraphSymbols.is(attribute.getContext(), GraphSymbols.CONTEXT_WARNING)) {
+                visitorHelper.uploadWarnings(attribute, entity);
             }
         }
     }
 
+    /**
+     * Matches the given node to the entities of the former analysis if delta
+     * upload is used.
+     *
+     * @param node Node of the result graph.
+     * @return Entity of the node, or null if delta upload is not used.
+     */
+    protected DeltaUpload.Entity enterDelta(Node node) {
+        return visitorHelper.enterDelta(node);
+    }
+
     /**
      * Reads the metrics from the attribute and sets their values.
      *
@@ -173,27 +201,17 @@ public abstract class BaseVisitor implements graphlib.Visitor {
      * @param metrics Metrics to be set.
      */
     protected void readMetrics(Attribute attribute, MetricsInt metrics) {
-        for (Field field : metrics.getClass().getFields()) {
-            if (!field.getName().equals(attribute.getName())) {
-                continue;
+        MetricsBinder binder = MetricsBinder.of(metrics.getClass());
+        if (attribute.getType() == Attribute.aType.atInt) {
+            binder.setInt(metrics, attribute.getName(), ((AttributeInt) attribute).getValue());
+        } else if (attribute.getType() == Attribute.aType.atFloat) {
+            float value = ((AttributeFloat) attribute).getValue();
+            if (Double.isNaN(value)) {
+                value = 0;
             }
-            if (attribute.getType().equals(Attribute.aType.atInt)) {
-                int value = ((AttributeInt)attribute).getValue();
-                try {
-                    field.setInt(metrics, value);
-                } catch (IllegalAccessException e) {
-                    LOG.error("Error during reading metrics from graph!");
-                }
-            } else if (attribute.getType().equals(Attribute.aType.atFloat)) {
-                float value = ((AttributeFloat)attribute).getValue();
-                if (Double.isNaN(value)) {
-                    value = 0;
-                }
-                try {
-                    field.setFloat(metrics, value);
-                } catch (IllegalAccessException e) {
-                    LOG.error("Error during reading metrics from graph!");
-                }
+            if (!binder.setFloat(metrics, attribute.getName(), value)
+                    && binder.hasMetric(attribute.getName())) {
+                LOG.error("Error during reading metrics from graph!");
             }
         }
     }
@@ -208,26 +226,19 @@ public abstract class BaseVisitor implements graphlib.Visitor {
     protected boolean readPosition(Attribute positionAttribute, List positionsList) {
         String path = "";
         int line = 0;
-        FileSystem fs = visitorHelper.getFileSystem();
-        String prefix = fs.baseDir().getAbsolutePath().replace("\\", "/");
-        if (!prefix.startsWith("/")) {
-            prefix = "/" + prefix;
-        }
+        InputFileCache inputFileCache = getInputFileCache();
 
         List positionsListTemp = positionAttribute.getAttributes();
         ListIterator posIter = positionsListTemp.listIterator();
         while (posIter.hasNext()) {
             Attribute tempPos = (Attribute) posIter.next();
-            if ("Path".equals(tempPos.getName())) {
-                path = ((AttributeString)tempPos).getValue();
-                InputFile file = fs.inputFile(fs.predicates().hasPath(path));
-                if (file != null) {
-                    path = relativizePath(prefix, file.uri().normalize().getPath());
-                } else {
+            if (GraphSymbols.is(tempPos.getName(), GraphSymbols.PATH)) {
+                path = inputFileCache.getRelativePath(((AttributeString)tempPos).getValue());
+                if (path == null) {
                     // If file's path does not exist in the file system we skip the related measures (probably filtered out).
                     return false;
                 }
-            } else if ("Line".equals(tempPos.getName())) {
+            } else if (GraphSymbols.is(tempPos.getName(), GraphSymbols.LINE)) {
                 line = ((AttributeInt)tempPos).getValue();
             }
         }
@@ -236,16 +247,11 @@ public abstract class BaseVisitor implements graphlib.Visitor {
     }
 
     /**
-     * Relativize given path based on given prefix.
+     * Returns the cache of the input files shared by the visitors of the sensor.
      *
-     * @param prefix This will be cut from the first part of the path.
-     * @param path Full file path to be relativized based on the prefix.
-     * @return Relativized path.
+     * @return Cache resolving the paths of the result graph.
      */
-    private static String relativizePath(String prefix, String path) {
-        if (path.startsWith(prefix)) {
-            path = path.substring(prefix.length() + 1);
-        }
-        return path;
+    protected InputFileCache getInputFileCache() {
+        return visitorHelper.getInputFileCache();
     }
 }
@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.base.visitor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
@@ -42,9 +43,11 @@ import graphlib.AttributeString;
 import graphlib.Node;
 import graphlib.VisitorException;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
+import com.sourcemeter.analyzer.base.jsontree.JsonBuffer;
 import com.sourcemeter.analyzer.base.jsontree.Position;
 import com.sourcemeter.analyzer.base.jsontree.clone.CloneClass;
 import com.sourcemeter.analyzer.base.jsontree.clone.CloneInstance;
@@ -55,8 +58,7 @@ public abstract class CloneTreeSaverVisitor extends BaseVisitor {
 
     private long fileTime;
 
-    private List cloneClassesList;
-    private List cloneInstanceList;
+    private List<CloneClass> cloneClassesList;
 
     public CloneTreeSaverVisitor(SensorContext sensorContext, VisitorHelper visitorHelper) {
         super(visitorHelper);
@@ -64,7 +66,6 @@ public abstract class CloneTreeSaverVisitor extends BaseVisitor {
         this.sensorContext = sensorContext;
 
         cloneClassesList = new ArrayList<CloneClass>();
-        cloneInstanceList = new ArrayList<CloneInstance>();
     }
 
     /**
@@ -82,55 +83,49 @@ public abstract class CloneTreeSaverVisitor extends BaseVisitor {
         long startTime = System.currentTimeMillis();
         String name = null;
 
-        if (node.getType().equals(new Node.NodeType("CloneClass"))) {
+        if (node.getType() == GraphSymbols.NODE_CLONE_CLASS) {
 
             CloneClassMetrics cloneClassMetrics = new CloneClassMetrics();
-            cloneInstanceList.clear();
 
             List<Attribute> attributeList = node.getAttributes();
             ListIterator<Attribute> it = attributeList.listIterator();
 
             while (it.hasNext()) {
                 Attribute tempCloneClassAtt = it.next();
-                if ("Name".equals(tempCloneClassAtt.getName())) {
+                if (GraphSymbols.is(tempCloneClassAtt.getName(), GraphSymbols.NAME)) {
                     name = ((AttributeString)tempCloneClassAtt).getValue();
-                } else if ("metric".equals(tempCloneClassAtt.getContext())) {
+                } else if (GraphSymbols.is(tempCloneClassAtt.getContext(), GraphSymbols.CONTEXT_METRIC)) {
                     readMetrics(tempCloneClassAtt, cloneClassMetrics);
                 }
             }
-                cloneClassesList.add(new CloneClass(name, cloneClassMetrics));
-        } else if (node.getType().equals(new Node.NodeType("CloneInstance"))) {
+            cloneClassesList.add(new CloneClass(name, cloneClassMetrics));
+        } else if (node.getType() == GraphSymbols.NODE_CLONE_INSTANCE) {
 
             CloneInstanceMetrics cloneInstanceMetrics = new CloneInstanceMetrics();
 
-            List positionsList = new ArrayList<Position>();
+            List<Position> positionsList = new ArrayList<Position>();
             List<Attribute> attributeList = node.getAttributes();
             ListIterator<Attribute> it = attributeList.listIterator();
 
             while (it.hasNext()){
                 Attribute tempCloneInstanceAtt = it.next();
-                if ("Name".equals(tempCloneInstanceAtt.getName())) {
+                if (GraphSymbols.is(tempCloneInstanceAtt.getName(), GraphSymbols.NAME)) {
                     name = ((AttributeString)tempCloneInstanceAtt).getValue();
-                } else if ("Position".equals(tempCloneInstanceAtt.getName())) {
+                } else if (GraphSymbols.is(tempCloneInstanceAtt.getName(), GraphSymbols.POSITION)) {
                     readPosition(tempCloneInstanceAtt, positionsList);
-                } else if ("metric".equals(tempCloneInstanceAtt.getContext())) {
+                } else if (GraphSymbols.is(tempCloneInstanceAtt.getContext(), GraphSymbols.CONTEXT_METRIC)) {
                     readMetrics(tempCloneInstanceAtt, cloneInstanceMetrics);
                 }
             }
 
-            cloneInstanceList.add(new CloneInstance(name, positionsList, cloneInstanceMetrics));
-
             /*
-            * The cloneClassesList contains the CloneClasses
-            * preNodeVisitorFunc use depth traversal, that means that each '[num]~CloneClass' typed node will followed by
-            * his children '[num]~CloneInstance' nodes. This line gets the last element of the list and sets his children '[num]~CloneInstance'
-            * each time if the current node type is '[num]~CloneInstance'.
-            * cloneInstancesList is cleared (Line:92) each time when the current node type is '[num]~CloneClass'. Reason:
-            * When we get '[num]~CloneClass' typed node, we can be assured, that we processed the previous '[num]~CloneClass' node's child '[num]~CloneInstance' node's,
-            * because of the depth traversal.
+            * preNodeVisitorFunc uses depth traversal, that means that each '[num]~CloneClass' typed node is followed by
+            * its children '[num]~CloneInstance' nodes, so the instance belongs to the last element of the cloneClassesList.
             */
-            ((CloneClass)cloneClassesList.get(cloneClassesList.size() - 1)).setInstances(cloneInstanceList);
-
+            if (!cloneClassesList.isEmpty()) {
+                cloneClassesList.get(cloneClassesList.size() - 1)
+                        .addInstance(new CloneInstance(name, positionsList, cloneInstanceMetrics));
+            }
         }
         this.fileTime += (System.currentTimeMillis() - startTime);
     }
@@ -141,10 +136,16 @@ public abstract class CloneTreeSaverVisitor extends BaseVisitor {
      * @param metric Target metric.
      */
     public void saveCloneTreeToDatabase(Metric metric) {
-        Gson gson = new Gson();
+        JsonBuffer jsonBuffer = new JsonBuffer();
+        try {
+            JsonWriter writer = jsonBuffer.newDocument();
+            CloneClass.writeJson(writer, cloneClassesList);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error during writing clone tree in JSON format!", e);
+        }
 
-        FileHelper.saveGraphToDataBase(this.sensorContext,
-                    gson.toJson(new CloneClass.CloneClasses(cloneClassesList)), metric);
+        FileHelper.saveGraphToDataBase(this.sensorContext, getUploadContext(), jsonBuffer.toString(), metric);
     }
 
     /**
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.visitor;
+
+import graphlib.Edge;
+import graphlib.Node;
+import graphlib.VisitorException;
+
+/**
+ * Visitor class for running several visitor stages in a single depth-first
+ * traversal of the result graph. Every stage receives the same callbacks in
+ * the order it was given, and the time spent in each stage is measured.
+ */
+public class CompositeVisitor implements graphlib.Visitor {
+
+    private final BaseVisitor[] stages;
+    private final long[] stageTimes;
+
+    public CompositeVisitor(BaseVisitor... stages) {
+        this.stages = stages;
+        this.stageTimes = new long[stages.length];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void edgeVisitorFunc(Edge e) throws VisitorException {
+        for (int i = 0; i < stages.length; i++) {
+            long startTime = System.nanoTime();
+            stages[i].edgeVisitorFunc(e);
+            stageTimes[i] += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void preNodeVisitorFunc(Node node) throws VisitorException {
+        for (int i = 0; i < stages.length; i++) {
+            long startTime = System.nanoTime();
+            stages[i].preNodeVisitorFunc(node);
+            stageTimes[i] += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void postNodeVisitorFunc(Node node) throws VisitorException {
+        for (int i = 0; i < stages.length; i++) {
+            long startTime = System.nanoTime();
+            stages[i].postNodeVisitorFunc(node);
+            stageTimes[i] += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Returns the number of stages run by this visitor.
+     *
+     * @return Number of stages.
+     */
+    public int getNumberOfStages() {
+        return stages.length;
+    }
+
+    /**
+     * Returns the time spent in the given stage during the traversal.
+     *
+     * @param index Index of the stage, in the order the stages were given.
+     * @return Execution time of the stage in milliseconds.
+     */
+    public long getStageTime(int index) {
+        return stageTimes[index] / 1000000L;
+    }
+}
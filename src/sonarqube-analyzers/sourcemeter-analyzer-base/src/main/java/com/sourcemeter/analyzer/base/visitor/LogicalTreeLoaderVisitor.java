@@ -41,6 +41,8 @@ import org.sonar.api.resources.AbstractLanguage;
 
 import graphlib.Node;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 
 /**
@@ -58,7 +60,7 @@ public abstract class LogicalTreeLoaderVisitor extends BaseVisitor {
     protected static final Logger LOG = LoggerFactory.getLogger(LogicalTreeLoaderVisitor.class);
 
     public LogicalTreeLoaderVisitor(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes,
+            SensorContext sensorContext, GraphStatistics graphStatistics,
             VisitorHelper visitorHelper, AbstractLanguage language) {
         super(visitorHelper, configuration, language);
 
@@ -75,7 +77,12 @@ public abstract class LogicalTreeLoaderVisitor extends BaseVisitor {
         this.sensorContext = sensorContext;
         this.configuration = configuration;
 
-        this.numOfNodes = numOfNodes;
+        // Totals are only needed for the progress bar, avoid computing them otherwise.
+        if (this.isDebugMode) {
+            this.numOfNodes = graphStatistics.getNumberOfTreeNodes("LogicalTree");
+        } else {
+            this.numOfNodes = 0;
+        }
 
         FilePredicate mainFilePredicate = fileSystem.predicates().hasType(InputFile.Type.MAIN);
 
@@ -114,7 +121,7 @@ public abstract class LogicalTreeLoaderVisitor extends BaseVisitor {
         }
 
         long startTime = System.currentTimeMillis();
-        if ("Method".equals(node.getType().getType()) && !super.uploadMethods) {
+        if (node.getType() == GraphSymbols.NODE_METHOD && !super.uploadMethods) {
             return;
         }
         uploadWarnings(node);
@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2014-2020, FrontEndART Software Ltd.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgement:
+ *    This product includes software developed by FrontEndART Software Ltd.
+ * 4. Neither the name of FrontEndART Software Ltd. nor the
+ *    names of its contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY FrontEndART Software Ltd. ''AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL FrontEndART Software Ltd. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sourcemeter.analyzer.base.visitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.measures.Metric;
+
+import graphlib.Edge;
+import graphlib.Edge.EdgeType;
+import graphlib.Edge.EdgeTypeSet;
+import graphlib.GraphlibException;
+import graphlib.Node;
+import graphlib.VisitorException;
+
+import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.jsontree.logical.LevelStore;
+
+/**
+ * Class for processing the logical tree of the result graph with a loader and
+ * a saver visitor. By default the tree is processed in a single depth-first
+ * traversal. If parallel upload is turned on, the tree is split at the nodes
+ * of the first logical level and the subtrees are processed on a fork-join
+ * pool. The collected logical levels are merged back in depth-first order,
+ * so the saved logical tree is the same in both modes.
+ */
+public class LogicalTreeProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogicalTreeProcessor.class);
+    private static final String LOGICAL_TREE = "LogicalTree";
+    private static final int LEVEL_COUNT = 3;
+
+    /**
+     * Factory of the language specific visitors of the logical tree. In
+     * parallel mode every thread of the pool gets its own visitors.
+     */
+    public interface VisitorFactory {
+
+        /**
+         * Creates a new loader visitor of the logical tree.
+         *
+         * @return Loader visitor.
+         */
+        LogicalTreeLoaderVisitor createLoader();
+
+        /**
+         * Creates a new saver visitor of the logical tree.
+         *
+         * @return Saver visitor.
+         */
+        LogicalTreeSaverVisitor createSaver();
+    }
+
+    private final VisitorFactory visitorFactory;
+    private final GraphStatistics graphStatistics;
+    private final boolean parallel;
+    private final int parallelism;
+
+    private LogicalTreeSaverVisitor resultSaver;
+    private long loaderTime;
+    private long saverTime;
+
+    public LogicalTreeProcessor(Configuration configuration, GraphStatistics graphStatistics,
+            VisitorFactory visitorFactory) {
+        this.visitorFactory = visitorFactory;
+        this.graphStatistics = graphStatistics;
+        this.parallel = "true".equals(FileHelper.getStringFromConfiguration(configuration, "sm.parallelUpload"));
+
+        int threads = 0;
+        String threadsValue = FileHelper.getStringFromConfiguration(configuration, "sm.parallelUploadThreads");
+        if (threadsValue != null) {
+            try {
+                threads = Integer.parseInt(threadsValue.trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("ERROR: 'sm.parallelUploadThreads' must be an integer!", e);
+            }
+        }
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.parallelism = threads;
+    }
+
+    /**
+     * Processes the logical tree of the result graph.
+     *
+     * @param graph Reader of the result graph to be processed.
+     * @param root Root of the logical tree.
+     * @throws GraphlibException
+     * @throws VisitorException
+     */
+    public void process(GraphReader graph, String root) throws GraphlibException, VisitorException {
+        if (!this.parallel) {
+            LogicalTreeLoaderVisitor loader = this.visitorFactory.createLoader();
+            this.resultSaver = this.visitorFactory.createSaver();
+            this.resultSaver.reserveLevelStores(this.graphStatistics);
+
+            GraphHelper.processGraphStages(graph, root, LOGICAL_TREE, loader, this.resultSaver);
+
+            this.loaderTime = loader.getLogicalTime();
+            this.saverTime = this.resultSaver.getLogicalTime();
+            return;
+        }
+
+        this.resultSaver = this.visitorFactory.createSaver();
+
+        Node rootNode = graph.findNode(root);
+        if (rootNode == null) {
+            LOG.warn("TreeRoot [" + root + "] not found!");
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        ParallelTraversal traversal = new ParallelTraversal(graph);
+        ParallelTraversal.SubtreeTask rootTask = traversal.new SubtreeTask(rootNode, new int[LEVEL_COUNT]);
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(rootTask);
+        } catch (RuntimeException e) {
+            Exception failure = traversal.failure.get();
+            if (failure instanceof GraphlibException) {
+                throw (GraphlibException) failure;
+            } else if (failure instanceof VisitorException) {
+                throw (VisitorException) failure;
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+
+        LevelStore[] levelStores = this.resultSaver.newLevelStores();
+        int[] levelSizes = new int[LEVEL_COUNT];
+        rootTask.countEntries(levelSizes);
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            levelStores[level].ensureCapacity(levelSizes[level]);
+        }
+        rootTask.mergeInto(levelStores);
+        this.resultSaver.setLevelStores(levelStores);
+
+        for (Worker worker : traversal.workers) {
+            this.loaderTime += worker.loader.getLogicalTime();
+            this.saverTime += worker.saver.getLogicalTime();
+        }
+
+        LOG.debug("        " + LOGICAL_TREE + " processed on " + traversal.workers.size() + " of "
+                + this.parallelism + " threads: " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Saving the logical trees in JSON format in the specified metrics.
+     *
+     * @param metricLvl1 Metrics for the first logical level.
+     * @param metricLvl2 Metrics for the second logical level.
+     * @param metricLvl3Index Metric for the index of the third logical level.
+     * @param metricLvl3Shards Metrics for the shards of the third logical level.
+     */
+    public void saveLogicalTreeToDatabase(Metric metricLvl1, Metric metricLvl2,
+            Metric metricLvl3Index, List<Metric> metricLvl3Shards) {
+        if (this.resultSaver != null) {
+            this.resultSaver.saveLogicalTreeToDatabase(metricLvl1, metricLvl2, metricLvl3Index, metricLvl3Shards);
+        }
+    }
+
+    /**
+     * Returns the time of processing the logical tree, summed up for all
+     * threads in parallel mode.
+     *
+     * @return Execution time.
+     */
+    public long getLoaderTime() {
+        return this.loaderTime;
+    }
+
+    /**
+     * Returns the time of saving the logical tree in JSON format, summed up
+     * for all threads in parallel mode.
+     *
+     * @return Execution time.
+     */
+    public long getSaverTime() {
+        return this.saverTime;
+    }
+
+    /**
+     * Visitors used by one thread of the pool.
+     */
+    private static class Worker {
+        private final LogicalTreeLoaderVisitor loader;
+        private final LogicalTreeSaverVisitor saver;
+
+        Worker(LogicalTreeLoaderVisitor loader, LogicalTreeSaverVisitor saver) {
+            this.loader = loader;
+            this.saver = saver;
+        }
+    }
+
+    /**
+     * State shared by the tasks of one parallel traversal.
+     */
+    private class ParallelTraversal {
+        private final GraphReader graph;
+        private final EdgeTypeSet treeEdges = new EdgeTypeSet();
+        private final List<Worker> workers = Collections.synchronizedList(new ArrayList<Worker>());
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        private final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                Worker newWorker;
+                synchronized (visitorFactory) {
+                    newWorker = new Worker(visitorFactory.createLoader(), visitorFactory.createSaver());
+                }
+                workers.add(newWorker);
+                return newWorker;
+            }
+        };
+
+        ParallelTraversal(GraphReader graph) {
+            this.graph = graph;
+            this.treeEdges.add(new EdgeType(LOGICAL_TREE, Edge.eDirectionType.edtDirectional));
+        }
+
+        /**
+         * Task processing a subtree of the logical tree. Subtrees of the first
+         * logical level nodes found below the root are forked as new tasks.
+         * The entries collected by the task are kept in its own level stores,
+         * the position of the forked subtrees in them is recorded for merging.
+         */
+        private class SubtreeTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Node root;
+            private final int[] offsets;
+
+            private LevelStore[] levelStores;
+            private final List<SubtreeTask> subtasks = new ArrayList<SubtreeTask>();
+
+            SubtreeTask(Node root, int[] offsets) {
+                this.root = root;
+                this.offsets = offsets;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected void compute() {
+                Worker current = worker.get();
+                this.levelStores = current.saver.newLevelStores();
+                current.saver.setLevelStores(this.levelStores);
+                try {
+                    visit(current, this.root);
+                } catch (GraphlibException e) {
+                    failure.compareAndSet(null, e);
+                    throw new IllegalStateException(e);
+                } catch (VisitorException e) {
+                    failure.compareAndSet(null, e);
+                    throw new IllegalStateException(e);
+                }
+
+                // Joining is left to the end, so other tasks run on this thread
+                // only after the own subtree has been visited.
+                for (SubtreeTask subtask : this.subtasks) {
+                    subtask.join();
+                }
+            }
+
+            /**
+             * Visits the given node and its subtree the same way as
+             * GraphReader.traverseDepthFirst does.
+             *
+             * @param current Visitors of the current thread.
+             * @param node Node of the result graph.
+             * @throws GraphlibException
+             * @throws VisitorException
+             */
+            private void visit(Worker current, Node node) throws GraphlibException, VisitorException {
+                current.loader.preNodeVisitorFunc(node);
+                current.saver.preNodeVisitorFunc(node);
+
+                for (Edge edge : node.getOutEdges()) {
+                    if (!treeEdges.contains(edge.getType())) {
+                        continue;
+                    }
+                    current.loader.edgeVisitorFunc(edge);
+                    current.saver.edgeVisitorFunc(edge);
+
+                    Node child = graph.getTargetNode(edge);
+                    if (current.saver.isLevelOneType(child.getType())) {
+                        int[] childOffsets = new int[LEVEL_COUNT];
+                        for (int level = 0; level < LEVEL_COUNT; level++) {
+                            childOffsets[level] = this.levelStores[level].size();
+                        }
+                        SubtreeTask subtask = new SubtreeTask(child, childOffsets);
+                        this.subtasks.add(subtask);
+                        subtask.fork();
+                    } else {
+                        visit(current, child);
+                    }
+                }
+
+                current.loader.postNodeVisitorFunc(node);
+                current.saver.postNodeVisitorFunc(node);
+            }
+
+            /**
+             * Adds the number of entries collected in this subtree to the
+             * given sizes.
+             *
+             * @param sizes Number of entries of the three logical levels.
+             */
+            void countEntries(int[] sizes) {
+                for (int level = 0; level < LEVEL_COUNT; level++) {
+                    sizes[level] += this.levelStores[level].size();
+                }
+                for (SubtreeTask subtask : this.subtasks) {
+                    subtask.countEntries(sizes);
+                }
+            }
+
+            /**
+             * Appends the entries of this subtree to the given stores in
+             * depth-first order.
+             *
+             * @param target Stores of the three logical levels.
+             */
+            void mergeInto(LevelStore[] target) {
+                int[] indexes = new int[LEVEL_COUNT];
+                // New index of the first level entries of the task, the owners of the other levels.
+                int[] levelOneMap = new int[this.levelStores[0].size()];
+
+                for (SubtreeTask subtask : this.subtasks) {
+                    appendRanges(target, indexes, subtask.offsets, levelOneMap);
+                    subtask.mergeInto(target);
+                }
+
+                int[] ends = new int[LEVEL_COUNT];
+                for (int level = 0; level < LEVEL_COUNT; level++) {
+                    ends[level] = this.levelStores[level].size();
+                }
+                appendRanges(target, indexes, ends, levelOneMap);
+            }
+
+            /**
+             * Appends the entries of the task between the given indexes to
+             * the given stores. The first level is appended first, so the
+             * owners of the other levels can be mapped to the merged store.
+             *
+             * @param target Stores of the three logical levels.
+             * @param indexes Start of the ranges, moved to their end.
+             * @param ends End of the ranges.
+             * @param levelOneMap New index of the first level entries.
+             */
+            private void appendRanges(LevelStore[] target, int[] indexes, int[] ends, int[] levelOneMap) {
+                int base = target[0].size();
+                for (int entry = indexes[0]; entry < ends[0]; entry++) {
+                    levelOneMap[entry] = base + entry - indexes[0];
+                }
+                for (int level = 0; level < LEVEL_COUNT; level++) {
+                    target[level].appendRange(this.levelStores[level], indexes[level], ends[level], levelOneMap);
+                    indexes[level] = ends[level];
+                }
+            }
+        }
+    }
+}
@@ -30,9 +30,15 @@
 
 package com.sourcemeter.analyzer.base.visitor;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.measures.Metric;
@@ -43,33 +49,46 @@ import graphlib.AttributeString;
 import graphlib.Node;
 import graphlib.VisitorException;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
+import com.sourcemeter.analyzer.base.jsontree.JsonBuffer;
 import com.sourcemeter.analyzer.base.jsontree.Position;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
-import com.sourcemeter.analyzer.base.jsontree.logical.Level;
-import com.sourcemeter.analyzer.base.jsontree.logical.LevelMetrics;
-import com.sourcemeter.analyzer.base.jsontree.logical.LevelOne;
-import com.sourcemeter.analyzer.base.jsontree.logical.Levels;
+import com.sourcemeter.analyzer.base.jsontree.logical.LevelStore;
 import com.sourcemeter.analyzer.base.jsontree.logical.metrics.base.LevelOneMetrics;
 
 public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
 
+    private static final int NO_LEVEL = 0;
+    private static final int LEVEL_ONE = 1;
+    private static final int LEVEL_TWO = 2;
+    private static final int LEVEL_THREE = 3;
+
     protected boolean extendedMetrics;
 
     private long logicalTime;
     private String name;
-    private List positionsList;
+    private List<Position> positionsList;
+
+    private LevelStore levelOneStore;
+    private LevelStore levelTwoStore;
+    private LevelStore levelThreeStore;
 
-    private List levelOneList;
-    private List levelTwoList;
-    private List levelThreeList;
+    // First level entries containing the visited node, the innermost is on the top.
+    private Node[] levelOneNodes = new Node[8];
+    private int[] levelOneEntries = new int[8];
+    private int levelOneDepth;
 
     private List<Node.NodeType> levelOneTypes;
     private List<Node.NodeType> levelTwoTypes;
     private List<Node.NodeType> levelThreeTypes;
 
+    // Logical level of the node types, keyed by the shared node types of GraphSymbols.
+    private final Map<Node.NodeType, Integer> levelsOfTypes = new IdentityHashMap<Node.NodeType, Integer>();
+
     public LogicalTreeSaverVisitor(List<Node.NodeType> levelOneTypes,
             List<Node.NodeType> levelTwoTypes,
             List<Node.NodeType> levelThreeTypes,
@@ -79,13 +98,42 @@ public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
         this.sensorContext = sensorContext;
         positionsList = new ArrayList<Position>();
 
-        levelOneList = new ArrayList<LevelOne>();
-        levelTwoList = new ArrayList<Level>();
-        levelThreeList = new ArrayList<Level>();
-
         this.levelOneTypes = levelOneTypes;
         this.levelTwoTypes = levelTwoTypes;
         this.levelThreeTypes = levelThreeTypes;
+
+        LevelStore[] levelStores = newLevelStores();
+        levelOneStore = levelStores[0];
+        levelTwoStore = levelStores[1];
+        levelThreeStore = levelStores[2];
+
+        addLevelOfTypes(levelThreeTypes, LEVEL_THREE);
+        addLevelOfTypes(levelTwoTypes, LEVEL_TWO);
+        addLevelOfTypes(levelOneTypes, LEVEL_ONE);
+    }
+
+    /**
+     * Registers the logical level of the given node types. A type listed on
+     * several levels gets the lowest level number.
+     *
+     * @param nodeTypes Node types of the level.
+     * @param level The logical level.
+     */
+    private void addLevelOfTypes(List<Node.NodeType> nodeTypes, int level) {
+        for (Node.NodeType nodeType : nodeTypes) {
+            levelsOfTypes.put(GraphSymbols.nodeType(nodeType.getType()), level);
+        }
+    }
+
+    /**
+     * Returns the logical level of the given node type.
+     *
+     * @param nodeType Type of a node decoded by the graph reader.
+     * @return The logical level or NO_LEVEL if the nodes of the type are not saved.
+     */
+    private int getLevel(Node.NodeType nodeType) {
+        Integer level = levelsOfTypes.get(nodeType);
+        return level == null ? NO_LEVEL : level;
     }
 
     /**
@@ -93,7 +141,9 @@ public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
      */
     @Override
     public void postNodeVisitorFunc(Node node) throws VisitorException {
-
+        if (levelOneDepth > 0 && levelOneNodes[levelOneDepth - 1] == node) {
+            levelOneNodes[--levelOneDepth] = null;
+        }
     }
 
     /**
@@ -109,11 +159,22 @@ public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
     public void preNodeVisitorFunc(Node node, MetricsInt levelOneMetrics,
             MetricsInt levelTwoMetrics, MetricsInt levelThreeMetrics) throws VisitorException {
         long startTime = System.currentTimeMillis();
-        Levels levels = new Levels(new LevelOne(), new Level(), new Level());
+        int level = getLevel(node.getType());
 
-        if (levelOneTypes.contains(node.getType())
-            || levelTwoTypes.contains(node.getType())
-            || levelThreeTypes.contains(node.getType())) {
+        // The third level is not saved at all without uploadMethods.
+        if (level != NO_LEVEL && (level != LEVEL_THREE || super.uploadMethods)) {
+            MetricsInt metrics;
+            LevelStore levelStore;
+            if (level == LEVEL_ONE) {
+                metrics = levelOneMetrics;
+                levelStore = levelOneStore;
+            } else if (level == LEVEL_TWO) {
+                metrics = levelTwoMetrics;
+                levelStore = levelTwoStore;
+            } else {
+                metrics = levelThreeMetrics;
+                levelStore = levelThreeStore;
+            }
 
             name = null;
             positionsList.clear();
@@ -123,49 +184,25 @@ public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
 
             while (it.hasNext()) {
                 Attribute temp = it.next();
-                if ("Name".equals(temp.getName())) {
+                String attributeName = temp.getName();
+                if (GraphSymbols.is(attributeName, GraphSymbols.NAME)) {
                     name = ((AttributeString) temp).getValue();
-                } else if ("Position".equals(temp.getName()) && !levelOneTypes.contains(node.getType())) {
+                } else if (GraphSymbols.is(attributeName, GraphSymbols.POSITION) && level != LEVEL_ONE) {
                     readPosition(temp, positionsList);
-                } else if ("metric".equals(temp.getContext()) && levelOneTypes.contains(node.getType())) {
-                    readMetrics(temp, levelOneMetrics);
-                } else if ("metric".equals(temp.getContext()) && (levelTwoTypes.contains(node.getType()))) {
-                    readMetrics(temp, levelTwoMetrics);
-                } else if ("metric".equals(temp.getContext()) && (levelThreeTypes.contains(node.getType()))) {
-                    readMetrics(temp, levelThreeMetrics);
+                } else if (GraphSymbols.is(temp.getContext(), GraphSymbols.CONTEXT_METRIC)) {
+                    readMetrics(temp, metrics);
                 }
             }
-            LevelMetrics levelMetrics = new LevelMetrics(levelOneMetrics, levelTwoMetrics, levelThreeMetrics);
-            uploadList(node.getType(), levels, levelMetrics);
+            if (level == LEVEL_ONE) {
+                levelStore.add(name, positionsList, metrics, LevelStore.NO_OWNER);
+                pushLevelOne(node, levelStore.size() - 1);
+            } else {
+                levelStore.add(name, positionsList, metrics, getOwner());
+            }
         }
         this.logicalTime += (System.currentTimeMillis() - startTime);
     }
 
-    /**
-     * Sets the logical level name and uploads the metrics.
-     *
-     * @param nodeType Type of the node.
-     * @param levels Container of the three level.
-     * @param levelMetrics Metrics of the actual level.
-     */
-    private void uploadList(Node.NodeType nodeType, Levels levels, LevelMetrics levelMetrics) {
-        if (levelOneTypes.contains(nodeType)) {
-            levels.getLevelOne().setName(name);
-            levels.getLevelOne().setMetrics(levelMetrics.getLevelOneMetrics());
-            levelOneList.add(levels.getLevelOne());
-        } else if (levelTwoTypes.contains(nodeType)) {
-            levels.getLevelTwo().setName(name);
-            levels.getLevelTwo().setPositions(positionsList);
-            levels.getLevelTwo().setMetrics(levelMetrics.getLevelTwoMetrics());
-            levelTwoList.add(levels.getLevelTwo());
-        } else if (levelThreeTypes.contains(nodeType)) {
-            levels.getLevelThree().setName(name);
-            levels.getLevelThree().setPositions(positionsList);
-            levels.getLevelThree().setMetrics(levelMetrics.getLevelThreeMetrics());
-            levelThreeList.add(levels.getLevelThree());
-        }
-    }
-
     /**
      * Extended version of preNodeVisitorFunc which saves less
      * metrics' values for the three logical level.
@@ -181,23 +218,268 @@ public abstract class LogicalTreeSaverVisitor extends BaseVisitor {
     }
 
     /**
-     * Saving the logical trees in JSON format in the specified metrics.
+     * Pushes a first level entry on the stack of the containing entries.
+     *
+     * @param node Node of the entry.
+     * @param entry Index of the entry in the first level store.
+     */
+    private void pushLevelOne(Node node, int entry) {
+        if (levelOneDepth == levelOneNodes.length) {
+            levelOneNodes = Arrays.copyOf(levelOneNodes, levelOneDepth * 2);
+            levelOneEntries = Arrays.copyOf(levelOneEntries, levelOneDepth * 2);
+        }
+        levelOneNodes[levelOneDepth] = node;
+        levelOneEntries[levelOneDepth] = entry;
+        levelOneDepth++;
+    }
+
+    /**
+     * Returns the innermost first level entry containing the visited node.
+     *
+     * @return Index of the entry in the first level store or NO_OWNER.
+     */
+    private int getOwner() {
+        return levelOneDepth == 0 ? LevelStore.NO_OWNER : levelOneEntries[levelOneDepth - 1];
+    }
+
+    /**
+     * Saving the logical trees in JSON format in the specified metrics. The
+     * third level is split into shards by its first level owners (ex.: the
+     * methods of a package are in the same shard), so the dashboard can load
+     * the methods of the selected packages only. The shards are described by
+     * the index metric.
      *
      * @param metricLvl1 Metrics for the first logical level.
      * @param metricLvl2 Metrics for the second logical level.
-     * @param metricLvl3 Metrics for the third logical level.
+     * @param metricLvl3Index Metric for the index of the third logical level.
+     * @param metricLvl3Shards Metrics for the shards of the third logical level.
      */
-    public void saveLogicalTreeToDatabase(Metric metricLvl1, Metric metricLvl2, Metric metricLvl3) {
-        Gson gson = new Gson();
+    public void saveLogicalTreeToDatabase(Metric metricLvl1, Metric metricLvl2,
+            Metric metricLvl3Index, List<Metric> metricLvl3Shards) {
+        // One buffer is used for all the levels, it grows only to the size of the largest one.
+        JsonBuffer jsonBuffer = new JsonBuffer();
 
         FileHelper.saveGraphToDataBase(this.sensorContext,
-                    gson.toJson(new LevelOne.LevelOneContainer(levelOneList, levelOneTypes)), metricLvl1);
+                getUploadContext(), toJson(levelOneStore, jsonBuffer), metricLvl1);
         FileHelper.saveGraphToDataBase(this.sensorContext,
-                    gson.toJson(new Level.LevelContainer(levelTwoList, levelTwoTypes)), metricLvl2);
+                getUploadContext(), toJson(levelTwoStore, jsonBuffer), metricLvl2);
         if (super.uploadMethods) {
-            FileHelper.saveGraphToDataBase(this.sensorContext,
-                    gson.toJson(new Level.LevelContainer(levelThreeList, levelThreeTypes)), metricLvl3);
+            saveLevelThreeShards(metricLvl3Index, metricLvl3Shards, jsonBuffer);
+        }
+    }
+
+    /**
+     * Saves the third logical level into shards. The entries of a first level
+     * owner are never split, the owners are assigned to the least loaded
+     * shard in descending order of their entry count. The entries keep their
+     * depth-first order inside the shards.
+     *
+     * @param indexMetric Metric for the index of the shards.
+     * @param shardMetrics Metrics for the shards.
+     * @param jsonBuffer Buffer of the JSON output.
+     */
+    private void saveLevelThreeShards(Metric indexMetric, List<Metric> shardMetrics, JsonBuffer jsonBuffer) {
+        int shardCount = shardMetrics.size();
+        if (shardCount == 0) {
+            throw new IllegalArgumentException("No shard metrics are given for the third logical level!");
+        }
+
+        // Groups are the first level owners shifted by one, group 0 collects the entries without owner.
+        int entryCount = levelThreeStore.size();
+        final int[] groupSizes = new int[levelOneStore.size() + 1];
+        for (int entry = 0; entry < entryCount; entry++) {
+            groupSizes[levelThreeStore.getOwner(entry) + 1]++;
+        }
+
+        List<Integer> groups = new ArrayList<Integer>();
+        for (int group = 0; group < groupSizes.length; group++) {
+            if (groupSizes[group] > 0) {
+                groups.add(group);
+            }
+        }
+        Collections.sort(groups, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                return Integer.compare(groupSizes[right], groupSizes[left]);
+            }
+        });
+
+        int[] groupShards = new int[groupSizes.length];
+        int[] shardSizes = new int[shardCount];
+        List<List<Integer>> shardGroups = new ArrayList<List<Integer>>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardGroups.add(new ArrayList<Integer>());
+        }
+        for (int group : groups) {
+            int shard = 0;
+            for (int candidate = 1; candidate < shardCount; candidate++) {
+                if (shardSizes[candidate] < shardSizes[shard]) {
+                    shard = candidate;
+                }
+            }
+            groupShards[group] = shard;
+            shardSizes[shard] += groupSizes[group];
+            shardGroups.get(shard).add(group);
+        }
+
+        int[][] shardEntries = new int[shardCount][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardEntries[shard] = new int[shardSizes[shard]];
+        }
+        int[] shardFill = new int[shardCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            int shard = groupShards[levelThreeStore.getOwner(entry) + 1];
+            shardEntries[shard][shardFill[shard]++] = entry;
+        }
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (shardSizes[shard] > 0) {
+                FileHelper.saveGraphToDataBase(this.sensorContext, getUploadContext(),
+                        toJson(levelThreeStore, shardEntries[shard], shardSizes[shard], jsonBuffer),
+                        shardMetrics.get(shard));
+            }
+        }
+
+        try {
+            JsonWriter writer = jsonBuffer.newDocument();
+            writer.beginObject();
+            writer.name("levelTypes");
+            levelThreeStore.writeLevelTypes(writer);
+            writer.name("size").value(entryCount);
+            writer.name("shards");
+            writer.beginArray();
+            for (int shard = 0; shard < shardCount; shard++) {
+                if (shardSizes[shard] == 0) {
+                    continue;
+                }
+                writer.beginObject();
+                writer.name("metric").value(shardMetrics.get(shard).getKey());
+                writer.name("size").value(shardSizes[shard]);
+                writer.name("entities");
+                writer.beginArray();
+                for (int group : shardGroups.get(shard)) {
+                    writer.beginObject();
+                    if (group > 0 && levelOneStore.getName(group - 1) != null) {
+                        writer.name("name").value(levelOneStore.getName(group - 1));
+                    }
+                    writer.name("size").value(groupSizes[group]);
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error during writing logical tree in JSON format!", e);
+        }
+        FileHelper.saveGraphToDataBase(this.sensorContext, getUploadContext(), jsonBuffer.toString(), indexMetric);
+    }
+
+    /**
+     * Streams the entries of a logical level into the buffer in JSON format.
+     *
+     * @param levelStore Entries of the logical level.
+     * @param jsonBuffer Buffer of the JSON output.
+     * @return The logical level in JSON format.
+     */
+    private static String toJson(LevelStore levelStore, JsonBuffer jsonBuffer) {
+        return toJson(levelStore, null, levelStore.size(), jsonBuffer);
+    }
+
+    /**
+     * Streams the given entries of a logical level into the buffer in JSON format.
+     *
+     * @param levelStore Entries of the logical level.
+     * @param entries Indexes of the entries in ascending order, or null for all entries.
+     * @param count Number of the entries to be written.
+     * @param jsonBuffer Buffer of the JSON output.
+     * @return The logical level in JSON format.
+     */
+    private static String toJson(LevelStore levelStore, int[] entries, int count, JsonBuffer jsonBuffer) {
+        try {
+            JsonWriter writer = jsonBuffer.newDocument();
+            levelStore.writeJson(writer, entries, count);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error during writing logical tree in JSON format!", e);
+        }
+        return jsonBuffer.toString();
+    }
+
+    /**
+     * Checks whether the given node type belongs to the first logical level.
+     *
+     * @param nodeType Type of a node decoded by the graph reader.
+     * @return True if the nodes of the type are first level entries.
+     */
+    boolean isLevelOneType(Node.NodeType nodeType) {
+        return getLevel(nodeType) == LEVEL_ONE;
+    }
+
+    /**
+     * Creates empty stores for the entries of the three logical levels.
+     *
+     * @return Stores of the first, second and third logical level.
+     */
+    LevelStore[] newLevelStores() {
+        return new LevelStore[] {
+            new LevelStore(levelOneTypes, false),
+            new LevelStore(levelTwoTypes, true),
+            new LevelStore(levelThreeTypes, true)
+        };
+    }
+
+    /**
+     * Returns the stores the entries of the three logical levels are collected in.
+     *
+     * @return Stores of the first, second and third logical level.
+     */
+    LevelStore[] getLevelStores() {
+        return new LevelStore[] {levelOneStore, levelTwoStore, levelThreeStore};
+    }
+
+    /**
+     * Replaces the stores the entries of the three logical levels are collected in.
+     *
+     * @param levelStores Stores of the first, second and third logical level.
+     */
+    void setLevelStores(LevelStore[] levelStores) {
+        this.levelOneStore = levelStores[0];
+        this.levelTwoStore = levelStores[1];
+        this.levelThreeStore = levelStores[2];
+        Arrays.fill(this.levelOneNodes, 0, this.levelOneDepth, null);
+        this.levelOneDepth = 0;
+    }
+
+    /**
+     * Sizes the level stores from the node counts of the result graph, so
+     * their columns do not have to grow during the traversal. Nothing is done
+     * if the statistics have not been computed yet, computing them would cost
+     * an extra pass over the graph.
+     *
+     * @param graphStatistics Statistics of the result graph.
+     */
+    void reserveLevelStores(GraphStatistics graphStatistics) {
+        if (graphStatistics == null || !graphStatistics.isComputed()) {
+            return;
+        }
+        levelOneStore.ensureCapacity(countNodes(graphStatistics, LEVEL_ONE));
+        levelTwoStore.ensureCapacity(countNodes(graphStatistics, LEVEL_TWO));
+        if (super.uploadMethods) {
+            levelThreeStore.ensureCapacity(countNodes(graphStatistics, LEVEL_THREE));
+        }
+    }
+
+    private int countNodes(GraphStatistics graphStatistics, int level) {
+        long count = 0;
+        for (Map.Entry<Node.NodeType, Integer> entry : levelsOfTypes.entrySet()) {
+            if (entry.getValue() == level) {
+                count += graphStatistics.getNumberOfNodes(entry.getKey().getType());
+            }
         }
+        return (int) Math.min(count, Integer.MAX_VALUE - 8);
     }
 
     /**
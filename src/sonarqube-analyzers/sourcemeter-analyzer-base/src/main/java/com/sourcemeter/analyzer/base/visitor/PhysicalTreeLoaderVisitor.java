@@ -38,6 +38,8 @@ import org.sonar.api.batch.sensor.SensorContext;
 import graphlib.Node;
 
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.GraphSymbols;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 
 /**
@@ -50,16 +52,19 @@ public abstract class PhysicalTreeLoaderVisitor extends BaseVisitor {
     private long numOfVisitedNodes;
     protected final long numOfNodes;
     private boolean emptyProject;
-    private final FileSystem fileSystem;
 
     public PhysicalTreeLoaderVisitor(FileSystem fileSystem,
-            SensorContext sensorContext, long numOfNodes,
+            SensorContext sensorContext, GraphStatistics graphStatistics,
             VisitorHelper visitorHelper) {
         super(visitorHelper);
         this.sensorContext = sensorContext;
-        this.fileSystem = fileSystem;
 
-        this.numOfNodes = numOfNodes;
+        // Totals are only needed for the progress bar, avoid computing them otherwise.
+        if (this.isDebugMode) {
+            this.numOfNodes = graphStatistics.getNumberOfTreeNodes("PhysicalTree");
+        } else {
+            this.numOfNodes = 0;
+        }
 
         FilePredicate mainFilePredicate = fileSystem.predicates().hasType(InputFile.Type.MAIN);
 
@@ -98,13 +103,11 @@ public abstract class PhysicalTreeLoaderVisitor extends BaseVisitor {
         }
 
         long startTime = System.currentTimeMillis();
-        String nodeLongName = GraphHelper.getNodeLongNameAttribute(node);
-
         InputFile file = null;
-        String nodeType = node.getType().getType();
 
-        if ("File".equals(nodeType)) {
-            file = fileSystem.inputFile(fileSystem.predicates().hasPath(nodeLongName));
+        if (node.getType() == GraphSymbols.NODE_FILE) {
+            String nodeLongName = GraphHelper.getNodeLongNameAttribute(node);
+            file = getInputFileCache().getInputFile(nodeLongName);
         } else {
             return;
         }
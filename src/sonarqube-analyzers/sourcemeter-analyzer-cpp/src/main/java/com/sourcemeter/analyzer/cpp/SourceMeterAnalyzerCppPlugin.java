@@ -30,12 +30,8 @@
 
 package com.sourcemeter.analyzer.cpp;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
@@ -43,8 +39,10 @@ import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.cpp.batch.SourceMeterCppSensor;
 import com.sourcemeter.analyzer.cpp.core.Cpp;
 import com.sourcemeter.analyzer.cpp.profile.SourceMeterCppProfile;
@@ -92,8 +90,6 @@ import com.sourcemeter.analyzer.cpp.profile.SourceMeterCppRuleRepository;
 })
 public class SourceMeterAnalyzerCppPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerCppPlugin.class);
-
     public static final String SOURCE_FILE_SUFFIXES_KEY = "sm.cpp.suffixes.sources";
     public static final String HEADER_FILE_SUFFIXES_KEY = "sm.cpp.suffixes.headers";
 
@@ -116,16 +112,14 @@ public class SourceMeterAnalyzerCppPlugin implements Plugin {
                 SourceMeterCppRuleRepository.class,
                 VersionChecker.class
         );
-        context.addExtension(
+        context.addExtensions(
                 // Batch
-                SourceMeterCppSensor.class
+                SourceMeterCppSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
 
         context.addExtensions(Arrays.asList(
                 PropertyDefinition.builder(SOURCE_FILE_SUFFIXES_KEY)
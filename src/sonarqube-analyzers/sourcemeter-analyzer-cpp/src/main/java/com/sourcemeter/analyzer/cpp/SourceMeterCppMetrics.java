@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.cpp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -71,6 +72,15 @@ public final class SourceMeterCppMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_CPP_LOGICAL_LEVEL3_INDEX_KEY = "SM_CPP_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_CPP_LOGICAL_LEVEL3_INDEX = new Builder(SM_CPP_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for C/C++ language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for C/C++ in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_CPP_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_CPP_LOGICAL_LEVEL3_KEY, "C/C++");
+
     public static final String SM_CPP_CLONE_TREE_KEY = "SM_CPP_CLONE_TREE";
     public static final Metric SM_CPP_CLONE_TREE = new Builder(SM_CPP_CLONE_TREE_KEY, "SourceMeter Clone Tree for C/C++ language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -85,7 +95,9 @@ public final class SourceMeterCppMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(CPP_LICENSE, SM_CPP_CLONE_TREE,
-                SM_CPP_LOGICAL_LEVEL1, SM_CPP_LOGICAL_LEVEL2, SM_CPP_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(CPP_LICENSE, SM_CPP_CLONE_TREE,
+                SM_CPP_LOGICAL_LEVEL1, SM_CPP_LOGICAL_LEVEL2, SM_CPP_LOGICAL_LEVEL3, SM_CPP_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_CPP_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 }
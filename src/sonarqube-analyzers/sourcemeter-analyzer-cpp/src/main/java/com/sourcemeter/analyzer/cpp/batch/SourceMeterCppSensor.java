@@ -32,14 +32,12 @@ package com.sourcemeter.analyzer.cpp.batch;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,10 +52,18 @@ import org.sonar.api.server.rule.RulesDefinitionXmlLoader;
 import com.sourcemeter.analyzer.base.batch.MetricHunterCategory;
 import com.sourcemeter.analyzer.base.batch.ProfileInitializer;
 import com.sourcemeter.analyzer.base.batch.SourceMeterSensor;
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
 import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
-import com.sourcemeter.analyzer.base.visitor.NodeCounterVisitor;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeProcessor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
+import com.sourcemeter.analyzer.cpp.SourceMeterCppMetricFinder;
 import com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics;
 import com.sourcemeter.analyzer.cpp.core.Cpp;
 import com.sourcemeter.analyzer.cpp.profile.SourceMeterCppRuleRepository;
@@ -66,17 +72,15 @@ import com.sourcemeter.analyzer.cpp.visitor.LogicalTreeLoaderVisitorCpp;
 import com.sourcemeter.analyzer.cpp.visitor.LogicalTreeSaverVisitorCpp;
 import com.sourcemeter.analyzer.cpp.visitor.PhysicalTreeLoaderVisitorCpp;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
-import graphlib.Node;
-import graphlib.Node.NodeType;
 import graphlib.VisitorException;
 import org.sonar.api.utils.System2;
 
 import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_CLONE_TREE;
 import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_LOGICAL_LEVEL1;
 import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_LOGICAL_LEVEL2;
-import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_LOGICAL_LEVEL3;
+import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_LOGICAL_LEVEL3_INDEX;
+import static com.sourcemeter.analyzer.cpp.SourceMeterCppMetrics.SM_CPP_LOGICAL_LEVEL3_SHARDS;
 
 public class SourceMeterCppSensor extends SourceMeterSensor {
 
@@ -86,14 +90,14 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
     private final FileSystem fileSystem;
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceMeterCppSensor.class);
-    private static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
     private static final String LOGICAL_ROOT = "__LogicalRoot__";
 
     public SourceMeterCppSensor(FileSystem fileSystem,
            InputProject inputProject, ActiveRules activeRules,
-           Configuration configuration, System2 system) {
+           Configuration configuration, System2 system,
+           ToolchainCoordinator coordinator) {
 
-        super(fileSystem, inputProject, activeRules, configuration, system);
+        super(fileSystem, inputProject, activeRules, configuration, system, coordinator, Cpp.KEY, "cpp");
 
         this.fileSystem = fileSystem;
     }
@@ -107,10 +111,7 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
         if (skipCpp) {
             LOG.info("SourceMeter toolchain is skipped for C/C++. Results will be uploaded from former results directory, if it exists.");
         } else {
-            if (!checkProperties(sensorContext)) {
-                throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
-            }
-            runSourceMeter(commands);
+            runToolchain(sensorContext);
         }
 
         this.projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
@@ -127,7 +128,8 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
         LOG.info("      Graph: " + resultGraph);
 
         try {
-            loadDataFromGraphBin(this.resultGraph, sensorContext.project(), sensorContext);
+            uploadResults(this.resultGraph, sensorContext.project(), sensorContext,
+                    Cpp.KEY, "cpp", skipCpp, MetricRegistry.of(SourceMeterCppMetricFinder.class));
         } catch (GraphlibException e) {
             LOG.error("Error during loading graph!", e);
         }
@@ -149,8 +151,9 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      */
-    private void saveLicense(Graph graph, SensorContext sensorContext) {
+    private void saveLicense(GraphReader graph, SensorContext sensorContext, UploadContext uploadContext) {
         Map<String, String> headerLicenseInformations = new HashMap<String, String>();
         headerLicenseInformations.put("ClangTidy2Graph", "ClangTidy");
         headerLicenseInformations.put("MetricHunter", "MetricHunter");
@@ -158,7 +161,8 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
         headerLicenseInformations.put("LIM2Metrics", "Metrics");
         headerLicenseInformations.put("Cppcheck2Graph", "CPPCheck");
 
-        super.saveLicense(graph, sensorContext, headerLicenseInformations, SourceMeterCppMetrics.CPP_LICENSE);
+        super.saveLicense(graph, sensorContext,
+                uploadContext, headerLicenseInformations, SourceMeterCppMetrics.CPP_LICENSE);
     }
 
     /**
@@ -166,58 +170,44 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
      */
     @Override
     protected void loadDataFromGraphBin(String filename, InputProject project,
-                    SensorContext sensorContext) throws GraphlibException {
-        Graph graph = new Graph();
-        graph.loadBinary(filename);
-
-        saveLicense(graph, sensorContext);
-
-        Node componentRoot = null;
-        NodeCounterVisitor nodeCounter = null;
-
-        List<Node> components = graph.findNodes(new NodeType("Component"));
-        for (Node component : components) {
-            String name = GraphHelper.getNodeNameAttribute(component);
-            if (name != null && name.equals("<System>")) {
-                componentRoot = component;
-                break;
-            }
-        }
+                    final SensorContext sensorContext, final UploadContext uploadContext)
+            throws GraphlibException {
+        GraphReader graph = new GraphReader(filename);
+
+        saveLicense(graph, sensorContext, uploadContext);
+
+        final GraphStatistics graphStatistics = new GraphStatistics(graph);
 
         try {
             LOG.info("      * Initialization...");
             long startTime = System.currentTimeMillis();
 
-            if (componentRoot != null) {
-                nodeCounter = new NodeCounterVisitor();
-                GraphHelper.processGraph(graph, componentRoot, "ComponentTree", nodeCounter);
-            }
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", nodeCounter);
-            LogicalTreeLoaderVisitorCpp logicalVisitor = new LogicalTreeLoaderVisitorCpp(
-                    this.fileSystem, this.configuration, sensorContext,
-                    nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", nodeCounter);
             PhysicalTreeLoaderVisitorCpp physicalVisitor = new PhysicalTreeLoaderVisitorCpp(
-                    this.fileSystem, sensorContext, nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "logicalTree", nodeCounter);
-            LogicalTreeSaverVisitorCpp logicalSaver = new LogicalTreeSaverVisitorCpp(sensorContext, this.fileSystem, configuration);
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", nodeCounter);
-            CloneTreeSaverVisitorCpp cloneSaver = new CloneTreeSaverVisitorCpp(sensorContext, this.fileSystem);
+                    this.fileSystem, sensorContext, graphStatistics, uploadContext);
+
+            LogicalTreeProcessor logicalProcessor = new LogicalTreeProcessor(this.configuration, graphStatistics,
+                    new LogicalTreeProcessor.VisitorFactory() {
+                        @Override
+                        public LogicalTreeLoaderVisitor createLoader() {
+                            return new LogicalTreeLoaderVisitorCpp(fileSystem, configuration, sensorContext, graphStatistics,
+                                    uploadContext);
+                        }
+
+                        @Override
+                        public LogicalTreeSaverVisitor createSaver() {
+                            return new LogicalTreeSaverVisitorCpp(sensorContext, fileSystem, configuration,
+                                    uploadContext);
+                        }
+                    });
+
+            CloneTreeSaverVisitorCpp cloneSaver = new CloneTreeSaverVisitorCpp(sensorContext, this.fileSystem,
+                    uploadContext);
 
             LOG.info("      * Initialization done: " + (System.currentTimeMillis() - startTime) + MS);
 
             LOG.info("      * Processing LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalVisitor);
-            LOG.info("      * Processing LogicalTree done: " + logicalVisitor.getLogicalTime() + MS);
-            logicalVisitor = null;
+            logicalProcessor.process(graph, LOGICAL_ROOT);
+            LOG.info("      * Processing LogicalTree done: " + logicalProcessor.getLoaderTime() + MS);
 
             LOG.info("      * Processing PhysicalTree...");
             GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", physicalVisitor);
@@ -225,10 +215,10 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
             physicalVisitor = null;
 
             LOG.info("      * Saving LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalSaver);
-            logicalSaver.saveLogicalTreeToDatabase(SM_CPP_LOGICAL_LEVEL1, SM_CPP_LOGICAL_LEVEL2, SM_CPP_LOGICAL_LEVEL3);
-            LOG.info("      * Saving LogicalTree done: " + logicalSaver.getLogicalTime() + MS);
-            logicalSaver = null;
+            logicalProcessor.saveLogicalTreeToDatabase(SM_CPP_LOGICAL_LEVEL1, SM_CPP_LOGICAL_LEVEL2,
+                    SM_CPP_LOGICAL_LEVEL3_INDEX, SM_CPP_LOGICAL_LEVEL3_SHARDS);
+            LOG.info("      * Saving LogicalTree done: " + logicalProcessor.getSaverTime() + MS);
+            logicalProcessor = null;
 
             LOG.info("      * Saving CloneTree...");
             GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", cloneSaver);
@@ -239,7 +229,7 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
         } catch (VisitorException e) {
             LOG.error("Error during loading data from graph!", e);
         } finally {
-            graph = null;
+            graph.close();
         }
     }
 
@@ -257,7 +247,8 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
      * @param sensorContext Context of the sensor.
      * @return True if the properties were set correctly.
      */
-    private boolean checkProperties(SensorContext sensorContext) {
+    @Override
+    protected boolean checkProperties(SensorContext sensorContext) {
         String pathToCA = FileHelper.getStringFromConfiguration(this.configuration, "sm.toolchaindir");
         if (pathToCA == null) {
             LOG.error("C/C++ SourceMeter path must be set! Check it on the settings page of your SonarQube!");
@@ -304,11 +295,9 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
         this.commands.add("-projectName=" + projectName);
         this.commands.add("-buildScript=" + pathToBuild);
 
-        String softFilter = "";
         String softFilterFilePath = null;
-        softFilter = getFilterContent(sensorContext, Cpp.KEY);
         try {
-            softFilterFilePath = writeSoftFilterToFile(softFilter);
+            softFilterFilePath = writeSoftFilterToFile(sensorContext, Cpp.KEY);
         } catch (IOException e) {
             LOG.warn("Cannot create softFilter file for toolchain! No softFilter is used during analyzis.", e);
         }
@@ -340,40 +329,27 @@ public class SourceMeterCppSensor extends SourceMeterSensor {
     protected List<MetricHunterCategory> getMetricHunterCategories() {
         List<MetricHunterCategory> categories = new ArrayList<MetricHunterCategory>();
 
-        InputStream xmlFile = null;
-        try {
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Interface", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Structure", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Union", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Enum", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Method",
-                    ThresholdPropertiesHelper.getMethodThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Function", "method",
-                    ThresholdPropertiesHelper.getFunctionThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneClass",
-                    ThresholdPropertiesHelper.getCloneClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneInstance",
-                    ThresholdPropertiesHelper.getCloneInstanceThresholdMetrics(xmlFile)));
-        } finally {
-            IOUtils.closeQuietly(xmlFile);
-        }
+        MetricRegistry metricRegistry = MetricRegistry.of(SourceMeterCppMetricFinder.class);
+        categories.add(new MetricHunterCategory("Class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Interface", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Structure", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Union", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Enum", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Method",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+        categories.add(new MetricHunterCategory("Function", "method",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+
+        categories.add(new MetricHunterCategory("CloneClass",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("CloneInstance",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_INSTANCE_ENTITY)));
         return categories;
     }
 }
@@ -33,6 +33,8 @@ package com.sourcemeter.analyzer.cpp.helper;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.cpp.SourceMeterCppMetricFinder;
 import com.sourcemeter.analyzer.cpp.core.Cpp;
@@ -40,8 +42,8 @@ import com.sourcemeter.analyzer.cpp.profile.SourceMeterCppRuleRepository;
 
 public class VisitorHelperCpp extends VisitorHelper {
 
-    public VisitorHelperCpp(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, fileSystem, new SourceMeterCppMetricFinder());
+    public VisitorHelperCpp(SensorContext sensorContext, FileSystem fileSystem, UploadContext uploadContext) {
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterCppMetricFinder.class), uploadContext);
     }
 
     /**
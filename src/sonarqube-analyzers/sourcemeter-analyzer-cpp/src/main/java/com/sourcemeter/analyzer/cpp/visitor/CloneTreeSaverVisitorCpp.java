@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.cpp.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.cpp.helper.VisitorHelperCpp;
 
 public class CloneTreeSaverVisitorCpp extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorCpp(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperCpp(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorCpp(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperCpp(sensorContext, fileSystem, uploadContext));
     }
 }
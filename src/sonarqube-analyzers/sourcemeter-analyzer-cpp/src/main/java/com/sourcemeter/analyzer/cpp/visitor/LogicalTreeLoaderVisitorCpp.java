@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.cpp.core.Cpp;
 import com.sourcemeter.analyzer.cpp.helper.VisitorHelperCpp;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.cpp.helper.VisitorHelperCpp;
 public class LogicalTreeLoaderVisitorCpp extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorCpp(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-                new VisitorHelperCpp(sensorContext, fileSystem), new Cpp());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+                new VisitorHelperCpp(sensorContext, fileSystem, uploadContext), new Cpp());
     }
 }
@@ -42,6 +42,7 @@ import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.cpp.core.Cpp;
@@ -63,9 +64,10 @@ public class LogicalTreeSaverVisitorCpp extends LogicalTreeSaverVisitor {
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Function"),
                                                                               new Node.NodeType("Method"));
 
-    public LogicalTreeSaverVisitorCpp(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorCpp(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperCpp(sensorContext, fileSystem), new Cpp());
+               sensorContext, new VisitorHelperCpp(sensorContext, fileSystem, uploadContext), new Cpp());
 
         super.extendedMetrics = FileHelper.getBooleanFromConfiguration(configuration, "sm.uploadAllMetrics");
     }
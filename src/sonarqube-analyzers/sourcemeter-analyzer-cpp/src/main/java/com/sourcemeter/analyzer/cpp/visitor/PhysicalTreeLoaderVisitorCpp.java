@@ -33,14 +33,16 @@ package com.sourcemeter.analyzer.cpp.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.PhysicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.cpp.helper.VisitorHelperCpp;
 
 public class PhysicalTreeLoaderVisitorCpp extends PhysicalTreeLoaderVisitor {
     public PhysicalTreeLoaderVisitorCpp(FileSystem fileSystem,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, sensorContext, numOfNodes,
-                new VisitorHelperCpp(sensorContext, fileSystem));
+        super(fileSystem, sensorContext, graphStatistics,
+                new VisitorHelperCpp(sensorContext, fileSystem, uploadContext));
     }
 }
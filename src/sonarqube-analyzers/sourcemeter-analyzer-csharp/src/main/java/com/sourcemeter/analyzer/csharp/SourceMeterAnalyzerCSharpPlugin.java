@@ -30,18 +30,15 @@
 
 package com.sourcemeter.analyzer.csharp;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.csharp.batch.SourceMeterCSharpSensor;
 import com.sourcemeter.analyzer.csharp.profile.SourceMeterCSharpProfile;
 import com.sourcemeter.analyzer.csharp.profile.SourceMeterCSharpRuleRepository;
@@ -121,8 +118,6 @@ import com.sourcemeter.analyzer.csharp.profile.SourceMeterCSharpRuleRepository;
 })
 public class SourceMeterAnalyzerCSharpPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerCSharpPlugin.class);
-
     public static final String CSHARP_GENERAL_CATEGORY = "SourceMeter C#";
 
     public static final String FALSE = "false";
@@ -141,15 +136,13 @@ public class SourceMeterAnalyzerCSharpPlugin implements Plugin {
                 SourceMeterCSharpMetrics.class,
                 VersionChecker.class
         );
-        context.addExtension(
+        context.addExtensions(
                 // batch
-                SourceMeterCSharpSensor.class
+                SourceMeterCSharpSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
     }
 }
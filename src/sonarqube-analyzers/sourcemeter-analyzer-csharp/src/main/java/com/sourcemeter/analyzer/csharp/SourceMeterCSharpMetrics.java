@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.csharp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -71,6 +72,15 @@ public final class SourceMeterCSharpMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_CSHARP_LOGICAL_LEVEL3_INDEX_KEY = "SM_CSHARP_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_CSHARP_LOGICAL_LEVEL3_INDEX = new Builder(SM_CSHARP_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for C# language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for C# in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_CSHARP_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_CSHARP_LOGICAL_LEVEL3_KEY, "C#");
+
     public static final String SM_CSHARP_CLONE_TREE_KEY = "SM_CSHARP_CLONE_TREE";
     public static final Metric SM_CSHARP_CLONE_TREE = new Builder(SM_CSHARP_CLONE_TREE_KEY, "SourceMeter Clone Tree for CSharp language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -86,7 +96,9 @@ public final class SourceMeterCSharpMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(CSHARP_LICENSE, SM_CSHARP_CLONE_TREE,
-                SM_CSHARP_LOGICAL_LEVEL1, SM_CSHARP_LOGICAL_LEVEL2, SM_CSHARP_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(CSHARP_LICENSE, SM_CSHARP_CLONE_TREE,
+                SM_CSHARP_LOGICAL_LEVEL1, SM_CSHARP_LOGICAL_LEVEL2, SM_CSHARP_LOGICAL_LEVEL3, SM_CSHARP_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_CSHARP_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 }
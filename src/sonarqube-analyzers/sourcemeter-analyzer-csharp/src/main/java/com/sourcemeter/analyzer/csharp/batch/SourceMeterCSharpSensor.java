@@ -32,20 +32,16 @@ package com.sourcemeter.analyzer.csharp.batch;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.fs.FileSystem;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.config.Configuration;
@@ -56,10 +52,18 @@ import org.sonar.api.server.rule.RulesDefinitionXmlLoader;
 import com.sourcemeter.analyzer.base.batch.MetricHunterCategory;
 import com.sourcemeter.analyzer.base.batch.ProfileInitializer;
 import com.sourcemeter.analyzer.base.batch.SourceMeterSensor;
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
 import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
-import com.sourcemeter.analyzer.base.visitor.NodeCounterVisitor;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeProcessor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
+import com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetricFinder;
 import com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics;
 import com.sourcemeter.analyzer.csharp.core.CSharp;
 import com.sourcemeter.analyzer.csharp.profile.SourceMeterCSharpRuleRepository;
@@ -68,17 +72,15 @@ import com.sourcemeter.analyzer.csharp.visitor.LogicalTreeLoaderVisitorCSharp;
 import com.sourcemeter.analyzer.csharp.visitor.LogicalTreeSaverVisitorCSharp;
 import com.sourcemeter.analyzer.csharp.visitor.PhysicalTreeLoaderVisitorCSharp;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
-import graphlib.Node;
-import graphlib.Node.NodeType;
 import graphlib.VisitorException;
 import org.sonar.api.utils.System2;
 
 import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_CLONE_TREE;
 import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_LOGICAL_LEVEL1;
 import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_LOGICAL_LEVEL2;
-import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_LOGICAL_LEVEL3;
+import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_LOGICAL_LEVEL3_INDEX;
+import static com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetrics.SM_CSHARP_LOGICAL_LEVEL3_SHARDS;
 
 public class SourceMeterCSharpSensor extends SourceMeterSensor {
 
@@ -88,14 +90,14 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
     private final FileSystem fileSystem;
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceMeterCSharpSensor.class);
-    private static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
     private static final String LOGICAL_ROOT = "__LogicalRoot__";
 
     public SourceMeterCSharpSensor(FileSystem fileSystem,
            InputProject inputProject, ActiveRules activeRules,
-           Configuration configuration, System2 system) {
+           Configuration configuration, System2 system,
+           ToolchainCoordinator coordinator) {
 
-        super(fileSystem, inputProject, activeRules, configuration, system);
+        super(fileSystem, inputProject, activeRules, configuration, system, coordinator, CSharp.KEY, "csharp");
 
         this.fileSystem = fileSystem;
     }
@@ -109,10 +111,7 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
         if (skipCsharp) {
             LOG.info("SourceMeter toolchain is skipped for C#. Results will be uploaded from former results directory, if it exists.");
         } else {
-            if (!checkProperties(sensorContext)) {
-                throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
-            }
-            runSourceMeter(commands);
+            runToolchain(sensorContext);
         }
 
         this.projectName = FileHelper.getStringFromConfiguration(configuration, "sonar.projectKey");
@@ -129,7 +128,8 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
         LOG.info("      Graph: " + resultGraph);
 
         try {
-            loadDataFromGraphBin(this.resultGraph, sensorContext.project(), sensorContext);
+            uploadResults(this.resultGraph, sensorContext.project(), sensorContext,
+                    CSharp.KEY, "csharp", skipCsharp, MetricRegistry.of(SourceMeterCSharpMetricFinder.class));
         } catch (GraphlibException e) {
             LOG.error("Error during loading graph!", e);
         }
@@ -151,15 +151,16 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      */
-    private void saveLicense(Graph graph, SensorContext sensorContext) {
+    private void saveLicense(GraphReader graph, SensorContext sensorContext, UploadContext uploadContext) {
         Map<String, String> headerLicenseInformations = new HashMap<String, String>();
         headerLicenseInformations.put("MetricHunter", "MetricHunter");
         headerLicenseInformations.put("DuplicatedCodeFinder", "Duplicated Code");
         headerLicenseInformations.put("LIM2Metrics", "Metrics");
         headerLicenseInformations.put("FxCop2Graph", "FxCop");
 
-        super.saveLicense(graph, sensorContext, headerLicenseInformations,
+        super.saveLicense(graph, sensorContext, uploadContext, headerLicenseInformations,
                 SourceMeterCSharpMetrics.CSHARP_LICENSE);
     }
 
@@ -167,58 +168,45 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
      * {@inheritDoc}
      */
     @Override
-    protected void loadDataFromGraphBin(String filename, InputProject inputProject, SensorContext sensorContext) throws GraphlibException {
-        Graph graph = new Graph();
-        graph.loadBinary(filename);
-
-        saveLicense(graph, sensorContext);
-
-        Node componentRoot = null;
-        NodeCounterVisitor nodeCounter = null;
-
-        List<Node> components = graph.findNodes(new NodeType("Component"));
-        for (Node component : components) {
-            String name = GraphHelper.getNodeNameAttribute(component);
-            if (name != null && name.equals("<System>")) {
-                componentRoot = component;
-                break;
-            }
-        }
+    protected void loadDataFromGraphBin(String filename, InputProject inputProject, final SensorContext sensorContext,
+            final UploadContext uploadContext)
+            throws GraphlibException {
+        GraphReader graph = new GraphReader(filename);
+
+        saveLicense(graph, sensorContext, uploadContext);
+
+        final GraphStatistics graphStatistics = new GraphStatistics(graph);
 
         try {
             LOG.info("      * Initialization...");
             long startTime = System.currentTimeMillis();
 
-            if (componentRoot != null) {
-                nodeCounter = new NodeCounterVisitor();
-                GraphHelper.processGraph(graph, componentRoot, "ComponentTree", nodeCounter);
-            }
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", nodeCounter);
-            LogicalTreeLoaderVisitorCSharp logicalVisitor = new LogicalTreeLoaderVisitorCSharp(
-                    this.fileSystem, configuration,
-                    sensorContext, nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", nodeCounter);
             PhysicalTreeLoaderVisitorCSharp physicalVisitor = new PhysicalTreeLoaderVisitorCSharp(
-                    fileSystem, sensorContext, nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "logicalTree", nodeCounter);
-            LogicalTreeSaverVisitorCSharp logicalSaver = new LogicalTreeSaverVisitorCSharp(sensorContext, this.fileSystem, configuration);
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", nodeCounter);
-            CloneTreeSaverVisitorCSharp cloneSaver = new CloneTreeSaverVisitorCSharp(sensorContext, this.fileSystem);
+                    fileSystem, sensorContext, graphStatistics, uploadContext);
+
+            LogicalTreeProcessor logicalProcessor = new LogicalTreeProcessor(this.configuration, graphStatistics,
+                    new LogicalTreeProcessor.VisitorFactory() {
+                        @Override
+                        public LogicalTreeLoaderVisitor createLoader() {
+                            return new LogicalTreeLoaderVisitorCSharp(fileSystem, configuration, sensorContext, graphStatistics,
+                                    uploadContext);
+                        }
+
+                        @Override
+                        public LogicalTreeSaverVisitor createSaver() {
+                            return new LogicalTreeSaverVisitorCSharp(sensorContext, fileSystem, configuration,
+                                    uploadContext);
+                        }
+                    });
+
+            CloneTreeSaverVisitorCSharp cloneSaver = new CloneTreeSaverVisitorCSharp(sensorContext, this.fileSystem,
+                    uploadContext);
 
             LOG.info("      * Initialization done: " + (System.currentTimeMillis() - startTime) + MS);
 
             LOG.info("      * Processing LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalVisitor);
-            LOG.info("      * Processing LogicalTree done: " + logicalVisitor.getLogicalTime() + MS);
-            logicalVisitor = null;
+            logicalProcessor.process(graph, LOGICAL_ROOT);
+            LOG.info("      * Processing LogicalTree done: " + logicalProcessor.getLoaderTime() + MS);
 
             LOG.info("      * Processing PhysicalTree...");
             GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", physicalVisitor);
@@ -226,10 +214,10 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
             physicalVisitor = null;
 
             LOG.info("      * Saving LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalSaver);
-            logicalSaver.saveLogicalTreeToDatabase(SM_CSHARP_LOGICAL_LEVEL1, SM_CSHARP_LOGICAL_LEVEL2, SM_CSHARP_LOGICAL_LEVEL3);
-            LOG.info("      * Saving LogicalTree done: " + logicalSaver.getLogicalTime() + MS);
-            logicalSaver = null;
+            logicalProcessor.saveLogicalTreeToDatabase(SM_CSHARP_LOGICAL_LEVEL1, SM_CSHARP_LOGICAL_LEVEL2,
+                    SM_CSHARP_LOGICAL_LEVEL3_INDEX, SM_CSHARP_LOGICAL_LEVEL3_SHARDS);
+            LOG.info("      * Saving LogicalTree done: " + logicalProcessor.getSaverTime() + MS);
+            logicalProcessor = null;
 
             LOG.info("      * Saving CloneTree...");
             GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", cloneSaver);
@@ -240,7 +228,7 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
         } catch (VisitorException e) {
             LOG.error("Error during loading data from graph!", e);
         } finally {
-            graph = null;
+            graph.close();
         }
     }
 
@@ -258,7 +246,8 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
      * @param sensorContext Context of the sensor.
      * @return True if the properties were set correctly.
      */
-    private boolean checkProperties(SensorContext sensorContext) {
+    @Override
+    protected boolean checkProperties(SensorContext sensorContext) {
         String pathToCA = FileHelper.getStringFromConfiguration(this.configuration, "sm.toolchaindir");
         if (pathToCA == null) {
             LOG.error("SourceMeter path must be set! Check it on the settings page of your SonarQube!");
@@ -334,11 +323,9 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
         this.commands.add("-configuration=" + configuration);
         this.commands.add("-platform=" + platform);
 
-        String softFilter = "";
         String softFilterFilePath = null;
-        softFilter = getFilterContentCsharp(sensorContext, CSharp.KEY);
         try {
-            softFilterFilePath = writeSoftFilterToFile(softFilter);
+            softFilterFilePath = writeSoftFilterToFile(sensorContext, CSharp.KEY);
         } catch (IOException e) {
             LOG.warn("Cannot create softFilter file for toolchain! No softFilter is used during analyzis.", e);
         }
@@ -379,49 +366,22 @@ public class SourceMeterCSharpSensor extends SourceMeterSensor {
     protected List<MetricHunterCategory> getMetricHunterCategories() {
         List<MetricHunterCategory> categories = new ArrayList<MetricHunterCategory>();
 
-        InputStream xmlFile = null;
-        try {
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Class",
-                    ThresholdPropertiesHelper.getClassThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Method",
-                    ThresholdPropertiesHelper.getMethodThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneClass",
-                    ThresholdPropertiesHelper.getCloneClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneInstance",
-                    ThresholdPropertiesHelper.getCloneInstanceThresholdMetrics(xmlFile)));
-        } finally {
-            IOUtils.closeQuietly(xmlFile);
-        }
+        MetricRegistry metricRegistry = MetricRegistry.of(SourceMeterCSharpMetricFinder.class);
+        categories.add(new MetricHunterCategory("Class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Method",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+
+        categories.add(new MetricHunterCategory("CloneClass",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("CloneInstance",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_INSTANCE_ENTITY)));
         return categories;
     }
 
-    /**
-     * Assemble filter file's content by exclusions for C#.
-     *
-     * @param sensorContext Context of the sensor.
-     * @param languageKey Key of the analyzed language.
-     * @return Filter file's content.
-     */
-    private String getFilterContentCsharp(SensorContext sensorContext, String languageKey) {
-        StringBuffer filter = new StringBuffer("-*\n");
-
-        List<InputFile> sourceFilesForProject = super.getSourceFilesForProject(sensorContext, languageKey);
-        for (InputFile file : sourceFilesForProject) {
-            String path = file.uri().normalize().getPath();
-            filter.append("+");
-            if (system.isOsWindows()) {
-                filter.append(path.substring(1).replaceAll("/", "\\\\\\\\"));
-            } else {
-                filter.append(Pattern.quote(path));
-            }
-            filter.append("\n");
-        }
-        return filter.toString();
+    @Override
+    protected String getExcludeAllFilterRule() {
+        return "-*";
     }
 }
@@ -32,6 +32,8 @@ package com.sourcemeter.analyzer.csharp.helper;
 
 import org.sonar.api.batch.fs.FileSystem;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.csharp.SourceMeterCSharpMetricFinder;
 import com.sourcemeter.analyzer.csharp.core.CSharp;
@@ -39,8 +41,9 @@ import com.sourcemeter.analyzer.csharp.profile.SourceMeterCSharpRuleRepository;
 
 public class VisitorHelperCSharp extends VisitorHelper {
 
-    public VisitorHelperCSharp(org.sonar.api.batch.sensor.SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, fileSystem, new SourceMeterCSharpMetricFinder());
+    public VisitorHelperCSharp(org.sonar.api.batch.sensor.SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterCSharpMetricFinder.class), uploadContext);
     }
 
     /**
@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.csharp.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.csharp.helper.VisitorHelperCSharp;
 
 public class CloneTreeSaverVisitorCSharp extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorCSharp(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperCSharp(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorCSharp(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperCSharp(sensorContext, fileSystem, uploadContext));
     }
 }
@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.csharp.core.CSharp;
 import com.sourcemeter.analyzer.csharp.helper.VisitorHelperCSharp;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.csharp.helper.VisitorHelperCSharp;
 public class LogicalTreeLoaderVisitorCSharp extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorCSharp(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-              new VisitorHelperCSharp(sensorContext, fileSystem), new CSharp());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+              new VisitorHelperCSharp(sensorContext, fileSystem, uploadContext), new CSharp());
     }
 }
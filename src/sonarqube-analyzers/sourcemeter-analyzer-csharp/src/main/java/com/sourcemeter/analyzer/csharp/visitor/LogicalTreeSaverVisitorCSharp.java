@@ -41,6 +41,7 @@ import graphlib.Node;
 import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.csharp.core.CSharp;
@@ -60,9 +61,10 @@ public class LogicalTreeSaverVisitorCSharp extends LogicalTreeSaverVisitor {
                                                                            new Node.NodeType("Structure"));
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Method"));
 
-    public LogicalTreeSaverVisitorCSharp(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorCSharp(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperCSharp(sensorContext, fileSystem), new CSharp());
+               sensorContext, new VisitorHelperCSharp(sensorContext, fileSystem, uploadContext), new CSharp());
 
         super.extendedMetrics = !"false".equals(FileHelper.getStringFromConfiguration(configuration, "sm.uploadAllMetrics"));
     }
@@ -30,18 +30,15 @@
 
 package com.sourcemeter.analyzer.java;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.java.batch.SourceMeterJavaSensor;
 import com.sourcemeter.analyzer.java.profile.SourceMeterJavaProfile;
 import com.sourcemeter.analyzer.java.profile.SourceMeterJavaRuleRepository;
@@ -171,8 +168,6 @@ import com.sourcemeter.analyzer.java.profile.SourceMeterJavaRuleRepository;
 })
 public final class SourceMeterAnalyzerJavaPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerJavaPlugin.class);
-
     public static final String JAVA_GENERAL_CATEGORY = "SourceMeter Java";
 
     public static final String FALSE = "false";
@@ -199,14 +194,12 @@ public final class SourceMeterAnalyzerJavaPlugin implements Plugin {
         );
 
         // Batch
-        context.addExtension(
-                SourceMeterJavaSensor.class
+        context.addExtensions(
+                SourceMeterJavaSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
     }
 }
@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.java;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -76,6 +77,15 @@ public final class SourceMeterJavaMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_JAVA_LOGICAL_LEVEL3_INDEX_KEY = "SM_JAVA_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_JAVA_LOGICAL_LEVEL3_INDEX = new Builder(SM_JAVA_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for Java language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for Java in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_JAVA_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_JAVA_LOGICAL_LEVEL3_KEY, "Java");
+
     public static final String SM_JAVA_CLONE_TREE_KEY = "SM_JAVA_CLONE_TREE";
     public static final Metric SM_JAVA_CLONE_TREE = new Builder(SM_JAVA_CLONE_TREE_KEY, "SourceMeter Clone Tree for Java language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -90,7 +100,9 @@ public final class SourceMeterJavaMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(JAVA_LICENSE, SM_JAVA_CLONE_TREE,
-                SM_JAVA_LOGICAL_LEVEL1, SM_JAVA_LOGICAL_LEVEL2, SM_JAVA_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(JAVA_LICENSE, SM_JAVA_CLONE_TREE,
+                SM_JAVA_LOGICAL_LEVEL1, SM_JAVA_LOGICAL_LEVEL2, SM_JAVA_LOGICAL_LEVEL3, SM_JAVA_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_JAVA_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 }
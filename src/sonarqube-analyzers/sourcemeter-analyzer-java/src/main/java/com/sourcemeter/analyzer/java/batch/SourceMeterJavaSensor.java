@@ -34,16 +34,15 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,10 +57,18 @@ import org.sonar.api.server.rule.RulesDefinitionXmlLoader;
 import com.sourcemeter.analyzer.base.batch.MetricHunterCategory;
 import com.sourcemeter.analyzer.base.batch.ProfileInitializer;
 import com.sourcemeter.analyzer.base.batch.SourceMeterSensor;
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
 import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
-import com.sourcemeter.analyzer.base.visitor.NodeCounterVisitor;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeProcessor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
+import com.sourcemeter.analyzer.java.SourceMeterJavaMetricFinder;
 import com.sourcemeter.analyzer.java.SourceMeterJavaMetrics;
 import com.sourcemeter.analyzer.java.core.Java;
 import com.sourcemeter.analyzer.java.profile.SourceMeterJavaRuleRepository;
@@ -70,17 +77,15 @@ import com.sourcemeter.analyzer.java.visitor.LogicalTreeLoaderVisitorJava;
 import com.sourcemeter.analyzer.java.visitor.LogicalTreeSaverVisitorJava;
 import com.sourcemeter.analyzer.java.visitor.PhysicalTreeLoaderVisitorJava;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
-import graphlib.Node;
-import graphlib.Node.NodeType;
 import graphlib.VisitorException;
 import org.sonar.api.utils.System2;
 
 import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_CLONE_TREE;
 import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_LOGICAL_LEVEL1;
 import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_LOGICAL_LEVEL2;
-import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_LOGICAL_LEVEL3;
+import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_LOGICAL_LEVEL3_INDEX;
+import static com.sourcemeter.analyzer.java.SourceMeterJavaMetrics.SM_JAVA_LOGICAL_LEVEL3_SHARDS;
 
 public class SourceMeterJavaSensor extends SourceMeterSensor {
 
@@ -90,7 +95,6 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
     private final FileSystem fileSystem;
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceMeterJavaSensor.class);
-    private static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
     private static final String LOGICAL_ROOT = "__LogicalRoot__";
 
     /**
@@ -98,9 +102,10 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
      */
     public SourceMeterJavaSensor(FileSystem fileSystem,
             InputProject inputProject, ActiveRules activeRules,
-            Configuration configuration, System2 system) {
+            Configuration configuration, System2 system,
+            ToolchainCoordinator coordinator) {
 
-        super(fileSystem, inputProject, activeRules, configuration, system);
+        super(fileSystem, inputProject, activeRules, configuration, system, coordinator, Java.KEY, "java");
 
         this.fileSystem = fileSystem;
     }
@@ -114,10 +119,7 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
         if (skipJava) {
             LOG.info("SourceMeter toolchain is skipped for Java. Results will be uploaded from former results directory, if it exists.");
         } else {
-            if (!checkProperties(sensorContext)) {
-                throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
-            }
-            runSourceMeter(commands);
+            runToolchain(sensorContext);
         }
 
         this.projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
@@ -134,7 +136,8 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
         LOG.info("      Graph: " + resultGraph);
 
         try {
-            loadDataFromGraphBin(this.resultGraph, sensorContext.project(), sensorContext);
+            uploadResults(this.resultGraph, sensorContext.project(), sensorContext,
+                    Java.KEY, "java", skipJava, MetricRegistry.of(SourceMeterJavaMetricFinder.class));
         } catch (GraphlibException e) {
             LOG.error("Error during loading graph!", e);
         }
@@ -156,8 +159,9 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      */
-    private void saveLicense(Graph graph, SensorContext sensorContext) {
+    private void saveLicense(GraphReader graph, SensorContext sensorContext, UploadContext uploadContext) {
         Map<String, String> headerLicenseInformations = new HashMap<String, String>();
         headerLicenseInformations.put("FaultHunter", "FaultHunter");
         headerLicenseInformations.put("RTEHunter", "RTEHunter");
@@ -169,7 +173,8 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
         headerLicenseInformations.put("PMD2Graph", "PMD");
         headerLicenseInformations.put("FindBugs2Graph", "FindBugs");
 
-        super.saveLicense(graph, sensorContext, headerLicenseInformations, SourceMeterJavaMetrics.JAVA_LICENSE);
+        super.saveLicense(graph, sensorContext,
+                uploadContext, headerLicenseInformations, SourceMeterJavaMetrics.JAVA_LICENSE);
     }
 
     /**
@@ -177,58 +182,44 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
      */
     @Override
     protected void loadDataFromGraphBin(String filename, InputProject project,
-            SensorContext sensorContext) throws GraphlibException {
-        Graph graph = new Graph();
-        graph.loadBinary(filename);
-
-        Node componentRoot = null;
-        NodeCounterVisitor nodeCounter = null;
-
-        List<Node> components = graph.findNodes(new NodeType("Component"));
-        for (Node component : components) {
-            String name = GraphHelper.getNodeNameAttribute(component);
-            if (name != null && name.equals("<System>")) {
-                componentRoot = component;
-                break;
-            }
-        }
+            final SensorContext sensorContext, final UploadContext uploadContext)
+            throws GraphlibException {
+        GraphReader graph = new GraphReader(filename);
+
+        final GraphStatistics graphStatistics = new GraphStatistics(graph);
         try {
             LOG.info("      * Initialization...");
             long startTime = System.currentTimeMillis();
 
-            saveLicense(graph, sensorContext);
-
-            if (componentRoot != null) {
-                nodeCounter = new NodeCounterVisitor();
-                GraphHelper.processGraph(graph, componentRoot, "ComponentTree", nodeCounter);
-            }
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", nodeCounter);
-            LogicalTreeLoaderVisitorJava logicalVisitor = new LogicalTreeLoaderVisitorJava(
-                    this.fileSystem, this.configuration, sensorContext,
-                    nodeCounter.getNumberOfNodes());
+            saveLicense(graph, sensorContext, uploadContext);
 
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", nodeCounter);
             PhysicalTreeLoaderVisitorJava physicalVisitor = new PhysicalTreeLoaderVisitorJava(
-                    this.fileSystem, sensorContext, nodeCounter.getNumberOfNodes());
+                    this.fileSystem, sensorContext, graphStatistics, uploadContext);
+
+            LogicalTreeProcessor logicalProcessor = new LogicalTreeProcessor(this.configuration, graphStatistics,
+                    new LogicalTreeProcessor.VisitorFactory() {
+                        @Override
+                        public LogicalTreeLoaderVisitor createLoader() {
+                            return new LogicalTreeLoaderVisitorJava(fileSystem, configuration, sensorContext, graphStatistics,
+                                    uploadContext);
+                        }
 
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "logicalTree", nodeCounter);
-            LogicalTreeSaverVisitorJava logicalSaver = new LogicalTreeSaverVisitorJava(sensorContext, this.fileSystem, configuration);
+                        @Override
+                        public LogicalTreeSaverVisitor createSaver() {
+                            return new LogicalTreeSaverVisitorJava(sensorContext, fileSystem, configuration,
+                                    uploadContext);
+                        }
+                    });
 
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", nodeCounter);
-            CloneTreeSaverVisitorJava cloneSaver = new CloneTreeSaverVisitorJava(sensorContext, this.fileSystem);
+            CloneTreeSaverVisitorJava cloneSaver = new CloneTreeSaverVisitorJava(sensorContext, this.fileSystem,
+                    uploadContext);
 
 
             LOG.info("      * Initialization done: " + (System.currentTimeMillis() - startTime) + MS);
 
             LOG.info("      * Processing LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalVisitor);
-            LOG.info("      * Processing LogicalTree done: " + logicalVisitor.getLogicalTime() + MS);
-            logicalVisitor = null;
+            logicalProcessor.process(graph, LOGICAL_ROOT);
+            LOG.info("      * Processing LogicalTree done: " + logicalProcessor.getLoaderTime() + MS);
 
             LOG.info("      * Processing PhysicalTree...");
             GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", physicalVisitor);
@@ -236,10 +227,10 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
             physicalVisitor = null;
 
             LOG.info("      * Saving LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalSaver);
-            logicalSaver.saveLogicalTreeToDatabase(SM_JAVA_LOGICAL_LEVEL1, SM_JAVA_LOGICAL_LEVEL2, SM_JAVA_LOGICAL_LEVEL3);
-            LOG.info("      * Saving LogicalTree done: " + logicalSaver.getLogicalTime() + MS);
-            logicalSaver = null;
+            logicalProcessor.saveLogicalTreeToDatabase(SM_JAVA_LOGICAL_LEVEL1, SM_JAVA_LOGICAL_LEVEL2,
+                    SM_JAVA_LOGICAL_LEVEL3_INDEX, SM_JAVA_LOGICAL_LEVEL3_SHARDS);
+            LOG.info("      * Saving LogicalTree done: " + logicalProcessor.getSaverTime() + MS);
+            logicalProcessor = null;
 
             LOG.info("      * Saving CloneTree...");
             GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", cloneSaver);
@@ -250,7 +241,7 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
         } catch (VisitorException e) {
             LOG.error("Error during loading data from graph!", e);
         } finally {
-            graph = null;
+            graph.close();
         }
     }
 
@@ -268,6 +259,7 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
      * @param sensorContext Context of the sensor.
      * @return True if the properties were set correctly.
      */
+    @Override
     protected boolean checkProperties(SensorContext sensorContext) {
         String cleanResults = FileHelper.getStringFromConfiguration(configuration, "sm.cleanresults");
         if (cleanResults == null) {
@@ -290,11 +282,9 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
         String projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
         projectName = StringUtils.replace(projectName, ":", "_");
 
-        String filter = "";
         String softFilterFilePath = null;
-        filter = getFilterContent(sensorContext, Java.KEY);
         try {
-            softFilterFilePath = writeSoftFilterToFile(filter);
+            softFilterFilePath = writeSoftFilterToFile(sensorContext, Java.KEY);
         } catch (IOException e) {
             LOG.warn("Cannot create filter file for toolchain! No filter is used during analysis.", e);
         }
@@ -365,7 +355,7 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
 
         String maxMem = FileHelper.getStringFromConfiguration(this.configuration, "sm.java.maxMem");
         if (maxMem != null) {
-            this.commands.add("-JVMOptions=" + "-Xmx" + maxMem + "M");
+            this.commands.add("-JVMOptions=" + "-Xmx" + maxMem.trim() + "M");
         }
 
         String vhTimeout = FileHelper.getStringFromConfiguration(this.configuration, "sm.java.vhTimeOut");
@@ -462,31 +452,38 @@ public class SourceMeterJavaSensor extends SourceMeterSensor {
     protected List<MetricHunterCategory> getMetricHunterCategories() {
         List<MetricHunterCategory> categories = new ArrayList<MetricHunterCategory>();
 
-        InputStream xmlFile = null;
-        try {
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Interface", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Enum", "class", ThresholdPropertiesHelper
-                    .getClassThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Method",
-                    ThresholdPropertiesHelper.getMethodThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneClass",
-                    ThresholdPropertiesHelper.getCloneClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneInstance",
-                    ThresholdPropertiesHelper.getCloneInstanceThresholdMetrics(xmlFile)));
-        } finally {
-            IOUtils.closeQuietly(xmlFile);
-        }
+        MetricRegistry metricRegistry = MetricRegistry.of(SourceMeterJavaMetricFinder.class);
+        categories.add(new MetricHunterCategory("Class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Interface", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("Enum", "class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Method",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+
+        categories.add(new MetricHunterCategory("CloneClass",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("CloneInstance",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_INSTANCE_ENTITY)));
         return categories;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getMemoryOption(int memoryMb) {
+        return "-JVMOptions=" + "-Xmx" + memoryMb + "M";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> getCloneDetectionOptions() {
+        return Arrays.asList("-runFB=false", "-runPMD=false", "-runVLH=false",
+                "-runRTEHunter=false", "-runMetricHunter=false");
+    }
 }
@@ -33,6 +33,8 @@ package com.sourcemeter.analyzer.java.helper;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.java.SourceMeterJavaMetricFinder;
 import com.sourcemeter.analyzer.java.core.Java;
@@ -40,8 +42,8 @@ import com.sourcemeter.analyzer.java.profile.SourceMeterJavaRuleRepository;
 
 public class VisitorHelperJava extends VisitorHelper {
 
-    public VisitorHelperJava(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, fileSystem, new SourceMeterJavaMetricFinder());
+    public VisitorHelperJava(SensorContext sensorContext, FileSystem fileSystem, UploadContext uploadContext) {
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterJavaMetricFinder.class), uploadContext);
     }
 
     /**
@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.java.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.java.helper.VisitorHelperJava;
 
 public class CloneTreeSaverVisitorJava extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorJava(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperJava(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorJava(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperJava(sensorContext, fileSystem, uploadContext));
     }
 }
@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.java.core.Java;
 import com.sourcemeter.analyzer.java.helper.VisitorHelperJava;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.java.helper.VisitorHelperJava;
 public class LogicalTreeLoaderVisitorJava extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorJava(FileSystem fileSystem, Configuration  configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-              new VisitorHelperJava(sensorContext, fileSystem), new Java());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+              new VisitorHelperJava(sensorContext, fileSystem, uploadContext), new Java());
     }
 }
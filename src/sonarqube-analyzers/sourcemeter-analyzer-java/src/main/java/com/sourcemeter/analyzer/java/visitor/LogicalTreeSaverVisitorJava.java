@@ -41,6 +41,7 @@ import graphlib.Node;
 import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.java.core.Java;
@@ -60,9 +61,10 @@ public class LogicalTreeSaverVisitorJava extends LogicalTreeSaverVisitor {
                                                                            new Node.NodeType("Structure"));
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Method"));
 
-    public LogicalTreeSaverVisitorJava(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorJava(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperJava(sensorContext, fileSystem), new Java());
+               sensorContext, new VisitorHelperJava(sensorContext, fileSystem, uploadContext), new Java());
 
         super.extendedMetrics = !"false".equals(FileHelper.getStringFromConfiguration(configuration, "sm.uploadAllMetrics"));
     }
@@ -33,14 +33,16 @@ package com.sourcemeter.analyzer.java.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.PhysicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.java.helper.VisitorHelperJava;
 
 public class PhysicalTreeLoaderVisitorJava extends PhysicalTreeLoaderVisitor {
     public PhysicalTreeLoaderVisitorJava(FileSystem fileSystem,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, sensorContext, numOfNodes,
-              new VisitorHelperJava(sensorContext, fileSystem));
+        super(fileSystem, sensorContext, graphStatistics,
+              new VisitorHelperJava(sensorContext, fileSystem, uploadContext));
     }
 }
\ No newline at end of file
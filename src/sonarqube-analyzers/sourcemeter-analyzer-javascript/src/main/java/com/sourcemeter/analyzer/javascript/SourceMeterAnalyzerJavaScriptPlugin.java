@@ -30,18 +30,15 @@
 
 package com.sourcemeter.analyzer.javascript;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.javascript.batch.SourceMeterJavaScriptSensor;
 import com.sourcemeter.analyzer.javascript.profile.SourceMeterJavaScriptProfile;
 import com.sourcemeter.analyzer.javascript.profile.SourceMeterJavaScriptRuleRepository;
@@ -76,8 +73,6 @@ import com.sourcemeter.analyzer.javascript.profile.SourceMeterJavaScriptRuleRepo
 })
 public final class SourceMeterAnalyzerJavaScriptPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerJavaScriptPlugin.class);
-
     public static final String JAVASCRIPT_GENERAL_CATEGORY = "SourceMeter JavaScript";
 
     public static final String FALSE = "false";
@@ -104,14 +99,12 @@ public final class SourceMeterAnalyzerJavaScriptPlugin implements Plugin {
         );
 
         // Batch
-        context.addExtension(
-                SourceMeterJavaScriptSensor.class
+        context.addExtensions(
+                SourceMeterJavaScriptSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
     }
 }
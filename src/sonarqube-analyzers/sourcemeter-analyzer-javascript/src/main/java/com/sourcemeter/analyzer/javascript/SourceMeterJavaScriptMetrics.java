@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.javascript;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -76,6 +77,15 @@ public final class SourceMeterJavaScriptMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_JAVASCRIPT_LOGICAL_LEVEL3_INDEX_KEY = "SM_JAVASCRIPT_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_JAVASCRIPT_LOGICAL_LEVEL3_INDEX = new Builder(SM_JAVASCRIPT_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for JavaScript language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for JavaScript in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_JAVASCRIPT_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_JAVASCRIPT_LOGICAL_LEVEL3_KEY, "JavaScript");
+
     public static final String SM_JAVASCRIPT_CLONE_TREE_KEY = "SM_JAVASCRIPT_CLONE_TREE";
     public static final Metric SM_JAVASCRIPT_CLONE_TREE = new Builder(SM_JAVASCRIPT_CLONE_TREE_KEY, "SourceMeter Clone Tree for JavaScript language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -90,7 +100,9 @@ public final class SourceMeterJavaScriptMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(JAVASCRIPT_LICENSE, SM_JAVASCRIPT_CLONE_TREE,
-                SM_JAVASCRIPT_LOGICAL_LEVEL1, SM_JAVASCRIPT_LOGICAL_LEVEL2, SM_JAVASCRIPT_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(JAVASCRIPT_LICENSE, SM_JAVASCRIPT_CLONE_TREE,
+                SM_JAVASCRIPT_LOGICAL_LEVEL1, SM_JAVASCRIPT_LOGICAL_LEVEL2, SM_JAVASCRIPT_LOGICAL_LEVEL3, SM_JAVASCRIPT_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_JAVASCRIPT_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 }
@@ -33,6 +33,8 @@ package com.sourcemeter.analyzer.javascript.helper;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.javascript.SourceMeterJavaScriptMetricFinder;
 import com.sourcemeter.analyzer.javascript.core.JavaScript;
@@ -40,9 +42,9 @@ import com.sourcemeter.analyzer.javascript.profile.SourceMeterJavaScriptRuleRepo
 
 public class VisitorHelperJavaScript extends VisitorHelper {
 
-    public VisitorHelperJavaScript(SensorContext sensorContext, FileSystem fileSystem) {
+    public VisitorHelperJavaScript(SensorContext sensorContext, FileSystem fileSystem, UploadContext uploadContext) {
 
-        super(sensorContext, fileSystem, new SourceMeterJavaScriptMetricFinder());
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterJavaScriptMetricFinder.class), uploadContext);
     }
 
     /**
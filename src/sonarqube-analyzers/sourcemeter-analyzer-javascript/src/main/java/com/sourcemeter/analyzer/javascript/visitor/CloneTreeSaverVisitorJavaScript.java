@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.javascript.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.javascript.helper.VisitorHelperJavaScript;
 
 public class CloneTreeSaverVisitorJavaScript extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorJavaScript(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperJavaScript(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorJavaScript(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperJavaScript(sensorContext, fileSystem, uploadContext));
     }
 }
@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.javascript.core.JavaScript;
 import com.sourcemeter.analyzer.javascript.helper.VisitorHelperJavaScript;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.javascript.helper.VisitorHelperJavaScript;
 public class LogicalTreeLoaderVisitorJavaScript extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorJavaScript(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-                new VisitorHelperJavaScript(sensorContext, fileSystem), new JavaScript());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+                new VisitorHelperJavaScript(sensorContext, fileSystem, uploadContext), new JavaScript());
     }
 }
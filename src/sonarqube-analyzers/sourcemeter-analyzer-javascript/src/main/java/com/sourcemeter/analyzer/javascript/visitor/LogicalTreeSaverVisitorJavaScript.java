@@ -41,6 +41,7 @@ import graphlib.Node;
 import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.javascript.core.JavaScript;
@@ -55,9 +56,10 @@ public class LogicalTreeSaverVisitorJavaScript extends LogicalTreeSaverVisitor {
     private static final List<Node.NodeType> levelTwoTypes = Arrays.asList(new Node.NodeType("Class"));
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Method"));
 
-    public LogicalTreeSaverVisitorJavaScript(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorJavaScript(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperJavaScript(sensorContext, fileSystem), new JavaScript());
+               sensorContext, new VisitorHelperJavaScript(sensorContext, fileSystem, uploadContext), new JavaScript());
 
         super.extendedMetrics = !"false".equals(FileHelper.getStringFromConfiguration(configuration, "sm.uploadAllMetrics"));
     }
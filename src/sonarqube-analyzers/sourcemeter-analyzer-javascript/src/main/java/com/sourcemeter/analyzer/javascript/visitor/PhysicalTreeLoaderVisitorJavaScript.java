@@ -33,14 +33,16 @@ package com.sourcemeter.analyzer.javascript.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.PhysicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.javascript.helper.VisitorHelperJavaScript;
 
 public class PhysicalTreeLoaderVisitorJavaScript extends PhysicalTreeLoaderVisitor {
     public PhysicalTreeLoaderVisitorJavaScript(FileSystem fileSystem,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, sensorContext, numOfNodes,
-                new VisitorHelperJavaScript(sensorContext, fileSystem));
+        super(fileSystem, sensorContext, graphStatistics,
+                new VisitorHelperJavaScript(sensorContext, fileSystem, uploadContext));
     }
 }
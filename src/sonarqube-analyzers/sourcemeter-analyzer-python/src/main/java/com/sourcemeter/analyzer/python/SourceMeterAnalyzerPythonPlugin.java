@@ -30,18 +30,15 @@
 
 package com.sourcemeter.analyzer.python;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.python.batch.SourceMeterPythonSensor;
 import com.sourcemeter.analyzer.python.profile.SourceMeterPythonProfile;
 import com.sourcemeter.analyzer.python.profile.SourceMeterPythonRuleRepository;
@@ -82,8 +79,6 @@ import com.sourcemeter.analyzer.python.profile.SourceMeterPythonRuleRepository;
 })
 public class SourceMeterAnalyzerPythonPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerPythonPlugin.class);
-
     public static final String PYTHON_GENERAL_CATEGORY = "SourceMeter Python";
 
     public static final String TRUE = "true";
@@ -105,15 +100,13 @@ public class SourceMeterAnalyzerPythonPlugin implements Plugin {
                 SourceMeterPythonRuleRepository.class
         );
 
-        context.addExtension(
+        context.addExtensions(
                 // Batch
-                SourceMeterPythonSensor.class
+                SourceMeterPythonSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
     }
 }
@@ -30,6 +30,7 @@
 
 package com.sourcemeter.analyzer.python;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -71,6 +72,15 @@ public final class SourceMeterPythonMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_PYTHON_LOGICAL_LEVEL3_INDEX_KEY = "SM_PYTHON_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_PYTHON_LOGICAL_LEVEL3_INDEX = new Builder(SM_PYTHON_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for Python language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for Python in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_PYTHON_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_PYTHON_LOGICAL_LEVEL3_KEY, "Python");
+
     public static final String SM_PYTHON_CLONE_TREE_KEY = "SM_PYTHON_CLONE_TREE";
     public static final Metric SM_PYTHON_CLONE_TREE = new Builder(SM_PYTHON_CLONE_TREE_KEY, "SourceMeter Clone Tree for Python language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -85,7 +95,9 @@ public final class SourceMeterPythonMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(PYTHON_LICENSE, SM_PYTHON_CLONE_TREE,
-                SM_PYTHON_LOGICAL_LEVEL1, SM_PYTHON_LOGICAL_LEVEL2, SM_PYTHON_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(PYTHON_LICENSE, SM_PYTHON_CLONE_TREE,
+                SM_PYTHON_LOGICAL_LEVEL1, SM_PYTHON_LOGICAL_LEVEL2, SM_PYTHON_LOGICAL_LEVEL3, SM_PYTHON_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_PYTHON_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 }
@@ -32,13 +32,12 @@ package com.sourcemeter.analyzer.python.batch;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,10 +52,18 @@ import org.sonar.api.server.rule.RulesDefinitionXmlLoader;
 import com.sourcemeter.analyzer.base.batch.MetricHunterCategory;
 import com.sourcemeter.analyzer.base.batch.ProfileInitializer;
 import com.sourcemeter.analyzer.base.batch.SourceMeterSensor;
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
 import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
-import com.sourcemeter.analyzer.base.visitor.NodeCounterVisitor;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeProcessor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
+import com.sourcemeter.analyzer.python.SourceMeterPythonMetricFinder;
 import com.sourcemeter.analyzer.python.SourceMeterPythonMetrics;
 import com.sourcemeter.analyzer.python.core.Python;
 import com.sourcemeter.analyzer.python.profile.SourceMeterPythonRuleRepository;
@@ -65,17 +72,15 @@ import com.sourcemeter.analyzer.python.visitor.LogicalTreeLoaderVisitorPython;
 import com.sourcemeter.analyzer.python.visitor.LogicalTreeSaverVisitorPython;
 import com.sourcemeter.analyzer.python.visitor.PhysicalTreeLoaderVisitorPython;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
-import graphlib.Node;
-import graphlib.Node.NodeType;
 import graphlib.VisitorException;
 import org.sonar.api.utils.System2;
 
 import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_CLONE_TREE;
 import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_LOGICAL_LEVEL1;
 import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_LOGICAL_LEVEL2;
-import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_LOGICAL_LEVEL3;
+import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_LOGICAL_LEVEL3_INDEX;
+import static com.sourcemeter.analyzer.python.SourceMeterPythonMetrics.SM_PYTHON_LOGICAL_LEVEL3_SHARDS;
 
 public class SourceMeterPythonSensor extends SourceMeterSensor {
 
@@ -85,14 +90,14 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
     private final FileSystem fileSystem;
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceMeterPythonSensor.class);
-    private static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
     private static final String LOGICAL_ROOT = "__LogicalRoot__";
 
     public SourceMeterPythonSensor(FileSystem fileSystem,
            InputProject inputProject, ActiveRules activeRules,
-           Configuration configuration, System2 system) {
+           Configuration configuration, System2 system,
+           ToolchainCoordinator coordinator) {
 
-        super(fileSystem, inputProject, activeRules, configuration, system);
+        super(fileSystem, inputProject, activeRules, configuration, system, coordinator, Python.KEY, "python");
 
         this.fileSystem = fileSystem;
     }
@@ -106,10 +111,7 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
         if (skipPython) {
             LOG.info("SourceMeter toolchain is skipped for Python. Results will be uploaded from former results directory, if it exists.");
         } else {
-            if (!checkProperties(sensorContext)) {
-                throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
-            }
-            runSourceMeter(commands);
+            runToolchain(sensorContext);
         }
 
         this.projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
@@ -126,7 +128,8 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
         LOG.info("      Graph: " + resultGraph);
 
         try {
-            loadDataFromGraphBin(this.resultGraph, sensorContext.project(), sensorContext);
+            uploadResults(this.resultGraph, sensorContext.project(), sensorContext,
+                    Python.KEY, "python", skipPython, MetricRegistry.of(SourceMeterPythonMetricFinder.class));
         } catch (GraphlibException e) {
             LOG.error("Error during loading graph!", e);
         }
@@ -148,15 +151,17 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      */
-    private void saveLicense(Graph graph, SensorContext sensorContext) {
+    private void saveLicense(GraphReader graph, SensorContext sensorContext, UploadContext uploadContext) {
         Map<String, String> headerLicenseInformations = new HashMap<String, String>();
         headerLicenseInformations.put("FaultHunterPython", "FaultHunter");
         headerLicenseInformations.put("MetricHunter", "MetricHunter");
         headerLicenseInformations.put("DuplicatedCodeFinder", "Duplicated Code");
         headerLicenseInformations.put("LIM2Metrics", "Metrics");
 
-        super.saveLicense(graph, sensorContext, headerLicenseInformations, SourceMeterPythonMetrics.PYTHON_LICENSE);
+        super.saveLicense(graph, sensorContext,
+                uploadContext, headerLicenseInformations, SourceMeterPythonMetrics.PYTHON_LICENSE);
     }
 
     /**
@@ -164,58 +169,44 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
      */
     @Override
     protected void loadDataFromGraphBin(String filename, InputProject project,
-                    SensorContext sensorContext) throws GraphlibException {
-        Graph graph = new Graph();
-        graph.loadBinary(filename);
-
-        saveLicense(graph, sensorContext);
-
-        Node componentRoot = null;
-        NodeCounterVisitor nodeCounter = null;
-
-        List<Node> components = graph.findNodes(new NodeType("Component"));
-        for (Node component : components) {
-            String name = GraphHelper.getNodeNameAttribute(component);
-            if (name != null && name.equals("<System>")) {
-                componentRoot = component;
-                break;
-            }
-        }
+                    final SensorContext sensorContext, final UploadContext uploadContext)
+            throws GraphlibException {
+        GraphReader graph = new GraphReader(filename);
+
+        saveLicense(graph, sensorContext, uploadContext);
+
+        final GraphStatistics graphStatistics = new GraphStatistics(graph);
 
         try {
             LOG.info("      * Initialization...");
             long startTime = System.currentTimeMillis();
 
-            if (componentRoot != null) {
-                nodeCounter = new NodeCounterVisitor();
-                GraphHelper.processGraph(graph, componentRoot, "ComponentTree", nodeCounter);
-            }
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", nodeCounter);
-            LogicalTreeLoaderVisitorPython logicalVisitor = new LogicalTreeLoaderVisitorPython(
-                    this.fileSystem, this.configuration, sensorContext,
-                    nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", nodeCounter);
             PhysicalTreeLoaderVisitorPython physicalVisitor = new PhysicalTreeLoaderVisitorPython(
-                    this.fileSystem, sensorContext, nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "logicalTree", nodeCounter);
-            LogicalTreeSaverVisitorPython logicalSaver = new LogicalTreeSaverVisitorPython(sensorContext, this.fileSystem, configuration);
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", nodeCounter);
-            CloneTreeSaverVisitorPython cloneSaver = new CloneTreeSaverVisitorPython(sensorContext, this.fileSystem);
+                    this.fileSystem, sensorContext, graphStatistics, uploadContext);
+
+            LogicalTreeProcessor logicalProcessor = new LogicalTreeProcessor(this.configuration, graphStatistics,
+                    new LogicalTreeProcessor.VisitorFactory() {
+                        @Override
+                        public LogicalTreeLoaderVisitor createLoader() {
+                            return new LogicalTreeLoaderVisitorPython(fileSystem, configuration, sensorContext, graphStatistics,
+                                    uploadContext);
+                        }
+
+                        @Override
+                        public LogicalTreeSaverVisitor createSaver() {
+                            return new LogicalTreeSaverVisitorPython(sensorContext, fileSystem, configuration,
+                                    uploadContext);
+                        }
+                    });
+
+            CloneTreeSaverVisitorPython cloneSaver = new CloneTreeSaverVisitorPython(sensorContext, this.fileSystem,
+                    uploadContext);
 
             LOG.info("      * Initialization done: " + (System.currentTimeMillis() - startTime) + MS);
 
             LOG.info("      * Processing LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalVisitor);
-            LOG.info("      * Processing LogicalTree done: " + logicalVisitor.getLogicalTime() + MS);
-            logicalVisitor = null;
+            logicalProcessor.process(graph, LOGICAL_ROOT);
+            LOG.info("      * Processing LogicalTree done: " + logicalProcessor.getLoaderTime() + MS);
 
             LOG.info("      * Processing PhysicalTree...");
             GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", physicalVisitor);
@@ -223,10 +214,10 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
             physicalVisitor = null;
 
             LOG.info("      * Saving LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalSaver);
-            logicalSaver.saveLogicalTreeToDatabase(SM_PYTHON_LOGICAL_LEVEL1, SM_PYTHON_LOGICAL_LEVEL2, SM_PYTHON_LOGICAL_LEVEL3);
-            LOG.info("      * Saving LogicalTree done: " + logicalSaver.getLogicalTime() + MS);
-            logicalSaver = null;
+            logicalProcessor.saveLogicalTreeToDatabase(SM_PYTHON_LOGICAL_LEVEL1, SM_PYTHON_LOGICAL_LEVEL2,
+                    SM_PYTHON_LOGICAL_LEVEL3_INDEX, SM_PYTHON_LOGICAL_LEVEL3_SHARDS);
+            LOG.info("      * Saving LogicalTree done: " + logicalProcessor.getSaverTime() + MS);
+            logicalProcessor = null;
 
             LOG.info("      * Saving CloneTree...");
             GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", cloneSaver);
@@ -237,7 +228,7 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
         } catch (VisitorException e) {
             LOG.error("Error during loading data from graph!", e);
         } finally {
-            graph = null;
+            graph.close();
         }
     }
 
@@ -255,7 +246,8 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
      * @param sensorContext Context of the sensor.
      * @return True if the properties were set correctly.
      */
-    private boolean checkProperties(SensorContext sensorContext) {
+    @Override
+    protected boolean checkProperties(SensorContext sensorContext) {
         String pathToCA = FileHelper.getStringFromConfiguration(this.configuration, "sm.toolchaindir");
         if (pathToCA == null) {
             LOG.error("Python SourceMeter path must be set! Check it on the settings page of your SonarQube!");
@@ -277,11 +269,9 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
         String projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
         projectName = StringUtils.replace(projectName, ":", "_");
 
-        String filter = "";
         String filterFilePath = null;
-        filter = getFilterContent(sensorContext, Python.KEY);
         try {
-            filterFilePath = writeHardFilterToFile(filter);
+            filterFilePath = writeHardFilterToFile(sensorContext, Python.KEY);
         } catch (IOException e) {
             LOG.warn("Cannot create filter file for toolchain! No filter is used during analyzis.", e);
         }
@@ -332,29 +322,36 @@ public class SourceMeterPythonSensor extends SourceMeterSensor {
     protected List<MetricHunterCategory> getMetricHunterCategories() {
         List<MetricHunterCategory> categories = new ArrayList<MetricHunterCategory>();
 
-        InputStream xmlFile = null;
-        try {
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Class",
-                    ThresholdPropertiesHelper.getClassThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Method",
-                    ThresholdPropertiesHelper.getMethodThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Function",
-                    ThresholdPropertiesHelper.getFunctionThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneClass",
-                    ThresholdPropertiesHelper.getCloneClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneInstance",
-                    ThresholdPropertiesHelper.getCloneInstanceThresholdMetrics(xmlFile)));
-        } finally {
-            IOUtils.closeQuietly(xmlFile);
-        }
+        MetricRegistry metricRegistry = MetricRegistry.of(SourceMeterPythonMetricFinder.class);
+        categories.add(new MetricHunterCategory("Class",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLASS_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Method",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Function",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.METHOD_ENTITY)));
+
+        categories.add(new MetricHunterCategory("CloneClass",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("CloneInstance",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_INSTANCE_ENTITY)));
         return categories;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getShardFilterOption() {
+        return "-externalHardFilter";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> getCloneDetectionOptions() {
+        return Arrays.asList("-runPylint=false", "-runMetricHunter=false");
+    }
 }
@@ -33,6 +33,8 @@ package com.sourcemeter.analyzer.python.helper;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.python.SourceMeterPythonMetricFinder;
 import com.sourcemeter.analyzer.python.core.Python;
@@ -40,8 +42,8 @@ import com.sourcemeter.analyzer.python.profile.SourceMeterPythonRuleRepository;
 
 public class VisitorHelperPython extends VisitorHelper {
 
-    public VisitorHelperPython(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, fileSystem, new SourceMeterPythonMetricFinder());
+    public VisitorHelperPython(SensorContext sensorContext, FileSystem fileSystem, UploadContext uploadContext) {
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterPythonMetricFinder.class), uploadContext);
     }
 
     /**
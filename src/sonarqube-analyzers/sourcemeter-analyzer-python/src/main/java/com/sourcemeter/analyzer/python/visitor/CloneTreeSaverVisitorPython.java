@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.python.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.python.helper.VisitorHelperPython;
 
 public class CloneTreeSaverVisitorPython extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorPython(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperPython(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorPython(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperPython(sensorContext, fileSystem, uploadContext));
     }
 }
@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.python.core.Python;
 import com.sourcemeter.analyzer.python.helper.VisitorHelperPython;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.python.helper.VisitorHelperPython;
 public class LogicalTreeLoaderVisitorPython extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorPython(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-              new VisitorHelperPython(sensorContext, fileSystem), new Python());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+              new VisitorHelperPython(sensorContext, fileSystem, uploadContext), new Python());
     }
 }
@@ -41,6 +41,7 @@ import graphlib.Node;
 import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.python.core.Python;
@@ -59,9 +60,10 @@ public class LogicalTreeSaverVisitorPython extends LogicalTreeSaverVisitor {
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Function"),
                                                                               new Node.NodeType("Method"));
 
-    public LogicalTreeSaverVisitorPython(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorPython(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperPython(sensorContext, fileSystem), new Python());
+               sensorContext, new VisitorHelperPython(sensorContext, fileSystem, uploadContext), new Python());
 
         super.extendedMetrics = !"false".equals(FileHelper.getStringFromConfiguration(configuration, "sm.uploadAllMetrics"));
     }
@@ -32,14 +32,17 @@ package com.sourcemeter.analyzer.python.visitor;
 
 import org.sonar.api.batch.fs.FileSystem;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.PhysicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.python.helper.VisitorHelperPython;
 
 public class PhysicalTreeLoaderVisitorPython extends PhysicalTreeLoaderVisitor {
     public PhysicalTreeLoaderVisitorPython(FileSystem fileSystem,
-            org.sonar.api.batch.sensor.SensorContext sensorContext, long numOfNodes) {
+            org.sonar.api.batch.sensor.SensorContext sensorContext, GraphStatistics graphStatistics,
+            UploadContext uploadContext) {
 
-        super(fileSystem, sensorContext, numOfNodes,
-                new VisitorHelperPython(sensorContext, fileSystem));
+        super(fileSystem, sensorContext, graphStatistics,
+                new VisitorHelperPython(sensorContext, fileSystem, uploadContext));
     }
 }
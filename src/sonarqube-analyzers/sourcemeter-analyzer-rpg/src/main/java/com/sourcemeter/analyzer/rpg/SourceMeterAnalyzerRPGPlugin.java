@@ -30,18 +30,15 @@
 
 package com.sourcemeter.analyzer.rpg;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.sonar.api.Plugin;
 import org.sonar.api.Properties;
 import org.sonar.api.Property;
 import org.sonar.api.PropertyType;
 
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
+import com.sourcemeter.analyzer.base.batch.ToolchainLauncherSensor;
 import com.sourcemeter.analyzer.base.core.VersionChecker;
-import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
+import com.sourcemeter.analyzer.base.helper.ThresholdCatalog;
 import com.sourcemeter.analyzer.rpg.batch.SourceMeterRPGSensor;
 import com.sourcemeter.analyzer.rpg.core.RPG;
 import com.sourcemeter.analyzer.rpg.profile.SourceMeterRPGProfile;
@@ -98,8 +95,6 @@ import com.sourcemeter.analyzer.rpg.profile.SourceMeterRPGRuleRepository;
 })
 public class SourceMeterAnalyzerRPGPlugin implements Plugin {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SourceMeterAnalyzerRPGPlugin.class);
-
     public static final String RPG_GENERAL_CATEGORY = "SourceMeter RPG";
 
     public static final String TRUE = "true";
@@ -120,15 +115,13 @@ public class SourceMeterAnalyzerRPGPlugin implements Plugin {
                 SourceMeterRPGProfile.class,
                 SourceMeterRPGRuleRepository.class
         );
-        context.addExtension(
+        context.addExtensions(
                 // Batch
-                SourceMeterRPGSensor.class
+                SourceMeterRPGSensor.class,
+                ToolchainLauncherSensor.class,
+                ToolchainCoordinator.class
         );
 
-        try (InputStream xmlFile = getClass().getResourceAsStream("/threshold_properties.xml")) {
-            context.addExtensions(ThresholdPropertiesHelper.readPropertiesFromXML(xmlFile));
-        } catch (IOException e) {
-            LOG.error("Can not load properties for thresholds!");
-        }
+        context.addExtensions(ThresholdCatalog.of(getClass()).getPropertyDefinitions());
     }
 }
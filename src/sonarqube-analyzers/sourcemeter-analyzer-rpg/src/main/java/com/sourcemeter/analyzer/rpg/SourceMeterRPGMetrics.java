@@ -31,6 +31,7 @@
 package com.sourcemeter.analyzer.rpg;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -46,6 +47,10 @@ import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
  */
 public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
 
+    public static final String PROGRAM_ENTITY = "Program";
+    public static final String PROCEDURE_ENTITY = "Procedure";
+    public static final String SUBROUTINE_ENTITY = "Subroutine";
+
     public static final String RPG_LICENSE_KEY = "SM:rpg_license";
     public static final Metric RPG_LICENSE = new Builder(
             RPG_LICENSE_KEY, "RPG license",
@@ -74,6 +79,15 @@ public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
             .setHidden(true)
             .create();
 
+    public static final String SM_RPG_LOGICAL_LEVEL3_INDEX_KEY = "SM_RPG_LOGICAL_LEVEL3_INDEX";
+    public static final Metric SM_RPG_LOGICAL_LEVEL3_INDEX = new Builder(SM_RPG_LOGICAL_LEVEL3_INDEX_KEY, "SourceMeter level3 Logical Tree index for RPG language", ValueType.DATA)
+            .setDomain(COLUMBUS_DOMAIN)
+            .setDescription("Stores the shards of SM Logical Tree for RPG in JSON format")
+            .setHidden(true)
+            .create();
+
+    public static final List<Metric> SM_RPG_LOGICAL_LEVEL3_SHARDS = createShardMetrics(SM_RPG_LOGICAL_LEVEL3_KEY, "RPG");
+
     public static final String SM_RPG_CLONE_TREE_KEY = "SM_RPG_CLONE_TREE";
     public static final Metric SM_RPG_CLONE_TREE = new Builder(SM_RPG_CLONE_TREE_KEY, "SourceMeter Clone Tree for RPG language", ValueType.DATA)
             .setDomain(COLUMBUS_DOMAIN)
@@ -88,8 +102,10 @@ public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
      */
     @Override
     public List<Metric> getMetrics() {
-        return Arrays.asList(RPG_LICENSE, SM_RPG_CLONE_TREE,
-                SM_RPG_LOGICAL_LEVEL1, SM_RPG_LOGICAL_LEVEL2, SM_RPG_LOGICAL_LEVEL3);
+        List<Metric> metrics = new ArrayList<Metric>(Arrays.asList(RPG_LICENSE, SM_RPG_CLONE_TREE,
+                SM_RPG_LOGICAL_LEVEL1, SM_RPG_LOGICAL_LEVEL2, SM_RPG_LOGICAL_LEVEL3, SM_RPG_LOGICAL_LEVEL3_INDEX));
+        metrics.addAll(SM_RPG_LOGICAL_LEVEL3_SHARDS);
+        return metrics;
     }
 
     /**
@@ -98,7 +114,7 @@ public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
      * @return Program threshold metrics.
      */
     public static List<Metric> getProgramThresholdMetrics(InputStream thresholdProperties) {
-        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, "Program");
+        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, PROGRAM_ENTITY);
     }
 
     /**
@@ -107,7 +123,7 @@ public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
      * @return Procedure threshold metrics.
      */
     public static List<Metric> getProcedureThresholdMetrics(InputStream thresholdProperties) {
-        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, "Procedure");
+        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, PROCEDURE_ENTITY);
     }
 
     /**
@@ -116,6 +132,6 @@ public final class SourceMeterRPGMetrics extends SourceMeterCoreMetrics {
      * @return Subroutine threshold metrics.
      */
     public static List<Metric> getSubroutineThresholdMetrics(InputStream thresholdProperties) {
-        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, "Subroutine");
+        return ThresholdPropertiesHelper.readThresholdsFromXml(thresholdProperties, SUBROUTINE_ENTITY);
     }
 }
@@ -32,14 +32,12 @@ package com.sourcemeter.analyzer.rpg.batch;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,10 +52,18 @@ import org.sonar.api.server.rule.RulesDefinitionXmlLoader;
 import com.sourcemeter.analyzer.base.batch.MetricHunterCategory;
 import com.sourcemeter.analyzer.base.batch.ProfileInitializer;
 import com.sourcemeter.analyzer.base.batch.SourceMeterSensor;
+import com.sourcemeter.analyzer.base.batch.ToolchainCoordinator;
 import com.sourcemeter.analyzer.base.helper.FileHelper;
 import com.sourcemeter.analyzer.base.helper.GraphHelper;
+import com.sourcemeter.analyzer.base.helper.GraphReader;
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
 import com.sourcemeter.analyzer.base.helper.ThresholdPropertiesHelper;
-import com.sourcemeter.analyzer.base.visitor.NodeCounterVisitor;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeProcessor;
+import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
+import com.sourcemeter.analyzer.rpg.SourceMeterRPGMetricFinder;
 import com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics;
 import com.sourcemeter.analyzer.rpg.core.RPG;
 import com.sourcemeter.analyzer.rpg.profile.SourceMeterRPGRuleRepository;
@@ -66,17 +72,15 @@ import com.sourcemeter.analyzer.rpg.visitor.LogicalTreeLoaderVisitorRPG;
 import com.sourcemeter.analyzer.rpg.visitor.LogicalTreeSaverVisitorRPG;
 import com.sourcemeter.analyzer.rpg.visitor.PhysicalTreeLoaderVisitorRPG;
 
-import graphlib.Graph;
 import graphlib.GraphlibException;
-import graphlib.Node;
-import graphlib.Node.NodeType;
 import graphlib.VisitorException;
 import org.sonar.api.utils.System2;
 
 import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_CLONE_TREE;
 import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_LOGICAL_LEVEL1;
 import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_LOGICAL_LEVEL2;
-import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_LOGICAL_LEVEL3;
+import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_LOGICAL_LEVEL3_INDEX;
+import static com.sourcemeter.analyzer.rpg.SourceMeterRPGMetrics.SM_RPG_LOGICAL_LEVEL3_SHARDS;
 
 public class SourceMeterRPGSensor extends SourceMeterSensor {
 
@@ -89,14 +93,14 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
     private String resultsDir;
 
     private static final Logger LOG = LoggerFactory.getLogger(SourceMeterRPGSensor.class);
-    private static final String THRESHOLD_PROPERTIES_PATH = "/threshold_properties.xml";
     private static final String LOGICAL_ROOT = "__LogicalRoot__";
 
     public SourceMeterRPGSensor(FileSystem fileSystem,
            InputProject inputProject, ActiveRules activeRules,
-           Configuration configuration, System2 system) {
+           Configuration configuration, System2 system,
+           ToolchainCoordinator coordinator) {
 
-        super(fileSystem, inputProject, activeRules, configuration, system);
+        super(fileSystem, inputProject, activeRules, configuration, system, coordinator, RPG.KEY, "rpg");
 
         this.fileSystem = fileSystem;
 
@@ -111,10 +115,7 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
         if (skipRpg) {
             LOG.info("SourceMeter toolchain is skipped for RPG. Results will be uploaded from former results directory, if it exists.");
         } else {
-            if (!checkProperties(sensorContext)) {
-                throw new RuntimeException("Failed to initialize the SourceMeter plugin. Some mandatory properties are not set properly.");
-            }
-            runSourceMeter(commands);
+            runToolchain(sensorContext);
         }
 
         this.projectName = FileHelper.getStringFromConfiguration(this.configuration, "sonar.projectKey");
@@ -131,7 +132,8 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
         LOG.info("      Graph: " + resultGraph);
 
         try {
-            loadDataFromGraphBin(this.resultGraph, sensorContext.project(), sensorContext);
+            uploadResults(this.resultGraph, sensorContext.project(), sensorContext,
+                    RPG.KEY, "rpg", skipRpg, MetricRegistry.of(SourceMeterRPGMetricFinder.class));
         } catch (GraphlibException e) {
             LOG.error("Error during graph loading!", e);
         }
@@ -153,15 +155,17 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
      *
      * @param graph Result graph.
      * @param sensorContext Context of the sensor.
+     * @param uploadContext Context of the upload.
      */
-    private void saveLicense(Graph graph, SensorContext sensorContext) {
+    private void saveLicense(GraphReader graph, SensorContext sensorContext, UploadContext uploadContext) {
         Map<String, String> headerLicenseInformations = new HashMap<String, String>();
         headerLicenseInformations.put("FaultHunterRPG", "FaultHunter");
         headerLicenseInformations.put("MetricHunter", "MetricHunter");
         headerLicenseInformations.put("DuplicatedCodeFinder", "Duplicated Code");
         headerLicenseInformations.put("RPG2Metrics", "Metrics");
 
-        super.saveLicense(graph, sensorContext, headerLicenseInformations, SourceMeterRPGMetrics.RPG_LICENSE);
+        super.saveLicense(graph, sensorContext,
+                uploadContext, headerLicenseInformations, SourceMeterRPGMetrics.RPG_LICENSE);
     }
 
     /**
@@ -169,58 +173,44 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
      */
     @Override
     protected void loadDataFromGraphBin(String filename, InputProject project,
-            SensorContext sensorContext) throws GraphlibException {
-        Graph graph = new Graph();
-        graph.loadBinary(filename);
-
-        saveLicense(graph, sensorContext);
-
-        Node componentRoot = null;
-        NodeCounterVisitor nodeCounter = null;
-
-        List<Node> components = graph.findNodes(new NodeType("System"));
-        for (Node component : components) {
-            String name = GraphHelper.getNodeNameAttribute(component);
-            if (name != null && name.equals("System")) {
-                componentRoot = component;
-                break;
-            }
-        }
+            final SensorContext sensorContext, final UploadContext uploadContext)
+            throws GraphlibException {
+        GraphReader graph = new GraphReader(filename);
+
+        saveLicense(graph, sensorContext, uploadContext);
+
+        final GraphStatistics graphStatistics = new GraphStatistics(graph);
 
         try {
             LOG.info("      * Initialization...");
             long startTime = System.currentTimeMillis();
 
-            if (componentRoot != null) {
-                nodeCounter = new NodeCounterVisitor();
-                GraphHelper.processGraph(graph, componentRoot, "ComponentTree", nodeCounter);
-            }
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", nodeCounter);
-            LogicalTreeLoaderVisitorRPG logicalVisitor = new LogicalTreeLoaderVisitorRPG(
-                    this.fileSystem, this.configuration, sensorContext,
-                    nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", nodeCounter);
             PhysicalTreeLoaderVisitorRPG physicalVisitor = new PhysicalTreeLoaderVisitorRPG(
-                    this.fileSystem, sensorContext, nodeCounter.getNumberOfNodes());
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "logicalTree", nodeCounter);
-            LogicalTreeSaverVisitorRPG logicalSaver = new LogicalTreeSaverVisitorRPG(sensorContext, this.fileSystem, configuration);
-
-            nodeCounter = new NodeCounterVisitor();
-            GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", nodeCounter);
-            CloneTreeSaverVisitorRPG cloneSaver = new CloneTreeSaverVisitorRPG(sensorContext, this.fileSystem);
+                    this.fileSystem, sensorContext, graphStatistics, uploadContext);
+
+            LogicalTreeProcessor logicalProcessor = new LogicalTreeProcessor(this.configuration, graphStatistics,
+                    new LogicalTreeProcessor.VisitorFactory() {
+                        @Override
+                        public LogicalTreeLoaderVisitor createLoader() {
+                            return new LogicalTreeLoaderVisitorRPG(fileSystem, configuration, sensorContext, graphStatistics,
+                                    uploadContext);
+                        }
+
+                        @Override
+                        public LogicalTreeSaverVisitor createSaver() {
+                            return new LogicalTreeSaverVisitorRPG(sensorContext, fileSystem, configuration,
+                                    uploadContext);
+                        }
+                    });
+
+            CloneTreeSaverVisitorRPG cloneSaver = new CloneTreeSaverVisitorRPG(sensorContext, this.fileSystem,
+                    uploadContext);
 
             LOG.info("      * Initialization done: " + (System.currentTimeMillis() - startTime) + MS);
 
             LOG.info("      * Processing LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalVisitor);
-            LOG.info("      * Processing LogicalTree done: " + logicalVisitor.getLogicalTime() + MS);
-            logicalVisitor = null;
+            logicalProcessor.process(graph, LOGICAL_ROOT);
+            LOG.info("      * Processing LogicalTree done: " + logicalProcessor.getLoaderTime() + MS);
 
             LOG.info("      * Processing PhysicalTree...");
             GraphHelper.processGraph(graph, "__PhysicalRoot__", "PhysicalTree", physicalVisitor);
@@ -228,10 +218,10 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
             physicalVisitor = null;
 
             LOG.info("      * Saving LogicalTree...");
-            GraphHelper.processGraph(graph, LOGICAL_ROOT, "LogicalTree", logicalSaver);
-            logicalSaver.saveLogicalTreeToDatabase(SM_RPG_LOGICAL_LEVEL1, SM_RPG_LOGICAL_LEVEL2, SM_RPG_LOGICAL_LEVEL3);
-            LOG.info("      * Saving LogicalTree done: " + logicalSaver.getLogicalTime() + MS);
-            logicalSaver = null;
+            logicalProcessor.saveLogicalTreeToDatabase(SM_RPG_LOGICAL_LEVEL1, SM_RPG_LOGICAL_LEVEL2,
+                    SM_RPG_LOGICAL_LEVEL3_INDEX, SM_RPG_LOGICAL_LEVEL3_SHARDS);
+            LOG.info("      * Saving LogicalTree done: " + logicalProcessor.getSaverTime() + MS);
+            logicalProcessor = null;
 
             LOG.info("      * Saving CloneTree...");
             GraphHelper.processGraph(graph, "__CloneRoot__", "CloneTree", cloneSaver);
@@ -242,7 +232,7 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
         } catch (VisitorException e) {
             LOG.error("Error during loading data from graph!", e);
         } finally {
-            graph = null;
+            graph.close();
         }
     }
 
@@ -260,7 +250,8 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
      * @param sensorContext Context of the sensor.
      * @return True if the properties were set correctly.
      */
-    private boolean checkProperties(SensorContext sensorContext) {
+    @Override
+    protected boolean checkProperties(SensorContext sensorContext) {
         String pathToCA = FileHelper.getStringFromConfiguration(configuration, "sm.toolchaindir");
         if (pathToCA == null) {
             LOG.error("RPG SourceMeter path must be set! Check it on the settings page of your SonarQube!");
@@ -293,11 +284,9 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
         String rpg4Pattern = FileHelper.getStringFromConfiguration(configuration, "sm.rpg.rpg4Pattern");
         this.commands.add("-rpg4FileNamePattern=" + rpg4Pattern);
 
-        String hardFilter = "";
         String hardFilterFilePath = null;
-        hardFilter = getFilterContent(sensorContext, RPG.KEY);
         try {
-            hardFilterFilePath = writeHardFilterToFile(hardFilter);
+            hardFilterFilePath = writeHardFilterToFile(sensorContext, RPG.KEY);
         } catch (IOException e) {
             LOG.warn("Cannot create hardFilter file for toolchain! No hardFilter is used during analyzis.", e);
         }
@@ -337,29 +326,20 @@ public class SourceMeterRPGSensor extends SourceMeterSensor {
     protected List<MetricHunterCategory> getMetricHunterCategories() {
         List<MetricHunterCategory> categories = new ArrayList<MetricHunterCategory>();
 
-        InputStream xmlFile = null;
-        try {
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Program",
-                    SourceMeterRPGMetrics.getProgramThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Procedure",
-                    SourceMeterRPGMetrics.getProcedureThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("Subroutine",
-                    SourceMeterRPGMetrics.getSubroutineThresholdMetrics(xmlFile)));
-
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneClass",
-                    ThresholdPropertiesHelper.getCloneClassThresholdMetrics(xmlFile)));
-            xmlFile = getClass().getResourceAsStream(THRESHOLD_PROPERTIES_PATH);
-            categories.add(new MetricHunterCategory("CloneInstance",
-                    ThresholdPropertiesHelper.getCloneInstanceThresholdMetrics(xmlFile)));
-        } finally {
-            IOUtils.closeQuietly(xmlFile);
-        }
+        MetricRegistry metricRegistry = MetricRegistry.of(SourceMeterRPGMetricFinder.class);
+        categories.add(new MetricHunterCategory("Program",
+                metricRegistry.getThresholdMetrics(SourceMeterRPGMetrics.PROGRAM_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Procedure",
+                metricRegistry.getThresholdMetrics(SourceMeterRPGMetrics.PROCEDURE_ENTITY)));
+
+        categories.add(new MetricHunterCategory("Subroutine",
+                metricRegistry.getThresholdMetrics(SourceMeterRPGMetrics.SUBROUTINE_ENTITY)));
+
+        categories.add(new MetricHunterCategory("CloneClass",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_CLASS_ENTITY)));
+        categories.add(new MetricHunterCategory("CloneInstance",
+                metricRegistry.getThresholdMetrics(ThresholdPropertiesHelper.CLONE_INSTANCE_ENTITY)));
         return categories;
     }
 
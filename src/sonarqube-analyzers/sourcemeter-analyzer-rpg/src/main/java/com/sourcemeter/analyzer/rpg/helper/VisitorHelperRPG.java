@@ -33,6 +33,8 @@ package com.sourcemeter.analyzer.rpg.helper;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.MetricRegistry;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.helper.VisitorHelper;
 import com.sourcemeter.analyzer.rpg.SourceMeterRPGMetricFinder;
 import com.sourcemeter.analyzer.rpg.core.RPG;
@@ -40,9 +42,9 @@ import com.sourcemeter.analyzer.rpg.profile.SourceMeterRPGRuleRepository;
 
 public class VisitorHelperRPG extends VisitorHelper {
 
-    public VisitorHelperRPG(SensorContext sensorContext, FileSystem fileSystem) {
+    public VisitorHelperRPG(SensorContext sensorContext, FileSystem fileSystem, UploadContext uploadContext) {
 
-        super(sensorContext, fileSystem, new SourceMeterRPGMetricFinder());
+        super(sensorContext, fileSystem, MetricRegistry.of(SourceMeterRPGMetricFinder.class), uploadContext);
     }
 
     /**
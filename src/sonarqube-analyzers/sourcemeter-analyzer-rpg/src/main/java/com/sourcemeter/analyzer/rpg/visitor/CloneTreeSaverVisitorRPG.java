@@ -33,11 +33,13 @@ package com.sourcemeter.analyzer.rpg.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.CloneTreeSaverVisitor;
 import com.sourcemeter.analyzer.rpg.helper.VisitorHelperRPG;
 
 public class CloneTreeSaverVisitorRPG extends CloneTreeSaverVisitor {
-    public CloneTreeSaverVisitorRPG(SensorContext sensorContext, FileSystem fileSystem) {
-        super(sensorContext, new VisitorHelperRPG(sensorContext, fileSystem));
+    public CloneTreeSaverVisitorRPG(SensorContext sensorContext, FileSystem fileSystem,
+            UploadContext uploadContext) {
+        super(sensorContext, new VisitorHelperRPG(sensorContext, fileSystem, uploadContext));
     }
 }
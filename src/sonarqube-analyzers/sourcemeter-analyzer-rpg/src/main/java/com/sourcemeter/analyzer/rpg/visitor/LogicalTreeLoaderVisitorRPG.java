@@ -34,6 +34,8 @@ import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Configuration;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.rpg.core.RPG;
 import com.sourcemeter.analyzer.rpg.helper.VisitorHelperRPG;
@@ -41,9 +43,9 @@ import com.sourcemeter.analyzer.rpg.helper.VisitorHelperRPG;
 public class LogicalTreeLoaderVisitorRPG extends LogicalTreeLoaderVisitor {
 
     public LogicalTreeLoaderVisitorRPG(FileSystem fileSystem, Configuration configuration,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, configuration, sensorContext, numOfNodes,
-                new VisitorHelperRPG(sensorContext, fileSystem), new RPG());
+        super(fileSystem, configuration, sensorContext, graphStatistics,
+                new VisitorHelperRPG(sensorContext, fileSystem, uploadContext), new RPG());
     }
 }
@@ -41,6 +41,7 @@ import graphlib.Node;
 import graphlib.VisitorException;
 
 import com.sourcemeter.analyzer.base.helper.FileHelper;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.jsontree.interfaces.MetricsInt;
 import com.sourcemeter.analyzer.base.visitor.LogicalTreeSaverVisitor;
 import com.sourcemeter.analyzer.rpg.core.RPG;
@@ -59,9 +60,10 @@ public class LogicalTreeSaverVisitorRPG extends LogicalTreeSaverVisitor {
     private static final List<Node.NodeType> levelThreeTypes =  Arrays.asList(new Node.NodeType("Procedure"),
                                                                               new Node.NodeType("Subroutine"));
 
-    public LogicalTreeSaverVisitorRPG(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration) {
+    public LogicalTreeSaverVisitorRPG(SensorContext sensorContext, FileSystem fileSystem, Configuration configuration,
+            UploadContext uploadContext) {
         super(levelOneTypes, levelTwoTypes, levelThreeTypes,
-               sensorContext, new VisitorHelperRPG(sensorContext, fileSystem), new RPG());
+               sensorContext, new VisitorHelperRPG(sensorContext, fileSystem, uploadContext), new RPG());
 
         super.extendedMetrics = !"false".equals(FileHelper.getStringFromConfiguration(configuration, "sm.uploadAllMetrics"));
     }
@@ -33,14 +33,16 @@ package com.sourcemeter.analyzer.rpg.visitor;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.sensor.SensorContext;
 
+import com.sourcemeter.analyzer.base.helper.GraphStatistics;
+import com.sourcemeter.analyzer.base.helper.UploadContext;
 import com.sourcemeter.analyzer.base.visitor.PhysicalTreeLoaderVisitor;
 import com.sourcemeter.analyzer.rpg.helper.VisitorHelperRPG;
 
 public class PhysicalTreeLoaderVisitorRPG extends PhysicalTreeLoaderVisitor {
     public PhysicalTreeLoaderVisitorRPG(FileSystem fileSystem,
-            SensorContext sensorContext, long numOfNodes) {
+            SensorContext sensorContext, GraphStatistics graphStatistics, UploadContext uploadContext) {
 
-        super(fileSystem, sensorContext, numOfNodes,
-                new VisitorHelperRPG(sensorContext, fileSystem));
+        super(fileSystem, sensorContext, graphStatistics,
+                new VisitorHelperRPG(sensorContext, fileSystem, uploadContext));
     }
 }
@@ -84,6 +84,194 @@ import org.sonar.plugins.SourceMeterCore.api.SourceMeterCoreMetrics;
                 type = PropertyType.BOOLEAN,
                 defaultValue = "false",
                 project = true
+        ),
+        @Property(
+                key = "sm.toolchainTimeout",
+                name = "Toolchain timeout",
+                description = "Maximum running time of the SourceMeter toolchain in minutes. If the toolchain runs longer, it is killed together with the processes started by it, and the analysis fails. If it is 0, the running time is not limited.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.concurrentToolchains",
+                name = "Concurrent toolchains",
+                description = "Start the SourceMeter toolchains of every analyzed language at the beginning of the analysis, so they run at the same time. Each sensor waits only for its own toolchain before uploading the results.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainParallelism",
+                name = "Toolchain parallelism",
+                description = "Maximum number of SourceMeter toolchains running at the same time on the host, counted by the analyses using the same toolchain slots directory. The waiting toolchains are started in the order of their arrival. If it is 0, the number is not limited.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainMemoryBudget",
+                name = "Toolchain memory budget",
+                description = "Memory in megabytes shared by the SourceMeter toolchains running at the same time, counted by their maximum memory settings (for example, sm.java.maxMem). If the memory of a toolchain can be lowered, it is started with less memory when at least the half of its memory is free. If it is 0, the memory is not limited.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainCpuBudget",
+                name = "Toolchain CPU budget",
+                description = "Number of CPU cores shared by the SourceMeter toolchains running at the same time, each toolchain counts as one core. A toolchain is not started while the system load average reaches this budget, unless no other toolchain is running. If it is 0, the CPU is not limited.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainSlotsDir",
+                name = "Toolchain slots directory",
+                description = "Directory of the lock files, which limit the SourceMeter toolchains by the toolchain parallelism, CPU and memory budgets. The limits are shared by every analysis using the same directory. If it is empty, the sourcemeter-slots directory in the temporary directory of the system is used, which is shared by the analyses of the host.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                defaultValue = "",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainCacheDir",
+                name = "Toolchain cache directory",
+                description = "Directory of the toolchain result cache. If the source files, the command line and the settings of a toolchain run are the same as those of a cached run, the cached results are used instead of running the toolchain. If it is empty, the cache is turned off.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                defaultValue = "",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainCacheSize",
+                name = "Toolchain cache size",
+                description = "Maximum size of the toolchain result cache in megabytes. The least recently used results are removed when the cache is full.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "2048",
+                project = true
+        ),
+        @Property(
+                key = "sm.incrementalAnalysis",
+                name = "Incremental analysis",
+                description = "Analyse only the source files added or changed since the previous analysis and the files depending on them, and merge their results into the results of the previous analysis. It needs a former results directory made with this setting turned on, as the changed files are found by the checksums of the files recorded with the results.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.incrementalFanOut",
+                name = "Incremental analysis fan-out",
+                description = "Number of dependency steps followed from the changed files in an incremental analysis. The files depending on the changed files are analysed again. If it is 0, only the changed files are analysed.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "1",
+                project = true
+        ),
+        @Property(
+                key = "sm.resultsRetentionSize",
+                name = "Results retention size",
+                description = "Disk budget in megabytes of the results directory of a language. The older toolchain results are compressed, and the oldest compressed results are deleted in the background while the results directory is larger. The newest results are always kept. If it is 0, the older results are kept as they are.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainShards",
+                name = "Toolchain shards",
+                description = "Number of toolchain processes a Python project is split into by its directories. The shards are analysed at the same time, and their results are merged before the upload. If it is 1, the toolchain is not split.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "1",
+                project = true
+        ),
+        @Property(
+                key = "sm.toolchainShardClones",
+                name = "Clone detection between toolchain shards",
+                description = "Run the toolchain once more on every file with only the clone detection, so the clones between the toolchain shards are found as well.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.parallelUpload",
+                name = "Parallel upload",
+                description = "Process and upload the logical tree of the result graph on several threads, split at the top level source code elements (for example, packages or namespaces).",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.parallelUploadThreads",
+                name = "Parallel upload threads",
+                description = "Number of threads used by the parallel upload. If it is 0, the number of available processors is used.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.uploadSnapshot",
+                name = "Upload snapshot",
+                description = "Save the uploaded results next to the result graph, and upload them from there when the toolchain is skipped and neither the graph nor the settings have changed.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.measureCodec",
+                name = "Measure codec",
+                description = "Encoding of the logical tree and clone tree measures. 'json' saves them as plain JSON, 'gzip' saves them compressed (gzip and Base64), which makes the analysis report and the database smaller.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.SINGLE_SELECT_LIST,
+                options = {"json", "gzip"},
+                defaultValue = "json",
+                project = true
+        ),
+        @Property(
+                key = "sm.deltaUpload",
+                name = "Delta upload",
+                description = "Saves the issues built from the warnings of the graph nodes (with their locations and flows) into a '.delta' cache next to the result graph. In the next analysis the issues of the nodes with unchanged warnings are copied from this cache instead of being built from the graph again.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
+        ),
+        @Property(
+                key = "sm.issueFlowLimit",
+                name = "Issue flow limit",
+                description = "Maximum number of locations in the flow of an issue built from a stack trace. The repeated consecutive locations of a stack trace are uploaded only once. If it is 0, the flows are not limited.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "0",
+                project = true
+        ),
+        @Property(
+                key = "sm.measureBatchSize",
+                name = "Measure batch size",
+                description = "Number of measures collected before they are saved together. A measure is saved only once for a component and metric, the repeated ones are skipped.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.INTEGER,
+                defaultValue = "1000",
+                project = true
+        ),
+        @Property(
+                key = "sm.measureFlushThread",
+                name = "Measure flush thread",
+                description = "Save the collected batches of measures on a dedicated thread, while the result graph is processed.",
+                category = SourceMeterCorePlugin.SM_GENERAL_CATEGORY,
+                type = PropertyType.BOOLEAN,
+                defaultValue = "false",
+                project = true
         )
 })
 public class SourceMeterCorePlugin implements Plugin {
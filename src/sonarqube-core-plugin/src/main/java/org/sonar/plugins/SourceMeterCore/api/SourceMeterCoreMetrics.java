@@ -30,7 +30,9 @@
 
 package org.sonar.plugins.SourceMeterCore.api;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.sonar.api.measures.Metric;
@@ -45,6 +47,12 @@ public class SourceMeterCoreMetrics implements Metrics {
 
     public static final String COLUMBUS_DOMAIN = "SourceMeter";
 
+    /**
+     * Number of the shards the third level of the logical tree is saved into.
+     * The metrics have to be defined in advance, so their number is fixed.
+     */
+    public static final int LOGICAL_LEVEL3_SHARD_COUNT = 32;
+
     /**
      * Appeared classes list for files are stored in this metric in the given format:
      * [
@@ -136,6 +144,29 @@ public class SourceMeterCoreMetrics implements Metrics {
             .create();
     /* END of Complexity Metrics */
 
+    /**
+     * Creates the metrics of the shards of the third logical level. The key
+     * of the shards is the key of the third level followed by the index of
+     * the shard (ex.: SM_JAVA_LOGICAL_LEVEL3_SHARD07).
+     *
+     * @param level3Key Key of the third level of the logical tree.
+     * @param languageName Name of the language shown in the metric names.
+     * @return Metrics of the shards.
+     */
+    protected static List<Metric> createShardMetrics(String level3Key, String languageName) {
+        List<Metric> shardMetrics = new ArrayList<Metric>(LOGICAL_LEVEL3_SHARD_COUNT);
+        for (int shard = 0; shard < LOGICAL_LEVEL3_SHARD_COUNT; shard++) {
+            shardMetrics.add(new Builder(String.format("%s_SHARD%02d", level3Key, shard),
+                    "SourceMeter level3 Logical Tree shard " + shard + " for " + languageName + " language",
+                    ValueType.DATA)
+                    .setDomain(COLUMBUS_DOMAIN)
+                    .setDescription("Stores a shard of SM Logical Tree for " + languageName + " in JSON format")
+                    .setHidden(true)
+                    .create());
+        }
+        return Collections.unmodifiableList(shardMetrics);
+    }
+
     /**
      * {@inheritDoc}
      */
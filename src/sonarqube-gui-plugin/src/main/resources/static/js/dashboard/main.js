@@ -85,65 +85,173 @@ SM.htmlDecode = function(value) {
   return $('<div/>').html(value).text();
 };
 
+/**
+ * Version marker of the gzip+base64 encoded measures (see the sm.measureCodec
+ * setting of the analyzer). Measures without the marker are plain JSON.
+ */
+SM.dashboard.GZIP_MEASURE_PREFIX = "SMGZ1:";
+
+/**
+ * Parses the value of a logical tree or clone tree measure, decompressing it
+ * first if it was saved with the gzip codec.
+ *
+ * @param {string} value
+ * @returns {Promise} the parsed JSON object
+ */
+SM.dashboard.parseMeasure = function(value) {
+  var prefix = SM.dashboard.GZIP_MEASURE_PREFIX;
+  if (value.lastIndexOf(prefix, 0) !== 0) {
+    return Promise.resolve(JSON.parse(value));
+  }
+  if (typeof DecompressionStream === 'undefined') {
+    return Promise.reject(new Error("The browser cannot decompress SourceMeter measures."));
+  }
+
+  var binary = atob(value.substring(prefix.length));
+  var bytes = new Uint8Array(binary.length);
+  for (var i = 0; i < binary.length; i++) {
+    bytes[i] = binary.charCodeAt(i);
+  }
+
+  var stream = new Blob([bytes]).stream().pipeThrough(new DecompressionStream('gzip'));
+  return new Response(stream).text().then(JSON.parse);
+};
+
 SM.dashboard.loadWidget = function(lang, lvl, key) {
-  window.SonarRequest.getJSON('/api/measures/component', {
+  SM.dashboard.loadLevel(lang, lvl, key, "SM_" + lang.id + "_LOGICAL_LEVEL" + lvl);
+};
+
+/**
+ * Loads a logical level (or a shard of the third level) from the given metric
+ * and adds its entries to the widget of the level.
+ *
+ * @param {object} lang
+ * @param {number} lvl
+ * @param {string} key component key
+ * @param {string} metricKey
+ * @returns {Promise}
+ */
+SM.dashboard.loadLevel = function(lang, lvl, key, metricKey) {
+  return window.SonarRequest.getJSON('/api/measures/component', {
     component: key,
-    metricKeys: "SM_" + lang.id + "_LOGICAL_LEVEL" + lvl
+    metricKeys: metricKey
   }).then(function(response) {
-    if (response.component.measures.length > 0) {
-      var json = JSON.parse(response.component.measures[0].value);
+    if (response.component.measures.length === 0) {
+      return;
+    }
+    return SM.dashboard.parseMeasure(response.component.measures[0].value);
+  }).then(function(json) {
+    SM.dashboard.addLevelWidget(lang, lvl, key, json);
+  });
+};
 
-      if (!json.level || json.level.length === 0) {
-        return;
-      }
+SM.dashboard.addLevelWidget = function(lang, lvl, key, json) {
+  if (!json || !json.level || json.level.length === 0) {
+    return;
+  }
 
-      var objects = json.level;
-      var objectMetrics = [];
+  var objects = json.level;
+  var objectMetrics = [];
 
-      var scope = json.levelTypes[0].toLowerCase();
-      // fix some inconsistencies
-      if ((lang.id === "PYTHON"
-           || lang.id === "CSHARP"
-           || lang.id === "CPP") && scope === "function") {
-        scope = "method";
-      }
+  var scope = json.levelTypes[0].toLowerCase();
+  // fix some inconsistencies
+  if ((lang.id === "PYTHON"
+       || lang.id === "CSHARP"
+       || lang.id === "CPP") && scope === "function") {
+    scope = "method";
+  }
 
-      // fix html encoding
-      objects.forEach(function(obj) {
-        obj.name = SM.htmlEncode(obj.name);
-        obj.langID = lang.id; // nescessary for displaying multilingual scans
-        obj.level = scope; // nescessary for displaying multilingual scans
-        if (lvl === 1) { // don't schow positions on level1
-          obj.positions = [];
-        }
-      });
+  // fix html encoding
+  objects.forEach(function(obj) {
+    obj.name = SM.htmlEncode(obj.name);
+    obj.langID = lang.id; // nescessary for displaying multilingual scans
+    obj.level = scope; // nescessary for displaying multilingual scans
+    if (lvl === 1) { // don't schow positions on level1
+      obj.positions = [];
+    }
+  });
 
-      for (var mTitle in objects[0].metrics) {
-        if (objects[0].metrics.hasOwnProperty(mTitle)) {
-          var metric = new SM.Metric(mTitle, lang.id, scope);
-          objectMetrics.push(metric);
-        }
-      }
+  for (var mTitle in objects[0].metrics) {
+    if (objects[0].metrics.hasOwnProperty(mTitle)) {
+      var metric = new SM.Metric(mTitle, lang.id, scope);
+      objectMetrics.push(metric);
+    }
+  }
 
-      if (typeof SM.state[SM.options.component.key]['level' + lvl] === 'undefined') {
-        SM.state[SM.options.component.key]['level' + lvl] = new SM.LogicWidget($("#div" + lvl), {
-          data: objects,
-          metrics: objectMetrics,
-          title: json.levelTypes[0],
-          projectId: key,
-          langID: lang.id
-        });
-      } else {
-        var widget = new SM.LogicWidget(null, {
-          data: objects,
-          metrics: objectMetrics,
-          title: json.levelTypes[0],
-          projectId: key,
-          langID: lang.id
-        });
-        SM.state[SM.options.component.key]['level' + lvl].merge(widget);
-      }
+  if (typeof SM.state[SM.options.component.key]['level' + lvl] === 'undefined') {
+    SM.state[SM.options.component.key]['level' + lvl] = new SM.LogicWidget($("#div" + lvl), {
+      data: objects,
+      metrics: objectMetrics,
+      title: json.levelTypes[0],
+      projectId: key,
+      langID: lang.id
+    });
+  } else {
+    var widget = new SM.LogicWidget(null, {
+      data: objects,
+      metrics: objectMetrics,
+      title: json.levelTypes[0],
+      projectId: key,
+      langID: lang.id
+    });
+    SM.state[SM.options.component.key]['level' + lvl].merge(widget);
+  }
+};
+
+/**
+ * The third level (methods) is saved into shards by the first level entities
+ * (packages, namespaces, ...). Only the index of the shards is loaded at
+ * first, the shards are loaded when the user asks for them. Analyses saved
+ * before the sharding have the whole level in one metric, it is loaded at
+ * once as before.
+ *
+ * @param {object} lang
+ * @param {string} key component key
+ */
+SM.dashboard.loadLevel3Index = function(lang, key) {
+  window.SonarRequest.getJSON('/api/measures/component', {
+    component: key,
+    metricKeys: "SM_" + lang.id + "_LOGICAL_LEVEL3_INDEX"
+  }).then(function(response) {
+    if (response.component.measures.length === 0) {
+      SM.dashboard.loadWidget(lang, 3, key);
+      return;
+    }
+    return SM.dashboard.parseMeasure(response.component.measures[0].value);
+  }).then(function(index) {
+    if (!index || !index.shards || index.shards.length === 0) {
+      return;
     }
+
+    var shards = SM.state[SM.options.component.key].level3Shards;
+    index.shards.forEach(function(shard) {
+      shards.push({
+        lang: lang,
+        key: key,
+        metric: shard.metric,
+        size: shard.size,
+        entities: shard.entities,
+        loaded: false
+      });
+    });
+    SM.pageBuilder.dashboard.buildShardChooser(shards);
+  });
+};
+
+/**
+ * Loads a shard of the third level into the widget of the level.
+ *
+ * @param {object} shard element of the level3Shards state
+ */
+SM.dashboard.loadShard = function(shard) {
+  if (shard.loaded) {
+    return;
+  }
+  shard.loaded = true;
+  SM.dashboard.loadLevel(shard.lang, 3, shard.key, shard.metric).then(function() {
+    SM.pageBuilder.dashboard.buildShardChooser(SM.state[SM.options.component.key].level3Shards);
+  }, function() {
+    shard.loaded = false;
   });
 };
 
@@ -153,52 +261,53 @@ SM.dashboard.loadCloneWidget = function(lang, key) {
     component: key,
     metricKeys: "SM_" + lang.id + "_CLONE_TREE"
   }).then(function(response) {
-    if (response.component.measures.length > 0) {
-      var clones = JSON.parse(response.component.measures[0].value);
-
-      if (!clones.cloneClasses || clones.cloneClasses.length === 0) {
-        return;
-      }
+    if (response.component.measures.length === 0) {
+      return;
+    }
+    return SM.dashboard.parseMeasure(response.component.measures[0].value);
+  }).then(function(clones) {
+    if (!clones || !clones.cloneClasses || clones.cloneClasses.length === 0) {
+      return;
+    }
 
-      var cloneClasses = clones.cloneClasses;
+    var cloneClasses = clones.cloneClasses;
 
-      var cloneClassMetrics = [];
-      var cloneInstanceMetrics = [];
+    var cloneClassMetrics = [];
+    var cloneInstanceMetrics = [];
 
-      // extract clone data
-      var metric = null;
-      for (var mTitle in cloneClasses[0].cloneClassMetrics) {
-        if (cloneClasses[0].cloneClassMetrics.hasOwnProperty(mTitle)) {
-          metric = new SM.Metric(mTitle, lang.id, 'cloneclass');
-          cloneClassMetrics.push(metric);
-        }
+    // extract clone data
+    var metric = null;
+    for (var mTitle in cloneClasses[0].cloneClassMetrics) {
+      if (cloneClasses[0].cloneClassMetrics.hasOwnProperty(mTitle)) {
+        metric = new SM.Metric(mTitle, lang.id, 'cloneclass');
+        cloneClassMetrics.push(metric);
       }
+    }
 
-      for (mTitle in cloneClasses[0].cloneInstances[0].cloneInstanceMetrics) {
-        if (cloneClasses[0].cloneInstances[0].cloneInstanceMetrics.hasOwnProperty(mTitle)) {
-          metric = new SM.Metric(mTitle, lang.id, 'cloneinstance');
-          cloneInstanceMetrics.push(metric);
-        }
+    for (mTitle in cloneClasses[0].cloneInstances[0].cloneInstanceMetrics) {
+      if (cloneClasses[0].cloneInstances[0].cloneInstanceMetrics.hasOwnProperty(mTitle)) {
+        metric = new SM.Metric(mTitle, lang.id, 'cloneinstance');
+        cloneInstanceMetrics.push(metric);
       }
+    }
 
-      if (typeof SM.state[SM.options.component.key].clone === 'undefined') {
-        SM.state[SM.options.component.key].clone = new SM.CloneWidget($("#div4"), {
-          data: cloneClasses,
-          classMetrics: cloneClassMetrics,
-          instanceMetrics: cloneInstanceMetrics,
-          projectId: key,
-          langID: lang.id
-        });
-      } else {
-        var widget = new SM.CloneWidget(null, {
-          data: cloneClasses,
-          classMetrics: cloneClassMetrics,
-          instanceMetrics: cloneInstanceMetrics,
-          projectId: key,
-          langID: lang.id
-        });
-        SM.state[SM.options.component.key].clone.merge(widget);
-      }
+    if (typeof SM.state[SM.options.component.key].clone === 'undefined') {
+      SM.state[SM.options.component.key].clone = new SM.CloneWidget($("#div4"), {
+        data: cloneClasses,
+        classMetrics: cloneClassMetrics,
+        instanceMetrics: cloneInstanceMetrics,
+        projectId: key,
+        langID: lang.id
+      });
+    } else {
+      var widget = new SM.CloneWidget(null, {
+        data: cloneClasses,
+        classMetrics: cloneClassMetrics,
+        instanceMetrics: cloneInstanceMetrics,
+        projectId: key,
+        langID: lang.id
+      });
+      SM.state[SM.options.component.key].clone.merge(widget);
     }
   });
 };
@@ -223,6 +332,7 @@ SM.dashboard.fetch = function() {
   SM.state[SM.options.component.key].level1     = undefined;
   SM.state[SM.options.component.key].level2     = undefined;
   SM.state[SM.options.component.key].level3     = undefined;
+  SM.state[SM.options.component.key].level3Shards = [];
   SM.state[SM.options.component.key].clone      = undefined;
   SM.state[SM.options.component.key].license    = undefined;
   SM.state[SM.options.component.key].components = undefined;
@@ -240,9 +350,10 @@ SM.dashboard.fetch = function() {
 
       SM.state[SM.options.component.key].components.forEach(function(comp) {
         SM.languages.forEach(function(lang) {
-          [1,2,3].forEach(function(lvl) {
+          [1,2].forEach(function(lvl) {
             SM.dashboard.loadWidget(lang, lvl, comp.key);
           });
+          SM.dashboard.loadLevel3Index(lang, comp.key);
 
           SM.dashboard.loadCloneWidget(lang, comp.key);
         });
@@ -299,6 +410,9 @@ SM.dashboard.main = function() {
     if (SM.state[SM.options.component.key].level2) {
       SM.state[SM.options.component.key].level2.bindElement($("#div2"));
     }
+    if (SM.state[SM.options.component.key].level3Shards.length > 0) {
+      SM.pageBuilder.dashboard.buildShardChooser(SM.state[SM.options.component.key].level3Shards);
+    }
     if (SM.state[SM.options.component.key].level3) {
       SM.state[SM.options.component.key].level3.bindElement($("#div3"));
     }
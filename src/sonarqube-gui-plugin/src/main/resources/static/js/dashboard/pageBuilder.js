@@ -43,6 +43,7 @@ SM.pageBuilder.dashboard.build = function() {
     '  </div>',
     '  <div id="div1">',
     '  </div><div id="div2">',
+    '  </div><div id="div3shards">',
     '  </div><div id="div3">',
     '  </div><div id="div4">',
     '  </div><div id="div5">',
@@ -98,3 +99,88 @@ SM.pageBuilder.dashboard.appendToLicenseTable = function(options) {
     '</tr>'
   ].join("\n"));
 };
+
+/**
+ * Maximal number of entities listed in the shard chooser, the filter can be
+ * used to find the others.
+ */
+SM.pageBuilder.dashboard.SHARD_CHOOSER_ROWS = 100;
+
+/**
+ * Builds (or refreshes) the chooser of the third level shards: the entities
+ * of the shards can be filtered by name and loaded one by one or all at once.
+ *
+ * @param {Array} shards level3Shards state of the dashboard
+ */
+SM.pageBuilder.dashboard.buildShardChooser = function(shards) {
+  var root = $("#div3shards");
+  if (root.children().length === 0) {
+    root.html([
+      '<div class="sm-widget sm-shard-chooser">',
+      '  <div class="sm-widget-title">Methods</div>',
+      '  <div class="sm-widget-control">',
+      '    <span class="sm-shard-summary"></span>',
+      '    <input type="text" class="sm-shard-filter" placeholder="Filter by name, enter loads them">',
+      '    <button class="sm-shard-load-all">Load all</button>',
+      '  </div>',
+      '  <div class="sm-widget-table-div"><table class="sm-shard-table"></table></div>',
+      '</div>'
+    ].join(""));
+
+    root.on('input', '.sm-shard-filter', function() {
+      SM.pageBuilder.dashboard.buildShardChooser(SM.state[SM.options.component.key].level3Shards);
+    });
+    root.on('keydown', '.sm-shard-filter', function(event) {
+      if (event.which === 13) { // enter loads the shards of the listed entities
+        root.find('.sm-shard-load').each(function() {
+          SM.dashboard.loadShard(SM.state[SM.options.component.key].level3Shards[$(this).data('shard')]);
+        });
+      }
+    });
+    root.on('click', '.sm-shard-load-all', function() {
+      SM.state[SM.options.component.key].level3Shards.forEach(SM.dashboard.loadShard);
+    });
+    root.on('click', '.sm-shard-load', function(event) {
+      event.preventDefault();
+      SM.dashboard.loadShard(SM.state[SM.options.component.key].level3Shards[$(this).data('shard')]);
+    });
+  }
+
+  var filter = root.find('.sm-shard-filter').val().toLowerCase();
+  var loaded = 0;
+  var total = 0;
+  var rows = [];
+  var hidden = 0;
+  shards.forEach(function(shard, index) {
+    total += shard.size;
+    if (shard.loaded) {
+      loaded += shard.size;
+    }
+    shard.entities.forEach(function(entity) {
+      var name = entity.name || '(global)';
+      if (filter && name.toLowerCase().indexOf(filter) === -1) {
+        return;
+      }
+      if (rows.length >= SM.pageBuilder.dashboard.SHARD_CHOOSER_ROWS) {
+        hidden++;
+        return;
+      }
+      rows.push([
+        '<tr>',
+        '  <td class="sm-widget-row-name">' + SM.htmlEncode(name) + '</td>',
+        '  <td>' + entity.size + '</td>',
+        '  <td>' + (shard.loaded
+                      ? 'loaded'
+                      : '<a href="#" class="sm-shard-load" data-shard="' + index + '">load</a>') + '</td>',
+        '</tr>'
+      ].join(""));
+    });
+  });
+  if (hidden > 0) {
+    rows.push('<tr><td colspan="3">... and ' + hidden + ' more</td></tr>');
+  }
+
+  root.find('.sm-shard-summary').text(loaded + ' of ' + total + ' methods loaded');
+  root.find('.sm-shard-load-all').prop('disabled', loaded === total);
+  root.find('.sm-shard-table').html(rows.join(""));
+};